@@ -18,13 +18,20 @@
 
 package be.e_contract.eid.applet.service;
 
+import java.io.IOException;
+
 import javax.enterprise.inject.Any;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
 import be.e_contract.eid.applet.service.impl.HandlesQualifier;
 import be.fedict.eid.applet.service.AbstractAppletServiceServlet;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
@@ -40,6 +47,31 @@ public class AppletServiceCDIServlet extends AbstractAppletServiceServlet {
 	@Any
 	private Instance<MessageHandler<?>> messageHandlers;
 
+	private AsyncEventDispatcher asyncEventDispatcher;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		this.asyncEventDispatcher = AsyncEventDispatcher.configure(config);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		if (null != this.asyncEventDispatcher) {
+			this.asyncEventDispatcher.bind(request);
+		}
+		super.doPost(request, response);
+	}
+
+	@Override
+	public void destroy() {
+		if (null != this.asyncEventDispatcher) {
+			this.asyncEventDispatcher.shutdown();
+		}
+		super.destroy();
+	}
+
 	@Override
 	protected <T> MessageHandler<T> getMessageHandler(Class<T> messageClass) {
 		LOG.debug("get message handler: " + messageClass.getName());
@@ -0,0 +1,384 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.e_contract.eid.applet.service.impl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.event.Event;
+import javax.servlet.ServletConfig;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.cdi.SecurityAuditEvent;
+
+/**
+ * Asynchronous dispatcher for the {@link SecurityAuditEvent} CDI events. Slow
+ * audit observers no longer add to the latency of the eID Applet protocol
+ * runs.
+ *
+ * <p>
+ * Events of the same HTTP session are delivered one after the other, in the
+ * order in which they were fired. At most <code>maxPending</code> events are
+ * queued. When the queue is full, the event is delivered on the calling
+ * thread, possibly before the already queued events of the same HTTP session.
+ * </p>
+ *
+ * <p>
+ * Asynchronous observers run outside of the request and session scope of the
+ * eID Applet protocol run. Hence events like
+ * {@link be.fedict.eid.applet.service.cdi.IdentityEvent} and
+ * {@link be.fedict.eid.applet.service.cdi.AuthenticatedEvent}, for which the
+ * observers typically store the result within the HTTP session before the
+ * protocol run finishes, are always fired synchronously.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AsyncEventDispatcher {
+
+	private static final Log LOG = LogFactory.getLog(AsyncEventDispatcher.class);
+
+	/**
+	 * Servlet init-param to enable asynchronous event delivery.
+	 */
+	public static final String ASYNC_EVENTS_INIT_PARAM_NAME = "AsyncEvents";
+
+	/**
+	 * Servlet init-param for the number of event delivery threads.
+	 */
+	public static final String ASYNC_EVENT_THREADS_INIT_PARAM_NAME = "AsyncEventThreads";
+
+	/**
+	 * Servlet init-param for the maximum number of queued events.
+	 */
+	public static final String ASYNC_EVENT_MAX_PENDING_INIT_PARAM_NAME = "AsyncEventMaxPending";
+
+	/**
+	 * The default number of event delivery threads.
+	 */
+	public static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * The default maximum number of queued events.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 1000;
+
+	/**
+	 * The default time in milliseconds that shutdown waits for the queued
+	 * events to be delivered.
+	 */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT = 1000 * 30;
+
+	private static final String REQUEST_ATTRIBUTE = AsyncEventDispatcher.class.getName();
+
+	private final int maxPending;
+
+	private final Semaphore permits;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Map<String, SessionQueue> sessionQueues;
+
+	private final AtomicInteger pending;
+
+	private final AtomicInteger maxPendingReached;
+
+	private final AtomicLong dispatchedEvents;
+
+	private final AtomicLong failedEvents;
+
+	private final AtomicLong synchronousEvents;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param threads
+	 *            the number of event delivery threads.
+	 * @param maxPending
+	 *            the maximum number of queued events.
+	 */
+	public AsyncEventDispatcher(int threads, int maxPending) {
+		if (threads < 1 || maxPending < 1) {
+			throw new IllegalArgumentException("invalid number of threads or max pending");
+		}
+		this.maxPending = maxPending;
+		this.permits = new Semaphore(maxPending);
+		final AtomicInteger threadCount = new AtomicInteger();
+		/*
+		 * The executor queue holds at most one task per HTTP session with
+		 * queued events, hence it is bounded by max pending.
+		 */
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "eid-event-dispatcher-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+		this.sessionQueues = new HashMap<String, SessionQueue>();
+		this.pending = new AtomicInteger();
+		this.maxPendingReached = new AtomicInteger();
+		this.dispatchedEvents = new AtomicLong();
+		this.failedEvents = new AtomicLong();
+		this.synchronousEvents = new AtomicLong();
+	}
+
+	/**
+	 * Creates an asynchronous event dispatcher as configured via the servlet
+	 * init-params.
+	 *
+	 * @param config
+	 * @return the dispatcher, or <code>null</code> if asynchronous event
+	 *         delivery has not been enabled.
+	 */
+	public static AsyncEventDispatcher configure(ServletConfig config) {
+		String asyncEvents = config.getInitParameter(ASYNC_EVENTS_INIT_PARAM_NAME);
+		if (null == asyncEvents || false == Boolean.parseBoolean(asyncEvents)) {
+			return null;
+		}
+		int threads = DEFAULT_THREADS;
+		String threadsParam = config.getInitParameter(ASYNC_EVENT_THREADS_INIT_PARAM_NAME);
+		if (null != threadsParam) {
+			threads = Integer.parseInt(threadsParam);
+		}
+		int maxPending = DEFAULT_MAX_PENDING;
+		String maxPendingParam = config.getInitParameter(ASYNC_EVENT_MAX_PENDING_INIT_PARAM_NAME);
+		if (null != maxPendingParam) {
+			maxPending = Integer.parseInt(maxPendingParam);
+		}
+		LOG.debug("asynchronous event delivery threads: " + threads + ", max pending: " + maxPending);
+		return new AsyncEventDispatcher(threads, maxPending);
+	}
+
+	/**
+	 * Makes this dispatcher available to the message handlers processing the
+	 * given request.
+	 *
+	 * @param request
+	 */
+	public void bind(HttpServletRequest request) {
+		request.setAttribute(REQUEST_ATTRIBUTE, this);
+	}
+
+	/**
+	 * Fires the given security audit event. The event is delivered
+	 * asynchronously if the servlet handling the request has been configured
+	 * for asynchronous event delivery, else synchronously.
+	 *
+	 * @param request
+	 *            the request, of which the HTTP session determines the
+	 *            ordering of the events.
+	 * @param event
+	 *            the CDI event, with the qualifiers already selected.
+	 * @param payload
+	 *            the event payload.
+	 */
+	public static void fire(HttpServletRequest request, final Event<SecurityAuditEvent> event,
+			final SecurityAuditEvent payload) {
+		AsyncEventDispatcher dispatcher = (AsyncEventDispatcher) request.getAttribute(REQUEST_ATTRIBUTE);
+		if (null == dispatcher) {
+			event.fire(payload);
+			return;
+		}
+		HttpSession httpSession = request.getSession();
+		dispatcher.dispatch(httpSession.getId(), new Runnable() {
+			public void run() {
+				event.fire(payload);
+			}
+		});
+	}
+
+	/**
+	 * Dispatches the given event delivery.
+	 *
+	 * @param sessionId
+	 *            the events with the same session identifier are delivered in
+	 *            order.
+	 * @param delivery
+	 */
+	public void dispatch(String sessionId, Runnable delivery) {
+		if (this.permits.tryAcquire()) {
+			int currentPending = this.pending.incrementAndGet();
+			int currentMaxPending;
+			do {
+				currentMaxPending = this.maxPendingReached.get();
+			} while (currentPending > currentMaxPending
+					&& false == this.maxPendingReached.compareAndSet(currentMaxPending, currentPending));
+			enqueue(sessionId, delivery);
+			return;
+		}
+		/*
+		 * Backpressure: the calling thread delivers the event itself. We do not
+		 * wait for the queued events of the same HTTP session, as the calling
+		 * thread might hold resources that these observers need.
+		 */
+		long synchronousEvents = this.synchronousEvents.incrementAndGet();
+		if (1 == synchronousEvents % 1000) {
+			LOG.warn("event queue full, synchronously delivered events: " + synchronousEvents);
+		}
+		delivery.run();
+	}
+
+	/**
+	 * Gives back the number of currently queued events.
+	 *
+	 * @return
+	 */
+	public int getPendingEvents() {
+		return this.pending.get();
+	}
+
+	/**
+	 * Gives back the highest number of queued events so far.
+	 *
+	 * @return
+	 */
+	public int getMaxPendingEvents() {
+		return this.maxPendingReached.get();
+	}
+
+	/**
+	 * Gives back the number of asynchronously delivered events.
+	 *
+	 * @return
+	 */
+	public long getDispatchedEvents() {
+		return this.dispatchedEvents.get();
+	}
+
+	/**
+	 * Gives back the number of asynchronously delivered events for which an
+	 * observer failed.
+	 *
+	 * @return
+	 */
+	public long getFailedEvents() {
+		return this.failedEvents.get();
+	}
+
+	/**
+	 * Gives back the number of events delivered on the calling thread because
+	 * the queue was full.
+	 *
+	 * @return
+	 */
+	public long getSynchronousEvents() {
+		return this.synchronousEvents.get();
+	}
+
+	/**
+	 * Gives back the maximum number of queued events.
+	 *
+	 * @return
+	 */
+	public int getMaxPending() {
+		return this.maxPending;
+	}
+
+	/**
+	 * Delivers the queued events and stops the delivery threads. Events
+	 * arriving after shutdown are delivered synchronously.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+		try {
+			if (false == this.executor.awaitTermination(DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				LOG.warn("event dispatcher did not finish within timeout, pending events: " + this.pending.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(String sessionId, Runnable delivery) {
+		SessionQueue sessionQueue;
+		boolean schedule = false;
+		synchronized (this.sessionQueues) {
+			sessionQueue = this.sessionQueues.get(sessionId);
+			if (null == sessionQueue) {
+				sessionQueue = new SessionQueue(sessionId);
+				this.sessionQueues.put(sessionId, sessionQueue);
+				schedule = true;
+			}
+			sessionQueue.deliveries.addLast(delivery);
+		}
+		if (schedule) {
+			try {
+				this.executor.execute(sessionQueue);
+			} catch (RejectedExecutionException e) {
+				/*
+				 * Shut down: deliver on the calling thread.
+				 */
+				sessionQueue.run();
+			}
+		}
+	}
+
+	private class SessionQueue implements Runnable {
+
+		private final String sessionId;
+
+		private final LinkedList<Runnable> deliveries;
+
+		public SessionQueue(String sessionId) {
+			this.sessionId = sessionId;
+			this.deliveries = new LinkedList<Runnable>();
+		}
+
+		public void run() {
+			while (true) {
+				Runnable delivery;
+				synchronized (AsyncEventDispatcher.this.sessionQueues) {
+					delivery = this.deliveries.poll();
+					if (null == delivery) {
+						AsyncEventDispatcher.this.sessionQueues.remove(this.sessionId);
+						return;
+					}
+				}
+				try {
+					delivery.run();
+				} catch (Throwable e) {
+					AsyncEventDispatcher.this.failedEvents.incrementAndGet();
+					LOG.error("event observer error: " + e.getMessage(), e);
+				} finally {
+					AsyncEventDispatcher.this.pending.decrementAndGet();
+					AsyncEventDispatcher.this.dispatchedEvents.incrementAndGet();
+					AsyncEventDispatcher.this.permits.release();
+				}
+			}
+		}
+	}
+}
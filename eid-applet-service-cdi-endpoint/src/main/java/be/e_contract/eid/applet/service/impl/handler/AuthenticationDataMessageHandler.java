@@ -40,6 +40,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
 import be.e_contract.eid.applet.service.impl.BeIDContextQualifier;
 import be.e_contract.eid.applet.service.impl.Handles;
 import be.fedict.eid.applet.service.Address;
@@ -53,6 +54,7 @@ import be.fedict.eid.applet.service.cdi.SecurityAuditEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent.Incident;
 import be.fedict.eid.applet.service.impl.AuthenticationChallenge;
 import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.CertificateSecurityException;
@@ -112,15 +114,17 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 
 		PublicKey signingKey = message.authnCert.getPublicKey();
 		byte[] signatureValue = message.signatureValue;
+		Signature signature = null;
 		try {
-			Signature signature = Signature.getInstance("SHA1withRSA");
+			signature = CryptoEnginePool.borrowSignature("SHA1withRSA");
 			signature.initVerify(signingKey);
 			signature.update(toBeSigned);
 			boolean result = signature.verify(signatureValue);
 			if (false == result) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE, message.authnCert,
 						signatureValue);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new SecurityException("authn signature incorrect");
 			}
 		} catch (NoSuchAlgorithmException e) {
@@ -130,8 +134,10 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 		} catch (SignatureException e) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE, message.authnCert,
 					signatureValue);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new SecurityException("signature error");
+		} finally {
+			CryptoEnginePool.release(signature);
 		}
 
 		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
@@ -153,7 +159,7 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 		}
 		if (false == authenticationEvent.isValid()) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRUST, message.authnCert);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new SecurityException("invalid authentication certificate chain");
 		}
 
@@ -164,7 +170,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			if (false == secureChannelBindingEvent.isValid()) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRANSPORT,
 						message.serverCertificate);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new SecurityException("secure channel binding error");
 			}
 		}
@@ -178,7 +185,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			this.identificationEvent.select(contextQualifier).fire(identificationEvent);
 			if (false == identificationEvent.isValid()) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRUST, message.rrnCertificate);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new SecurityException("invalid national registry certificate chain");
 			}
 
@@ -196,7 +204,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 				if (false == Arrays.equals(expectedPhotoDigest, actualPhotoDigest)) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY,
 							message.photoData);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new ServletException("photo digest incorrect");
 				}
 			}
@@ -221,7 +230,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 				if (now.after(cardValidityDateEndDate)) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY,
 							message.identityData);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new SecurityException("eID card has expired");
 				}
 			}
@@ -249,7 +259,7 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			X509Certificate certificate, HttpServletRequest request, byte[]... data) throws ServletException {
 		Signature signature;
 		try {
-			signature = Signature.getInstance(signAlgo);
+			signature = CryptoEnginePool.borrowSignature(signAlgo);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
 		}
@@ -257,6 +267,7 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 		try {
 			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
+			CryptoEnginePool.release(signature);
 			throw new ServletException("key error: " + e.getMessage(), e);
 		}
 		try {
@@ -267,26 +278,33 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			if (false == result) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 						signatureData);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("signature incorrect");
 			}
 		} catch (SignatureException e) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 					signatureData);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new ServletException("signature error: " + e.getMessage(), e);
+		} finally {
+			CryptoEnginePool.release(signature);
 		}
 	}
 
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("digest error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private String getDigestAlgo(final int hashSize) throws RuntimeException {
@@ -18,7 +18,6 @@
 
 package be.e_contract.eid.applet.service.impl.handler;
 
-import java.io.ByteArrayInputStream;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -26,7 +25,6 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Date;
@@ -46,6 +44,7 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
 import be.e_contract.eid.applet.service.impl.BeIDContextQualifier;
 import be.e_contract.eid.applet.service.impl.Handles;
 import be.fedict.eid.applet.service.Address;
@@ -54,7 +53,9 @@ import be.fedict.eid.applet.service.cdi.IdentificationEvent;
 import be.fedict.eid.applet.service.cdi.IdentityEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent.Incident;
+import be.fedict.eid.applet.service.impl.CertificateCache;
 import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.CertificateSecurityException;
@@ -105,7 +106,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 		}
 		if (false == identificationEvent.isValid()) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRUST, rrnCertificate);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new SecurityException("invalid national registry certificate chain");
 		}
 
@@ -124,7 +125,8 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			if (false == Arrays.equals(expectedPhotoDigest, actualPhotoDigest)) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY,
 						message.photoFile);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("photo digest incorrect");
 			}
 		}
@@ -148,7 +150,8 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			Date cardValidityDateEndDate = cardValidityDateEndGregorianCalendar.getTime();
 			if (now.after(cardValidityDateEndDate)) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, message.idFile);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new SecurityException("eID card has expired");
 			}
 		}
@@ -181,9 +184,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 	 */
 	private X509Certificate getCertificate(byte[] certFile) {
 		try {
-			CertificateFactory certificateFactory = CertificateFactory.getInstance("X509");
-			X509Certificate certificate = (X509Certificate) certificateFactory
-					.generateCertificate(new ByteArrayInputStream(certFile));
+			X509Certificate certificate = CertificateCache.getCertificate(certFile);
 			return certificate;
 		} catch (CertificateException e) {
 			LOG.warn("certificate error: " + e.getMessage(), e);
@@ -213,7 +214,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			X509Certificate certificate, HttpServletRequest request, byte[]... data) throws ServletException {
 		Signature signature;
 		try {
-			signature = Signature.getInstance(signAlgo);
+			signature = CryptoEnginePool.borrowSignature(signAlgo);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
 		}
@@ -221,6 +222,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 		try {
 			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
+			CryptoEnginePool.release(signature);
 			throw new ServletException("key error: " + e.getMessage(), e);
 		}
 		try {
@@ -231,26 +233,33 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			if (false == result) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 						signatureData);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("signature incorrect");
 			}
 		} catch (SignatureException e) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 					signatureData);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new ServletException("signature error: " + e.getMessage(), e);
+		} finally {
+			CryptoEnginePool.release(signature);
 		}
 	}
 
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("digest error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private String getDigestAlgo(final int hashSize) throws RuntimeException {
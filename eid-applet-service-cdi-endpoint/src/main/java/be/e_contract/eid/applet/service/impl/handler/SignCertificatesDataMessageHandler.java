@@ -40,6 +40,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
 import be.e_contract.eid.applet.service.impl.BeIDContextQualifier;
 import be.e_contract.eid.applet.service.impl.Handles;
 import be.fedict.eid.applet.service.Address;
@@ -49,6 +50,7 @@ import be.fedict.eid.applet.service.cdi.IdentityEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent.Incident;
 import be.fedict.eid.applet.service.cdi.SignatureDigestEvent;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.AuthorizationException;
@@ -104,7 +106,8 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 			}
 			if (false == identificationEvent.isValid()) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRUST, message.rrnCertificate);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new SecurityException("invalid national registry certificate chain");
 			}
 
@@ -122,7 +125,8 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 				if (false == Arrays.equals(expectedPhotoDigest, actualPhotoDigest)) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY,
 							message.photoData);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new ServletException("photo digest incorrect");
 				}
 			}
@@ -147,7 +151,8 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 				if (now.after(cardValidityDateEndDate)) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY,
 							message.identityData);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new SecurityException("eID card has expired");
 				}
 			}
@@ -183,7 +188,7 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 			X509Certificate certificate, HttpServletRequest request, byte[]... data) throws ServletException {
 		Signature signature;
 		try {
-			signature = Signature.getInstance(signAlgo);
+			signature = CryptoEnginePool.borrowSignature(signAlgo);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
 		}
@@ -191,6 +196,7 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 		try {
 			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
+			CryptoEnginePool.release(signature);
 			throw new ServletException("key error: " + e.getMessage(), e);
 		}
 		try {
@@ -201,26 +207,33 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 			if (false == result) {
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 						signatureData);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("signature incorrect");
 			}
 		} catch (SignatureException e) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.DATA_INTEGRITY, certificate,
 					signatureData);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			throw new ServletException("signature error: " + e.getMessage(), e);
+		} finally {
+			CryptoEnginePool.release(signature);
 		}
 	}
 
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("digest error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private String getDigestAlgo(final int hashSize) throws RuntimeException {
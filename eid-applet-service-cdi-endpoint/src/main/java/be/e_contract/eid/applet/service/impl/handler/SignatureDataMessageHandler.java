@@ -39,11 +39,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
 import be.e_contract.eid.applet.service.impl.BeIDContextQualifier;
 import be.e_contract.eid.applet.service.impl.Handles;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent;
 import be.fedict.eid.applet.service.cdi.SecurityAuditEvent.Incident;
 import be.fedict.eid.applet.service.cdi.SignatureEvent;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
 import be.fedict.eid.applet.service.spi.CertificateSecurityException;
 import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
@@ -117,8 +119,9 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 		byte[] expectedDigestValue = this.signatureState.getDigestValue();
 		if (digestAlgo.endsWith("-PSS")) {
 			LOG.debug("verifying RSA/PSS signature");
+			Signature signature = null;
 			try {
-				Signature signature = Signature.getInstance("RAWRSASSA-PSS", BouncyCastleProvider.PROVIDER_NAME);
+				signature = CryptoEnginePool.borrowSignature("RAWRSASSA-PSS", BouncyCastleProvider.PROVIDER_NAME);
 				if ("SHA-256-PSS".equals(digestAlgo)) {
 					LOG.debug("RSA/PSS SHA256");
 					signature.setParameter(
@@ -130,19 +133,24 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 				if (false == result) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE,
 							signingCertificate, signatureValue);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new SecurityException("signature incorrect");
 				}
 			} catch (Exception e) {
 				LOG.debug("signature verification error: " + e.getMessage(), e);
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE, signingCertificate,
 						signatureValue);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("signature verification error: " + e.getMessage(), e);
+			} finally {
+				CryptoEnginePool.release(signature);
 			}
 		} else {
+			Signature signature = null;
 			try {
-				Signature signature = Signature.getInstance("RawRSA", BouncyCastleProvider.PROVIDER_NAME);
+				signature = CryptoEnginePool.borrowSignature("RawRSA", BouncyCastleProvider.PROVIDER_NAME);
 				signature.initVerify(signingPublicKey);
 				ByteArrayOutputStream digestInfo = new ByteArrayOutputStream();
 				if ("SHA-1".equals(digestAlgo) || "SHA1".equals(digestAlgo)) {
@@ -168,15 +176,19 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 				if (false == result) {
 					SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE,
 							signingCertificate, signatureValue);
-					this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+					AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+							securityAuditEvent);
 					throw new SecurityException("signature incorrect");
 				}
 			} catch (Exception e) {
 				LOG.debug("signature verification error: " + e.getMessage());
 				SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.SIGNATURE, signingCertificate,
 						signatureValue);
-				this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+				AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier),
+						securityAuditEvent);
 				throw new ServletException("signature verification error: " + e.getMessage(), e);
+			} finally {
+				CryptoEnginePool.release(signature);
 			}
 		}
 
@@ -195,7 +207,7 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 
 		if (null != signatureEvent.getError()) {
 			SecurityAuditEvent securityAuditEvent = new SecurityAuditEvent(Incident.TRUST, signingCertificate);
-			this.securityAuditEvent.select(contextQualifier).fire(securityAuditEvent);
+			AsyncEventDispatcher.fire(request, this.securityAuditEvent.select(contextQualifier), securityAuditEvent);
 			return new FinishedMessage(signatureEvent.getError());
 		}
 		return new FinishedMessage();
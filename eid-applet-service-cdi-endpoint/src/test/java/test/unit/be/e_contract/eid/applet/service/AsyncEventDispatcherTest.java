@@ -0,0 +1,254 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.e_contract.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.e_contract.eid.applet.service.impl.AsyncEventDispatcher;
+
+public class AsyncEventDispatcherTest {
+
+	private static final Log LOG = LogFactory.getLog(AsyncEventDispatcherTest.class);
+
+	@Test
+	public void testPerSessionOrdering() throws Exception {
+		// setup
+		int sessionCount = 10;
+		int eventCount = 100;
+		AsyncEventDispatcher testedInstance = new AsyncEventDispatcher(4, sessionCount * eventCount);
+		final Random random = new Random();
+		final Thread callerThread = Thread.currentThread();
+		final List<Thread> deliveryThreads = Collections.synchronizedList(new ArrayList<Thread>());
+		Map<String, List<Integer>> deliveries = new HashMap<String, List<Integer>>();
+		for (int sessionIdx = 0; sessionIdx < sessionCount; sessionIdx++) {
+			deliveries.put("session-" + sessionIdx, Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+
+		// operate
+		for (int eventIdx = 0; eventIdx < eventCount; eventIdx++) {
+			for (int sessionIdx = 0; sessionIdx < sessionCount; sessionIdx++) {
+				String sessionId = "session-" + sessionIdx;
+				final List<Integer> sessionDeliveries = deliveries.get(sessionId);
+				final int event = eventIdx;
+				testedInstance.dispatch(sessionId, new Runnable() {
+					public void run() {
+						if (0 == random.nextInt(20)) {
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+						deliveryThreads.add(Thread.currentThread());
+						sessionDeliveries.add(event);
+					}
+				});
+			}
+		}
+		testedInstance.shutdown();
+
+		// verify
+		for (Map.Entry<String, List<Integer>> entry : deliveries.entrySet()) {
+			List<Integer> sessionDeliveries = entry.getValue();
+			assertEquals(entry.getKey(), eventCount, sessionDeliveries.size());
+			for (int eventIdx = 0; eventIdx < eventCount; eventIdx++) {
+				assertEquals(entry.getKey(), eventIdx, (int) sessionDeliveries.get(eventIdx));
+			}
+		}
+		assertFalse(deliveryThreads.contains(callerThread));
+		assertEquals(sessionCount * eventCount, testedInstance.getDispatchedEvents());
+		assertEquals(0, testedInstance.getSynchronousEvents());
+	}
+
+	@Test
+	public void testCallerRunsWhenQueueFull() throws Exception {
+		// setup
+		AsyncEventDispatcher testedInstance = new AsyncEventDispatcher(1, 2);
+		final List<String> deliveries = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch blockedLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		testedInstance.dispatch("session-1", new Runnable() {
+			public void run() {
+				blockedLatch.countDown();
+				try {
+					releaseLatch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				deliveries.add("A");
+			}
+		});
+		testedInstance.dispatch("session-1", new Recorder(deliveries, "B"));
+		assertTrue(blockedLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(2, testedInstance.getPendingEvents());
+		Recorder otherSessionRecorder = new Recorder(deliveries, "C");
+		Recorder sameSessionRecorder = new Recorder(deliveries, "D");
+
+		// operate: the calling thread never waits for the queued events
+		try {
+			testedInstance.dispatch("session-2", otherSessionRecorder);
+			testedInstance.dispatch("session-1", sameSessionRecorder);
+		} finally {
+			releaseLatch.countDown();
+		}
+
+		// verify
+		assertSame(Thread.currentThread(), otherSessionRecorder.getThread());
+		assertSame(Thread.currentThread(), sameSessionRecorder.getThread());
+		assertEquals(2, testedInstance.getSynchronousEvents());
+
+		testedInstance.shutdown();
+		assertEquals(4, deliveries.size());
+		assertEquals("C", deliveries.get(0));
+		assertEquals("D", deliveries.get(1));
+		assertEquals("A", deliveries.get(2));
+		assertEquals("B", deliveries.get(3));
+		assertEquals(0, testedInstance.getPendingEvents());
+		assertEquals(2, testedInstance.getMaxPendingEvents());
+		assertEquals(2, testedInstance.getDispatchedEvents());
+	}
+
+	@Test
+	public void testCallerRunsFailurePropagates() throws Exception {
+		// setup
+		AsyncEventDispatcher testedInstance = new AsyncEventDispatcher(1, 1);
+		final CountDownLatch blockedLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		testedInstance.dispatch("session-1", new Runnable() {
+			public void run() {
+				blockedLatch.countDown();
+				try {
+					releaseLatch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(blockedLatch.await(10, TimeUnit.SECONDS));
+		final IllegalStateException exception = new IllegalStateException("observer error");
+
+		// operate
+		try {
+			testedInstance.dispatch("session-1", new Runnable() {
+				public void run() {
+					throw exception;
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// verify
+			assertSame(exception, e);
+		} finally {
+			releaseLatch.countDown();
+			testedInstance.shutdown();
+		}
+		assertEquals(1, testedInstance.getSynchronousEvents());
+		assertEquals(1, testedInstance.getDispatchedEvents());
+		assertEquals(0, testedInstance.getFailedEvents());
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+		// setup
+		int eventCount = 50;
+		AsyncEventDispatcher testedInstance = new AsyncEventDispatcher(2, 100);
+
+		// operate
+		for (int eventIdx = 0; eventIdx < eventCount; eventIdx++) {
+			final boolean fail = 0 == eventIdx % 10;
+			testedInstance.dispatch("session-" + (eventIdx % 5), new Runnable() {
+				public void run() {
+					if (fail) {
+						throw new RuntimeException("observer error");
+					}
+				}
+			});
+		}
+		testedInstance.shutdown();
+
+		// verify
+		LOG.debug("max pending events: " + testedInstance.getMaxPendingEvents());
+		assertEquals(100, testedInstance.getMaxPending());
+		assertEquals(eventCount, testedInstance.getDispatchedEvents());
+		assertEquals(5, testedInstance.getFailedEvents());
+		assertEquals(0, testedInstance.getPendingEvents());
+		assertEquals(0, testedInstance.getSynchronousEvents());
+		assertTrue(testedInstance.getMaxPendingEvents() >= 1);
+		assertTrue(testedInstance.getMaxPendingEvents() <= eventCount);
+	}
+
+	@Test
+	public void testDispatchAfterShutdown() throws Exception {
+		// setup
+		AsyncEventDispatcher testedInstance = new AsyncEventDispatcher(1, 10);
+		testedInstance.shutdown();
+		List<String> deliveries = new ArrayList<String>();
+		Recorder recorder = new Recorder(deliveries, "A");
+
+		// operate
+		testedInstance.dispatch("session-1", recorder);
+
+		// verify
+		assertEquals(Collections.singletonList("A"), deliveries);
+		assertSame(Thread.currentThread(), recorder.getThread());
+		assertEquals(1, testedInstance.getDispatchedEvents());
+		assertEquals(0, testedInstance.getPendingEvents());
+	}
+
+	private static class Recorder implements Runnable {
+
+		private final List<String> deliveries;
+
+		private final String name;
+
+		private Thread thread;
+
+		public Recorder(List<String> deliveries, String name) {
+			this.deliveries = deliveries;
+			this.name = name;
+		}
+
+		public void run() {
+			this.thread = Thread.currentThread();
+			this.deliveries.add(this.name);
+		}
+
+		public Thread getThread() {
+			return this.thread;
+		}
+	}
+}
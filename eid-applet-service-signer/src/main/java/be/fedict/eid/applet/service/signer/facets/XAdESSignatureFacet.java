@@ -104,7 +104,7 @@ public class XAdESSignatureFacet implements SignatureFacet {
 
 	private final be.fedict.eid.applet.service.signer.jaxb.xmldsig.ObjectFactory xmldsigObjectFactory;
 
-	private final Marshaller marshaller;
+	private final JAXBContext jaxbContext;
 
 	private final Clock clock;
 
@@ -215,9 +215,7 @@ public class XAdESSignatureFacet implements SignatureFacet {
 		this.xmldsigObjectFactory = new be.fedict.eid.applet.service.signer.jaxb.xmldsig.ObjectFactory();
 		this.xadesNamespacePrefixMapper = new XAdESNamespacePrefixMapper();
 		try {
-			JAXBContext jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
-			this.marshaller = jaxbContext.createMarshaller();
-			this.marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", this.xadesNamespacePrefixMapper);
+			this.jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
 		}
@@ -364,7 +362,13 @@ public class XAdESSignatureFacet implements SignatureFacet {
 			QualifyingPropertiesType qualifyingProperties) {
 		Node marshallNode = document.createElement("marshall-node");
 		try {
-			this.marshaller.marshal(xadesObjectFactory.createQualifyingProperties(qualifyingProperties), marshallNode);
+			/*
+			 * Marshallers are not thread-safe, while the facet is shared
+			 * between concurrent signing requests.
+			 */
+			Marshaller marshaller = this.jaxbContext.createMarshaller();
+			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", this.xadesNamespacePrefixMapper);
+			marshaller.marshal(xadesObjectFactory.createQualifyingProperties(qualifyingProperties), marshallNode);
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
 		}
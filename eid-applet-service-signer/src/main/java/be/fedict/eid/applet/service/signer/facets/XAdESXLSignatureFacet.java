@@ -120,8 +120,6 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 
 	public static final String XADES141_NAMESPACE = "http://uri.etsi.org/01903/v1.4.1#";
 
-	private Element nsElement;
-
 	private final ObjectFactory objectFactory;
 
 	private final be.fedict.eid.applet.service.signer.jaxb.xades141.ObjectFactory xades141ObjectFactory;
@@ -132,14 +130,10 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 
 	private String c14nAlgoId;
 
-	private final Marshaller marshaller;
+	private final JAXBContext jaxbContext;
 
 	private final RevocationDataService revocationDataService;
 
-	private final CertificateFactory certificateFactory;
-
-	private final DatatypeFactory datatypeFactory;
-
 	private final DigestAlgo digestAlgorithm;
 
 	static {
@@ -184,39 +178,17 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 		this.xades141ObjectFactory = new be.fedict.eid.applet.service.signer.jaxb.xades141.ObjectFactory();
 
 		try {
-			JAXBContext context = JAXBContext
+			this.jaxbContext = JAXBContext
 					.newInstance(be.fedict.eid.applet.service.signer.jaxb.xades141.ObjectFactory.class);
-			this.marshaller = context.createMarshaller();
-			this.marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			this.marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new XAdESNamespacePrefixMapper());
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
 		}
-
-		try {
-			this.certificateFactory = CertificateFactory.getInstance("X.509");
-		} catch (CertificateException e) {
-			throw new RuntimeException("X509 JCA error: " + e.getMessage(), e);
-		}
-
-		try {
-			this.datatypeFactory = DatatypeFactory.newInstance();
-		} catch (DatatypeConfigurationException e) {
-			throw new RuntimeException("datatype config error: " + e.getMessage(), e);
-		}
 	}
 
 	public void setCanonicalizerAlgorithm(String c14nAlgoId) {
 		this.c14nAlgoId = c14nAlgoId;
 	}
 
-	private Node findSingleNode(Node baseNode, String xpathExpression) {
-		if (null == this.nsElement) {
-			this.nsElement = createNamespaceElement(baseNode);
-		}
-		return findSingleNode(baseNode, xpathExpression, this.nsElement);
-	}
-
 	public static Node findSingleNode(Node baseNode, String xpathExpression, Element nsElement) {
 		try {
 			Node node = XPathAPI.selectSingleNode(baseNode, xpathExpression, nsElement);
@@ -238,9 +210,24 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 	public void postSign(Element signatureElement, List<X509Certificate> signingCertificateChain) {
 		LOG.debug("XAdES-X-L post sign phase");
 
+		/*
+		 * The facet is shared between concurrent signing requests, so all
+		 * request state, including the non thread-safe marshaller, is kept
+		 * local.
+		 */
+		Element nsElement = createNamespaceElement(signatureElement);
+		Marshaller marshaller;
+		try {
+			marshaller = this.jaxbContext.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new XAdESNamespacePrefixMapper());
+		} catch (JAXBException e) {
+			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
+		}
+
 		// check for XAdES-BES
 		Element qualifyingPropertiesElement = (Element) findSingleNode(signatureElement,
-				"ds:Object/xades:QualifyingProperties");
+				"ds:Object/xades:QualifyingProperties", nsElement);
 		if (null == qualifyingPropertiesElement) {
 			throw new IllegalArgumentException("no XAdES-BES extension present");
 		}
@@ -254,14 +241,14 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 			xadesNamespacePrefix = "";
 		}
 		Element unsignedPropertiesElement = (Element) findSingleNode(qualifyingPropertiesElement,
-				"xades:UnsignedProperties");
+				"xades:UnsignedProperties", nsElement);
 		if (null == unsignedPropertiesElement) {
 			unsignedPropertiesElement = document.createElementNS(XADES_NAMESPACE,
 					xadesNamespacePrefix + "UnsignedProperties");
 			qualifyingPropertiesElement.appendChild(unsignedPropertiesElement);
 		}
 		Element unsignedSignaturePropertiesElement = (Element) findSingleNode(unsignedPropertiesElement,
-				"xades:UnsignedSignatureProperties");
+				"xades:UnsignedSignatureProperties", nsElement);
 		if (null == unsignedSignaturePropertiesElement) {
 			unsignedSignaturePropertiesElement = document.createElementNS(XADES_NAMESPACE,
 					xadesNamespacePrefix + "UnsignedSignatureProperties");
@@ -269,7 +256,7 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 		}
 
 		// create the XAdES-T time-stamp
-		Node signatureValueNode = findSingleNode(signatureElement, "ds:SignatureValue");
+		Node signatureValueNode = findSingleNode(signatureElement, "ds:SignatureValue", nsElement);
 		RevocationData tsaRevocationDataXadesT = new RevocationData();
 		LOG.debug("creating XAdES-T time-stamp");
 		XAdESTimeStampType signatureTimeStamp = createXAdESTimeStamp(Collections.singletonList(signatureValueNode),
@@ -278,7 +265,7 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 
 		// marshal the XAdES-T extension
 		try {
-			this.marshaller.marshal(this.objectFactory.createSignatureTimeStamp(signatureTimeStamp),
+			marshaller.marshal(this.objectFactory.createSignatureTimeStamp(signatureTimeStamp),
 					unsignedSignaturePropertiesElement);
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
@@ -288,7 +275,7 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 		if (tsaRevocationDataXadesT.hasRevocationDataEntries()) {
 			ValidationDataType validationData = createValidationData(tsaRevocationDataXadesT);
 			try {
-				this.marshaller.marshal(this.xades141ObjectFactory.createTimeStampValidationData(validationData),
+				marshaller.marshal(this.xades141ObjectFactory.createTimeStampValidationData(validationData),
 						unsignedSignaturePropertiesElement);
 			} catch (JAXBException e) {
 				throw new RuntimeException("JAXB error: " + e.getMessage(), e);
@@ -322,18 +309,34 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 		// XAdES-C: complete revocation refs
 		CompleteRevocationRefsType completeRevocationRefs = this.objectFactory.createCompleteRevocationRefsType();
 		RevocationData revocationData = this.revocationDataService.getRevocationData(signingCertificateChain);
+		/*
+		 * DatatypeFactory implementations are not guaranteed to be thread-safe,
+		 * while a signature facet is shared between concurrent signatures.
+		 */
+		DatatypeFactory datatypeFactory;
+		try {
+			datatypeFactory = DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new RuntimeException("datatype config error: " + e.getMessage(), e);
+		}
 		if (revocationData.hasCRLs()) {
 			CRLRefsType crlRefs = this.objectFactory.createCRLRefsType();
 			completeRevocationRefs.setCRLRefs(crlRefs);
 			List<CRLRefType> crlRefList = crlRefs.getCRLRef();
 
+			CertificateFactory certificateFactory;
+			try {
+				certificateFactory = CertificateFactory.getInstance("X.509");
+			} catch (CertificateException e) {
+				throw new RuntimeException("X509 JCA error: " + e.getMessage(), e);
+			}
 			List<byte[]> crls = revocationData.getCRLs();
 			for (byte[] encodedCrl : crls) {
 				CRLRefType crlRef = this.objectFactory.createCRLRefType();
 				crlRefList.add(crlRef);
 				X509CRL crl;
 				try {
-					crl = (X509CRL) this.certificateFactory.generateCRL(new ByteArrayInputStream(encodedCrl));
+					crl = (X509CRL) certificateFactory.generateCRL(new ByteArrayInputStream(encodedCrl));
 				} catch (CRLException e) {
 					throw new RuntimeException("CRL parse error: " + e.getMessage(), e);
 				}
@@ -347,7 +350,7 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 					throw new RuntimeException("CRL encoding error: " + e.getMessage(), e);
 				}
 				crlIdentifier.setIssuer(issuerName);
-				crlIdentifier.setIssueTime(this.datatypeFactory
+				crlIdentifier.setIssueTime(datatypeFactory
 						.newXMLGregorianCalendar(new DateTime(crl.getThisUpdate()).toGregorianCalendar()));
 				crlIdentifier.setNumber(getCrlNumber(crl));
 
@@ -386,7 +389,7 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 				BasicOCSPResp basicOcspResp = (BasicOCSPResp) ocspResponseObject;
 				Date producedAt = basicOcspResp.getProducedAt();
 				ocspIdentifier.setProducedAt(
-						this.datatypeFactory.newXMLGregorianCalendar(new DateTime(producedAt).toGregorianCalendar()));
+						datatypeFactory.newXMLGregorianCalendar(new DateTime(producedAt).toGregorianCalendar()));
 
 				ResponderIDType responderId = this.objectFactory.createResponderIDType();
 				ocspIdentifier.setResponderID(responderId);
@@ -408,9 +411,9 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 				.getElementsByTagNameNS(XADES_NAMESPACE, "UnsignedSignatureProperties");
 		Node unsignedSignaturePropertiesNode = unsignedSignaturePropertiesNodeList.item(0);
 		try {
-			this.marshaller.marshal(this.objectFactory.createCompleteCertificateRefs(completeCertificateRefs),
+			marshaller.marshal(this.objectFactory.createCompleteCertificateRefs(completeCertificateRefs),
 					unsignedSignaturePropertiesNode);
-			this.marshaller.marshal(this.objectFactory.createCompleteRevocationRefs(completeRevocationRefs),
+			marshaller.marshal(this.objectFactory.createCompleteRevocationRefs(completeRevocationRefs),
 					unsignedSignaturePropertiesNode);
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
@@ -419,13 +422,14 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 		// XAdES-X Type 1 timestamp
 		List<Node> timeStampNodesXadesX1 = new LinkedList<Node>();
 		timeStampNodesXadesX1.add(signatureValueNode);
-		Node signatureTimeStampNode = findSingleNode(unsignedSignaturePropertiesNode, "xades:SignatureTimeStamp");
+		Node signatureTimeStampNode = findSingleNode(unsignedSignaturePropertiesNode, "xades:SignatureTimeStamp",
+				nsElement);
 		timeStampNodesXadesX1.add(signatureTimeStampNode);
 		Node completeCertificateRefsNode = findSingleNode(unsignedSignaturePropertiesNode,
-				"xades:CompleteCertificateRefs");
+				"xades:CompleteCertificateRefs", nsElement);
 		timeStampNodesXadesX1.add(completeCertificateRefsNode);
 		Node completeRevocationRefsNode = findSingleNode(unsignedSignaturePropertiesNode,
-				"xades:CompleteRevocationRefs");
+				"xades:CompleteRevocationRefs", nsElement);
 		timeStampNodesXadesX1.add(completeRevocationRefsNode);
 
 		RevocationData tsaRevocationDataXadesX1 = new RevocationData();
@@ -441,10 +445,10 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 
 		// marshal XAdES-X
 		try {
-			this.marshaller.marshal(this.objectFactory.createSigAndRefsTimeStamp(timeStampXadesX1),
+			marshaller.marshal(this.objectFactory.createSigAndRefsTimeStamp(timeStampXadesX1),
 					unsignedSignaturePropertiesNode);
 			if (null != timeStampXadesX1ValidationData) {
-				this.marshaller.marshal(
+				marshaller.marshal(
 						this.xades141ObjectFactory.createTimeStampValidationData(timeStampXadesX1ValidationData),
 						unsignedSignaturePropertiesNode);
 			}
@@ -468,9 +472,9 @@ public class XAdESXLSignatureFacet implements SignatureFacet {
 
 		// marshal XAdES-X-L
 		try {
-			this.marshaller.marshal(this.objectFactory.createCertificateValues(certificateValues),
+			marshaller.marshal(this.objectFactory.createCertificateValues(certificateValues),
 					unsignedSignaturePropertiesNode);
-			this.marshaller.marshal(this.objectFactory.createRevocationValues(revocationValues),
+			marshaller.marshal(this.objectFactory.createRevocationValues(revocationValues),
 					unsignedSignaturePropertiesNode);
 		} catch (JAXBException e) {
 			throw new RuntimeException("JAXB error: " + e.getMessage(), e);
@@ -0,0 +1,297 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service.signer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.ArrayUtils;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.DateTime;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import be.fedict.eid.applet.service.signer.AbstractXmlSignatureService;
+import be.fedict.eid.applet.service.signer.DigestAlgo;
+import be.fedict.eid.applet.service.signer.SignatureFacet;
+import be.fedict.eid.applet.service.signer.TemporaryDataStorage;
+import be.fedict.eid.applet.service.signer.facets.EnvelopedSignatureFacet;
+import be.fedict.eid.applet.service.signer.facets.KeyInfoSignatureFacet;
+import be.fedict.eid.applet.service.signer.facets.RevocationData;
+import be.fedict.eid.applet.service.signer.facets.RevocationDataService;
+import be.fedict.eid.applet.service.signer.facets.XAdESSignatureFacet;
+import be.fedict.eid.applet.service.signer.facets.XAdESXLSignatureFacet;
+import be.fedict.eid.applet.service.signer.time.TimeStampService;
+import be.fedict.eid.applet.service.spi.DigestInfo;
+
+/**
+ * Stress test for signature facets that are shared between concurrent signing
+ * requests. Every thread signs with its own key, certificate and revocation
+ * data, and every signed document is checked for data of other threads.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class SignatureFacetConcurrencyTest {
+
+	/**
+	 * A signature is a lot more expensive than a single protocol run.
+	 */
+	private static final int ITERATIONS = Math.max(1, ConcurrencyStress.ITERATIONS / 10);
+
+	private static final String XADES_UNSIGNED_SIGNATURE_PROPERTIES = "ds:Object/xades:QualifyingProperties/xades:UnsignedProperties/xades:UnsignedSignatureProperties";
+
+	@BeforeClass
+	public static void beforeClass() {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	@Test
+	public void testXAdESXLSignatureFacets() throws Exception {
+		// setup
+		final Signer[] signers = new Signer[ConcurrencyStress.THREADS];
+		Map<X509Certificate, Signer> certificateSigners = new HashMap<X509Certificate, Signer>();
+		for (int idx = 0; idx < signers.length; idx++) {
+			signers[idx] = new Signer("CN=Test " + idx);
+			certificateSigners.put(signers[idx].certificate, signers[idx]);
+		}
+		Signer tsa = new Signer("CN=TSA");
+
+		final EnvelopedSignatureFacet envelopedSignatureFacet = new EnvelopedSignatureFacet();
+		final KeyInfoSignatureFacet keyInfoSignatureFacet = new KeyInfoSignatureFacet(true, false, false);
+		final XAdESSignatureFacet xadesSignatureFacet = new XAdESSignatureFacet();
+		final XAdESXLSignatureFacet xadesXLSignatureFacet = new XAdESXLSignatureFacet(
+				new ThreadTimeStampService(tsa.crl), new SignerRevocationDataService(certificateSigners));
+
+		// operate & verify
+		ConcurrencyStress.run("xades-x-l", signers.length, ITERATIONS, new ConcurrencyStress.Task() {
+
+			public void run(int thread, int iteration) throws Exception {
+				Signer signer = signers[thread];
+				XmlSignatureTestService testedInstance = new XmlSignatureTestService(envelopedSignatureFacet,
+						keyInfoSignatureFacet, xadesSignatureFacet, xadesXLSignatureFacet);
+
+				DigestInfo digestInfo = testedInstance.preSign(null, signer.certificateChain, null, null, null);
+				assertNotNull(digestInfo);
+				Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+				cipher.init(Cipher.ENCRYPT_MODE, signer.keyPair.getPrivate());
+				byte[] digestInfoValue = ArrayUtils.addAll(PkiTestUtils.SHA1_DIGEST_INFO_PREFIX,
+						digestInfo.digestValue);
+				byte[] signatureValue = cipher.doFinal(digestInfoValue);
+				testedInstance.postSign(signatureValue, signer.certificateChain);
+
+				verifySignedDocument(testedInstance.getSignedDocumentData(), signer);
+			}
+		});
+	}
+
+	private void verifySignedDocument(byte[] signedDocumentData, Signer signer) throws Exception {
+		Document signedDocument = PkiTestUtils.loadDocument(new ByteArrayInputStream(signedDocumentData));
+		NodeList signatureNodeList = signedDocument.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+		assertEquals(1, signatureNodeList.getLength());
+		Element signatureElement = (Element) signatureNodeList.item(0);
+
+		// work-around for Java 7
+		Element signedPropertiesElement = (Element) signatureElement
+				.getElementsByTagNameNS(XAdESXLSignatureFacet.XADES_NAMESPACE, "SignedProperties").item(0);
+		signedPropertiesElement.setIdAttribute("Id", true);
+
+		DOMValidateContext domValidateContext = new DOMValidateContext(
+				KeySelector.singletonKeySelector(signer.keyPair.getPublic()), signatureElement);
+		XMLSignatureFactory xmlSignatureFactory = XMLSignatureFactory.getInstance();
+		XMLSignature xmlSignature = xmlSignatureFactory.unmarshalXMLSignature(domValidateContext);
+		assertTrue(xmlSignature.validate(domValidateContext));
+
+		Element nsElement = XAdESXLSignatureFacet.createNamespaceElement(signatureElement);
+		byte[] encodedCertificate = signer.certificate.getEncoded();
+		byte[] certificateDigest = MessageDigest.getInstance("SHA-1").digest(encodedCertificate);
+
+		// KeyInfo facet
+		assertValues(signatureElement, "ds:KeyInfo/ds:X509Data/ds:X509Certificate", nsElement, 2,
+				encodedCertificate);
+
+		// XAdES-BES facet
+		assertValues(signatureElement,
+				"ds:Object/xades:QualifyingProperties/xades:SignedProperties/xades:SignedSignatureProperties/xades:SigningCertificate/xades:Cert/xades:CertDigest/ds:DigestValue",
+				nsElement, 1, certificateDigest);
+
+		// XAdES-X-L facet
+		byte[] timeStampToken = Thread.currentThread().getName().getBytes();
+		assertValues(signatureElement,
+				XADES_UNSIGNED_SIGNATURE_PROPERTIES + "/xades:SignatureTimeStamp/xades:EncapsulatedTimeStamp",
+				nsElement, 1, timeStampToken);
+		assertValues(signatureElement,
+				XADES_UNSIGNED_SIGNATURE_PROPERTIES + "/xades:SigAndRefsTimeStamp/xades:EncapsulatedTimeStamp",
+				nsElement, 1, timeStampToken);
+		assertValues(signatureElement, XADES_UNSIGNED_SIGNATURE_PROPERTIES
+				+ "/xades:CompleteCertificateRefs/xades:CertRefs/xades:Cert/xades:CertDigest/ds:DigestValue",
+				nsElement, 1, certificateDigest);
+		assertValues(signatureElement,
+				XADES_UNSIGNED_SIGNATURE_PROPERTIES + "/xades:CertificateValues/xades:EncapsulatedX509Certificate",
+				nsElement, 2, encodedCertificate);
+		assertValues(signatureElement,
+				XADES_UNSIGNED_SIGNATURE_PROPERTIES + "/xades:RevocationValues/xades:CRLValues/xades:EncapsulatedCRLValue",
+				nsElement, 1, signer.crl.getEncoded());
+		assertValues(signatureElement, XADES_UNSIGNED_SIGNATURE_PROPERTIES
+				+ "/xades:RevocationValues/xades:OCSPValues/xades:EncapsulatedOCSPValue", nsElement, 1,
+				signer.ocspResponse);
+	}
+
+	private void assertValues(Element signatureElement, String xpathExpression, Element nsElement, int count,
+			byte[] expectedValue) {
+		NodeList nodeList = XAdESXLSignatureFacet.getNodes(signatureElement, xpathExpression, nsElement);
+		assertEquals(xpathExpression, count, nodeList.getLength());
+		for (int idx = 0; idx < nodeList.getLength(); idx++) {
+			Node node = nodeList.item(idx);
+			byte[] value = Base64.decodeBase64(node.getTextContent().getBytes());
+			assertArrayEquals(xpathExpression, expectedValue, value);
+		}
+	}
+
+	private static class Signer {
+
+		private final KeyPair keyPair;
+
+		private final X509Certificate certificate;
+
+		private final List<X509Certificate> certificateChain;
+
+		private final X509CRL crl;
+
+		private final byte[] ocspResponse;
+
+		public Signer(String subjectDn) throws Exception {
+			this.keyPair = PkiTestUtils.generateKeyPair();
+			DateTime notBefore = new DateTime();
+			DateTime notAfter = notBefore.plusYears(1);
+			this.certificate = PkiTestUtils.generateCertificate(this.keyPair.getPublic(), subjectDn, notBefore,
+					notAfter, null, this.keyPair.getPrivate(), true, 0, null, null,
+					new KeyUsage(KeyUsage.nonRepudiation));
+			/*
+			 * We need at least 2 certificates for the XAdES-C complete
+			 * certificate refs construction.
+			 */
+			this.certificateChain = new LinkedList<X509Certificate>();
+			this.certificateChain.add(this.certificate);
+			this.certificateChain.add(this.certificate);
+			this.crl = PkiTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate());
+			this.ocspResponse = PkiTestUtils.createOcspResp(this.certificate, false, this.certificate,
+					this.certificate, this.keyPair.getPrivate(), "SHA1withRSA").getEncoded();
+		}
+	}
+
+	/**
+	 * Gives back time-stamp tokens that identify the requesting thread.
+	 */
+	private static class ThreadTimeStampService implements TimeStampService {
+
+		private final X509CRL tsaCrl;
+
+		public ThreadTimeStampService(X509CRL tsaCrl) {
+			this.tsaCrl = tsaCrl;
+		}
+
+		public byte[] timeStamp(byte[] data, RevocationData revocationData) throws Exception {
+			revocationData.addCRL(this.tsaCrl);
+			return Thread.currentThread().getName().getBytes();
+		}
+	}
+
+	private static class SignerRevocationDataService implements RevocationDataService {
+
+		private final Map<X509Certificate, Signer> signers;
+
+		public SignerRevocationDataService(Map<X509Certificate, Signer> signers) {
+			this.signers = signers;
+		}
+
+		public RevocationData getRevocationData(List<X509Certificate> certificateChain) {
+			Signer signer = this.signers.get(certificateChain.get(0));
+			RevocationData revocationData = new RevocationData();
+			revocationData.addCRL(signer.crl);
+			revocationData.addOCSP(signer.ocspResponse);
+			return revocationData;
+		}
+	}
+
+	private static class XmlSignatureTestService extends AbstractXmlSignatureService {
+
+		private final TemporaryTestDataStorage temporaryDataStorage;
+
+		private final ByteArrayOutputStream signedDocumentOutputStream;
+
+		public XmlSignatureTestService(SignatureFacet... signatureFacets) {
+			super(DigestAlgo.SHA1);
+			this.temporaryDataStorage = new TemporaryTestDataStorage();
+			this.signedDocumentOutputStream = new ByteArrayOutputStream();
+			for (SignatureFacet signatureFacet : signatureFacets) {
+				addSignatureFacet(signatureFacet);
+			}
+			setSignatureNamespacePrefix("ds");
+		}
+
+		public byte[] getSignedDocumentData() {
+			return this.signedDocumentOutputStream.toByteArray();
+		}
+
+		@Override
+		protected OutputStream getSignedDocumentOutputStream() {
+			return this.signedDocumentOutputStream;
+		}
+
+		@Override
+		protected TemporaryDataStorage getTemporaryDataStorage() {
+			return this.temporaryDataStorage;
+		}
+
+		public String getFilesDigestAlgorithm() {
+			return null;
+		}
+	}
+}
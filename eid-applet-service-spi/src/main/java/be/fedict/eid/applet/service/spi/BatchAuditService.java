@@ -0,0 +1,43 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.spi;
+
+/**
+ * Optional interface for audit service components that want to process audit
+ * events per batch. When the audit service is used asynchronously, the eID
+ * Applet Service delivers the audit events of every batch between a call to
+ * {@link #beginBatch()} and a call to {@link #endBatch()}. This allows for
+ * example to persist a batch of audit events within a single transaction.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public interface BatchAuditService extends AuditService {
+
+	/**
+	 * Called before the audit events of a batch are delivered.
+	 */
+	void beginBatch();
+
+	/**
+	 * Called after all audit events of a batch have been delivered, also in
+	 * case delivering some of the audit events failed.
+	 */
+	void endBatch();
+}
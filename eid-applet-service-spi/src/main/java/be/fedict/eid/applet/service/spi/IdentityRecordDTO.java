@@ -0,0 +1,59 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.spi;
+
+import java.io.Serializable;
+import java.security.cert.X509Certificate;
+
+/**
+ * Stored identity record Data Transfer Object. Holds the raw eID identity
+ * files as they were received during identification, together with the
+ * national registration signatures.
+ * 
+ * @author Frank Cornelis
+ * @see IdentityRecordSource
+ * 
+ */
+public class IdentityRecordDTO implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The opaque position of this record within the record source.
+	 */
+	public String position;
+
+	public byte[] identityFile;
+
+	public byte[] identitySignatureFile;
+
+	/**
+	 * Optional address file.
+	 */
+	public byte[] addressFile;
+
+	public byte[] addressSignatureFile;
+
+	/**
+	 * The national registration certificate that came with the record.
+	 */
+	public X509Certificate rrnCertificate;
+
+	public X509Certificate rootCertificate;
+}
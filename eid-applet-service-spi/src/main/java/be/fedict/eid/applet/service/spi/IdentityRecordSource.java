@@ -0,0 +1,46 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.spi;
+
+import java.util.List;
+
+/**
+ * Interface for identity record source components. Gives the bulk identity
+ * integrity re-verification access to the stored identity records.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public interface IdentityRecordSource {
+
+	/**
+	 * Gives back the next identity records. The records should be returned in
+	 * a stable order, so that an interrupted re-verification can continue
+	 * from the position of the last processed record.
+	 * 
+	 * @param position
+	 *            the position of the last processed record, or
+	 *            <code>null</code> to start from the first record.
+	 * @param maxRecords
+	 *            the maximum number of records to return.
+	 * @return the records following the given position. An empty list
+	 *         indicates the end of the record source.
+	 */
+	List<IdentityRecordDTO> getRecords(String position, int maxRecords);
+}
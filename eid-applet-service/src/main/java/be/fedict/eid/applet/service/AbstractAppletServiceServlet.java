@@ -40,6 +40,7 @@ import be.fedict.eid.applet.service.impl.HttpServletProtocolContext;
 import be.fedict.eid.applet.service.impl.HttpServletRequestHttpReceiver;
 import be.fedict.eid.applet.service.impl.HttpServletResponseHttpTransmitter;
 import be.fedict.eid.applet.service.impl.RequestContext;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.MessageHandler;
 import be.fedict.eid.applet.shared.AppletProtocolMessageCatalog;
 import be.fedict.eid.applet.shared.annotation.ResponsesAllowed;
@@ -86,6 +87,15 @@ public abstract class AbstractAppletServiceServlet extends HttpServlet {
 		}
 	}
 
+	@Override
+	public void destroy() {
+		/*
+		 * Drop the pooled JCA engines.
+		 */
+		CryptoEnginePool.clear();
+		super.destroy();
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
@@ -0,0 +1,71 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service;
+
+import java.io.Serializable;
+
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+import be.fedict.eid.applet.service.impl.tlv.TlvView;
+
+/**
+ * Lazy view on the eID address file. Offers the same getters as
+ * {@link Address}, but only decodes a field upon first access.
+ * 
+ * @author Frank Cornelis
+ * @see Address
+ * @see IdentityView
+ * 
+ */
+public class AddressView implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final TlvView<Address> view;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param addressFile
+	 *            the eID address file. Is not copied.
+	 */
+	public AddressView(byte[] addressFile) {
+		this.view = TlvParser.view(addressFile, Address.class);
+	}
+
+	public String getStreetAndNumber() {
+		return (String) this.view.getValue("streetAndNumber");
+	}
+
+	public String getZip() {
+		return (String) this.view.getValue("zip");
+	}
+
+	public String getMunicipality() {
+		return (String) this.view.getValue("municipality");
+	}
+
+	/**
+	 * Fully parses the address file.
+	 * 
+	 * @return
+	 */
+	public Address toAddress() {
+		return this.view.toObject();
+	}
+}
@@ -20,10 +20,14 @@
 package be.fedict.eid.applet.service;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletConfig;
@@ -37,6 +41,7 @@ import be.fedict.eid.applet.service.impl.handler.AuthSignResponseMessageHandler;
 import be.fedict.eid.applet.service.impl.handler.AuthenticationDataMessageHandler;
 import be.fedict.eid.applet.service.impl.handler.ClientEnvironmentMessageHandler;
 import be.fedict.eid.applet.service.impl.handler.ContinueInsecureMessageHandler;
+import be.fedict.eid.applet.service.impl.handler.DestroyableMessageHandler;
 import be.fedict.eid.applet.service.impl.handler.FileDigestsDataMessageHandler;
 import be.fedict.eid.applet.service.impl.handler.HandlesMessage;
 import be.fedict.eid.applet.service.impl.handler.HelloMessageHandler;
@@ -92,6 +97,8 @@ public class AppletServiceServlet extends AbstractAppletServiceServlet {
 
 	private Map<Class<?>, MessageHandler<?>> messageHandlers;
 
+	private List<ServiceLocator<?>> serviceLocators;
+
 	public AppletServiceServlet() {
 		super();
 		LOG.debug("constructor");
@@ -119,10 +126,11 @@ public class AppletServiceServlet extends AbstractAppletServiceServlet {
 			this.messageHandlers.put(protocolMessageClass, messageHandler);
 		}
 
+		this.serviceLocators = new LinkedList<ServiceLocator<?>>();
 		Collection<MessageHandler<?>> messageHandlers = this.messageHandlers.values();
 		for (MessageHandler<?> messageHandler : messageHandlers) {
 			try {
-				injectInitParams(config, messageHandler);
+				injectInitParams(config, messageHandler, this.serviceLocators);
 			} catch (Exception e) {
 				throw new ServletException("error injecting init-param into message handler field: " + e.getMessage(),
 						e);
@@ -133,6 +141,12 @@ public class AppletServiceServlet extends AbstractAppletServiceServlet {
 
 	public static void injectInitParams(ServletConfig config, MessageHandler<?> messageHandler)
 			throws ServletException, IllegalArgumentException, IllegalAccessException {
+		injectInitParams(config, messageHandler, null);
+	}
+
+	private static void injectInitParams(ServletConfig config, MessageHandler<?> messageHandler,
+			List<ServiceLocator<?>> serviceLocators)
+			throws ServletException, IllegalArgumentException, IllegalAccessException {
 		Class<?> messageHandlerClass = messageHandler.getClass();
 		Field[] fields = messageHandlerClass.getDeclaredFields();
 		for (Field field : fields) {
@@ -147,8 +161,19 @@ public class AppletServiceServlet extends AbstractAppletServiceServlet {
 				/*
 				 * We always inject a service locator.
 				 */
-				ServiceLocator<Object> fieldValue = new ServiceLocator<Object>(initParamName, config);
+				Class<?> serviceType = null;
+				Type genericFieldType = field.getGenericType();
+				if (genericFieldType instanceof ParameterizedType) {
+					Type serviceTypeArgument = ((ParameterizedType) genericFieldType).getActualTypeArguments()[0];
+					if (serviceTypeArgument instanceof Class) {
+						serviceType = (Class<?>) serviceTypeArgument;
+					}
+				}
+				ServiceLocator<Object> fieldValue = new ServiceLocator<Object>(initParamName, config, serviceType);
 				field.set(messageHandler, fieldValue);
+				if (null != serviceLocators) {
+					serviceLocators.add(fieldValue);
+				}
 				continue;
 			}
 			String initParamValue = config.getInitParameter(initParamName);
@@ -188,6 +213,24 @@ public class AppletServiceServlet extends AbstractAppletServiceServlet {
 		}
 	}
 
+	@Override
+	public void destroy() {
+		LOG.debug("destroy");
+		if (null != this.messageHandlers) {
+			for (MessageHandler<?> messageHandler : this.messageHandlers.values()) {
+				if (messageHandler instanceof DestroyableMessageHandler) {
+					((DestroyableMessageHandler) messageHandler).destroy();
+				}
+			}
+		}
+		if (null != this.serviceLocators) {
+			for (ServiceLocator<?> serviceLocator : this.serviceLocators) {
+				serviceLocator.release();
+			}
+		}
+		super.destroy();
+	}
+
 	@Override
 	protected <T> MessageHandler<T> getMessageHandler(Class<T> messageClass) {
 		return (MessageHandler<T>) this.messageHandlers.get(messageClass);
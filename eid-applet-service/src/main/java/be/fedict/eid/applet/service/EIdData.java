@@ -20,6 +20,8 @@ package be.fedict.eid.applet.service;
 
 import java.io.Serializable;
 
+import be.fedict.eid.applet.service.impl.PhotoStore;
+
 /**
  * Top-level eID data container.
  * 
@@ -36,6 +38,11 @@ public class EIdData implements Serializable {
 
 	public byte[] photo;
 
+	/**
+	 * The photo digest in case the photo itself is kept by the photo store.
+	 */
+	public byte[] photoDigest;
+
 	public String identifier;
 
 	public EIdCertsData certs;
@@ -53,9 +60,19 @@ public class EIdData implements Serializable {
 	}
 
 	public byte[] getPhoto() {
+		if (null == this.photo && null != this.photoDigest) {
+			PhotoStore photoStore = PhotoStore.getInstance();
+			if (null != photoStore) {
+				return photoStore.findPhoto(this.photoDigest);
+			}
+		}
 		return this.photo;
 	}
 
+	public byte[] getPhotoDigest() {
+		return this.photoDigest;
+	}
+
 	public String getIdentifier() {
 		return this.identifier;
 	}
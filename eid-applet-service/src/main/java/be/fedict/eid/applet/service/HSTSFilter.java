@@ -75,6 +75,7 @@ public class HSTSFilter implements Filter {
 	}
 
 	public void init(FilterConfig config) throws ServletException {
-		this.transportServiceLocator = new ServiceLocator<TransportService>(TRANSPORT_SERVICE_INIT_PARAM, config);
+		this.transportServiceLocator = new ServiceLocator<TransportService>(TRANSPORT_SERVICE_INIT_PARAM, config,
+				TransportService.class);
 	}
 }
@@ -0,0 +1,158 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service;
+
+import java.io.Serializable;
+import java.util.GregorianCalendar;
+
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+import be.fedict.eid.applet.service.impl.tlv.TlvView;
+
+/**
+ * Lazy view on the eID identity file. Offers the same getters as
+ * {@link Identity}, but only decodes a field upon first access. Useful when
+ * only a few fields like the name and the national number are needed.
+ * 
+ * @author Frank Cornelis
+ * @see Identity
+ * @see AddressView
+ * 
+ */
+public class IdentityView implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final TlvView<Identity> view;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param identityFile
+	 *            the eID identity file. Is not copied.
+	 */
+	public IdentityView(byte[] identityFile) {
+		this.view = TlvParser.view(identityFile, Identity.class);
+	}
+
+	public String getCardNumber() {
+		return (String) this.view.getValue("cardNumber");
+	}
+
+	public String getChipNumber() {
+		return (String) this.view.getValue("chipNumber");
+	}
+
+	public GregorianCalendar getCardValidityDateBegin() {
+		return (GregorianCalendar) this.view.getValue("cardValidityDateBegin");
+	}
+
+	public GregorianCalendar getCardValidityDateEnd() {
+		return (GregorianCalendar) this.view.getValue("cardValidityDateEnd");
+	}
+
+	public String getCardDeliveryMunicipality() {
+		return (String) this.view.getValue("cardDeliveryMunicipality");
+	}
+
+	public String getNationalNumber() {
+		return (String) this.view.getValue("nationalNumber");
+	}
+
+	public String getName() {
+		return (String) this.view.getValue("name");
+	}
+
+	public String getFirstName() {
+		return (String) this.view.getValue("firstName");
+	}
+
+	public String getMiddleName() {
+		return (String) this.view.getValue("middleName");
+	}
+
+	public String getNationality() {
+		return (String) this.view.getValue("nationality");
+	}
+
+	public String getPlaceOfBirth() {
+		return (String) this.view.getValue("placeOfBirth");
+	}
+
+	public GregorianCalendar getDateOfBirth() {
+		return (GregorianCalendar) this.view.getValue("dateOfBirth");
+	}
+
+	public Gender getGender() {
+		return (Gender) this.view.getValue("gender");
+	}
+
+	public String getNobleCondition() {
+		return (String) this.view.getValue("nobleCondition");
+	}
+
+	public DocumentType getDocumentType() {
+		return (DocumentType) this.view.getValue("documentType");
+	}
+
+	public byte[] getPhotoDigest() {
+		return (byte[]) this.view.getValue("photoDigest");
+	}
+
+	public SpecialStatus getSpecialStatus() {
+		return (SpecialStatus) this.view.getValue("specialStatus");
+	}
+
+	public String getDuplicate() {
+		return (String) this.view.getValue("duplicate");
+	}
+
+	public boolean isMemberOfFamily() {
+		return (Boolean) this.view.getValue("memberOfFamily");
+	}
+
+	public SpecialOrganisation getSpecialOrganisation() {
+		return (SpecialOrganisation) this.view.getValue("specialOrganisation");
+	}
+
+	public String getDateAndCountryOfProtection() {
+		return (String) this.view.getValue("dateAndCountryOfProtection");
+	}
+
+	public GregorianCalendar getDateOfProtection() {
+		return (GregorianCalendar) this.view.getValue("dateOfProtection");
+	}
+
+	public String getCountryOfProtection() {
+		return (String) this.view.getValue("countryOfProtection");
+	}
+
+	/**
+	 * Fully parses the identity file.
+	 * 
+	 * @return
+	 */
+	public Identity toIdentity() {
+		return this.view.toObject();
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getName() + " " + getFirstName() + "]";
+	}
+}
@@ -19,29 +19,43 @@
 package be.fedict.eid.applet.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.Writer;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMWriter;
-import org.json.simple.JSONObject;
+
+import be.fedict.eid.applet.service.impl.ExportCache;
+import be.fedict.eid.applet.service.util.JSONStreamWriter;
 
 /**
  * Servlet to retrieve the eID identity data from the HTTP session context via
  * JSON.
  * 
+ * <p>
+ * The JSON output is streamed directly to the response. Via the optional
+ * <code>fields</code> request parameter the client can select a comma
+ * separated list of the required fields, like
+ * <code>fields=identity,address.zip,certs.authn.pem</code>.
+ * </p>
+ * 
  * @author Frank Cornelis
  */
 public class JSONServlet extends HttpServlet {
@@ -50,103 +64,226 @@ public class JSONServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	public static final String FIELDS_PARAMETER = "fields";
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final int PEM_LINE_LENGTH = 64;
+
+	private static final ThreadLocal<SimpleDateFormat> dateFormats = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("MM/dd/yyyy");
+		}
+	};
+
+	private ExportCache exportCache;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		this.exportCache = ExportCache.configure(config);
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		LOG.debug("doGet");
 		HttpSession httpSession = request.getSession();
-		EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
+		final EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
 		if (null == eIdData) {
 			throw new ServletException("no eID data available");
 		}
-		PrintWriter writer = response.getWriter();
-		try {
-			outputJSON(eIdData, writer);
-		} catch (CertificateEncodingException e) {
-			throw new ServletException("Certificate encoding error: " + e.getMessage(), e);
+		String fieldsParameter = request.getParameter(FIELDS_PARAMETER);
+		final Set<String> fields = getFields(fieldsParameter);
+		if (null == this.exportCache) {
+			PrintWriter writer = response.getWriter();
+			try {
+				outputJSON(eIdData, writer, fields);
+			} catch (CertificateEncodingException e) {
+				throw new ServletException("Certificate encoding error: " + e.getMessage(), e);
+			}
+			return;
 		}
+
+		final String characterEncoding = response.getCharacterEncoding();
+		String exportType = "json/" + characterEncoding + "/" + fieldsParameter;
+		ExportCache.writeExport(this.exportCache, exportType, eIdData, response, new ExportCache.ExportWriter() {
+
+			public void writeExport(OutputStream outputStream) throws IOException, ServletException {
+				Writer writer = new OutputStreamWriter(outputStream, characterEncoding);
+				try {
+					outputJSON(eIdData, writer, fields);
+				} catch (CertificateEncodingException e) {
+					throw new ServletException("Certificate encoding error: " + e.getMessage(), e);
+				}
+			}
+		});
+		response.getOutputStream().flush();
 	}
 
 	public static void outputJSON(EIdData eIdData, PrintWriter writer)
 			throws IOException, CertificateEncodingException {
-		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("MM/dd/yyyy");
+		outputJSON(eIdData, writer, null);
+	}
 
-		JSONObject eidJSONObject = new JSONObject();
+	/**
+	 * Streams the eID data as JSON to the given writer.
+	 * 
+	 * @param eIdData
+	 * @param writer
+	 * @param fields
+	 *            the selected fields as dotted paths, or <code>null</code> for
+	 *            all fields.
+	 * @throws IOException
+	 * @throws CertificateEncodingException
+	 */
+	public static void outputJSON(EIdData eIdData, Writer writer, Set<String> fields)
+			throws IOException, CertificateEncodingException {
+		JSONStreamWriter jsonWriter = new JSONStreamWriter(writer);
+		jsonWriter.beginObject();
 
-		JSONObject identityJSONObject = new JSONObject();
-		eidJSONObject.put("identity", identityJSONObject);
 		Identity identity = eIdData.identity;
-		identityJSONObject.put("nationalNumber", identity.nationalNumber);
-		identityJSONObject.put("name", identity.name);
-		identityJSONObject.put("firstName", identity.firstName);
-		identityJSONObject.put("middleName", identity.middleName);
-		identityJSONObject.put("dateOfBirth", simpleDateFormat.format(identity.dateOfBirth.getTime()));
-		identityJSONObject.put("placeOfBirth", identity.placeOfBirth);
-		identityJSONObject.put("gender", identity.gender.toString());
-
-		JSONObject cardJSONObject = new JSONObject();
-		eidJSONObject.put("card", cardJSONObject);
-		cardJSONObject.put("cardNumber", identity.cardNumber);
-		cardJSONObject.put("chipNumber", identity.chipNumber);
-		cardJSONObject.put("cardDeliveryMunicipality", identity.cardDeliveryMunicipality);
-		cardJSONObject.put("cardValidityDateBegin", simpleDateFormat.format(identity.cardValidityDateBegin.getTime()));
-		cardJSONObject.put("cardValidityDateEnd", simpleDateFormat.format(identity.cardValidityDateEnd.getTime()));
+		if (null != identity) {
+			if (isSelected(fields, "identity")) {
+				jsonWriter.name("identity").beginObject();
+				field(jsonWriter, fields, "identity.nationalNumber", identity.nationalNumber);
+				field(jsonWriter, fields, "identity.name", identity.name);
+				field(jsonWriter, fields, "identity.firstName", identity.firstName);
+				field(jsonWriter, fields, "identity.middleName", identity.middleName);
+				field(jsonWriter, fields, "identity.dateOfBirth", format(identity.dateOfBirth));
+				field(jsonWriter, fields, "identity.placeOfBirth", identity.placeOfBirth);
+				field(jsonWriter, fields, "identity.gender",
+						null != identity.gender ? identity.gender.toString() : null);
+				jsonWriter.endObject();
+			}
+
+			if (isSelected(fields, "card")) {
+				jsonWriter.name("card").beginObject();
+				field(jsonWriter, fields, "card.cardNumber", identity.cardNumber);
+				field(jsonWriter, fields, "card.chipNumber", identity.chipNumber);
+				field(jsonWriter, fields, "card.cardDeliveryMunicipality", identity.cardDeliveryMunicipality);
+				field(jsonWriter, fields, "card.cardValidityDateBegin", format(identity.cardValidityDateBegin));
+				field(jsonWriter, fields, "card.cardValidityDateEnd", format(identity.cardValidityDateEnd));
+				jsonWriter.endObject();
+			}
+		}
 
 		Address address = eIdData.address;
-		if (null != address) {
-			JSONObject addressJSONObject = new JSONObject();
-			eidJSONObject.put("address", addressJSONObject);
-			addressJSONObject.put("streetAndNumber", address.streetAndNumber);
-			addressJSONObject.put("municipality", address.municipality);
-			addressJSONObject.put("zip", address.zip);
+		if (null != address && isSelected(fields, "address")) {
+			jsonWriter.name("address").beginObject();
+			field(jsonWriter, fields, "address.streetAndNumber", address.streetAndNumber);
+			field(jsonWriter, fields, "address.municipality", address.municipality);
+			field(jsonWriter, fields, "address.zip", address.zip);
+			jsonWriter.endObject();
 		}
 
 		EIdCertsData certsData = eIdData.certs;
-		if (null != certsData) {
-			JSONObject certsJSONObject = new JSONObject();
-			eidJSONObject.put("certs", certsJSONObject);
+		if (null != certsData && isSelected(fields, "certs")) {
+			jsonWriter.name("certs").beginObject();
+			writeCert(jsonWriter, fields, "authn", certsData.authn);
+			writeCert(jsonWriter, fields, "sign", certsData.sign);
+			writeCert(jsonWriter, fields, "citizenCA", certsData.ca);
+			writeCert(jsonWriter, fields, "rootCA", certsData.root);
+			jsonWriter.endObject();
+		}
 
-			X509Certificate authnCertificate = certsData.authn;
-			JSONObject authnCertJSONObject = createCertJSONObject(authnCertificate, simpleDateFormat);
-			certsJSONObject.put("authn", authnCertJSONObject);
+		jsonWriter.endObject();
+		jsonWriter.flush();
+	}
 
-			X509Certificate signCertificate = certsData.sign;
-			JSONObject signCertJSONObject = createCertJSONObject(signCertificate, simpleDateFormat);
-			certsJSONObject.put("sign", signCertJSONObject);
+	private static void writeCert(JSONStreamWriter jsonWriter, Set<String> fields, String name,
+			X509Certificate certificate) throws CertificateEncodingException, IOException {
+		String path = "certs." + name;
+		if (false == isSelected(fields, path)) {
+			return;
+		}
+		jsonWriter.name(name);
+		if (null == certificate) {
+			jsonWriter.value(null);
+			return;
+		}
+		jsonWriter.beginObject();
+		field(jsonWriter, fields, path + ".subject", certificate.getSubjectX500Principal().toString());
+		field(jsonWriter, fields, path + ".issuer", certificate.getIssuerX500Principal().toString());
+		field(jsonWriter, fields, path + ".serialNumber", certificate.getSerialNumber().toString());
+		field(jsonWriter, fields, path + ".notBefore", certificate.getNotBefore().toString());
+		field(jsonWriter, fields, path + ".notAfter", certificate.getNotAfter().toString());
+		field(jsonWriter, fields, path + ".signatureAlgo", certificate.getSigAlgName());
+		if (isSelected(fields, path + ".thumbprint")) {
+			jsonWriter.name("thumbprint").value(DigestUtils.shaHex(certificate.getEncoded()));
+		}
+		if (isSelected(fields, path + ".details")) {
+			jsonWriter.name("details").value(certificate.toString());
+		}
+		if (isSelected(fields, path + ".pem")) {
+			jsonWriter.name("pem");
+			writePem(jsonWriter, certificate.getEncoded());
+		}
+		jsonWriter.endObject();
+	}
 
-			X509Certificate citizenCACertificate = certsData.ca;
-			JSONObject citizenCACertJSONObject = createCertJSONObject(citizenCACertificate, simpleDateFormat);
-			certsJSONObject.put("citizenCA", citizenCACertJSONObject);
+	/**
+	 * Writes the PEM encoding of the certificate as a chunked JSON string
+	 * value.
+	 */
+	private static void writePem(JSONStreamWriter jsonWriter, byte[] encodedCertificate) throws IOException {
+		byte[] base64 = Base64.encodeBase64(encodedCertificate);
+		jsonWriter.beginString();
+		jsonWriter.chunk("-----BEGIN CERTIFICATE-----").chunk(LINE_SEPARATOR);
+		for (int offset = 0; offset < base64.length; offset += PEM_LINE_LENGTH) {
+			jsonWriter.chunk(base64, offset, Math.min(PEM_LINE_LENGTH, base64.length - offset));
+			jsonWriter.chunk(LINE_SEPARATOR);
+		}
+		jsonWriter.chunk("-----END CERTIFICATE-----").chunk(LINE_SEPARATOR);
+		jsonWriter.endString();
+	}
 
-			X509Certificate rootCACertificate = certsData.root;
-			JSONObject rootCACertJSONObject = createCertJSONObject(rootCACertificate, simpleDateFormat);
-			certsJSONObject.put("rootCA", rootCACertJSONObject);
+	private static void field(JSONStreamWriter jsonWriter, Set<String> fields, String path, String value)
+			throws IOException {
+		if (false == isSelected(fields, path)) {
+			return;
 		}
+		jsonWriter.name(path.substring(path.lastIndexOf('.') + 1)).value(value);
+	}
 
-		eidJSONObject.writeJSONString(writer);
+	private static String format(Calendar calendar) {
+		if (null == calendar) {
+			return null;
+		}
+		return dateFormats.get().format(calendar.getTime());
 	}
 
-	private static JSONObject createCertJSONObject(X509Certificate certificate, SimpleDateFormat simpleDateFormat)
-			throws CertificateEncodingException, IOException {
-		JSONObject certJSONObject = new JSONObject();
-		certJSONObject.put("subject", certificate.getSubjectX500Principal().toString());
-		certJSONObject.put("issuer", certificate.getIssuerX500Principal().toString());
-		certJSONObject.put("serialNumber", certificate.getSerialNumber().toString());
-		certJSONObject.put("notBefore", certificate.getNotBefore().toString());
-		certJSONObject.put("notAfter", certificate.getNotAfter().toString());
-		certJSONObject.put("signatureAlgo", certificate.getSigAlgName());
-		certJSONObject.put("thumbprint", DigestUtils.shaHex(certificate.getEncoded()));
-		certJSONObject.put("details", certificate.toString());
-		certJSONObject.put("pem", toPem(certificate));
-
-		return certJSONObject;
+	/**
+	 * A path is selected if it is part of a selected field, or if it leads to a
+	 * selected field.
+	 */
+	private static boolean isSelected(Set<String> fields, String path) {
+		if (null == fields) {
+			return true;
+		}
+		for (String field : fields) {
+			if (field.equals(path) || path.startsWith(field + ".") || field.startsWith(path + ".")) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	private static String toPem(X509Certificate certificate) throws IOException {
-		StringWriter stringWriter = new StringWriter();
-		PEMWriter pemWriter = new PEMWriter(stringWriter, BouncyCastleProvider.PROVIDER_NAME);
-		pemWriter.writeObject(certificate);
-		pemWriter.close();
-		return stringWriter.toString();
+	private static Set<String> getFields(String fieldsParameter) {
+		if (null == fieldsParameter) {
+			return null;
+		}
+		Set<String> fields = new HashSet<String>();
+		for (String field : fieldsParameter.split(",")) {
+			field = field.trim();
+			if (false == field.isEmpty()) {
+				fields.add(field);
+			}
+		}
+		if (fields.isEmpty()) {
+			return null;
+		}
+		return fields;
 	}
 }
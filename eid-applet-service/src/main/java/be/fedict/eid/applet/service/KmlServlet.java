@@ -19,10 +19,10 @@
 package be.fedict.eid.applet.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -31,6 +31,7 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.fedict.eid.applet.service.impl.ExportCache;
 import be.fedict.eid.applet.service.impl.KmlGenerator;
 import be.fedict.eid.applet.service.util.KmlLight;
 
@@ -51,10 +52,13 @@ public class KmlServlet extends HttpServlet {
 
 	private KmlGenerator kmlGenerator;
 
+	private ExportCache exportCache;
+
 	@Override
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
 		this.kmlGenerator = new KmlGenerator();
+		this.exportCache = ExportCache.configure(config);
 	}
 
 	@Override
@@ -63,14 +67,7 @@ public class KmlServlet extends HttpServlet {
 		LOG.debug("doGet");
 
 		HttpSession httpSession = request.getSession();
-		EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
-
-		byte[] document;
-		try {
-			document = this.kmlGenerator.generateKml(eIdData);
-		} catch (IOException e) {
-			throw new ServletException("KML generator error: " + e.getMessage(), e);
-		}
+		final EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
 
 		response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate, max-age=-1"); // http
 																								// 1.1
@@ -82,12 +79,18 @@ public class KmlServlet extends HttpServlet {
 		}
 		response.setDateHeader("Expires", -1);
 		response.setHeader("Content-disposition", "attachment");
-		response.setContentLength(document.length);
 
 		response.setContentType(KmlLight.MIME_TYPE);
-		response.setContentLength(document.length);
-		ServletOutputStream out = response.getOutputStream();
-		out.write(document);
-		out.flush();
+		ExportCache.writeExport(this.exportCache, "kml", eIdData, response, new ExportCache.ExportWriter() {
+
+			public void writeExport(OutputStream outputStream) throws ServletException {
+				try {
+					KmlServlet.this.kmlGenerator.generateKml(eIdData, outputStream);
+				} catch (IOException e) {
+					throw new ServletException("KML generator error: " + e.getMessage(), e);
+				}
+			}
+		});
+		response.getOutputStream().flush();
 	}
 }
@@ -19,10 +19,10 @@
 package be.fedict.eid.applet.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -33,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 
 import com.lowagie.text.DocumentException;
 
+import be.fedict.eid.applet.service.impl.ExportCache;
 import be.fedict.eid.applet.service.impl.PdfGenerator;
 
 /**
@@ -40,6 +41,12 @@ import be.fedict.eid.applet.service.impl.PdfGenerator;
  * Can be used by web applications in case they want to print-out the identity
  * information of a citizen.
  * 
+ * <p>
+ * The PDF document is streamed directly to the response. Set the optional
+ * <code>UseTemplate</code> init-param to <code>true</code> to stamp the
+ * citizen's data on a pre-rendered template.
+ * </p>
+ * 
  * @author Frank Cornelis
  * 
  */
@@ -49,12 +56,22 @@ public class PdfServlet extends HttpServlet {
 
 	private static final Log LOG = LogFactory.getLog(PdfServlet.class);
 
+	public static final String USE_TEMPLATE_INIT_PARAM_NAME = "UseTemplate";
+
 	private PdfGenerator pdfGenerator;
 
+	private String exportType;
+
+	private ExportCache exportCache;
+
 	@Override
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
-		this.pdfGenerator = new PdfGenerator();
+		boolean useTemplate = Boolean.parseBoolean(config.getInitParameter(USE_TEMPLATE_INIT_PARAM_NAME));
+		LOG.debug("use template: " + useTemplate);
+		this.pdfGenerator = new PdfGenerator(useTemplate);
+		this.exportType = useTemplate ? "pdf-template" : "pdf";
+		this.exportCache = ExportCache.configure(config);
 	}
 
 	@Override
@@ -63,23 +80,23 @@ public class PdfServlet extends HttpServlet {
 		LOG.debug("doGet");
 
 		HttpSession httpSession = request.getSession();
-		EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
-
-		byte[] document;
-		try {
-			document = this.pdfGenerator.generatePdf(eIdData);
-		} catch (DocumentException e) {
-			throw new ServletException("PDF generator error: " + e.getMessage(), e);
-		}
+		final EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
 
 		response.setHeader("Expires", "0");
 		response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
 		response.setHeader("Pragma", "public");
 
 		response.setContentType("application/pdf");
-		response.setContentLength(document.length);
-		ServletOutputStream out = response.getOutputStream();
-		out.write(document);
-		out.flush();
+		ExportCache.writeExport(this.exportCache, this.exportType, eIdData, response, new ExportCache.ExportWriter() {
+
+			public void writeExport(OutputStream outputStream) throws IOException, ServletException {
+				try {
+					PdfServlet.this.pdfGenerator.generatePdf(eIdData, outputStream);
+				} catch (DocumentException e) {
+					throw new ServletException("PDF generator error: " + e.getMessage(), e);
+				}
+			}
+		});
+		response.getOutputStream().flush();
 	}
 }
@@ -18,15 +18,10 @@
 
 package be.fedict.eid.applet.service;
 
-import java.awt.Color;
-import java.awt.Font;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
-import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
@@ -34,15 +29,26 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.fedict.eid.applet.service.impl.PhotoStore;
+import be.fedict.eid.applet.service.impl.PhotoVariantCache;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.handler.IdentityDataMessageHandler;
 
 /**
  * Servlet to display the citizen's photo that is stored in the HTTP session
  * after a successful eID identification operation via the eID Applet.
  * 
+ * <p>
+ * The photo comes with a strong ETag derived from the photo digest, so
+ * browsers can revalidate their cached copy via a conditional GET. The
+ * optional <code>size</code> request parameter selects a
+ * <code>thumbnail</code> or <code>medium</code> sized variant of the photo.
+ * </p>
+ * 
  * @author Frank Cornelis
  * 
  */
@@ -52,40 +58,103 @@ public class PhotoServlet extends HttpServlet {
 
 	private static final Log LOG = LogFactory.getLog(PhotoServlet.class);
 
+	public static final String SIZE_PARAMETER = "size";
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		LOG.debug("doGet");
+		PhotoVariantCache.Size size = getSize(request.getParameter(SIZE_PARAMETER));
+		if (null == size) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "unsupported photo size");
+			return;
+		}
 		response.setContentType("image/jpg");
+		response.setHeader("Cache-Control", "private, no-cache, must-revalidate");
+		HttpSession session = request.getSession();
+		byte[] photoData = (byte[]) session.getAttribute(IdentityDataMessageHandler.PHOTO_SESSION_ATTRIBUTE);
+		byte[] photoDigest;
+		if (null != photoData) {
+			photoDigest = digest(photoData);
+		} else {
+			photoDigest = (byte[]) session.getAttribute(IdentityDataMessageHandler.PHOTO_DIGEST_SESSION_ATTRIBUTE);
+		}
+		if (null != photoDigest) {
+			String photoKey = Hex.encodeHexString(photoDigest);
+			String eTag = getETag(photoKey, size);
+			if (isNotModified(request.getHeader("If-None-Match"), eTag)) {
+				LOG.debug("photo not modified");
+				response.setHeader("ETag", eTag);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			if (null == photoData) {
+				PhotoStore photoStore = PhotoStore.getInstance();
+				if (null != photoStore) {
+					photoData = photoStore.findPhoto(photoDigest);
+				}
+			}
+			if (null != photoData) {
+				byte[] photo = PhotoVariantCache.getInstance().getPhoto(photoKey, photoData, size);
+				response.setHeader("ETag", eTag);
+				response.setContentLength(photo.length);
+				ServletOutputStream out = response.getOutputStream();
+				out.write(photo);
+				out.close();
+				return;
+			}
+		}
 		response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate, max-age=-1"); // http
 																								// 1.1
 		response.setHeader("Pragma", "no-cache, no-store"); // http 1.0
 		response.setDateHeader("Expires", -1);
-		ServletOutputStream out = response.getOutputStream();
-		HttpSession session = request.getSession();
-		byte[] photoData = (byte[]) session.getAttribute(IdentityDataMessageHandler.PHOTO_SESSION_ATTRIBUTE);
-		if (null != photoData) {
-			BufferedImage photo = ImageIO.read(new ByteArrayInputStream(photoData));
-			if (null == photo) {
-				/*
-				 * In this case we render a photo containing some error message.
-				 */
-				photo = new BufferedImage(140, 200, BufferedImage.TYPE_INT_RGB);
-				Graphics2D graphics = (Graphics2D) photo.getGraphics();
-				RenderingHints renderingHints = new RenderingHints(RenderingHints.KEY_TEXT_ANTIALIASING,
-						RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-				graphics.setRenderingHints(renderingHints);
-				graphics.setColor(Color.WHITE);
-				graphics.fillRect(1, 1, 140 - 1 - 1, 200 - 1 - 1);
-				graphics.setColor(Color.RED);
-				graphics.setFont(new Font("Dialog", Font.BOLD, 20));
-				graphics.drawString("Photo Error", 0, 200 / 2);
-				graphics.dispose();
-				ImageIO.write(photo, "jpg", out);
-			} else {
-				out.write(photoData);
+		response.getOutputStream().close();
+	}
+
+	private static PhotoVariantCache.Size getSize(String sizeParameter) {
+		if (null == sizeParameter) {
+			return PhotoVariantCache.Size.ORIGINAL;
+		}
+		if ("thumbnail".equals(sizeParameter)) {
+			return PhotoVariantCache.Size.THUMBNAIL;
+		}
+		if ("medium".equals(sizeParameter)) {
+			return PhotoVariantCache.Size.MEDIUM;
+		}
+		return null;
+	}
+
+	private static String getETag(String photoKey, PhotoVariantCache.Size size) {
+		if (PhotoVariantCache.Size.ORIGINAL == size) {
+			return "\"" + photoKey + "\"";
+		}
+		return "\"" + photoKey + "-" + size.name().toLowerCase() + "\"";
+	}
+
+	private static boolean isNotModified(String ifNoneMatch, String eTag) {
+		if (null == ifNoneMatch) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if ("*".equals(candidate) || eTag.equals(candidate)) {
+				return true;
 			}
 		}
-		out.close();
+		return false;
+	}
+
+	private static byte[] digest(byte[] photo) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			return messageDigest.digest(photo);
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 }
@@ -19,10 +19,10 @@
 package be.fedict.eid.applet.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -31,6 +31,7 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import be.fedict.eid.applet.service.impl.ExportCache;
 import be.fedict.eid.applet.service.impl.VcardGenerator;
 import be.fedict.eid.applet.service.util.VcardLight;
 
@@ -51,10 +52,13 @@ public class VcardServlet extends HttpServlet {
 
 	private VcardGenerator vcardGenerator;
 
+	private ExportCache exportCache;
+
 	@Override
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
 		this.vcardGenerator = new VcardGenerator();
+		this.exportCache = ExportCache.configure(config);
 	}
 
 	@Override
@@ -63,23 +67,22 @@ public class VcardServlet extends HttpServlet {
 		LOG.debug("doGet");
 
 		HttpSession httpSession = request.getSession();
-		EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
-
-		byte[] document;
-		try {
-			document = this.vcardGenerator.generateVcard(eIdData);
-		} catch (IOException e) {
-			throw new ServletException("vCard generator error: " + e.getMessage(), e);
-		}
+		final EIdData eIdData = (EIdData) httpSession.getAttribute("eid");
 
 		response.setHeader("Expires", "0");
 		response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
 		response.setHeader("Pragma", "public");
 
 		response.setContentType(VcardLight.MIME_TYPE);
-		response.setContentLength(document.length);
-		ServletOutputStream out = response.getOutputStream();
-		out.write(document);
-		out.flush();
+		ExportCache.writeExport(this.exportCache, "vcard", eIdData, response, new ExportCache.ExportWriter() {
+
+			public void writeExport(OutputStream outputStream) throws ServletException {
+				try {
+					VcardServlet.this.vcardGenerator.generateVcard(eIdData, outputStream);
+				} catch (IOException e) {
+					throw new ServletException("vCard generator error: " + e.getMessage(), e);
+				}
+			}
+		});
 	}
 }
@@ -19,15 +19,30 @@
 package be.fedict.eid.applet.service.dto;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Data Transfer Object Mapper.
  * 
+ * <p>
+ * The mapping annotations are only inspected once per source and target
+ * class. The result is kept as an immutable mapping plan with pre-resolved
+ * fields and shared value convertor instances. Mapping errors are reported
+ * when building the plan.
+ * </p>
+ * 
  * @author Frank Cornelis
  * 
  */
 public class DTOMapper {
 
+	private static final ConcurrentMap<MappingKey, MappingPlan> mappingPlans = new ConcurrentHashMap<MappingKey, MappingPlan>();
+
 	/**
 	 * Maps an object to an object of the given class.
 	 * 
@@ -39,67 +54,270 @@ public class DTOMapper {
 	 *            the class to map to.
 	 * @return the mapped object.
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> T map(Object from, Class<T> toClass) {
 		if (null == from) {
 			return null;
 		}
+		MappingPlan mappingPlan = getMappingPlan(from.getClass(), toClass);
 		T to;
 		try {
 			to = toClass.newInstance();
 		} catch (Exception e) {
 			throw new RuntimeException("could not create new instance of " + toClass.getName());
 		}
-		Class<?> fromClass = from.getClass();
-		Field[] fromFields = fromClass.getDeclaredFields();
-		for (Field fromField : fromFields) {
-			Mapping mappingAnnotation = fromField.getAnnotation(Mapping.class);
-			if (null == mappingAnnotation) {
-				continue;
-			}
-			MapsTo[] mapsToAnnotations = mappingAnnotation.value();
-			for (MapsTo mapsToAnnotation : mapsToAnnotations) {
-				if (false == toClass.equals(mapsToAnnotation.value())) {
+		mappingPlan.map(from, to);
+		return to;
+	}
+
+	/**
+	 * Checks the mapping from the given source class to the given target class.
+	 * Allows for detection of mapping errors at application startup.
+	 * 
+	 * @param fromClass
+	 * @param toClass
+	 * @throws RuntimeException
+	 *             in case of a mapping error.
+	 */
+	public static void checkMapping(Class<?> fromClass, Class<?> toClass) {
+		getMappingPlan(fromClass, toClass);
+	}
+
+	private static MappingPlan getMappingPlan(Class<?> fromClass, Class<?> toClass) {
+		MappingKey mappingKey = new MappingKey(fromClass, toClass);
+		MappingPlan mappingPlan = mappingPlans.get(mappingKey);
+		if (null == mappingPlan) {
+			mappingPlan = new MappingPlan(fromClass, toClass);
+			MappingPlan existingMappingPlan = mappingPlans.putIfAbsent(mappingKey, mappingPlan);
+			if (null != existingMappingPlan) {
+				mappingPlan = existingMappingPlan;
+			}
+		}
+		return mappingPlan;
+	}
+
+	private static class MappingKey {
+
+		private final Class<?> fromClass;
+
+		private final Class<?> toClass;
+
+		public MappingKey(Class<?> fromClass, Class<?> toClass) {
+			this.fromClass = fromClass;
+			this.toClass = toClass;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (false == obj instanceof MappingKey) {
+				return false;
+			}
+			MappingKey mappingKey = (MappingKey) obj;
+			return this.fromClass == mappingKey.fromClass && this.toClass == mappingKey.toClass;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.fromClass.hashCode() * 31 + this.toClass.hashCode();
+		}
+	}
+
+	private static class FieldMapping {
+
+		private final Field fromField;
+
+		private final Field toField;
+
+		private final ValueConvertor<Object, Object> valueConvertor;
+
+		public FieldMapping(Field fromField, Field toField, ValueConvertor<Object, Object> valueConvertor) {
+			this.fromField = fromField;
+			this.toField = toField;
+			this.valueConvertor = valueConvertor;
+		}
+	}
+
+	private static class MappingPlan {
+
+		private final FieldMapping[] fieldMappings;
+
+		@SuppressWarnings("unchecked")
+		public MappingPlan(Class<?> fromClass, Class<?> toClass) {
+			List<FieldMapping> fieldMappings = new LinkedList<FieldMapping>();
+			Map<Class<?>, ValueConvertor<Object, Object>> valueConvertors = new HashMap<Class<?>, ValueConvertor<Object, Object>>();
+			for (Field fromField : fromClass.getDeclaredFields()) {
+				Mapping mappingAnnotation = fromField.getAnnotation(Mapping.class);
+				if (null == mappingAnnotation) {
 					continue;
 				}
-				String toFieldName = mapsToAnnotation.field();
-				if (toFieldName.isEmpty()) {
-					toFieldName = fromField.getName();
-				}
-				Field toField;
-				try {
-					toField = toClass.getDeclaredField(toFieldName);
-				} catch (Exception e) {
-					throw new RuntimeException("no such target field: " + toFieldName);
+				MapsTo[] mapsToAnnotations = mappingAnnotation.value();
+				for (MapsTo mapsToAnnotation : mapsToAnnotations) {
+					if (false == toClass.equals(mapsToAnnotation.value())) {
+						continue;
+					}
+					String toFieldName = mapsToAnnotation.field();
+					if (toFieldName.isEmpty()) {
+						toFieldName = fromField.getName();
+					}
+					Field toField;
+					try {
+						toField = toClass.getDeclaredField(toFieldName);
+					} catch (Exception e) {
+						throw new RuntimeException("no such target field: " + toFieldName);
+					}
+					Class<? extends ValueConvertor<?, ?>> valueConvertorClass = mapsToAnnotation.convertor();
+					ValueConvertor<Object, Object> valueConvertor = null;
+					if (false == IdenticalValueConvertor.class.equals(valueConvertorClass)) {
+						valueConvertor = valueConvertors.get(valueConvertorClass);
+						if (null == valueConvertor) {
+							try {
+								valueConvertor = (ValueConvertor<Object, Object>) valueConvertorClass.newInstance();
+							} catch (Exception e) {
+								throw new RuntimeException(
+										"could not instantiate value convertor: " + valueConvertorClass.getName());
+							}
+							valueConvertors.put(valueConvertorClass, valueConvertor);
+						}
+					} else if (false == isAssignable(toField.getType(), fromField.getType())) {
+						throw new RuntimeException("incompatible target field type: " + toFieldName);
+					}
+					fromField.setAccessible(true);
+					toField.setAccessible(true);
+					fieldMappings.add(new FieldMapping(fromField, toField, valueConvertor));
 				}
+			}
+			this.fieldMappings = fieldMappings.toArray(new FieldMapping[0]);
+		}
+
+		public void map(Object from, Object to) {
+			for (FieldMapping fieldMapping : this.fieldMappings) {
 				Object value;
 				try {
-					value = fromField.get(from);
+					value = fieldMapping.fromField.get(from);
 				} catch (Exception e) {
-					throw new RuntimeException("could not read field: " + fromField.getName());
+					throw new RuntimeException("could not read field: " + fieldMapping.fromField.getName());
 				}
-				Class<? extends ValueConvertor<?, ?>> valueConvertorClass = mapsToAnnotation.convertor();
-				if (false == IdenticalValueConvertor.class.equals(valueConvertorClass)) {
-					ValueConvertor<Object, Object> valueConvertor;
-					try {
-						valueConvertor = (ValueConvertor<Object, Object>) valueConvertorClass.newInstance();
-					} catch (Exception e) {
-						throw new RuntimeException(
-								"could not instantiate value convertor: " + valueConvertorClass.getName());
-					}
+				if (null != fieldMapping.valueConvertor) {
 					try {
-						value = valueConvertor.convert(value);
+						value = fieldMapping.valueConvertor.convert(value);
 					} catch (ValueConvertorException e) {
-						throw new RuntimeException("could not convert value of field: " + fromField.getName());
+						throw new RuntimeException(
+								"could not convert value of field: " + fieldMapping.fromField.getName());
 					}
 				}
 				try {
-					toField.set(to, value);
+					fieldMapping.toField.set(to, value);
 				} catch (Exception e) {
-					throw new RuntimeException("could not write field " + toFieldName + ": " + e.getMessage(), e);
+					throw new RuntimeException(
+							"could not write field " + fieldMapping.toField.getName() + ": " + e.getMessage(), e);
 				}
 			}
 		}
-		return to;
+
+		/**
+		 * Mirrors the conversions performed by {@link Field#set(Object, Object)}
+		 * on the value read from the source field: unboxing followed by a
+		 * widening primitive conversion for primitive targets, boxing followed
+		 * by a widening reference conversion otherwise.
+		 */
+		private static boolean isAssignable(Class<?> toType, Class<?> fromType) {
+			if (false == toType.isPrimitive()) {
+				return toType.isAssignableFrom(box(fromType));
+			}
+			Class<?> fromPrimitiveType = unbox(fromType);
+			if (null == fromPrimitiveType) {
+				return false;
+			}
+			if (toType == fromPrimitiveType) {
+				return true;
+			}
+			if (Boolean.TYPE == toType || Boolean.TYPE == fromPrimitiveType) {
+				return false;
+			}
+			if (Character.TYPE == toType) {
+				return false;
+			}
+			return getWideningRank(fromPrimitiveType) < getWideningRank(toType);
+		}
+
+		private static int getWideningRank(Class<?> primitiveType) {
+			if (Byte.TYPE == primitiveType) {
+				return 0;
+			}
+			if (Short.TYPE == primitiveType || Character.TYPE == primitiveType) {
+				return 1;
+			}
+			if (Integer.TYPE == primitiveType) {
+				return 2;
+			}
+			if (Long.TYPE == primitiveType) {
+				return 3;
+			}
+			if (Float.TYPE == primitiveType) {
+				return 4;
+			}
+			return 5;
+		}
+
+		private static Class<?> unbox(Class<?> type) {
+			if (type.isPrimitive()) {
+				return type;
+			}
+			if (Boolean.class == type) {
+				return Boolean.TYPE;
+			}
+			if (Integer.class == type) {
+				return Integer.TYPE;
+			}
+			if (Long.class == type) {
+				return Long.TYPE;
+			}
+			if (Short.class == type) {
+				return Short.TYPE;
+			}
+			if (Byte.class == type) {
+				return Byte.TYPE;
+			}
+			if (Character.class == type) {
+				return Character.TYPE;
+			}
+			if (Float.class == type) {
+				return Float.TYPE;
+			}
+			if (Double.class == type) {
+				return Double.TYPE;
+			}
+			return null;
+		}
+
+		private static Class<?> box(Class<?> type) {
+			if (false == type.isPrimitive()) {
+				return type;
+			}
+			if (Boolean.TYPE == type) {
+				return Boolean.class;
+			}
+			if (Integer.TYPE == type) {
+				return Integer.class;
+			}
+			if (Long.TYPE == type) {
+				return Long.class;
+			}
+			if (Short.TYPE == type) {
+				return Short.class;
+			}
+			if (Byte.TYPE == type) {
+				return Byte.class;
+			}
+			if (Character.TYPE == type) {
+				return Character.class;
+			}
+			if (Float.TYPE == type) {
+				return Float.class;
+			}
+			return Double.class;
+		}
 	}
 }
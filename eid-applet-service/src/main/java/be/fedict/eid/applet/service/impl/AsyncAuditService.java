@@ -0,0 +1,666 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.spi.AuditService;
+import be.fedict.eid.applet.service.spi.BatchAuditService;
+
+/**
+ * Asynchronous audit service decorator. Audit events are put on a bounded
+ * queue and delivered in batches to the decorated audit service by a worker
+ * thread, so audit processing no longer adds to the latency of the eID Applet
+ * protocol runs.
+ *
+ * <p>
+ * When the queue is full, the configured {@link OverflowPolicy} applies. Queued
+ * events are flushed on {@link #shutdown()}.
+ * </p>
+ *
+ * <p>
+ * Decorated audit services implementing {@link BatchAuditService} get every
+ * batch delimited by calls to {@link BatchAuditService#beginBatch()} and
+ * {@link BatchAuditService#endBatch()}.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AsyncAuditService implements AuditService {
+
+	private static final Log LOG = LogFactory.getLog(AsyncAuditService.class);
+
+	/**
+	 * The default queue capacity.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The default maximum number of events delivered per batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * The default time in milliseconds that shutdown waits for the queue to
+	 * be flushed.
+	 */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT = 1000 * 30;
+
+	private static final String SPILL_FILE_PREFIX = "audit-";
+
+	private static final String SPILL_FILE_SUFFIX = ".spill";
+
+	private static final Map<String, AsyncAuditService> instances = new HashMap<String, AsyncAuditService>();
+
+	private static final Map<String, Integer> references = new HashMap<String, Integer>();
+
+	/**
+	 * Policy for handling audit events when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The caller waits until space becomes available.
+		 */
+		BLOCK,
+
+		/**
+		 * The oldest queued audit event is dropped.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Audit events are written to a spill file on disk, and delivered once
+		 * the queue has been drained.
+		 */
+		SPILL
+	}
+
+	private final AuditService auditService;
+
+	private final int capacity;
+
+	private final int batchSize;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final File spillDirectory;
+
+	private final LinkedList<AuditEvent> queue;
+
+	private final LinkedList<File> spillFiles;
+
+	private final Thread worker;
+
+	private DataOutputStream spillOutput;
+
+	private long spillSequence;
+
+	private boolean spilling;
+
+	private boolean delivering;
+
+	private boolean closed;
+
+	private long droppedEvents;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param auditService
+	 *            the decorated audit service.
+	 * @param capacity
+	 *            the queue capacity.
+	 * @param batchSize
+	 *            the maximum number of events delivered per batch.
+	 * @param overflowPolicy
+	 *            the overflow policy.
+	 * @param spillDirectory
+	 *            the spill directory, required for
+	 *            {@link OverflowPolicy#SPILL}.
+	 */
+	public AsyncAuditService(AuditService auditService, int capacity, int batchSize, OverflowPolicy overflowPolicy,
+			File spillDirectory) {
+		if (null == auditService) {
+			throw new IllegalArgumentException("audit service required");
+		}
+		if (capacity < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("invalid capacity or batch size");
+		}
+		if (OverflowPolicy.SPILL == overflowPolicy) {
+			if (null == spillDirectory) {
+				throw new IllegalArgumentException("spill directory required");
+			}
+			if (false == spillDirectory.isDirectory() && false == spillDirectory.mkdirs()) {
+				throw new IllegalArgumentException("could not create spill directory: " + spillDirectory);
+			}
+		}
+		this.auditService = auditService;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.overflowPolicy = overflowPolicy;
+		this.spillDirectory = spillDirectory;
+		this.queue = new LinkedList<AuditEvent>();
+		this.spillFiles = new LinkedList<File>();
+		if (null != spillDirectory) {
+			/*
+			 * Spill files left behind by a previous run are delivered first.
+			 */
+			File[] files = spillDirectory.listFiles();
+			if (null != files) {
+				Arrays.sort(files);
+				for (File file : files) {
+					String fileName = file.getName();
+					if (fileName.startsWith(SPILL_FILE_PREFIX) && fileName.endsWith(SPILL_FILE_SUFFIX)) {
+						LOG.debug("recovering spill file: " + file);
+						this.spillFiles.add(file);
+					}
+				}
+			}
+			this.spilling = false == this.spillFiles.isEmpty();
+		}
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				deliver();
+			}
+		}, "eid-audit-service-worker");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Gives back the named process-wide asynchronous audit service. The
+	 * instance is created on first use.
+	 *
+	 * @param name
+	 *            the name of the instance. Should identify the decorated audit
+	 *            service implementation, as different servlets can configure
+	 *            different audit services under the same init-param.
+	 * @param auditService
+	 * @param capacity
+	 * @param batchSize
+	 * @param overflowPolicy
+	 * @param spillDirectory
+	 * @return
+	 */
+	public static AsyncAuditService getInstance(String name, AuditService auditService, int capacity, int batchSize,
+			OverflowPolicy overflowPolicy, File spillDirectory) {
+		synchronized (instances) {
+			AsyncAuditService instance = instances.get(name);
+			if (null == instance) {
+				instance = new AsyncAuditService(auditService, capacity, batchSize, overflowPolicy, spillDirectory);
+				instances.put(name, instance);
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Gives back the named process-wide asynchronous audit service.
+	 *
+	 * @param name
+	 * @return the instance, or <code>null</code> if not available.
+	 */
+	public static AsyncAuditService findInstance(String name) {
+		synchronized (instances) {
+			return instances.get(name);
+		}
+	}
+
+	/**
+	 * Registers a user of the named process-wide asynchronous audit service.
+	 *
+	 * @param name
+	 * @see #release(String)
+	 */
+	public static void retain(String name) {
+		synchronized (instances) {
+			Integer count = references.get(name);
+			references.put(name, null == count ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * Unregisters a user of the named process-wide asynchronous audit service.
+	 * The instance gets flushed and shut down when its last user is gone.
+	 *
+	 * @param name
+	 */
+	public static void release(String name) {
+		AsyncAuditService instance;
+		synchronized (instances) {
+			Integer count = references.get(name);
+			if (null == count) {
+				return;
+			}
+			if (count > 1) {
+				references.put(name, count - 1);
+				return;
+			}
+			references.remove(name);
+			instance = instances.remove(name);
+		}
+		if (null != instance) {
+			LOG.debug("shutting down asynchronous audit service: " + name);
+			instance.shutdown();
+		}
+	}
+
+	public void authenticated(String userId) {
+		enqueue(new AuditEvent(AuditEvent.AUTHENTICATED, userId, null, null));
+	}
+
+	public void identified(String userId) {
+		enqueue(new AuditEvent(AuditEvent.IDENTIFIED, userId, null, null));
+	}
+
+	public void authenticationError(String remoteAddress, X509Certificate clientCertificate) {
+		enqueue(new AuditEvent(AuditEvent.AUTHENTICATION_ERROR, null, remoteAddress, clientCertificate));
+	}
+
+	public void identityIntegrityError(String remoteAddress) {
+		enqueue(new AuditEvent(AuditEvent.IDENTITY_INTEGRITY_ERROR, null, remoteAddress, null));
+	}
+
+	public void signatureError(String remoteAddress, X509Certificate clientCertificate) {
+		enqueue(new AuditEvent(AuditEvent.SIGNATURE_ERROR, null, remoteAddress, clientCertificate));
+	}
+
+	public void signed(String userId) {
+		enqueue(new AuditEvent(AuditEvent.SIGNED, userId, null, null));
+	}
+
+	/**
+	 * Gives back the number of audit events dropped because of the
+	 * {@link OverflowPolicy#DROP_OLDEST} policy.
+	 *
+	 * @return
+	 */
+	public synchronized long getDroppedEvents() {
+		return this.droppedEvents;
+	}
+
+	/**
+	 * Waits until all audit events enqueued so far have been delivered.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds.
+	 * @return <code>true</code> if flushed within the timeout.
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean flush(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (false == this.queue.isEmpty() || this.spilling || this.delivering) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0 || false == this.worker.isAlive()) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Flushes the queue and stops the worker. Audit events arriving after
+	 * shutdown are delivered synchronously.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			notifyAll();
+		}
+		try {
+			this.worker.join(DEFAULT_SHUTDOWN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.worker.isAlive()) {
+			LOG.warn("audit service worker did not finish within timeout");
+		}
+	}
+
+	private void enqueue(AuditEvent auditEvent) {
+		synchronized (this) {
+			if (false == this.closed) {
+				if (this.spilling) {
+					if (spill(auditEvent)) {
+						return;
+					}
+				} else {
+					while (this.queue.size() >= this.capacity) {
+						if (OverflowPolicy.DROP_OLDEST == this.overflowPolicy) {
+							this.queue.removeFirst();
+							this.droppedEvents++;
+							if (1 == this.droppedEvents % 1000) {
+								LOG.warn("audit queue full, dropped events: " + this.droppedEvents);
+							}
+						} else if (OverflowPolicy.SPILL == this.overflowPolicy) {
+							this.spilling = true;
+							if (spill(auditEvent)) {
+								return;
+							}
+							break;
+						} else {
+							try {
+								wait();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								break;
+							}
+							if (this.closed) {
+								break;
+							}
+						}
+					}
+					if (false == this.closed && this.queue.size() < this.capacity) {
+						this.queue.addLast(auditEvent);
+						notifyAll();
+						return;
+					}
+				}
+			}
+		}
+		/*
+		 * Shut down, interrupted or spill error: deliver on the calling thread.
+		 */
+		auditEvent.deliver(this.auditService);
+	}
+
+	/**
+	 * Appends the audit event to the current spill file. Should be called
+	 * while holding the lock.
+	 *
+	 * @param auditEvent
+	 * @return <code>false</code> if the audit event could not be spilled, in
+	 *         which case the caller should deliver it.
+	 */
+	private boolean spill(AuditEvent auditEvent) {
+		try {
+			if (null == this.spillOutput) {
+				File spillFile = new File(this.spillDirectory, String.format("%s%013d-%06d%s", SPILL_FILE_PREFIX,
+						System.currentTimeMillis(), this.spillSequence++ % 1000000, SPILL_FILE_SUFFIX));
+				this.spillOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+				this.spillFiles.addLast(spillFile);
+			}
+			auditEvent.write(this.spillOutput);
+			this.spillOutput.flush();
+			notifyAll();
+			return true;
+		} catch (IOException e) {
+			LOG.error("audit spill error, delivering synchronously: " + e.getMessage(), e);
+			if (null != this.spillOutput) {
+				/*
+				 * Next audit event gets spilled to a new spill file.
+				 */
+				closeSpillOutput();
+			}
+			notifyAll();
+			return false;
+		}
+	}
+
+	private void deliver() {
+		List<AuditEvent> batch = new ArrayList<AuditEvent>(this.batchSize);
+		while (true) {
+			File spillFile = null;
+			synchronized (this) {
+				this.delivering = false;
+				notifyAll();
+				while (this.queue.isEmpty() && false == this.spilling && false == this.closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						LOG.debug("audit service worker interrupted");
+					}
+				}
+				if (this.queue.isEmpty() && false == this.spilling && this.closed) {
+					return;
+				}
+				if (false == this.queue.isEmpty()) {
+					while (batch.size() < this.batchSize && false == this.queue.isEmpty()) {
+						batch.add(this.queue.removeFirst());
+					}
+					notifyAll();
+				} else if (this.spillFiles.isEmpty()) {
+					this.spilling = false;
+					notifyAll();
+					continue;
+				} else {
+					spillFile = this.spillFiles.getFirst();
+					if (1 == this.spillFiles.size() && null != this.spillOutput) {
+						closeSpillOutput();
+					}
+				}
+				this.delivering = true;
+			}
+			if (null != spillFile) {
+				deliverSpillFile(spillFile);
+				synchronized (this) {
+					this.spillFiles.remove(spillFile);
+				}
+				continue;
+			}
+			deliverBatch(batch);
+			batch.clear();
+		}
+	}
+
+	private void deliverBatch(List<AuditEvent> batch) {
+		BatchAuditService batchAuditService;
+		if (this.auditService instanceof BatchAuditService) {
+			batchAuditService = (BatchAuditService) this.auditService;
+			try {
+				batchAuditService.beginBatch();
+			} catch (Exception e) {
+				LOG.error("audit service begin batch error: " + e.getMessage(), e);
+			}
+		} else {
+			batchAuditService = null;
+		}
+		try {
+			for (AuditEvent auditEvent : batch) {
+				auditEvent.deliver(this.auditService);
+			}
+		} finally {
+			if (null != batchAuditService) {
+				try {
+					batchAuditService.endBatch();
+				} catch (Exception e) {
+					LOG.error("audit service end batch error: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	private void closeSpillOutput() {
+		try {
+			this.spillOutput.close();
+		} catch (IOException e) {
+			LOG.error("error closing spill file: " + e.getMessage(), e);
+		}
+		this.spillOutput = null;
+	}
+
+	private void deliverSpillFile(File spillFile) {
+		LOG.debug("delivering spill file: " + spillFile);
+		List<AuditEvent> batch = new ArrayList<AuditEvent>(this.batchSize);
+		try {
+			DataInputStream dataInputStream = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(spillFile)));
+			try {
+				while (true) {
+					AuditEvent auditEvent;
+					try {
+						auditEvent = AuditEvent.read(dataInputStream);
+					} catch (EOFException e) {
+						break;
+					}
+					batch.add(auditEvent);
+					if (batch.size() == this.batchSize) {
+						deliverBatch(batch);
+						batch.clear();
+					}
+				}
+			} finally {
+				dataInputStream.close();
+			}
+		} catch (IOException e) {
+			LOG.error("error reading spill file " + spillFile + ": " + e.getMessage(), e);
+		}
+		if (false == batch.isEmpty()) {
+			deliverBatch(batch);
+		}
+		if (false == spillFile.delete()) {
+			LOG.error("could not delete spill file: " + spillFile);
+		}
+	}
+
+	private static class AuditEvent {
+
+		public static final byte AUTHENTICATED = 1;
+
+		public static final byte IDENTIFIED = 2;
+
+		public static final byte AUTHENTICATION_ERROR = 3;
+
+		public static final byte IDENTITY_INTEGRITY_ERROR = 4;
+
+		public static final byte SIGNATURE_ERROR = 5;
+
+		public static final byte SIGNED = 6;
+
+		private final byte type;
+
+		private final String userId;
+
+		private final String remoteAddress;
+
+		private final X509Certificate certificate;
+
+		public AuditEvent(byte type, String userId, String remoteAddress, X509Certificate certificate) {
+			this.type = type;
+			this.userId = userId;
+			this.remoteAddress = remoteAddress;
+			this.certificate = certificate;
+		}
+
+		public void deliver(AuditService auditService) {
+			try {
+				switch (this.type) {
+				case AUTHENTICATED:
+					auditService.authenticated(this.userId);
+					break;
+				case IDENTIFIED:
+					auditService.identified(this.userId);
+					break;
+				case AUTHENTICATION_ERROR:
+					auditService.authenticationError(this.remoteAddress, this.certificate);
+					break;
+				case IDENTITY_INTEGRITY_ERROR:
+					auditService.identityIntegrityError(this.remoteAddress);
+					break;
+				case SIGNATURE_ERROR:
+					auditService.signatureError(this.remoteAddress, this.certificate);
+					break;
+				case SIGNED:
+					auditService.signed(this.userId);
+					break;
+				default:
+					LOG.error("unknown audit event type: " + this.type);
+				}
+			} catch (Exception e) {
+				LOG.error("audit service error: " + e.getMessage(), e);
+			}
+		}
+
+		public void write(DataOutputStream dataOutputStream) throws IOException {
+			dataOutputStream.writeByte(this.type);
+			writeString(dataOutputStream, this.userId);
+			writeString(dataOutputStream, this.remoteAddress);
+			if (null == this.certificate) {
+				dataOutputStream.writeInt(-1);
+			} else {
+				byte[] encodedCertificate;
+				try {
+					encodedCertificate = this.certificate.getEncoded();
+				} catch (CertificateEncodingException e) {
+					throw new IOException("certificate encoding error: " + e.getMessage());
+				}
+				dataOutputStream.writeInt(encodedCertificate.length);
+				dataOutputStream.write(encodedCertificate);
+			}
+		}
+
+		public static AuditEvent read(DataInputStream dataInputStream) throws IOException {
+			byte type = dataInputStream.readByte();
+			String userId = readString(dataInputStream);
+			String remoteAddress = readString(dataInputStream);
+			int certificateSize = dataInputStream.readInt();
+			X509Certificate certificate = null;
+			if (-1 != certificateSize) {
+				byte[] encodedCertificate = new byte[certificateSize];
+				dataInputStream.readFully(encodedCertificate);
+				try {
+					certificate = CertificateCache.getCertificate(encodedCertificate);
+				} catch (CertificateException e) {
+					throw new IOException("certificate decoding error: " + e.getMessage());
+				}
+			}
+			return new AuditEvent(type, userId, remoteAddress, certificate);
+		}
+
+		private static void writeString(DataOutputStream dataOutputStream, String value) throws IOException {
+			dataOutputStream.writeBoolean(null != value);
+			if (null != value) {
+				dataOutputStream.writeUTF(value);
+			}
+		}
+
+		private static String readString(DataInputStream dataInputStream) throws IOException {
+			if (dataInputStream.readBoolean()) {
+				return dataInputStream.readUTF();
+			}
+			return null;
+		}
+	}
+}
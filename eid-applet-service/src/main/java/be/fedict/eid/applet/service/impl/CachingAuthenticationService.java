@@ -0,0 +1,61 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.CertificateSecurityException;
+import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.TrustCertificateSecurityException;
+
+/**
+ * Authentication service decorator that caches the certificate chain
+ * validation results of the decorated authentication service.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CachingAuthenticationService implements AuthenticationService {
+
+	private final AuthenticationService authenticationService;
+
+	private final CertificateValidationCache cache;
+
+	public CachingAuthenticationService(AuthenticationService authenticationService,
+			CertificateValidationCache cache) {
+		this.authenticationService = authenticationService;
+		this.cache = cache;
+	}
+
+	public void validateCertificateChain(final List<X509Certificate> certificateChain)
+			throws ExpiredCertificateSecurityException, RevokedCertificateSecurityException,
+			TrustCertificateSecurityException, CertificateSecurityException, SecurityException {
+		this.cache.validate(certificateChain, new Callable<Void>() {
+			public Void call() throws Exception {
+				CachingAuthenticationService.this.authenticationService.validateCertificateChain(certificateChain);
+				return null;
+			}
+		});
+	}
+}
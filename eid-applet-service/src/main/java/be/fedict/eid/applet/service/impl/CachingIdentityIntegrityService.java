@@ -0,0 +1,58 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+
+/**
+ * Identity integrity service decorator that caches the national registration
+ * certificate chain validation results of the decorated identity integrity
+ * service.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CachingIdentityIntegrityService implements IdentityIntegrityService {
+
+	private final IdentityIntegrityService identityIntegrityService;
+
+	private final CertificateValidationCache cache;
+
+	public CachingIdentityIntegrityService(IdentityIntegrityService identityIntegrityService,
+			CertificateValidationCache cache) {
+		this.identityIntegrityService = identityIntegrityService;
+		this.cache = cache;
+	}
+
+	public void checkNationalRegistrationCertificate(final List<X509Certificate> certificateChain)
+			throws SecurityException {
+		this.cache.validate(certificateChain, new Callable<Void>() {
+			public Void call() throws Exception {
+				CachingIdentityIntegrityService.this.identityIntegrityService
+						.checkNationalRegistrationCertificate(certificateChain);
+				return null;
+			}
+		});
+	}
+}
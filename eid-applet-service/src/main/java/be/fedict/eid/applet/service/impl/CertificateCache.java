@@ -0,0 +1,212 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Process-wide cache of parsed X509 certificates, keyed by the digest of the
+ * DER encoding. The same eID citizen CA and root CA certificates come along
+ * with every protocol run, so there is no need to parse them over and over
+ * again.
+ *
+ * <p>
+ * Lookups are lock-free. Both tiers are bounded and evict in insertion order.
+ * Parsed certificates always end up in the end-entity tier. Only CA
+ * certificates that have been validated by the application get promoted to
+ * the separate CA tier with a high retention, so that neither a burst of
+ * end-entity certificates nor self-made CA certificates can evict them.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CertificateCache {
+
+	/**
+	 * Maximum number of cached CA certificates.
+	 */
+	public static final int MAX_CA_CERTIFICATES = 256;
+
+	/**
+	 * Maximum number of cached end-entity certificates.
+	 */
+	public static final int MAX_CERTIFICATES = 4096;
+
+	private static final Tier caCertificates = new Tier(MAX_CA_CERTIFICATES);
+
+	private static final Tier certificates = new Tier(MAX_CERTIFICATES);
+
+	private CertificateCache() {
+		super();
+	}
+
+	/**
+	 * Gives back the X509 certificate for the given DER encoding.
+	 *
+	 * @param encodedCertificate
+	 *            the DER encoded certificate.
+	 * @return the X509 certificate.
+	 * @throws CertificateException
+	 *             in case of a decoding error.
+	 */
+	public static X509Certificate getCertificate(byte[] encodedCertificate) throws CertificateException {
+		String key = digest(encodedCertificate);
+		X509Certificate certificate = caCertificates.get(key);
+		if (null != certificate) {
+			return certificate;
+		}
+		certificate = certificates.get(key);
+		if (null != certificate) {
+			return certificate;
+		}
+		CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+		certificate = (X509Certificate) certificateFactory
+				.generateCertificate(new ByteArrayInputStream(encodedCertificate));
+		return certificates.put(key, certificate);
+	}
+
+	/**
+	 * Promotes the given CA certificates to the CA tier. Only call this after
+	 * the certificate chain containing the given certificates has been
+	 * validated. End-entity certificates are ignored.
+	 *
+	 * @param certificates
+	 *            the validated certificates.
+	 */
+	public static void promote(X509Certificate... certificates) {
+		for (X509Certificate certificate : certificates) {
+			if (null == certificate) {
+				continue;
+			}
+			if (-1 == certificate.getBasicConstraints()) {
+				continue;
+			}
+			byte[] encodedCertificate;
+			try {
+				encodedCertificate = certificate.getEncoded();
+			} catch (CertificateEncodingException e) {
+				continue;
+			}
+			String key = digest(encodedCertificate);
+			if (null == caCertificates.get(key)) {
+				caCertificates.put(key, certificate);
+			}
+		}
+	}
+
+	/**
+	 * Gives back the number of cached CA certificates.
+	 *
+	 * @return
+	 */
+	public static int getCaCertificateCount() {
+		return caCertificates.size();
+	}
+
+	/**
+	 * Clears the certificate cache.
+	 */
+	public static void clear() {
+		caCertificates.clear();
+		certificates.clear();
+	}
+
+	private static String digest(byte[] data) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		byte[] digestValue = messageDigest.digest(data);
+		return Hex.encodeHexString(digestValue);
+	}
+
+	/**
+	 * A bounded cache tier. Lookups do not lock. When full, the eldest inserted
+	 * certificates are evicted first.
+	 */
+	private static class Tier {
+
+		private final int maxEntries;
+
+		private final ConcurrentMap<String, X509Certificate> certificates;
+
+		private final Queue<String> insertionOrder;
+
+		private final AtomicInteger size;
+
+		public Tier(int maxEntries) {
+			this.maxEntries = maxEntries;
+			this.certificates = new ConcurrentHashMap<String, X509Certificate>();
+			this.insertionOrder = new ConcurrentLinkedQueue<String>();
+			this.size = new AtomicInteger();
+		}
+
+		public X509Certificate get(String key) {
+			return this.certificates.get(key);
+		}
+
+		/**
+		 * Adds the given certificate, unless another thread was first.
+		 *
+		 * @param key
+		 * @param certificate
+		 * @return the cached certificate.
+		 */
+		public X509Certificate put(String key, X509Certificate certificate) {
+			X509Certificate existingCertificate = this.certificates.putIfAbsent(key, certificate);
+			if (null != existingCertificate) {
+				return existingCertificate;
+			}
+			this.insertionOrder.add(key);
+			if (this.size.incrementAndGet() > this.maxEntries) {
+				String eldestKey = this.insertionOrder.poll();
+				if (null != eldestKey && null != this.certificates.remove(eldestKey)) {
+					this.size.decrementAndGet();
+				}
+			}
+			return certificate;
+		}
+
+		public int size() {
+			return this.certificates.size();
+		}
+
+		public void clear() {
+			this.certificates.clear();
+			this.insertionOrder.clear();
+			this.size.set(0);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Cache for certificate chain validation results. The cache is keyed by the
+ * digests of the DER encoded certificates of the chain. Accepted chains are
+ * kept for the positive TTL, rejected chains for the negative TTL. Concurrent
+ * validations of the same certificate chain are collapsed into a single
+ * validation.
+ *
+ * <p>
+ * Only {@link SecurityException} based verdicts are cached as negative result.
+ * Other errors, like a validation service that is down, are never cached.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CertificateValidationCache {
+
+	private static final Log LOG = LogFactory.getLog(CertificateValidationCache.class);
+
+	/**
+	 * The default maximum number of cached certificate chains.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private static final Map<String, CertificateValidationCache> caches = new HashMap<String, CertificateValidationCache>();
+
+	private final long positiveTtl;
+
+	private final long negativeTtl;
+
+	private final Map<String, CacheEntry> entries;
+
+	private final ConcurrentMap<String, FutureTask<CacheEntry>> validations;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param positiveTtl
+	 *            time to live in milliseconds of accepted certificate chains.
+	 * @param negativeTtl
+	 *            time to live in milliseconds of rejected certificate chains.
+	 * @param maxEntries
+	 *            the maximum number of cached certificate chains.
+	 */
+	public CertificateValidationCache(long positiveTtl, long negativeTtl, final int maxEntries) {
+		this.positiveTtl = positiveTtl;
+		this.negativeTtl = negativeTtl;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.validations = new ConcurrentHashMap<String, FutureTask<CacheEntry>>();
+	}
+
+	/**
+	 * Gives back the named process-wide certificate validation cache. Creates
+	 * the cache if it does not exist yet.
+	 *
+	 * @param name
+	 *            the name of the cache. Should identify both the service
+	 *            implementation and the cache settings, as different servlets
+	 *            can configure different services under the same init-param.
+	 * @param positiveTtl
+	 * @param negativeTtl
+	 * @param maxEntries
+	 * @return
+	 */
+	public static CertificateValidationCache getCache(String name, long positiveTtl, long negativeTtl,
+			int maxEntries) {
+		synchronized (caches) {
+			CertificateValidationCache cache = caches.get(name);
+			if (null == cache) {
+				LOG.debug("creating certificate validation cache: " + name);
+				cache = new CertificateValidationCache(positiveTtl, negativeTtl, maxEntries);
+				caches.put(name, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Gives back the named process-wide certificate validation cache.
+	 *
+	 * @param name
+	 *            the name of the cache.
+	 * @return the cache, or <code>null</code> if not available.
+	 */
+	public static CertificateValidationCache findCache(String name) {
+		synchronized (caches) {
+			return caches.get(name);
+		}
+	}
+
+	/**
+	 * Validates the given certificate chain, using the cached result if
+	 * available.
+	 *
+	 * @param certificateChain
+	 * @param validation
+	 *            the actual validation.
+	 * @throws SecurityException
+	 *             in case the certificate chain was rejected.
+	 */
+	public void validate(List<X509Certificate> certificateChain, final Callable<Void> validation)
+			throws SecurityException {
+		final List<String> certificateKeys = getCertificateKeys(certificateChain);
+		final String key = getKey(certificateKeys);
+		CacheEntry entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+		}
+		if (null != entry && false == entry.isExpired()) {
+			LOG.debug("cached certificate chain validation result");
+			entry.rethrow();
+			return;
+		}
+		FutureTask<CacheEntry> task = new FutureTask<CacheEntry>(new Callable<CacheEntry>() {
+			public CacheEntry call() throws Exception {
+				return runValidation(certificateKeys, validation);
+			}
+		});
+		FutureTask<CacheEntry> existingTask = this.validations.putIfAbsent(key, task);
+		if (null == existingTask) {
+			try {
+				task.run();
+			} finally {
+				this.validations.remove(key, task);
+			}
+		} else {
+			LOG.debug("joining ongoing certificate chain validation");
+			task = existingTask;
+		}
+		try {
+			entry = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while validating certificate chain");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException("certificate chain validation error: " + cause.getMessage(), cause);
+		}
+		synchronized (this.entries) {
+			this.entries.put(key, entry);
+		}
+		entry.rethrow();
+	}
+
+	/**
+	 * Removes the cached validation result of the given certificate chain.
+	 *
+	 * @param certificateChain
+	 */
+	public void invalidate(List<X509Certificate> certificateChain) {
+		String key = getKey(getCertificateKeys(certificateChain));
+		synchronized (this.entries) {
+			this.entries.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all cached validation results of certificate chains that contain
+	 * the given certificate. Can be used when a CA certificate gets revoked.
+	 *
+	 * @param certificate
+	 */
+	public void invalidate(X509Certificate certificate) {
+		String certificateKey = getCertificateKey(certificate);
+		synchronized (this.entries) {
+			Iterator<CacheEntry> iterator = this.entries.values().iterator();
+			while (iterator.hasNext()) {
+				CacheEntry entry = iterator.next();
+				if (entry.certificateKeys.contains(certificateKey)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached validation results.
+	 */
+	public void invalidateAll() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	private CacheEntry runValidation(List<String> certificateKeys, Callable<Void> validation) throws Exception {
+		long now = System.currentTimeMillis();
+		try {
+			validation.call();
+		} catch (SecurityException e) {
+			return new CacheEntry(certificateKeys, now + this.negativeTtl, e);
+		}
+		return new CacheEntry(certificateKeys, now + this.positiveTtl, null);
+	}
+
+	private static List<String> getCertificateKeys(List<X509Certificate> certificateChain) {
+		List<String> certificateKeys = new LinkedList<String>();
+		for (X509Certificate certificate : certificateChain) {
+			certificateKeys.add(getCertificateKey(certificate));
+		}
+		return certificateKeys;
+	}
+
+	private static String getKey(List<String> certificateKeys) {
+		StringBuffer key = new StringBuffer();
+		for (String certificateKey : certificateKeys) {
+			key.append(certificateKey);
+			key.append('/');
+		}
+		return key.toString();
+	}
+
+	private static String getCertificateKey(X509Certificate certificate) {
+		if (null == certificate) {
+			return "";
+		}
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			return Hex.encodeHexString(messageDigest.digest(certificate.getEncoded()));
+		} catch (CertificateEncodingException e) {
+			throw new SecurityException("certificate encoding error: " + e.getMessage());
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
+	}
+
+	private static class CacheEntry {
+
+		private final List<String> certificateKeys;
+
+		private final long expiry;
+
+		private final SecurityException securityException;
+
+		public CacheEntry(List<String> certificateKeys, long expiry, SecurityException securityException) {
+			this.certificateKeys = certificateKeys;
+			this.expiry = expiry;
+			this.securityException = securityException;
+		}
+
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= this.expiry;
+		}
+
+		/**
+		 * Throws a fresh copy of the cached rejection. The cached exception
+		 * itself is never thrown as the entry is shared between threads.
+		 *
+		 * @throws SecurityException
+		 */
+		public void rethrow() throws SecurityException {
+			if (null != this.securityException) {
+				throw copy(this.securityException);
+			}
+		}
+
+		private static SecurityException copy(SecurityException securityException) {
+			String message = securityException.getMessage();
+			SecurityException copy;
+			try {
+				if (null != message) {
+					copy = securityException.getClass().getConstructor(String.class).newInstance(message);
+				} else {
+					copy = securityException.getClass().newInstance();
+				}
+			} catch (Exception e) {
+				copy = new SecurityException(message);
+			}
+			copy.initCause(securityException);
+			return copy;
+		}
+	}
+}
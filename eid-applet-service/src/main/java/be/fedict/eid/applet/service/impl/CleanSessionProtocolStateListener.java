@@ -64,6 +64,7 @@ public class CleanSessionProtocolStateListener implements ProtocolStateListener
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.IDENTITY_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.ADDRESS_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.PHOTO_SESSION_ATTRIBUTE);
+			this.httpSession.removeAttribute(IdentityDataMessageHandler.PHOTO_DIGEST_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.EID_CERTS_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.EID_DATA_IDENTITY_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.EID_DATA_ADDRESS_SESSION_ATTRIBUTE);
@@ -75,6 +76,7 @@ public class CleanSessionProtocolStateListener implements ProtocolStateListener
 				eidData.identity = null;
 				eidData.address = null;
 				eidData.photo = null;
+				eidData.photoDigest = null;
 				eidData.certs = null;
 			}
 			break;
@@ -86,6 +88,7 @@ public class CleanSessionProtocolStateListener implements ProtocolStateListener
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.IDENTITY_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.ADDRESS_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.PHOTO_SESSION_ATTRIBUTE);
+			this.httpSession.removeAttribute(IdentityDataMessageHandler.PHOTO_DIGEST_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.EID_DATA_IDENTITY_SESSION_ATTRIBUTE);
 			this.httpSession.removeAttribute(IdentityDataMessageHandler.EID_DATA_ADDRESS_SESSION_ATTRIBUTE);
 			EIdData eidData = (EIdData) this.httpSession.getAttribute(IdentityDataMessageHandler.EID_SESSION_ATTRIBUTE);
@@ -94,6 +97,7 @@ public class CleanSessionProtocolStateListener implements ProtocolStateListener
 				eidData.identity = null;
 				eidData.address = null;
 				eidData.photo = null;
+				eidData.photoDigest = null;
 				eidData.certs = null;
 			}
 			break;
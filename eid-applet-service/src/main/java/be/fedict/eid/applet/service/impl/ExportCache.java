@@ -0,0 +1,409 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.EIdCertsData;
+import be.fedict.eid.applet.service.EIdData;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Process-wide cache of rendered identity exports (PDF, vCard, KML, JSON).
+ * Exports are keyed by the export type and the digest of the identity,
+ * address, photo and certificates. The exports are kept outside of the
+ * (possibly replicated) HTTP session.
+ *
+ * <p>
+ * The cache is bounded by the total size of the cached exports. The least
+ * recently used exports are evicted first. As different HTTP sessions can
+ * share the exports of the same identity, exports are never removed because
+ * of a single HTTP session moving on to another identity.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class ExportCache {
+
+	private static final Log LOG = LogFactory.getLog(ExportCache.class);
+
+	/**
+	 * The default maximum size of the cache in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 1024 * 1024 * 8;
+
+	public static final String USE_EXPORT_CACHE_INIT_PARAM_NAME = "UseExportCache";
+
+	public static final String EXPORT_CACHE_MAX_SIZE_INIT_PARAM_NAME = "ExportCacheMaxSize";
+
+	private static final Map<Class<?>, Field[]> fieldsCache = new HashMap<Class<?>, Field[]>();
+
+	private static ExportCache instance;
+
+	private final long maxSize;
+
+	private final long maxEntrySize;
+
+	private final Map<String, byte[]> exports;
+
+	private long size;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param maxSize
+	 *            the maximum size in bytes of the cache.
+	 */
+	public ExportCache(long maxSize) {
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxSize / 4;
+		this.exports = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	}
+
+	/**
+	 * Configures the process-wide export cache. An export cache that has
+	 * already been configured is kept.
+	 *
+	 * @param maxSize
+	 *            the optional maximum size in bytes of the cache.
+	 * @return the process-wide export cache.
+	 */
+	public static synchronized ExportCache configure(Long maxSize) {
+		if (null == ExportCache.instance) {
+			if (null == maxSize) {
+				maxSize = DEFAULT_MAX_SIZE;
+			}
+			LOG.debug("export cache max size: " + maxSize);
+			ExportCache.instance = new ExportCache(maxSize);
+		}
+		return ExportCache.instance;
+	}
+
+	/**
+	 * Configures the process-wide export cache according to the init-params of
+	 * an export servlet.
+	 *
+	 * @param config
+	 * @return the process-wide export cache, or <code>null</code> if the
+	 *         servlet does not use the export cache.
+	 * @throws ServletException
+	 */
+	public static ExportCache configure(ServletConfig config) throws ServletException {
+		if (false == Boolean.parseBoolean(config.getInitParameter(USE_EXPORT_CACHE_INIT_PARAM_NAME))) {
+			return null;
+		}
+		String maxSize = config.getInitParameter(EXPORT_CACHE_MAX_SIZE_INIT_PARAM_NAME);
+		try {
+			return configure(null != maxSize ? Long.parseLong(maxSize) : null);
+		} catch (NumberFormatException e) {
+			throw new ServletException("invalid " + EXPORT_CACHE_MAX_SIZE_INIT_PARAM_NAME + ": " + maxSize);
+		}
+	}
+
+	/**
+	 * Writes an export to the servlet response. The export is served from the
+	 * export cache when available. Else the export is written by the given
+	 * export writer, and stored in the export cache.
+	 *
+	 * @param exportCache
+	 *            the optional export cache.
+	 * @param exportType
+	 *            the export type, like "pdf".
+	 * @param eIdData
+	 *            the optional eID data.
+	 * @param response
+	 * @param exportWriter
+	 * @throws IOException
+	 * @throws ServletException
+	 */
+	public static void writeExport(ExportCache exportCache, String exportType, EIdData eIdData,
+			HttpServletResponse response, ExportWriter exportWriter) throws IOException, ServletException {
+		OutputStream outputStream = response.getOutputStream();
+		if (null == exportCache || null == eIdData) {
+			exportWriter.writeExport(outputStream);
+			return;
+		}
+		String digest = digest(eIdData);
+		byte[] export = exportCache.findExport(exportType, digest);
+		if (null != export) {
+			LOG.debug("cached export: " + exportType);
+			response.setContentLength(export.length);
+			outputStream.write(export);
+			return;
+		}
+		CachingOutputStream cachingOutputStream = exportCache.cache(exportType, digest, outputStream);
+		exportWriter.writeExport(cachingOutputStream);
+		cachingOutputStream.storeExport();
+	}
+
+	/**
+	 * Writes an export that is not available in the export cache.
+	 */
+	public interface ExportWriter {
+
+		/**
+		 * Writes the export to the given output stream.
+		 *
+		 * @param outputStream
+		 * @throws IOException
+		 * @throws ServletException
+		 */
+		void writeExport(OutputStream outputStream) throws IOException, ServletException;
+	}
+
+	/**
+	 * Finds a cached export.
+	 *
+	 * @param exportType
+	 *            the export type, like "pdf".
+	 * @param digest
+	 *            the digest of the eID data.
+	 * @return the export, or <code>null</code> if not found.
+	 */
+	public synchronized byte[] findExport(String exportType, String digest) {
+		return this.exports.get(digest + "/" + exportType);
+	}
+
+	/**
+	 * Stores an export.
+	 *
+	 * @param exportType
+	 * @param digest
+	 * @param export
+	 */
+	public synchronized void storeExport(String exportType, String digest, byte[] export) {
+		if (export.length > this.maxEntrySize) {
+			return;
+		}
+		byte[] previousExport = this.exports.put(digest + "/" + exportType, export);
+		if (null != previousExport) {
+			this.size -= previousExport.length;
+		}
+		this.size += export.length;
+		Iterator<byte[]> iterator = this.exports.values().iterator();
+		while (this.size > this.maxSize) {
+			byte[] eldestExport = iterator.next();
+			iterator.remove();
+			this.size -= eldestExport.length;
+		}
+	}
+
+	/**
+	 * Gives back an output stream that passes through to the given output
+	 * stream, while capturing the export. Call
+	 * {@link CachingOutputStream#storeExport()} once the export has been
+	 * written completely.
+	 *
+	 * @param exportType
+	 * @param digest
+	 * @param outputStream
+	 * @return
+	 */
+	public CachingOutputStream cache(String exportType, String digest, OutputStream outputStream) {
+		return new CachingOutputStream(exportType, digest, outputStream);
+	}
+
+	/**
+	 * Gives back the number of bytes held by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Output stream that captures the export while writing it.
+	 */
+	public class CachingOutputStream extends FilterOutputStream {
+
+		private final String exportType;
+
+		private final String digest;
+
+		private ByteArrayOutputStream capture;
+
+		private CachingOutputStream(String exportType, String digest, OutputStream outputStream) {
+			super(outputStream);
+			this.exportType = exportType;
+			this.digest = digest;
+			this.capture = new ByteArrayOutputStream();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			capture(1);
+			if (null != this.capture) {
+				this.capture.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			capture(len);
+			if (null != this.capture) {
+				this.capture.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Stores the captured export in the cache.
+		 */
+		public void storeExport() {
+			if (null != this.capture) {
+				ExportCache.this.storeExport(this.exportType, this.digest, this.capture.toByteArray());
+				this.capture = null;
+			}
+		}
+
+		private void capture(int length) {
+			if (null != this.capture && this.capture.size() + length > ExportCache.this.maxEntrySize) {
+				LOG.debug("export too large for caching: " + this.exportType);
+				this.capture = null;
+			}
+		}
+	}
+
+	/**
+	 * Digests the identity, address, photo and certificates of the given eID
+	 * data.
+	 *
+	 * @param eIdData
+	 * @return the hex encoded digest.
+	 */
+	public static String digest(EIdData eIdData) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			digestFields(messageDigest, eIdData.getIdentity());
+			digestFields(messageDigest, eIdData.getAddress());
+			if (null != eIdData.getPhotoDigest()) {
+				digestValue(messageDigest, eIdData.getPhotoDigest());
+			} else {
+				digestValue(messageDigest, eIdData.photo);
+			}
+			EIdCertsData certs = eIdData.getCerts();
+			if (null != certs) {
+				digestValue(messageDigest, certs.authn);
+				digestValue(messageDigest, certs.sign);
+				digestValue(messageDigest, certs.ca);
+				digestValue(messageDigest, certs.root);
+			} else {
+				digestValue(messageDigest, null);
+			}
+			return Hex.encodeHexString(messageDigest.digest());
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
+	}
+
+	private static void digestFields(MessageDigest messageDigest, Object object) {
+		if (null == object) {
+			digestValue(messageDigest, null);
+			return;
+		}
+		for (Field field : getFields(object.getClass())) {
+			try {
+				digestValue(messageDigest, field.get(object));
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException("could not read field: " + field.getName());
+			}
+		}
+	}
+
+	private static Field[] getFields(Class<?> clazz) {
+		synchronized (fieldsCache) {
+			Field[] fields = fieldsCache.get(clazz);
+			if (null == fields) {
+				List<Field> fieldList = new LinkedList<Field>();
+				for (Field field : clazz.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					field.setAccessible(true);
+					fieldList.add(field);
+				}
+				fields = fieldList.toArray(new Field[0]);
+				fieldsCache.put(clazz, fields);
+			}
+			return fields;
+		}
+	}
+
+	private static void digestValue(MessageDigest messageDigest, Object value) {
+		byte[] data;
+		if (null == value) {
+			messageDigest.update((byte) 0);
+			return;
+		} else if (value instanceof byte[]) {
+			data = (byte[]) value;
+		} else if (value instanceof Calendar) {
+			data = Long.toString(((Calendar) value).getTimeInMillis()).getBytes();
+		} else if (value instanceof X509Certificate) {
+			try {
+				data = ((X509Certificate) value).getEncoded();
+			} catch (CertificateEncodingException e) {
+				throw new RuntimeException("certificate encoding error: " + e.getMessage(), e);
+			}
+		} else {
+			try {
+				data = value.toString().getBytes("UTF-8");
+			} catch (IOException e) {
+				throw new RuntimeException("UTF-8 error: " + e.getMessage(), e);
+			}
+		}
+		messageDigest.update((byte) 1);
+		messageDigest.update((byte) (data.length >> 24));
+		messageDigest.update((byte) (data.length >> 16));
+		messageDigest.update((byte) (data.length >> 8));
+		messageDigest.update((byte) data.length);
+		messageDigest.update(data);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Verifier of the national registration signatures on the eID identity and
+ * address files. The national registration certificate is only inspected once,
+ * so a single instance can be shared across threads when verifying many
+ * records.
+ *
+ * <p>
+ * The address signature covers the address file, without the trailing zero
+ * padding, followed by the identity signature.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class IdentitySignatureVerifier {
+
+	private final String signatureAlgo;
+
+	private final PublicKey publicKey;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param rrnCertificate
+	 *            the national registration certificate.
+	 */
+	public IdentitySignatureVerifier(X509Certificate rrnCertificate) {
+		this.signatureAlgo = rrnCertificate.getSigAlgName();
+		this.publicKey = rrnCertificate.getPublicKey();
+	}
+
+	/**
+	 * Verifies the signature on the identity file.
+	 *
+	 * @param identityFile
+	 * @param identitySignatureFile
+	 * @return <code>true</code> if the signature is valid.
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 *             in case of a malformed signature.
+	 */
+	public boolean verifyIdentitySignature(byte[] identityFile, byte[] identitySignatureFile)
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		return verifySignature(this.signatureAlgo, this.publicKey, identitySignatureFile, identityFile);
+	}
+
+	/**
+	 * Verifies the signature on the address file.
+	 *
+	 * @param addressFile
+	 *            the address file, possibly padded with zeros.
+	 * @param addressSignatureFile
+	 * @param identitySignatureFile
+	 *            the signature on the corresponding identity file.
+	 * @return <code>true</code> if the signature is valid.
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 *             in case of a malformed signature.
+	 */
+	public boolean verifyAddressSignature(byte[] addressFile, byte[] addressSignatureFile,
+			byte[] identitySignatureFile) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		return verifySignature(this.signatureAlgo, this.publicKey, addressSignatureFile, trimRight(addressFile),
+				identitySignatureFile);
+	}
+
+	/**
+	 * Verifies a signature over the concatenation of the given data items,
+	 * using a signature engine of the current thread.
+	 *
+	 * @param signatureAlgo
+	 * @param publicKey
+	 * @param signatureData
+	 * @param data
+	 * @return <code>true</code> if the signature is valid.
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 */
+	public static boolean verifySignature(String signatureAlgo, PublicKey publicKey, byte[] signatureData,
+			byte[]... data) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		Signature signature = CryptoEnginePool.borrowSignature(signatureAlgo);
+		try {
+			signature.initVerify(publicKey);
+			for (byte[] dataItem : data) {
+				signature.update(dataItem);
+			}
+			return signature.verify(signatureData);
+		} finally {
+			CryptoEnginePool.release(signature);
+		}
+	}
+
+	/**
+	 * Removes the zero padding at the end of an address file.
+	 *
+	 * @param addressFile
+	 * @return
+	 */
+	public static byte[] trimRight(byte[] addressFile) {
+		int idx;
+		for (idx = 0; idx < addressFile.length; idx++) {
+			if (0 == addressFile[idx]) {
+				break;
+			}
+		}
+		byte[] result = new byte[idx];
+		System.arraycopy(addressFile, 0, result, 0, idx);
+		return result;
+	}
+}
@@ -20,22 +20,22 @@ package be.fedict.eid.applet.service.impl;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Element;
 
 import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.KmlServlet;
 import be.fedict.eid.applet.service.util.KmlLight;
-import be.fedict.eid.applet.service.util.KmlLightDocument;
+import be.fedict.eid.applet.service.util.KmlLightWriter;
 
 /**
  * KML generator for eID identity data. The implementation is using a "light"
- * implementation
+ * implementation. The KML document is streamed via StAX into the KMZ zip.
  * 
  * @author Bart Hanssens
  * @see KmlServlet
@@ -53,75 +53,85 @@ public class KmlGenerator {
 	 */
 	public byte[] generateKml(EIdData eIdData) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		KmlLight kml = new KmlLight(baos);
-		KmlLightDocument doc = new KmlLightDocument();
+		generateKml(eIdData, baos);
+		return baos.toByteArray();
+	}
 
+	/**
+	 * Stream zipped KML (.kmz) using data from the eID card. The output stream
+	 * is not closed.
+	 *
+	 * @param eIdData
+	 *            ID data retrieved from eID card
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void generateKml(EIdData eIdData, OutputStream outputStream) throws IOException {
+		KmlLight kml = new KmlLight(outputStream);
+
+		if (null == eIdData || null == eIdData.getIdentity()) {
+			new KmlLightWriter(kml.startKmlFile()).close();
+			kml.endKmlFile();
+			kml.finish();
+			return;
+		}
+
+		Identity identity = eIdData.getIdentity();
 		String htmlDescription = "";
 
-		if (null != eIdData && null != eIdData.getIdentity()) {
-			Identity identity = eIdData.getIdentity();
-
-			if (null != eIdData.getPhoto()) {
-				byte[] photoData = eIdData.getPhoto();
-				kml.addImage(photoData);
-				htmlDescription += "<img src='photo.jpg' align='left'>";
-			} else {
-				LOG.debug("no photo");
-			}
-
-			Element elName = doc.createName(identity.firstName + " " + identity.name);
-
-			/* name */
-			htmlDescription += identity.firstName + " ";
-			if (null != identity.middleName) {
-				htmlDescription += identity.middleName + " ";
-			}
-			htmlDescription += identity.name;
-			htmlDescription += "<br/>";
-
-			/* nationality */
-			htmlDescription += identity.nationality;
-			htmlDescription += "<br/>";
-
-			/* day of birth */
-			SimpleDateFormat formatter = new SimpleDateFormat("dd/MM/yyyy");
-			String birthday = formatter.format(identity.dateOfBirth.getTime());
-			htmlDescription += "(°" + birthday + ", " + identity.placeOfBirth + ")";
-			htmlDescription += "<br/>";
-
-			/* validity of the card */
-			Element elValid = null;
-
-			if (null != identity.cardValidityDateBegin) {
-				elValid = doc.createTimespan(identity.cardValidityDateBegin.getTime(),
-						identity.cardValidityDateEnd.getTime());
-			} else {
-				LOG.debug("card validity begin date is unknown");
-			}
-
-			/* citizen's address */
-			Element elAddress = null;
-
-			if (null != eIdData.getAddress()) {
-				Address address = eIdData.getAddress();
-
-				/*
-				 * not needed, or it will appear twice in GoogleEarth
-				 * htmlDescription += address.streetAndNumber + ", " +
-				 * address.zip + " " + address.municipality; htmlDescription +=
-				 * "<br/>";
-				 */
-				elAddress = doc.createAddress(address.streetAndNumber, address.municipality, address.zip);
-			} else {
-				LOG.debug("no address");
-			}
-
-			Element elDescription = doc.createDescriptionNode(htmlDescription);
-			doc.addPlacemark(elName, elAddress, elDescription, elValid);
+		byte[] photoData = eIdData.getPhoto();
+		if (null != photoData) {
+			kml.addImage(photoData);
+			htmlDescription += "<img src='photo.jpg' align='left'>";
+		} else {
+			LOG.debug("no photo");
 		}
-		kml.addKmlFile(doc.getDocumentAsBytes());
-		kml.close();
 
-		return baos.toByteArray();
+		/* name */
+		htmlDescription += identity.firstName + " ";
+		if (null != identity.middleName) {
+			htmlDescription += identity.middleName + " ";
+		}
+		htmlDescription += identity.name;
+		htmlDescription += "<br/>";
+
+		/* nationality */
+		htmlDescription += identity.nationality;
+		htmlDescription += "<br/>";
+
+		/* day of birth */
+		SimpleDateFormat formatter = new SimpleDateFormat("dd/MM/yyyy");
+		String birthday = formatter.format(identity.dateOfBirth.getTime());
+		htmlDescription += "(°" + birthday + ", " + identity.placeOfBirth + ")";
+		htmlDescription += "<br/>";
+
+		KmlLightWriter writer = new KmlLightWriter(kml.startKmlFile());
+		writer.startPlacemark(identity.firstName + " " + identity.name);
+
+		/* citizen's address */
+		Address address = eIdData.getAddress();
+		if (null != address) {
+			/*
+			 * not needed in the description, or it will appear twice in
+			 * GoogleEarth
+			 */
+			writer.addAddress(address.streetAndNumber, address.municipality, address.zip);
+		} else {
+			LOG.debug("address is null");
+		}
+
+		writer.addDescription(htmlDescription);
+
+		/* validity of the card */
+		if (null != identity.cardValidityDateBegin) {
+			writer.addTimespan(identity.cardValidityDateBegin.getTime(), identity.cardValidityDateEnd.getTime());
+		} else {
+			LOG.debug("card validity begin date is unknown");
+		}
+
+		writer.endPlacemark();
+		writer.close();
+		kml.endKmlFile();
+		kml.finish();
 	}
 }
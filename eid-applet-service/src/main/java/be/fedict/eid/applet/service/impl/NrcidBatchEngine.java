@@ -0,0 +1,208 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Batch engine for the generation of non-reversible citizen identifiers. The
+ * engine streams national registry numbers, one per line, and writes out the
+ * mappings as <code>national number,NRCID</code> lines, in input order. The
+ * NRCIDs are computed in blocks by a pool of worker threads.
+ *
+ * <p>
+ * Usage:
+ * <code>NrcidBatchEngine &lt;input&gt; &lt;output&gt; &lt;secret file&gt; &lt;orgId&gt; &lt;appId&gt; [HMAC algo] [threads]</code>
+ * . The secret is read from a file to keep it out of the process list.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class NrcidBatchEngine {
+
+	private static final Log LOG = LogFactory.getLog(NrcidBatchEngine.class);
+
+	/**
+	 * The default number of national numbers per work block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private final NrcidGenerator nrcidGenerator;
+
+	private final int threads;
+
+	private final int blockSize;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param nrcidGenerator
+	 * @param threads
+	 *            the number of worker threads.
+	 * @param blockSize
+	 *            the number of national numbers per work block.
+	 */
+	public NrcidBatchEngine(NrcidGenerator nrcidGenerator, int threads, int blockSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("invalid block size: " + blockSize);
+		}
+		this.nrcidGenerator = nrcidGenerator;
+		this.threads = threads;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Runs the batch. Empty lines are skipped.
+	 *
+	 * @param reader
+	 *            the national numbers, one per line.
+	 * @param writer
+	 *            receives the mappings.
+	 * @return the number of generated NRCIDs.
+	 * @throws IOException
+	 */
+	public long run(Reader reader, Writer writer) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(reader);
+		ExecutorService executorService = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "eid-nrcid-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		/*
+		 * Bounding the number of pending blocks bounds the memory usage.
+		 */
+		int maxPendingBlocks = this.threads * 2;
+		LinkedList<Future<String>> pendingBlocks = new LinkedList<Future<String>>();
+		long count = 0;
+		try {
+			while (true) {
+				final List<String> block = readBlock(bufferedReader);
+				if (block.isEmpty()) {
+					break;
+				}
+				count += block.size();
+				pendingBlocks.add(executorService.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return processBlock(block);
+					}
+				}));
+				if (pendingBlocks.size() >= maxPendingBlocks) {
+					writer.write(getResult(pendingBlocks.removeFirst()));
+				}
+			}
+			while (false == pendingBlocks.isEmpty()) {
+				writer.write(getResult(pendingBlocks.removeFirst()));
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+		writer.flush();
+		LOG.debug("number of generated NRCIDs: " + count);
+		return count;
+	}
+
+	private List<String> readBlock(BufferedReader reader) throws IOException {
+		List<String> block = new ArrayList<String>(this.blockSize);
+		String line;
+		while (block.size() < this.blockSize && null != (line = reader.readLine())) {
+			line = line.trim();
+			if (0 == line.length()) {
+				continue;
+			}
+			block.add(line);
+		}
+		return block;
+	}
+
+	private String processBlock(List<String> block) {
+		StringBuilder result = new StringBuilder(block.size() * 80);
+		for (String userId : block) {
+			result.append(userId);
+			result.append(',');
+			result.append(this.nrcidGenerator.getNonReversibleCitizenIdentifier(userId));
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
+	private static String getResult(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			throw new RuntimeException("NRCID error: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5 || args.length > 7) {
+			System.err.println(
+					"usage: NrcidBatchEngine <input> <output> <secret file> <orgId> <appId> [HMAC algo] [threads]");
+			System.exit(1);
+		}
+		String secret = FileUtils.readFileToString(new File(args[2]));
+		String hmacAlgo = args.length > 5 ? args[5] : UserIdentifierUtil.HMAC_ALGO;
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+		NrcidGenerator nrcidGenerator = new NrcidGenerator(args[3], args[4], secret, hmacAlgo);
+		NrcidBatchEngine nrcidBatchEngine = new NrcidBatchEngine(nrcidGenerator, threads, DEFAULT_BLOCK_SIZE);
+		Reader reader = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"));
+			try {
+				long count = nrcidBatchEngine.run(reader, writer);
+				System.err.println("generated NRCIDs: " + count);
+			} finally {
+				writer.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
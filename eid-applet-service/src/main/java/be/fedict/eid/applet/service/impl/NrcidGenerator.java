@@ -0,0 +1,262 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Generator of non-reversible citizen identifiers (NRCID) for a fixed
+ * organization identifier, application identifier and secret. The secret is
+ * decoded and validated only once, and every thread keeps its own pre-keyed
+ * MAC, so generating an NRCID boils down to a single MAC operation.
+ *
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class NrcidGenerator {
+
+	private static final Log LOG = LogFactory.getLog(NrcidGenerator.class);
+
+	private static final int MAX_CACHED_GENERATORS = 16;
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private static final Map<String, NrcidGenerator> generators = new LinkedHashMap<String, NrcidGenerator>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, NrcidGenerator> eldest) {
+			return size() > MAX_CACHED_GENERATORS;
+		}
+	};
+
+	private final SecretKeySpec macKey;
+
+	private final Mac prototypeMac;
+
+	private final String suffix;
+
+	private final ThreadLocal<Mac> macs;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param orgId
+	 *            the optional organization identifier.
+	 * @param appId
+	 *            the optional application identifier.
+	 * @param secret
+	 *            the application specific secret. Should be at least 128 bit
+	 *            long. Encoded in hexadecimal format.
+	 * @param hmacAlgo
+	 *            the HMAC algorithm, like <code>HmacSHA1</code> or
+	 *            <code>HmacSHA256</code>.
+	 */
+	public NrcidGenerator(String orgId, String appId, String secret, String hmacAlgo) {
+		if (null == secret) {
+			throw new IllegalArgumentException("secret key is null");
+		}
+		/*
+		 * Avoid XML formatting issues introduced by some web.xml XML editors.
+		 */
+		secret = secret.trim();
+		if (null != orgId) {
+			orgId = orgId.trim();
+		} else {
+			LOG.warn("it is advised to use an orgId");
+		}
+		if (null != appId) {
+			appId = appId.trim();
+		} else {
+			LOG.warn("it is advised to use an appId");
+		}
+
+		/*
+		 * Decode the secret key.
+		 */
+		byte[] secretKey;
+		try {
+			secretKey = Hex.decodeHex(secret.toCharArray());
+		} catch (DecoderException e) {
+			LOG.error("secret is not hexadecimal encoded: " + e.getMessage());
+			throw new IllegalArgumentException("secret is not hexadecimal encoded");
+		}
+		if ((128 / 8) > secretKey.length) {
+			/*
+			 * 128 bit is seen as secure these days.
+			 */
+			LOG.warn("secret key is too short");
+			throw new IllegalArgumentException("secret key is too short");
+		}
+
+		/*
+		 * The HMAC input sequence is: userId | appId | orgId
+		 */
+		String suffix = "";
+		if (null != appId) {
+			suffix += appId;
+		}
+		if (null != orgId) {
+			suffix += orgId;
+		}
+		this.suffix = suffix;
+
+		this.macKey = new SecretKeySpec(secretKey, hmacAlgo);
+		try {
+			this.prototypeMac = Mac.getInstance(hmacAlgo);
+			this.prototypeMac.init(this.macKey);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("HMAC algo not available: " + e.getMessage());
+		} catch (InvalidKeyException e) {
+			LOG.error("invalid secret key: " + e.getMessage(), e);
+			throw new RuntimeException("invalid secret");
+		}
+		this.macs = new ThreadLocal<Mac>() {
+			@Override
+			protected Mac initialValue() {
+				return newMac();
+			}
+		};
+	}
+
+	/**
+	 * Gives back a (cached) NRCID generator.
+	 *
+	 * @param orgId
+	 * @param appId
+	 * @param secret
+	 * @param hmacAlgo
+	 * @return
+	 */
+	public static NrcidGenerator getInstance(String orgId, String appId, String secret, String hmacAlgo) {
+		String key = getKey(orgId, appId, secret, hmacAlgo);
+		synchronized (generators) {
+			NrcidGenerator generator = generators.get(key);
+			if (null != generator) {
+				return generator;
+			}
+		}
+		NrcidGenerator generator = new NrcidGenerator(orgId, appId, secret, hmacAlgo);
+		synchronized (generators) {
+			generators.put(key, generator);
+		}
+		return generator;
+	}
+
+	/**
+	 * Gives back the generator cache key. The key is a digest, so the secret
+	 * is never kept in the cache as is.
+	 *
+	 * @param orgId
+	 * @param appId
+	 * @param secret
+	 * @param hmacAlgo
+	 * @return
+	 */
+	private static String getKey(String orgId, String appId, String secret, String hmacAlgo) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			for (String value : new String[] { hmacAlgo, orgId, appId, secret }) {
+				if (null == value) {
+					messageDigest.update((byte) 0);
+					continue;
+				}
+				byte[] encodedValue = value.getBytes("UTF-8");
+				messageDigest.update((byte) 1);
+				messageDigest.update(ByteBuffer.allocate(4).putInt(encodedValue.length).array());
+				messageDigest.update(encodedValue);
+			}
+			return Hex.encodeHexString(messageDigest.digest());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 error: " + e.getMessage(), e);
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
+	}
+
+	/**
+	 * Gives back the non-reversible citizen identifier for the given user.
+	 *
+	 * @param userId
+	 *            the primary user identifier, i.e. the national registry
+	 *            number.
+	 * @return the upper case hexadecimal encoded NRCID.
+	 */
+	public String getNonReversibleCitizenIdentifier(String userId) {
+		Mac mac = this.macs.get();
+		mac.update((userId + this.suffix).getBytes());
+		byte[] resultHMac = mac.doFinal();
+		return encodeHex(resultHMac);
+	}
+
+	private Mac newMac() {
+		try {
+			return (Mac) this.prototypeMac.clone();
+		} catch (CloneNotSupportedException e) {
+			/*
+			 * Not all providers support cloning of a keyed MAC.
+			 */
+			try {
+				Mac mac = Mac.getInstance(this.prototypeMac.getAlgorithm(), this.prototypeMac.getProvider());
+				mac.init(this.macKey);
+				return mac;
+			} catch (NoSuchAlgorithmException e2) {
+				throw new RuntimeException("HMAC algo not available: " + e2.getMessage());
+			} catch (InvalidKeyException e2) {
+				throw new RuntimeException("invalid secret");
+			}
+		}
+	}
+
+	private static String encodeHex(byte[] data) {
+		char[] hex = new char[data.length * 2];
+		for (int idx = 0; idx < data.length; idx++) {
+			hex[idx * 2] = HEX_DIGITS[(data[idx] >> 4) & 0x0f];
+			hex[idx * 2 + 1] = HEX_DIGITS[data[idx] & 0x0f];
+		}
+		return new String(hex);
+	}
+}
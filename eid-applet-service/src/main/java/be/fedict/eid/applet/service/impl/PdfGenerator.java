@@ -21,8 +21,15 @@ package be.fedict.eid.applet.service.impl;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -33,19 +40,33 @@ import com.lowagie.text.Element;
 import com.lowagie.text.Font;
 import com.lowagie.text.Image;
 import com.lowagie.text.Paragraph;
+import com.lowagie.text.Phrase;
 import com.lowagie.text.pdf.Barcode128;
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.ColumnText;
+import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfPCell;
 import com.lowagie.text.pdf.PdfPTable;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfStamper;
 import com.lowagie.text.pdf.PdfWriter;
 
 import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.PdfServlet;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 
 /**
  * PDF generator for eID identity data. The implementation is using iText.
  * 
+ * <p>
+ * The PDF document is streamed to the given output stream. Immutable resources
+ * like fonts and the parsed photos are shared process-wide. In template mode
+ * the static part of the document is only rendered once. Per document the
+ * citizen's data is stamped on top of this pre-rendered template.
+ * </p>
+ * 
  * @author Frank Cornelis
  * @author Bart Hanssens
  * @see PdfServlet
@@ -54,6 +75,70 @@ public class PdfGenerator {
 
 	private static final Log LOG = LogFactory.getLog(PdfGenerator.class);
 
+	/**
+	 * Maximum number of cached photo images.
+	 */
+	public static final int MAX_CACHED_PHOTOS = 256;
+
+	private static final Font TITLE_FONT = new Font(Font.HELVETICA, 20, Font.BOLD);
+
+	private static final float TEMPLATE_LABEL_X = 72;
+
+	private static final float TEMPLATE_VALUE_X = 310;
+
+	private static final float TEMPLATE_FIRST_ROW_Y = 530;
+
+	private static final float TEMPLATE_ROW_HEIGHT = 20;
+
+	private static final float TEMPLATE_FONT_SIZE = 12;
+
+	private static final float TEMPLATE_PHOTO_WIDTH = 140;
+
+	private static final float TEMPLATE_PHOTO_HEIGHT = 200;
+
+	private static final String[] TEMPLATE_LABELS = { "Name", "First name", "Nationality",
+			"National Registration Number", "Gender", "Date of birth", "Place of birth", "Address" };
+
+	private static final ThreadLocal<SimpleDateFormat> dateFormats = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("dd/MM/yyyy");
+		}
+	};
+
+	private static final Map<String, Image> photoImages = new LinkedHashMap<String, Image>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+			return size() > MAX_CACHED_PHOTOS;
+		}
+	};
+
+	private static BaseFont templateFont;
+
+	private static byte[] template;
+
+	private final boolean useTemplate;
+
+	/**
+	 * Default constructor. Does not use the pre-rendered template.
+	 */
+	public PdfGenerator() {
+		this(false);
+	}
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param useTemplate
+	 *            <code>true</code> to stamp the citizen's data on a
+	 *            pre-rendered template.
+	 */
+	public PdfGenerator(boolean useTemplate) {
+		this.useTemplate = useTemplate;
+	}
+
 	/**
 	 * Generate a Code128C barcode
 	 *
@@ -82,7 +167,8 @@ public class PdfGenerator {
 	}
 
 	/**
-	 * Create a PDF image from eID photo
+	 * Create a PDF image from eID photo. The parsed photo is cached, so we
+	 * only need to make a copy for every document.
 	 *
 	 * @param photoData
 	 *            raw bytes
@@ -91,7 +177,18 @@ public class PdfGenerator {
 	 * @throws BadElementException
 	 */
 	private Image createImageFromPhoto(byte[] photoData) throws IOException, BadElementException {
-		Image image = Image.getInstance(photoData);
+		String key = digest(photoData);
+		Image photoImage;
+		synchronized (photoImages) {
+			photoImage = photoImages.get(key);
+		}
+		if (null == photoImage) {
+			photoImage = Image.getInstance(photoData);
+			synchronized (photoImages) {
+				photoImages.put(key, photoImage);
+			}
+		}
+		Image image = Image.getInstance(photoImage);
 		image.setAlt("Photo");
 		image.setAlignment(Element.ALIGN_CENTER);
 		image.setSpacingAfter(20);
@@ -118,25 +215,48 @@ public class PdfGenerator {
 	}
 
 	public byte[] generatePdf(EIdData eIdData) throws DocumentException {
-		Document document = new Document();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		PdfWriter writer = PdfWriter.getInstance(document, baos);
+		generatePdf(eIdData, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Streams the PDF document to the given output stream. The output stream
+	 * is not closed.
+	 * 
+	 * @param eIdData
+	 * @param outputStream
+	 * @throws DocumentException
+	 */
+	public void generatePdf(EIdData eIdData, OutputStream outputStream) throws DocumentException {
+		if (this.useTemplate && null != eIdData && null != eIdData.getIdentity()) {
+			byte[] photo = eIdData.getPhoto();
+			if (null != photo) {
+				try {
+					stampTemplate(eIdData.getIdentity(), eIdData.getAddress(), photo, outputStream);
+				} catch (IOException e) {
+					throw new DocumentException(e);
+				}
+				return;
+			}
+		}
+
+		Document document = new Document();
+		PdfWriter writer = PdfWriter.getInstance(document, outputStream);
+		writer.setCloseStream(false);
 
 		document.open();
 
-		Paragraph titleParagraph = new Paragraph("eID Identity Data");
+		Paragraph titleParagraph = new Paragraph("eID Identity Data", TITLE_FONT);
 		titleParagraph.setAlignment(Paragraph.ALIGN_CENTER);
-
-		Font titleFont = titleParagraph.getFont();
-		titleFont.setSize((float) 20.0);
-		titleFont.setStyle(Font.BOLD);
 		titleParagraph.setSpacingAfter(20);
 		document.add(titleParagraph);
 
 		if (null != eIdData && null != eIdData.getIdentity()) {
-			if (null != eIdData.getPhoto()) {
+			byte[] photo = eIdData.getPhoto();
+			if (null != photo) {
 				try {
-					Image image = createImageFromPhoto(eIdData.getPhoto());
+					Image image = createImageFromPhoto(photo);
 					document.add(image);
 				} catch (Exception e) {
 					LOG.error("Error getting photo: " + e.getMessage());
@@ -156,11 +276,7 @@ public class PdfGenerator {
 				table.addCell(identity.name);
 
 				table.addCell("First name");
-				String firstName = identity.firstName;
-				if (null != identity.middleName) {
-					firstName += " " + identity.middleName;
-				}
-				table.addCell(firstName);
+				table.addCell(getFirstName(identity));
 
 				table.addCell("Nationality");
 				table.addCell(identity.nationality);
@@ -172,8 +288,7 @@ public class PdfGenerator {
 				table.addCell(identity.gender.toString());
 
 				table.addCell("Date of birth");
-				SimpleDateFormat formatter = new SimpleDateFormat("dd/MM/yyyy");
-				table.addCell(formatter.format(identity.dateOfBirth.getTime()));
+				table.addCell(dateFormats.get().format(identity.dateOfBirth.getTime()));
 
 				table.addCell("Place of birth");
 				table.addCell(identity.placeOfBirth);
@@ -207,6 +322,118 @@ public class PdfGenerator {
 			}
 		}
 		document.close();
-		return baos.toByteArray();
+	}
+
+	private void stampTemplate(Identity identity, Address address, byte[] photo, OutputStream outputStream)
+			throws DocumentException, IOException {
+		PdfReader reader = new PdfReader(getTemplate());
+		PdfStamper stamper = new PdfStamper(reader, outputStream);
+		stamper.getWriter().setCloseStream(false);
+
+		HashMap<String, String> info = new HashMap<String, String>();
+		info.put("Title", identity.firstName + " " + identity.name);
+		info.put("Subject", "Data from the eID card");
+		info.put("Creator", "Belgian eID applet");
+		stamper.setMoreInfo(info);
+
+		PdfContentByte content = stamper.getOverContent(1);
+		try {
+			Image image = createImageFromPhoto(photo);
+			image.scaleToFit(TEMPLATE_PHOTO_WIDTH, TEMPLATE_PHOTO_HEIGHT);
+			float photoX = (reader.getPageSize(1).getWidth() - image.getScaledWidth()) / 2;
+			float photoY = TEMPLATE_FIRST_ROW_Y + TEMPLATE_ROW_HEIGHT;
+			image.setAbsolutePosition(photoX, photoY);
+			content.addImage(image);
+		} catch (Exception e) {
+			LOG.error("Error getting photo: " + e.getMessage());
+		}
+
+		String[] values = { identity.name, getFirstName(identity), identity.nationality, identity.nationalNumber,
+				identity.gender.toString(), dateFormats.get().format(identity.dateOfBirth.getTime()),
+				identity.placeOfBirth };
+		content.beginText();
+		content.setFontAndSize(getTemplateFont(), TEMPLATE_FONT_SIZE);
+		for (int idx = 0; idx < values.length; idx++) {
+			if (null != values[idx]) {
+				content.setTextMatrix(TEMPLATE_VALUE_X, TEMPLATE_FIRST_ROW_Y - idx * TEMPLATE_ROW_HEIGHT);
+				content.showText(values[idx]);
+			}
+		}
+		if (null != address) {
+			float addressY = TEMPLATE_FIRST_ROW_Y - values.length * TEMPLATE_ROW_HEIGHT;
+			content.setTextMatrix(TEMPLATE_VALUE_X, addressY);
+			content.showText(null != address.streetAndNumber ? address.streetAndNumber : "");
+			content.setTextMatrix(TEMPLATE_VALUE_X, addressY - TEMPLATE_ROW_HEIGHT);
+			content.showText(address.zip + " " + address.municipality);
+		}
+		content.endText();
+
+		stamper.close();
+	}
+
+	/**
+	 * Gives back the pre-rendered static template. The template is rendered
+	 * only once per process.
+	 * 
+	 * @return
+	 * @throws DocumentException
+	 */
+	private static synchronized byte[] getTemplate() throws DocumentException {
+		if (null != template) {
+			return template;
+		}
+		LOG.debug("rendering PDF template");
+		Document document = new Document();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PdfWriter writer = PdfWriter.getInstance(document, baos);
+		document.open();
+
+		Paragraph titleParagraph = new Paragraph("eID Identity Data", TITLE_FONT);
+		titleParagraph.setAlignment(Paragraph.ALIGN_CENTER);
+		document.add(titleParagraph);
+
+		PdfContentByte content = writer.getDirectContent();
+		for (int idx = 0; idx < TEMPLATE_LABELS.length; idx++) {
+			ColumnText.showTextAligned(content, Element.ALIGN_LEFT,
+					new Phrase(TEMPLATE_LABELS[idx], new Font(getTemplateFont(), TEMPLATE_FONT_SIZE)),
+					TEMPLATE_LABEL_X, TEMPLATE_FIRST_ROW_Y - idx * TEMPLATE_ROW_HEIGHT, 0);
+		}
+
+		document.close();
+		template = baos.toByteArray();
+		return template;
+	}
+
+	private static synchronized BaseFont getTemplateFont() throws DocumentException {
+		if (null == templateFont) {
+			try {
+				templateFont = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+			} catch (IOException e) {
+				throw new DocumentException(e);
+			}
+		}
+		return templateFont;
+	}
+
+	private static String getFirstName(Identity identity) {
+		String firstName = identity.firstName;
+		if (null != identity.middleName) {
+			firstName += " " + identity.middleName;
+		}
+		return firstName;
+	}
+
+	private static String digest(byte[] data) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			return Hex.encodeHexString(messageDigest.digest(data));
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 }
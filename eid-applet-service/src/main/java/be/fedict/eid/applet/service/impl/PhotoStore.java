@@ -0,0 +1,265 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Content-addressed store for eID photos. Photos are keyed by the photo digest
+ * that is part of the (signed) eID identity file. This allows us to only keep
+ * the digest within the HTTP session instead of the full JPEG photo.
+ *
+ * <p>
+ * The memory tier is a bounded LRU cache holding the photos outside of the
+ * Java heap. The optional disk tier keeps the photos that got evicted from the
+ * memory tier.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class PhotoStore {
+
+	private static final Log LOG = LogFactory.getLog(PhotoStore.class);
+
+	/**
+	 * The default maximum size of the memory tier in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 1024 * 1024 * 16;
+
+	private static PhotoStore instance;
+
+	private final long maxSize;
+
+	private final File directory;
+
+	private final Map<String, ByteBuffer> photos;
+
+	private long size;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param maxSize
+	 *            the maximum size in bytes of the memory tier.
+	 * @param directory
+	 *            the optional directory for the disk tier.
+	 */
+	public PhotoStore(long maxSize, File directory) {
+		this.maxSize = maxSize;
+		this.directory = directory;
+		this.photos = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+		if (null != directory) {
+			if (false == directory.exists()) {
+				if (false == directory.mkdirs()) {
+					throw new IllegalArgumentException("could not create photo store directory: " + directory);
+				}
+			}
+			if (false == directory.isDirectory()) {
+				throw new IllegalArgumentException("not a directory: " + directory);
+			}
+		}
+	}
+
+	/**
+	 * Configures the process-wide photo store. A photo store that has already
+	 * been configured is kept.
+	 *
+	 * @param maxSize
+	 *            the optional maximum size in bytes of the memory tier.
+	 * @param directory
+	 *            the optional directory for the disk tier.
+	 * @return the process-wide photo store.
+	 */
+	public static synchronized PhotoStore configure(Long maxSize, File directory) {
+		if (null == PhotoStore.instance) {
+			if (null == maxSize) {
+				maxSize = DEFAULT_MAX_SIZE;
+			}
+			LOG.debug("photo store max size: " + maxSize);
+			LOG.debug("photo store directory: " + directory);
+			PhotoStore.instance = new PhotoStore(maxSize, directory);
+		}
+		return PhotoStore.instance;
+	}
+
+	/**
+	 * Gives back the process-wide photo store.
+	 *
+	 * @return the photo store, or <code>null</code> if no photo store has been
+	 *         configured.
+	 */
+	public static synchronized PhotoStore getInstance() {
+		return PhotoStore.instance;
+	}
+
+	/**
+	 * Stores the given photo.
+	 *
+	 * @param photoDigest
+	 *            the photo digest as found in the eID identity file.
+	 * @param photo
+	 *            the JPEG photo.
+	 */
+	public void storePhoto(byte[] photoDigest, byte[] photo) {
+		String key = Hex.encodeHexString(photoDigest);
+		synchronized (this) {
+			if (null != this.photos.get(key)) {
+				return;
+			}
+			putInMemory(key, photo);
+		}
+		if (null != this.directory) {
+			File photoFile = new File(this.directory, key);
+			if (photoFile.exists()) {
+				return;
+			}
+			try {
+				File tmpFile = File.createTempFile(key, ".tmp", this.directory);
+				FileUtils.writeByteArrayToFile(tmpFile, photo);
+				if (false == tmpFile.renameTo(photoFile)) {
+					tmpFile.delete();
+				}
+			} catch (IOException e) {
+				LOG.warn("could not write photo to disk: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Finds the photo for the given photo digest.
+	 *
+	 * @param photoDigest
+	 * @return the JPEG photo, or <code>null</code> if not found.
+	 */
+	public byte[] findPhoto(byte[] photoDigest) {
+		String key = Hex.encodeHexString(photoDigest);
+		synchronized (this) {
+			ByteBuffer photoBuffer = this.photos.get(key);
+			if (null != photoBuffer) {
+				byte[] photo = new byte[photoBuffer.capacity()];
+				photoBuffer.duplicate().get(photo);
+				return photo;
+			}
+		}
+		if (null == this.directory) {
+			return null;
+		}
+		File photoFile = new File(this.directory, key);
+		if (false == photoFile.exists()) {
+			return null;
+		}
+		byte[] photo;
+		try {
+			photo = FileUtils.readFileToByteArray(photoFile);
+		} catch (IOException e) {
+			LOG.warn("could not read photo from disk: " + e.getMessage(), e);
+			return null;
+		}
+		/*
+		 * We never trust the disk tier blindly.
+		 */
+		if (false == Arrays.equals(photoDigest, digest(photoDigest.length, photo))) {
+			LOG.warn("photo digest mismatch on disk: " + photoFile);
+			photoFile.delete();
+			return null;
+		}
+		synchronized (this) {
+			if (null == this.photos.get(key)) {
+				putInMemory(key, photo);
+			}
+		}
+		return photo;
+	}
+
+	/**
+	 * Gives back the number of bytes held by the memory tier.
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	private void putInMemory(String key, byte[] photo) {
+		if (photo.length > this.maxSize) {
+			return;
+		}
+		ByteBuffer photoBuffer = ByteBuffer.allocateDirect(photo.length);
+		photoBuffer.put(photo);
+		photoBuffer.flip();
+		this.photos.put(key, photoBuffer);
+		this.size += photo.length;
+		Iterator<ByteBuffer> iterator = this.photos.values().iterator();
+		while (this.size > this.maxSize) {
+			ByteBuffer eldestPhotoBuffer = iterator.next();
+			iterator.remove();
+			this.size -= eldestPhotoBuffer.capacity();
+		}
+	}
+
+	private static byte[] digest(int digestSize, byte[] data) {
+		String digestAlgo;
+		switch (digestSize) {
+		case 20:
+			digestAlgo = "SHA-1";
+			break;
+		case 28:
+			digestAlgo = "SHA-224";
+			break;
+		case 32:
+			digestAlgo = "SHA-256";
+			break;
+		case 48:
+			digestAlgo = "SHA-384";
+			break;
+		case 64:
+			digestAlgo = "SHA-512";
+			break;
+		default:
+			return null;
+		}
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgo);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("digest error: " + e.getMessage(), e);
+		}
+		try {
+			return messageDigest.digest(data);
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded cache of the JPEG encoded size variants of eID photos. Variants are
+ * keyed by the photo digest, so every variant is only rendered once per photo.
+ * Concurrent renderings of the same variant are collapsed into a single
+ * rendering.
+ *
+ * <p>
+ * For the original size we only cache whether the photo could be decoded. A
+ * valid original photo is served as is, without decoding and re-encoding it.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class PhotoVariantCache {
+
+	private static final Log LOG = LogFactory.getLog(PhotoVariantCache.class);
+
+	/**
+	 * The default maximum number of cached photo variants.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+	/**
+	 * Marks a valid original photo.
+	 */
+	private static final byte[] VALID_ORIGINAL = new byte[0];
+
+	private static PhotoVariantCache instance;
+
+	/**
+	 * The supported photo sizes. The eID photo itself is 140x200 pixels.
+	 */
+	public enum Size {
+
+		ORIGINAL(140, 200), MEDIUM(105, 150), THUMBNAIL(70, 100);
+
+		private final int width;
+
+		private final int height;
+
+		private Size(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		public int getWidth() {
+			return this.width;
+		}
+
+		public int getHeight() {
+			return this.height;
+		}
+	}
+
+	private final Map<String, byte[]> variants;
+
+	private final ConcurrentMap<String, FutureTask<byte[]>> renderings;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param maxEntries
+	 *            the maximum number of cached photo variants.
+	 */
+	public PhotoVariantCache(final int maxEntries) {
+		this.variants = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.renderings = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+	}
+
+	/**
+	 * Gives back the process-wide photo variant cache.
+	 *
+	 * @return
+	 */
+	public static synchronized PhotoVariantCache getInstance() {
+		if (null == PhotoVariantCache.instance) {
+			PhotoVariantCache.instance = new PhotoVariantCache(DEFAULT_MAX_ENTRIES);
+		}
+		return PhotoVariantCache.instance;
+	}
+
+	/**
+	 * Gives back the JPEG encoded photo of the requested size. In case the
+	 * photo cannot be decoded, we give back a rendered error photo.
+	 *
+	 * @param photoKey
+	 *            the key of the photo, i.e. the hex encoded photo digest.
+	 * @param photo
+	 *            the JPEG photo.
+	 * @param size
+	 *            the requested size.
+	 * @return the JPEG encoded photo.
+	 */
+	public byte[] getPhoto(String photoKey, final byte[] photo, final Size size) {
+		String key = photoKey + "/" + size;
+		byte[] variant;
+		synchronized (this.variants) {
+			variant = this.variants.get(key);
+		}
+		if (null == variant) {
+			variant = render(key, photo, size);
+		}
+		if (VALID_ORIGINAL == variant) {
+			return photo;
+		}
+		return variant;
+	}
+
+	private byte[] render(String key, final byte[] photo, final Size size) {
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return renderVariant(photo, size);
+			}
+		});
+		FutureTask<byte[]> existingTask = this.renderings.putIfAbsent(key, task);
+		if (null == existingTask) {
+			try {
+				task.run();
+			} finally {
+				this.renderings.remove(key, task);
+			}
+		} else {
+			LOG.debug("joining ongoing photo rendering");
+			task = existingTask;
+		}
+		byte[] variant;
+		try {
+			variant = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while rendering photo");
+		} catch (ExecutionException e) {
+			throw new RuntimeException("photo rendering error: " + e.getCause().getMessage(), e.getCause());
+		}
+		synchronized (this.variants) {
+			this.variants.put(key, variant);
+		}
+		return variant;
+	}
+
+	private static byte[] renderVariant(byte[] photo, Size size) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(photo));
+		if (null == image) {
+			return encode(renderErrorPhoto(size));
+		}
+		if (Size.ORIGINAL == size) {
+			return VALID_ORIGINAL;
+		}
+		double scale = Math.min((double) size.getWidth() / image.getWidth(),
+				(double) size.getHeight() / image.getHeight());
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaledImage.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		graphics.drawImage(image, 0, 0, width, height, null);
+		graphics.dispose();
+		return encode(scaledImage);
+	}
+
+	private static BufferedImage renderErrorPhoto(Size size) {
+		int width = size.getWidth();
+		int height = size.getHeight();
+		BufferedImage photo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = (Graphics2D) photo.getGraphics();
+		RenderingHints renderingHints = new RenderingHints(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		graphics.setRenderingHints(renderingHints);
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(1, 1, width - 1 - 1, height - 1 - 1);
+		graphics.setColor(Color.RED);
+		graphics.setFont(new Font("Dialog", Font.BOLD, 20 * width / Size.ORIGINAL.getWidth()));
+		graphics.drawString("Photo Error", 0, height / 2);
+		graphics.dispose();
+		return photo;
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", outputStream);
+		return outputStream.toByteArray();
+	}
+}
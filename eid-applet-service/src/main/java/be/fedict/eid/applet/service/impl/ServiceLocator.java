@@ -18,17 +18,53 @@
 
 package be.fedict.eid.applet.service.impl;
 
+import java.io.Closeable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.spi.AuditService;
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+
 /**
  * Service locator. Can handle both JNDI references as classname references.
  * Classname referencing can be useful in environments where you don't have a
  * full-blown Java EE application container available.
  * 
+ * <p>
+ * Certificate validation services can be wrapped with a result cache via the
+ * <code>init-param</code> suffixes <code>CacheTTL</code>,
+ * <code>CacheNegativeTTL</code> and <code>CacheMaxEntries</code>. The same
+ * <code>init-param</code> suffixes enable memoization of the services for
+ * which {@link ServiceMemoizer} has memoizable methods declared.
+ * </p>
+ * 
+ * <p>
+ * Audit services can be made asynchronous via the <code>init-param</code>
+ * suffixes <code>AsyncCapacity</code>, <code>AsyncBatchSize</code>,
+ * <code>AsyncOverflowPolicy</code> and <code>AsyncSpillDirectory</code>. The
+ * owner of the service locator should invoke {@link #release()} when done, so
+ * that the asynchronous audit service gets shut down once it is no longer
+ * used by any servlet.
+ * </p>
+ * 
+ * <p>
+ * Services referenced by classname that implement {@link Closeable} get
+ * closed on {@link #release()} of the last service locator of the servlets
+ * that configure the same service.
+ * </p>
+ * 
  * @author Frank Cornelis
  * 
  * @param <T>
@@ -36,18 +72,205 @@ import javax.servlet.ServletException;
  */
 public class ServiceLocator<T> {
 
+	private static final Log LOG = LogFactory.getLog(ServiceLocator.class);
+
+	private static final Map<String, Integer> closeReferences = new HashMap<String, Integer>();
+
+	private final String initParam;
+
 	private final String jndiLocation;
 
 	private final String className;
 
+	private final CertificateValidationCache cache;
+
+	private final Class<?> serviceType;
+
+	private final ServiceMemoizer memoizer;
+
+	private T memoizingService;
+
+	private final Integer asyncCapacity;
+
+	private final int asyncBatchSize;
+
+	private final AsyncAuditService.OverflowPolicy asyncOverflowPolicy;
+
+	private final File asyncSpillDirectory;
+
+	private final boolean closeOnRelease;
+
+	private boolean released;
+
 	public ServiceLocator(String initParam, ServletConfig config) throws ServletException {
+		this(initParam, config, null);
+	}
+
+	public ServiceLocator(String initParam, ServletConfig config, Class<?> serviceType) throws ServletException {
+		this.initParam = initParam;
 		this.jndiLocation = config.getInitParameter(initParam);
 		this.className = config.getInitParameter(initParam + "Class");
+		boolean configured = null != serviceType && (null != this.jndiLocation || null != this.className);
+		if (configured && (AuthenticationService.class.equals(serviceType)
+				|| IdentityIntegrityService.class.equals(serviceType))) {
+			this.cache = getCache(initParam, config);
+		} else {
+			this.cache = null;
+		}
+		this.serviceType = serviceType;
+		if (configured && ServiceMemoizer.isMemoizable(serviceType)) {
+			this.memoizer = getMemoizer(initParam, config.getInitParameter(initParam + "CacheTTL"),
+					config.getInitParameter(initParam + "CacheNegativeTTL"),
+					config.getInitParameter(initParam + "CacheMaxEntries"));
+		} else {
+			this.memoizer = null;
+		}
+		this.closeOnRelease = configured && null == this.jndiLocation;
+		if (this.closeOnRelease) {
+			synchronized (closeReferences) {
+				Integer count = closeReferences.get(getServiceName());
+				closeReferences.put(getServiceName(), null == count ? 1 : count + 1);
+			}
+		}
+		String asyncCapacity = null;
+		if (configured && AuditService.class.equals(serviceType)) {
+			asyncCapacity = config.getInitParameter(initParam + "AsyncCapacity");
+		}
+		if (null == asyncCapacity) {
+			this.asyncCapacity = null;
+			this.asyncBatchSize = AsyncAuditService.DEFAULT_BATCH_SIZE;
+			this.asyncOverflowPolicy = null;
+			this.asyncSpillDirectory = null;
+			return;
+		}
+		String asyncBatchSize = config.getInitParameter(initParam + "AsyncBatchSize");
+		String asyncOverflowPolicy = config.getInitParameter(initParam + "AsyncOverflowPolicy");
+		String asyncSpillDirectory = config.getInitParameter(initParam + "AsyncSpillDirectory");
+		try {
+			this.asyncCapacity = Integer.parseInt(asyncCapacity);
+			if (null != asyncBatchSize) {
+				this.asyncBatchSize = Integer.parseInt(asyncBatchSize);
+			} else {
+				this.asyncBatchSize = AsyncAuditService.DEFAULT_BATCH_SIZE;
+			}
+			if (null != asyncOverflowPolicy) {
+				this.asyncOverflowPolicy = AsyncAuditService.OverflowPolicy.valueOf(asyncOverflowPolicy);
+			} else {
+				this.asyncOverflowPolicy = AsyncAuditService.OverflowPolicy.BLOCK;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new ServletException("invalid async init-param for " + initParam + ": " + e.getMessage());
+		}
+		if (null != asyncSpillDirectory) {
+			this.asyncSpillDirectory = new File(asyncSpillDirectory);
+		} else {
+			this.asyncSpillDirectory = null;
+		}
+		AsyncAuditService.retain(getServiceName());
 	}
 
 	public ServiceLocator(String initParam, FilterConfig config) {
+		this.initParam = initParam;
 		this.jndiLocation = config.getInitParameter(initParam);
 		this.className = config.getInitParameter(initParam + "Class");
+		this.cache = null;
+		this.serviceType = null;
+		this.memoizer = null;
+		this.asyncCapacity = null;
+		this.asyncBatchSize = AsyncAuditService.DEFAULT_BATCH_SIZE;
+		this.asyncOverflowPolicy = null;
+		this.asyncSpillDirectory = null;
+		this.closeOnRelease = false;
+	}
+
+	public ServiceLocator(String initParam, FilterConfig config, Class<?> serviceType) throws ServletException {
+		this.initParam = initParam;
+		this.jndiLocation = config.getInitParameter(initParam);
+		this.className = config.getInitParameter(initParam + "Class");
+		this.cache = null;
+		this.serviceType = serviceType;
+		boolean configured = null != serviceType && (null != this.jndiLocation || null != this.className);
+		if (configured && ServiceMemoizer.isMemoizable(serviceType)) {
+			this.memoizer = getMemoizer(initParam, config.getInitParameter(initParam + "CacheTTL"),
+					config.getInitParameter(initParam + "CacheNegativeTTL"),
+					config.getInitParameter(initParam + "CacheMaxEntries"));
+		} else {
+			this.memoizer = null;
+		}
+		this.asyncCapacity = null;
+		this.asyncBatchSize = AsyncAuditService.DEFAULT_BATCH_SIZE;
+		this.asyncOverflowPolicy = null;
+		this.asyncSpillDirectory = null;
+		this.closeOnRelease = false;
+	}
+
+	private CertificateValidationCache getCache(String initParam, ServletConfig config)
+			throws ServletException {
+		String ttl = config.getInitParameter(initParam + "CacheTTL");
+		if (null == ttl) {
+			return null;
+		}
+		String negativeTtl = config.getInitParameter(initParam + "CacheNegativeTTL");
+		String maxEntries = config.getInitParameter(initParam + "CacheMaxEntries");
+		try {
+			long positiveTtlMillis = Long.parseLong(ttl) * 1000;
+			long negativeTtlMillis;
+			if (null != negativeTtl) {
+				negativeTtlMillis = Long.parseLong(negativeTtl) * 1000;
+			} else {
+				negativeTtlMillis = 0;
+			}
+			int maxEntriesValue;
+			if (null != maxEntries) {
+				maxEntriesValue = Integer.parseInt(maxEntries);
+			} else {
+				maxEntriesValue = CertificateValidationCache.DEFAULT_MAX_ENTRIES;
+			}
+			/*
+			 * Different servlets can configure different services, or the same
+			 * service with different TTLs, under the same init-param. Such
+			 * configurations should never share verdicts.
+			 */
+			String name = getServiceName() + "/" + positiveTtlMillis + "/" + negativeTtlMillis + "/"
+					+ maxEntriesValue;
+			return CertificateValidationCache.getCache(name, positiveTtlMillis, negativeTtlMillis,
+					maxEntriesValue);
+		} catch (NumberFormatException e) {
+			throw new ServletException("invalid cache init-param for " + initParam + ": " + e.getMessage());
+		}
+	}
+
+	private String getServiceName() {
+		return this.initParam + "/" + (null != this.jndiLocation ? this.jndiLocation : this.className);
+	}
+
+	private ServiceMemoizer getMemoizer(String initParam, String ttl, String negativeTtl, String maxEntries)
+			throws ServletException {
+		if (null == ttl) {
+			return null;
+		}
+		try {
+			long ttlMillis = Long.parseLong(ttl) * 1000;
+			long negativeTtlMillis;
+			if (null != negativeTtl) {
+				negativeTtlMillis = Long.parseLong(negativeTtl) * 1000;
+			} else {
+				negativeTtlMillis = 0;
+			}
+			int maxEntriesValue;
+			if (null != maxEntries) {
+				maxEntriesValue = Integer.parseInt(maxEntries);
+			} else {
+				maxEntriesValue = ServiceMemoizer.DEFAULT_MAX_ENTRIES;
+			}
+			/*
+			 * Different servlets can configure different services under the
+			 * same init-param.
+			 */
+			return ServiceMemoizer.getMemoizer(getServiceName(), ttlMillis, negativeTtlMillis, maxEntriesValue);
+		} catch (NumberFormatException e) {
+			throw new ServletException("invalid cache init-param for " + initParam + ": " + e.getMessage());
+		}
 	}
 
 	/**
@@ -59,6 +282,83 @@ public class ServiceLocator<T> {
 	 */
 	@SuppressWarnings("unchecked")
 	public T locateService() throws ServletException {
+		if (null != this.memoizer) {
+			synchronized (this) {
+				if (null == this.memoizingService) {
+					Callable<Object> serviceLookup = new Callable<Object>() {
+						public Object call() throws Exception {
+							return lookupService();
+						}
+					};
+					this.memoizingService = (T) this.memoizer.decorate((Class<Object>) this.serviceType,
+							serviceLookup);
+				}
+				return this.memoizingService;
+			}
+		}
+		return lookupService();
+	}
+
+	/**
+	 * Releases the process-wide resources used by this service locator. Audit
+	 * services located afterwards are no longer asynchronous.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (this.released) {
+				return;
+			}
+			this.released = true;
+		}
+		if (null != this.asyncCapacity) {
+			/*
+			 * Flush the queued audit events before closing the audit service.
+			 */
+			AsyncAuditService.release(getServiceName());
+		}
+		if (this.closeOnRelease) {
+			close();
+		}
+	}
+
+	private void close() {
+		synchronized (closeReferences) {
+			Integer count = closeReferences.get(getServiceName());
+			if (null == count) {
+				return;
+			}
+			if (count > 1) {
+				closeReferences.put(getServiceName(), count - 1);
+				return;
+			}
+			closeReferences.remove(getServiceName());
+		}
+		try {
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			Class<?> serviceClass = classLoader.loadClass(this.className);
+			if (false == Closeable.class.isAssignableFrom(serviceClass)) {
+				return;
+			}
+			LOG.debug("closing service: " + getServiceName());
+			Closeable service = (Closeable) serviceClass.newInstance();
+			service.close();
+		} catch (Exception e) {
+			LOG.error("error closing service " + getServiceName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private synchronized boolean isReleased() {
+		return this.released;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T lookupService() throws ServletException {
+		if (null != this.asyncCapacity && false == isReleased()) {
+			AsyncAuditService asyncAuditService = AsyncAuditService.findInstance(getServiceName());
+			if (null != asyncAuditService) {
+				return (T) asyncAuditService;
+			}
+		}
 		try {
 			T service;
 			if (null != this.jndiLocation) {
@@ -72,6 +372,9 @@ public class ServiceLocator<T> {
 			} else {
 				service = null;
 			}
+			if (null != service) {
+				service = decorate(service);
+			}
 			return service;
 		} catch (NamingException e) {
 			throw new ServletException("JNDI error: " + e.getMessage(), e);
@@ -81,4 +384,26 @@ public class ServiceLocator<T> {
 			throw new ServletException("error: " + e.getMessage(), e);
 		}
 	}
+
+	@SuppressWarnings("unchecked")
+	private T decorate(T service) {
+		if (null != this.cache) {
+			if (service instanceof AuthenticationService) {
+				return (T) new CachingAuthenticationService((AuthenticationService) service, this.cache);
+			}
+			if (service instanceof IdentityIntegrityService) {
+				return (T) new CachingIdentityIntegrityService((IdentityIntegrityService) service, this.cache);
+			}
+		}
+		if (null != this.asyncCapacity && service instanceof AuditService) {
+			synchronized (this) {
+				if (false == this.released) {
+					return (T) AsyncAuditService.getInstance(getServiceName(), (AuditService) service,
+							this.asyncCapacity, this.asyncBatchSize, this.asyncOverflowPolicy,
+							this.asyncSpillDirectory);
+				}
+			}
+		}
+		return service;
+	}
 }
@@ -0,0 +1,479 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.spi.ChannelBindingService;
+import be.fedict.eid.applet.service.spi.IdentityService;
+import be.fedict.eid.applet.service.spi.PrivacyService;
+import be.fedict.eid.applet.service.spi.SecureClientEnvironmentService;
+import be.fedict.eid.applet.service.spi.TransportService;
+
+/**
+ * Memoization decorator for SPI services of which the answers are stable per
+ * configuration or per small key. The memoizable methods of an SPI are
+ * declared via {@link #register(Class, String, KeyExtractor)}. Results are
+ * kept for the TTL, declared exceptions for the negative TTL. Concurrent
+ * invocations with the same key are collapsed into a single invocation.
+ *
+ * <p>
+ * Every caller receives its own exception instance. Memoized declared
+ * exceptions are restored from their serialized form, with the original
+ * exception as cause. Other exceptions of a collapsed invocation are wrapped
+ * in a runtime exception for the waiting callers.
+ * </p>
+ *
+ * <p>
+ * The decorated service is only looked up on a cache miss, or when invoking a
+ * method that has not been declared memoizable.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class ServiceMemoizer {
+
+	private static final Log LOG = LogFactory.getLog(ServiceMemoizer.class);
+
+	/**
+	 * The default maximum number of memoized results.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/**
+	 * Extracts the memoization key out of the method arguments.
+	 */
+	public interface KeyExtractor {
+
+		/**
+		 * Gives back the memoization key. The key should implement
+		 * <code>equals</code> and <code>hashCode</code>.
+		 *
+		 * @param arguments
+		 *            the method arguments, can be <code>null</code>.
+		 * @return the key.
+		 */
+		Object getKey(Object[] arguments);
+	}
+
+	/**
+	 * Uses all method arguments as key.
+	 */
+	public static final KeyExtractor ALL_ARGUMENTS = new KeyExtractor() {
+		public Object getKey(Object[] arguments) {
+			if (null == arguments) {
+				return NO_KEY;
+			}
+			return Arrays.asList(arguments);
+		}
+	};
+
+	/**
+	 * For methods of which the result does not depend on the arguments.
+	 */
+	public static final KeyExtractor NO_ARGUMENTS = new KeyExtractor() {
+		public Object getKey(Object[] arguments) {
+			return NO_KEY;
+		}
+	};
+
+	private static final Object NO_KEY = "";
+
+	private static final Map<Class<?>, Map<String, KeyExtractor>> memoizableMethods = new HashMap<Class<?>, Map<String, KeyExtractor>>();
+
+	private static final Map<List<Object>, ServiceMemoizer> memoizers = new HashMap<List<Object>, ServiceMemoizer>();
+
+	static {
+		register(PrivacyService.class, "getIdentityDataUsage", ALL_ARGUMENTS);
+		register(IdentityService.class, "getIdentityRequest", NO_ARGUMENTS);
+		register(TransportService.class, "getStrictTransportSecurityConfig", NO_ARGUMENTS);
+		register(ChannelBindingService.class, "getServerCertificate", NO_ARGUMENTS);
+		/*
+		 * The verdict depends on the complete client environment fingerprint,
+		 * including the remote address.
+		 */
+		register(SecureClientEnvironmentService.class, "checkSecureClientEnvironment", ALL_ARGUMENTS);
+	}
+
+	private final long ttl;
+
+	private final long negativeTtl;
+
+	private final Map<List<Object>, MemoizedResult> entries;
+
+	private final ConcurrentMap<List<Object>, FutureTask<MemoizedResult>> invocations;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param ttl
+	 *            time to live in milliseconds of memoized results.
+	 * @param negativeTtl
+	 *            time to live in milliseconds of memoized declared exceptions.
+	 * @param maxEntries
+	 *            the maximum number of memoized results.
+	 */
+	public ServiceMemoizer(long ttl, long negativeTtl, final int maxEntries) {
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.entries = new LinkedHashMap<List<Object>, MemoizedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, MemoizedResult> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.invocations = new ConcurrentHashMap<List<Object>, FutureTask<MemoizedResult>>();
+	}
+
+	/**
+	 * Declares a method of an SPI as memoizable.
+	 *
+	 * @param serviceType
+	 *            the SPI interface.
+	 * @param methodName
+	 *            the name of the memoizable method.
+	 * @param keyExtractor
+	 *            the memoization key extractor.
+	 */
+	public static void register(Class<?> serviceType, String methodName, KeyExtractor keyExtractor) {
+		if (false == serviceType.isInterface()) {
+			throw new IllegalArgumentException("not an interface: " + serviceType.getName());
+		}
+		boolean found = false;
+		for (Method method : serviceType.getMethods()) {
+			if (method.getName().equals(methodName)) {
+				found = true;
+				break;
+			}
+		}
+		if (false == found) {
+			throw new IllegalArgumentException("no such method: " + serviceType.getName() + "." + methodName);
+		}
+		synchronized (memoizableMethods) {
+			Map<String, KeyExtractor> methods = memoizableMethods.get(serviceType);
+			if (null == methods) {
+				methods = new HashMap<String, KeyExtractor>();
+				memoizableMethods.put(serviceType, methods);
+			}
+			methods.put(methodName, keyExtractor);
+		}
+	}
+
+	/**
+	 * Checks whether the given SPI has memoizable methods.
+	 *
+	 * @param serviceType
+	 * @return
+	 */
+	public static boolean isMemoizable(Class<?> serviceType) {
+		synchronized (memoizableMethods) {
+			return memoizableMethods.containsKey(serviceType);
+		}
+	}
+
+	/**
+	 * Gives back the named process-wide service memoizer. Creates the memoizer
+	 * if it does not exist yet. Memoizers with the same name but different
+	 * settings are kept apart.
+	 *
+	 * @param name
+	 *            the name of the memoizer.
+	 * @param ttl
+	 * @param negativeTtl
+	 * @param maxEntries
+	 * @return
+	 */
+	public static ServiceMemoizer getMemoizer(String name, long ttl, long negativeTtl, int maxEntries) {
+		List<Object> memoizerKey = getMemoizerKey(name, ttl, negativeTtl, maxEntries);
+		synchronized (memoizers) {
+			ServiceMemoizer memoizer = memoizers.get(memoizerKey);
+			if (null == memoizer) {
+				LOG.debug("creating service memoizer: " + memoizerKey);
+				memoizer = new ServiceMemoizer(ttl, negativeTtl, maxEntries);
+				memoizers.put(memoizerKey, memoizer);
+			}
+			return memoizer;
+		}
+	}
+
+	/**
+	 * Gives back the named process-wide service memoizer with the given
+	 * settings.
+	 *
+	 * @param name
+	 * @param ttl
+	 * @param negativeTtl
+	 * @param maxEntries
+	 * @return the memoizer, or <code>null</code> if not available.
+	 */
+	public static ServiceMemoizer findMemoizer(String name, long ttl, long negativeTtl, int maxEntries) {
+		synchronized (memoizers) {
+			return memoizers.get(getMemoizerKey(name, ttl, negativeTtl, maxEntries));
+		}
+	}
+
+	private static List<Object> getMemoizerKey(String name, long ttl, long negativeTtl, int maxEntries) {
+		return Arrays.asList(new Object[] { name, ttl, negativeTtl, maxEntries });
+	}
+
+	/**
+	 * Creates a memoizing decorator for the given SPI.
+	 *
+	 * @param serviceType
+	 *            the SPI interface.
+	 * @param serviceLookup
+	 *            looks up the decorated service. Only invoked when required.
+	 * @return the memoizing decorator.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T decorate(final Class<T> serviceType, final Callable<? extends T> serviceLookup) {
+		final Map<String, KeyExtractor> methods;
+		synchronized (memoizableMethods) {
+			methods = memoizableMethods.get(serviceType);
+		}
+		if (null == methods) {
+			throw new IllegalArgumentException("not memoizable: " + serviceType.getName());
+		}
+		InvocationHandler invocationHandler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (Object.class.equals(method.getDeclaringClass())) {
+					String methodName = method.getName();
+					if ("equals".equals(methodName)) {
+						return proxy == args[0];
+					}
+					if ("hashCode".equals(methodName)) {
+						return System.identityHashCode(proxy);
+					}
+					return "memoizing " + serviceType.getName();
+				}
+				KeyExtractor keyExtractor = methods.get(method.getName());
+				if (null == keyExtractor) {
+					return invokeService(serviceLookup, method, args);
+				}
+				Object key = keyExtractor.getKey(args);
+				return memoize(Arrays.asList(new Object[] { method, key }), serviceLookup, method, args);
+			}
+		};
+		return (T) Proxy.newProxyInstance(serviceType.getClassLoader(), new Class<?>[] { serviceType },
+				invocationHandler);
+	}
+
+	/**
+	 * Removes all memoized results.
+	 */
+	public void invalidateAll() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * Gives back the number of memoized results.
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	private Object memoize(final List<Object> key, final Callable<?> serviceLookup, final Method method,
+			final Object[] args) throws Throwable {
+		MemoizedResult entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+		}
+		if (null != entry && false == entry.isExpired()) {
+			return entry.getResult();
+		}
+		FutureTask<MemoizedResult> task = new FutureTask<MemoizedResult>(new Callable<MemoizedResult>() {
+			public MemoizedResult call() throws Exception {
+				return runInvocation(serviceLookup, method, args);
+			}
+		});
+		FutureTask<MemoizedResult> existingTask = this.invocations.putIfAbsent(key, task);
+		boolean invoked = null == existingTask;
+		if (invoked) {
+			try {
+				task.run();
+			} finally {
+				this.invocations.remove(key, task);
+			}
+		} else {
+			task = existingTask;
+		}
+		try {
+			entry = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while invoking service");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (invoked) {
+				throw cause;
+			}
+			throw new RuntimeException("service error: " + cause.getMessage(), cause);
+		}
+		if (entry.expiry > System.currentTimeMillis()) {
+			synchronized (this.entries) {
+				this.entries.put(key, entry);
+			}
+		}
+		return entry.getResult();
+	}
+
+	private MemoizedResult runInvocation(Callable<?> serviceLookup, Method method, Object[] args) throws Exception {
+		long now = System.currentTimeMillis();
+		try {
+			Object result = invokeService(serviceLookup, method, args);
+			return new MemoizedResult(result, now + this.ttl);
+		} catch (Exception e) {
+			for (Class<?> exceptionType : method.getExceptionTypes()) {
+				if (exceptionType.isInstance(e) && false == e instanceof RuntimeException) {
+					byte[] serializedException = serialize(e);
+					if (null == serializedException) {
+						throw e;
+					}
+					return new MemoizedResult(null, e, serializedException, now + this.negativeTtl);
+				}
+			}
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException("service error: " + e.getMessage(), e);
+		}
+	}
+
+	private static byte[] serialize(Exception exception) {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+			objectOutputStream.writeObject(exception);
+			objectOutputStream.close();
+		} catch (IOException e) {
+			LOG.warn("could not memoize exception: " + exception.getClass().getName() + ": " + e.getMessage());
+			return null;
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static Object invokeService(Callable<?> serviceLookup, Method method, Object[] args) throws Throwable {
+		Object service = serviceLookup.call();
+		if (null == service) {
+			throw new IllegalStateException("service not available");
+		}
+		try {
+			return method.invoke(service, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static class MemoizedResult {
+
+		private final Object result;
+
+		private final Exception exception;
+
+		private final byte[] serializedException;
+
+		private final long expiry;
+
+		public MemoizedResult(Object result, Exception exception, byte[] serializedException, long expiry) {
+			this.result = result;
+			this.exception = exception;
+			this.serializedException = serializedException;
+			this.expiry = expiry;
+		}
+
+		public MemoizedResult(Object result, long expiry) {
+			this(result, null, null, expiry);
+		}
+
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= this.expiry;
+		}
+
+		public Object getResult() throws Exception {
+			if (null != this.exception) {
+				throw newException();
+			}
+			return this.result;
+		}
+
+		private Exception newException() {
+			final ClassLoader classLoader = this.exception.getClass().getClassLoader();
+			Exception exception;
+			try {
+				ObjectInputStream objectInputStream = new ObjectInputStream(
+						new ByteArrayInputStream(this.serializedException)) {
+					@Override
+					protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+							ClassNotFoundException {
+						try {
+							return Class.forName(desc.getName(), false, classLoader);
+						} catch (ClassNotFoundException e) {
+							return super.resolveClass(desc);
+						}
+					}
+				};
+				exception = (Exception) objectInputStream.readObject();
+			} catch (Exception e) {
+				throw new RuntimeException("could not restore memoized exception: " + e.getMessage(), e);
+			}
+			exception.fillInStackTrace();
+			if (null == exception.getCause()) {
+				try {
+					exception.initCause(this.exception);
+				} catch (IllegalStateException e) {
+					// cause explicitly set to null
+				}
+			}
+			return exception;
+		}
+	}
+}
@@ -18,20 +18,10 @@
 
 package be.fedict.eid.applet.service.impl;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 
-import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.x500.X500Principal;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 /**
  * Utility class for user identifier construction.
  * 
@@ -40,8 +30,6 @@ import org.apache.commons.logging.LogFactory;
  */
 public class UserIdentifierUtil {
 
-	private static final Log LOG = LogFactory.getLog(UserIdentifierUtil.class);
-
 	private UserIdentifierUtil() {
 		super();
 	}
@@ -54,6 +42,14 @@ public class UserIdentifierUtil {
 	 */
 	public static String getUserId(X509Certificate signingCertificate) {
 		X500Principal userPrincipal = signingCertificate.getSubjectX500Principal();
+		/*
+		 * Directly scanning the DER encoded subject avoids the formatting of
+		 * the full X.500 name.
+		 */
+		String userId = findSerialNumber(userPrincipal.getEncoded());
+		if (null != userId) {
+			return userId;
+		}
 		String name = userPrincipal.toString();
 		int serialNumberBeginIdx = name.indexOf("SERIALNUMBER=");
 		if (-1 == serialNumberBeginIdx) {
@@ -64,12 +60,114 @@ public class UserIdentifierUtil {
 		if (-1 == serialNumberValueEndIdx) {
 			serialNumberValueEndIdx = name.length();
 		}
-		String userId = name.substring(serialNumberValueBeginIdx, serialNumberValueEndIdx);
+		userId = name.substring(serialNumberValueBeginIdx, serialNumberValueEndIdx);
 		return userId;
 	}
 
+	private static final byte[] SERIAL_NUMBER_OID = new byte[] { 0x06, 0x03, 0x55, 0x04, 0x05 };
+
+	/**
+	 * Finds the serial number attribute value within a DER encoded X.500
+	 * name. Selects the same serial number as the string representation of
+	 * {@link X500Principal}, which lists the RDNs in reverse order: the first
+	 * serial number within the last RDN that has one. Only plain
+	 * alphanumerical values are returned.
+	 * 
+	 * @param encodedName
+	 * @return the serial number, or <code>null</code> if not found.
+	 */
+	private static String findSerialNumber(byte[] encodedName) {
+		try {
+			int[] name = readHeader(encodedName, 0);
+			if (0x30 != encodedName[0]) {
+				return null;
+			}
+			int serialNumberValueIdx = -1;
+			int rdnIdx = name[0];
+			int nameEnd = name[0] + name[1];
+			while (rdnIdx < nameEnd) {
+				int[] rdn = readHeader(encodedName, rdnIdx);
+				int attributeIdx = rdn[0];
+				int rdnEnd = rdn[0] + rdn[1];
+				while (attributeIdx < rdnEnd) {
+					int[] attribute = readHeader(encodedName, attributeIdx);
+					int oidIdx = attribute[0];
+					if (matches(encodedName, oidIdx, SERIAL_NUMBER_OID)) {
+						serialNumberValueIdx = oidIdx + SERIAL_NUMBER_OID.length;
+						break;
+					}
+					attributeIdx = attribute[0] + attribute[1];
+				}
+				rdnIdx = rdnEnd;
+			}
+			if (-1 == serialNumberValueIdx) {
+				return null;
+			}
+			int valueTag = encodedName[serialNumberValueIdx];
+			if (0x13 != valueTag && 0x0c != valueTag) {
+				/*
+				 * Not a PrintableString or UTF8String.
+				 */
+				return null;
+			}
+			int[] value = readHeader(encodedName, serialNumberValueIdx);
+			StringBuffer serialNumber = new StringBuffer(value[1]);
+			for (int idx = value[0]; idx < value[0] + value[1]; idx++) {
+				char c = (char) (encodedName[idx] & 0xff);
+				if ((c < '0' || c > '9') && (c < 'A' || c > 'Z') && (c < 'a' || c > 'z') && '-' != c && '.' != c) {
+					/*
+					 * Leave the escaping to X500Principal.
+					 */
+					return null;
+				}
+				serialNumber.append(c);
+			}
+			return serialNumber.toString();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the DER header at the given index.
+	 * 
+	 * @return the value index and value length.
+	 */
+	private static int[] readHeader(byte[] data, int idx) {
+		int length = data[idx + 1] & 0xff;
+		int valueIdx = idx + 2;
+		if (length > 0x7f) {
+			int lengthBytes = length & 0x7f;
+			if (lengthBytes > 3) {
+				throw new ArrayIndexOutOfBoundsException();
+			}
+			length = 0;
+			for (int i = 0; i < lengthBytes; i++) {
+				length = (length << 8) | (data[valueIdx++] & 0xff);
+			}
+		}
+		if (valueIdx + length > data.length) {
+			throw new ArrayIndexOutOfBoundsException();
+		}
+		return new int[] { valueIdx, length };
+	}
+
+	private static boolean matches(byte[] data, int idx, byte[] pattern) {
+		if (idx + pattern.length > data.length) {
+			return false;
+		}
+		for (int i = 0; i < pattern.length; i++) {
+			if (data[idx + i] != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static final String HMAC_ALGO = "HmacSHA1";
 
+	public static final String HMAC_SHA256_ALGO = "HmacSHA256";
+
 	/**
 	 * Gives back a non-reversible citizen identifier (NRCID).
 	 * 
@@ -86,70 +184,26 @@ public class UserIdentifierUtil {
 	 * @return
 	 */
 	public static String getNonReversibleCitizenIdentifier(String userId, String orgId, String appId, String secret) {
-		if (null == secret) {
-			throw new IllegalArgumentException("secret key is null");
-		}
-		/*
-		 * Avoid XML formatting issues introduced by some web.xml XML editors.
-		 */
-		secret = secret.trim();
-		if (null != orgId) {
-			orgId = orgId.trim();
-		} else {
-			LOG.warn("it is advised to use an orgId");
-		}
-		if (null != appId) {
-			appId = appId.trim();
-		} else {
-			LOG.warn("it is advised to use an appId");
-		}
-
-		/*
-		 * Decode the secret key.
-		 */
-		byte[] secretKey;
-		try {
-			secretKey = Hex.decodeHex(secret.toCharArray());
-		} catch (DecoderException e) {
-			LOG.error("secret is not hexadecimal encoded: " + e.getMessage());
-			throw new IllegalArgumentException("secret is not hexadecimal encoded");
-		}
-		if ((128 / 8) > secretKey.length) {
-			/*
-			 * 128 bit is seen as secure these days.
-			 */
-			LOG.warn("secret key is too short");
-			throw new IllegalArgumentException("secret key is too short");
-		}
-
-		/*
-		 * Construct the HMAC input sequence.
-		 */
-		String input = userId;
-		if (null != appId) {
-			input += appId;
-		}
-		if (null != orgId) {
-			input += orgId;
-		}
-		byte[] inputData = input.getBytes();
+		return getNonReversibleCitizenIdentifier(userId, orgId, appId, secret, HMAC_ALGO);
+	}
 
-		SecretKey macKey = new SecretKeySpec(secretKey, HMAC_ALGO);
-		Mac mac;
-		try {
-			mac = Mac.getInstance(macKey.getAlgorithm());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("HMAC algo not available: " + e.getMessage());
-		}
-		try {
-			mac.init(macKey);
-		} catch (InvalidKeyException e) {
-			LOG.error("invalid secret key: " + e.getMessage(), e);
-			throw new RuntimeException("invalid secret");
-		}
-		mac.update(inputData);
-		byte[] resultHMac = mac.doFinal();
-		String resultHex = new String(Hex.encodeHex(resultHMac)).toUpperCase();
-		return resultHex;
+	/**
+	 * Gives back a non-reversible citizen identifier (NRCID) using the given
+	 * HMAC algorithm.
+	 * 
+	 * @param userId
+	 * @param orgId
+	 * @param appId
+	 * @param secret
+	 * @param hmacAlgo
+	 *            the HMAC algorithm, like {@link #HMAC_ALGO} or
+	 *            {@link #HMAC_SHA256_ALGO}.
+	 * @return
+	 * @see NrcidGenerator
+	 */
+	public static String getNonReversibleCitizenIdentifier(String userId, String orgId, String appId, String secret,
+			String hmacAlgo) {
+		NrcidGenerator nrcidGenerator = NrcidGenerator.getInstance(orgId, appId, secret, hmacAlgo);
+		return nrcidGenerator.getNonReversibleCitizenIdentifier(userId);
 	}
 }
@@ -20,6 +20,7 @@ package be.fedict.eid.applet.service.impl;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,7 +51,20 @@ public class VcardGenerator {
 	 */
 	public byte[] generateVcard(EIdData eIdData) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		VcardLight vcard = new VcardLight(baos);
+		generateVcard(eIdData, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Stream vCard using data from the eID card. Closes the output stream.
+	 *
+	 * @param eIdData
+	 *            ID data retrieved from eID card
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void generateVcard(EIdData eIdData, OutputStream outputStream) throws IOException {
+		VcardLight vcard = new VcardLight(outputStream);
 		vcard.open();
 
 		if (null != eIdData && null != eIdData.getIdentity()) {
@@ -74,7 +88,5 @@ public class VcardGenerator {
 			}
 		}
 		vcard.close();
-
-		return baos.toByteArray();
 	}
 }
@@ -0,0 +1,235 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the independent verification steps of a protocol message concurrently.
+ * Steps are started as soon as they are added to the pipeline. The caller
+ * joins the steps one by one via {@link Step#get()}, in the order that
+ * defines the error precedence. This way the outcome of a protocol run does
+ * not depend on which step happens to finish first.
+ *
+ * <p>
+ * Without executor every step is executed lazily within the calling thread
+ * upon joining, which corresponds with plain sequential verification. When
+ * the executor is saturated, steps are executed within the calling thread as
+ * well.
+ * </p>
+ *
+ * <p>
+ * The executors created via {@link #getExecutor(int)} run plain daemon
+ * threads. Steps executed by them have no Java EE naming, security or
+ * transaction context. Services invoked from such steps should not rely on any
+ * container context. Within a Java EE container a managed executor service
+ * can be passed instead.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class VerificationPipeline {
+
+	private static final Log LOG = LogFactory.getLog(VerificationPipeline.class);
+
+	/**
+	 * The queue capacity per executor thread.
+	 */
+	public static final int QUEUE_CAPACITY_PER_THREAD = 64;
+
+	private static final Map<Integer, ExecutorService> executors = new HashMap<Integer, ExecutorService>();
+
+	private static final Map<ExecutorService, Integer> references = new HashMap<ExecutorService, Integer>();
+
+	private final ExecutorService executor;
+
+	private final List<Step<?>> steps;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param executor
+	 *            the optional executor. If <code>null</code> the steps are
+	 *            executed sequentially.
+	 */
+	public VerificationPipeline(ExecutorService executor) {
+		this.executor = executor;
+		this.steps = new LinkedList<Step<?>>();
+	}
+
+	/**
+	 * Gives back the process-wide verification executor with the given number
+	 * of threads. Creates the executor if it does not exist yet. Every call
+	 * should be matched by a call to {@link #releaseExecutor(ExecutorService)}.
+	 *
+	 * @param threads
+	 * @return
+	 */
+	public static ExecutorService getExecutor(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of verification threads: " + threads);
+		}
+		synchronized (executors) {
+			ExecutorService executor = executors.get(threads);
+			if (null == executor) {
+				LOG.debug("creating verification executor with " + threads + " threads");
+				ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(threads * QUEUE_CAPACITY_PER_THREAD),
+						new VerificationThreadFactory(), new ThreadPoolExecutor.DiscardPolicy());
+				threadPoolExecutor.allowCoreThreadTimeOut(true);
+				executor = threadPoolExecutor;
+				executors.put(threads, executor);
+				references.put(executor, 1);
+			} else {
+				references.put(executor, references.get(executor) + 1);
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * Releases a process-wide verification executor as retrieved via
+	 * {@link #getExecutor(int)}. The executor is shut down when it is no
+	 * longer used.
+	 *
+	 * @param executor
+	 */
+	public static void releaseExecutor(ExecutorService executor) {
+		synchronized (executors) {
+			Integer count = references.get(executor);
+			if (null == count) {
+				return;
+			}
+			if (count > 1) {
+				references.put(executor, count - 1);
+				return;
+			}
+			references.remove(executor);
+			executors.values().remove(executor);
+		}
+		LOG.debug("shutting down verification executor");
+		executor.shutdown();
+	}
+
+	/**
+	 * Adds a verification step to this pipeline.
+	 *
+	 * @param name
+	 *            the name of the step, used for logging.
+	 * @param callable
+	 *            the verification step itself. Should not touch the HTTP
+	 *            session or the audit service.
+	 * @return the handle to join the step.
+	 */
+	public <T> Step<T> add(String name, Callable<T> callable) {
+		Step<T> step = new Step<T>(name, callable);
+		this.steps.add(step);
+		if (null != this.executor) {
+			try {
+				this.executor.execute(step.task);
+			} catch (RejectedExecutionException e) {
+				LOG.debug("verification executor has been shut down");
+			}
+		}
+		return step;
+	}
+
+	/**
+	 * Cancels all steps that did not start yet. To be invoked from a
+	 * <code>finally</code> block, so that steps whose outcome no longer
+	 * matters do not occupy the executor.
+	 */
+	public void cancel() {
+		for (Step<?> step : this.steps) {
+			step.task.cancel(false);
+		}
+	}
+
+	/**
+	 * Handle to a verification step.
+	 *
+	 * @param <T>
+	 *            the type of the result of the verification step.
+	 */
+	public static class Step<T> {
+
+		private final String name;
+
+		private final FutureTask<T> task;
+
+		private Step(String name, Callable<T> callable) {
+			this.name = name;
+			this.task = new FutureTask<T>(callable);
+		}
+
+		/**
+		 * Joins this step. A step that has not been picked up by the executor
+		 * yet gets executed within the calling thread.
+		 *
+		 * @return the result of the step.
+		 * @throws Exception
+		 *             the original exception as thrown by the step.
+		 */
+		public T get() throws Exception {
+			this.task.run();
+			try {
+				return this.task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted while joining verification step: " + this.name);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException("verification step error: " + this.name, cause);
+			}
+		}
+	}
+
+	private static class VerificationThreadFactory implements ThreadFactory {
+
+		private int threadNumber;
+
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "eid-verification-" + ++this.threadNumber);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
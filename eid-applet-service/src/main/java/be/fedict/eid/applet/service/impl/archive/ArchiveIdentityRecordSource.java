@@ -0,0 +1,93 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.fedict.eid.applet.service.spi.IdentityRecordDTO;
+import be.fedict.eid.applet.service.spi.IdentityRecordSource;
+
+/**
+ * Identity record source on top of an identity record archive. The position
+ * of a record is its record number. Archived records do not hold the national
+ * registration certificate.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class ArchiveIdentityRecordSource implements IdentityRecordSource {
+
+	private final File archiveFile;
+
+	private IdentityArchiveReader reader;
+
+	private long nextRecordNumber;
+
+	public ArchiveIdentityRecordSource(File archiveFile) {
+		this.archiveFile = archiveFile;
+	}
+
+	public synchronized List<IdentityRecordDTO> getRecords(String position, int maxRecords) {
+		long recordNumber = null == position ? 0 : Long.parseLong(position) + 1;
+		List<IdentityRecordDTO> records = new ArrayList<IdentityRecordDTO>(maxRecords);
+		try {
+			if (null == this.reader || recordNumber != this.nextRecordNumber) {
+				close();
+				this.reader = new IdentityArchiveReader(this.archiveFile);
+				this.nextRecordNumber = 0;
+				while (this.nextRecordNumber < recordNumber && null != this.reader.next()) {
+					this.nextRecordNumber++;
+				}
+			}
+			IdentityRecord record;
+			while (records.size() < maxRecords && null != (record = this.reader.next())) {
+				IdentityRecordDTO identityRecord = new IdentityRecordDTO();
+				identityRecord.position = Long.toString(record.getRecordNumber());
+				identityRecord.identityFile = record.getIdentityFile();
+				identityRecord.identitySignatureFile = record.getIdentitySignatureFile();
+				identityRecord.addressFile = record.getAddressFile();
+				identityRecord.addressSignatureFile = record.getAddressSignatureFile();
+				records.add(identityRecord);
+				this.nextRecordNumber++;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("identity archive error: " + e.getMessage(), e);
+		}
+		return records;
+	}
+
+	/**
+	 * Closes the underlying archive.
+	 */
+	public synchronized void close() {
+		if (null == this.reader) {
+			return;
+		}
+		try {
+			this.reader.close();
+		} catch (IOException e) {
+			throw new RuntimeException("identity archive error: " + e.getMessage(), e);
+		} finally {
+			this.reader = null;
+		}
+	}
+}
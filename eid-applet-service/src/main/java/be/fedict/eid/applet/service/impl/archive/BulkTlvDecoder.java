@@ -0,0 +1,421 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.impl.CertificateCache;
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+
+/**
+ * Bulk decoder of identity record archives. The archives are read
+ * sequentially via memory mapping, while blocks of records are decoded by a
+ * pool of worker threads. The output keeps the order of the records, one line
+ * per record, either as CSV or as a JSON object per line.
+ *
+ * <p>
+ * When a national registration certificate is given, the identity and address
+ * signatures are verified as well. Records that fail to decode do not abort
+ * the run, the error ends up in the <code>error</code> column.
+ * </p>
+ *
+ * <p>
+ * Usage:
+ * <code>BulkTlvDecoder &lt;csv|json&gt; &lt;output&gt; &lt;RRN certificate file|-&gt; &lt;archive&gt; [archive...]</code>
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class BulkTlvDecoder {
+
+	private static final Log LOG = LogFactory.getLog(BulkTlvDecoder.class);
+
+	/**
+	 * The default number of records per work block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	/**
+	 * The output columns.
+	 */
+	public static final String[] COLUMNS = { "archive", "record", "nationalNumber", "name", "firstName",
+			"middleName", "nobleCondition", "dateOfBirth", "placeOfBirth", "gender", "nationality", "cardNumber",
+			"chipNumber", "cardValidityDateBegin", "cardValidityDateEnd", "cardDeliveryMunicipality", "documentType",
+			"specialStatus", "duplicate", "streetAndNumber", "zip", "municipality", "identitySignature",
+			"addressSignature", "error" };
+
+	/**
+	 * The supported output formats.
+	 */
+	public enum OutputFormat {
+		CSV, JSON
+	}
+
+	private final OutputFormat outputFormat;
+
+	private final IdentitySignatureVerifier signatureVerifier;
+
+	private final int threads;
+
+	private final int blockSize;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param outputFormat
+	 * @param rrnCertificate
+	 *            the optional national registration certificate used to verify
+	 *            the signatures.
+	 * @param threads
+	 *            the number of worker threads.
+	 * @param blockSize
+	 *            the number of records per work block.
+	 */
+	public BulkTlvDecoder(OutputFormat outputFormat, X509Certificate rrnCertificate, int threads, int blockSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("invalid block size: " + blockSize);
+		}
+		this.outputFormat = outputFormat;
+		if (null != rrnCertificate) {
+			this.signatureVerifier = new IdentitySignatureVerifier(rrnCertificate);
+		} else {
+			this.signatureVerifier = null;
+		}
+		this.threads = threads;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Decodes the given archives.
+	 *
+	 * @param archiveFiles
+	 * @param writer
+	 *            receives the decoded records.
+	 * @return the number of decoded records.
+	 * @throws IOException
+	 */
+	public long run(List<File> archiveFiles, Writer writer) throws IOException {
+		ExecutorService executorService = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "eid-tlv-decoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (OutputFormat.CSV == this.outputFormat) {
+			writeCsvHeader(writer);
+		}
+		/*
+		 * Idle workers take the next block from the shared queue, so slow
+		 * blocks do not hold up the others. Bounding the number of pending
+		 * blocks bounds the memory usage.
+		 */
+		int maxPendingBlocks = this.threads * 4;
+		LinkedList<Future<String>> pendingBlocks = new LinkedList<Future<String>>();
+		long count = 0;
+		try {
+			for (File archiveFile : archiveFiles) {
+				final String archiveName = archiveFile.getName();
+				IdentityArchiveReader reader = new IdentityArchiveReader(archiveFile);
+				try {
+					while (true) {
+						final List<IdentityRecord> block = readBlock(reader);
+						if (block.isEmpty()) {
+							break;
+						}
+						count += block.size();
+						pendingBlocks.add(executorService.submit(new Callable<String>() {
+							public String call() throws Exception {
+								return decodeBlock(archiveName, block);
+							}
+						}));
+						if (pendingBlocks.size() >= maxPendingBlocks) {
+							writer.write(getResult(pendingBlocks.removeFirst()));
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			while (false == pendingBlocks.isEmpty()) {
+				writer.write(getResult(pendingBlocks.removeFirst()));
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+		writer.flush();
+		LOG.debug("number of decoded records: " + count);
+		return count;
+	}
+
+	private List<IdentityRecord> readBlock(IdentityArchiveReader reader) throws IOException {
+		List<IdentityRecord> block = new ArrayList<IdentityRecord>(this.blockSize);
+		IdentityRecord record;
+		while (block.size() < this.blockSize && null != (record = reader.next())) {
+			block.add(record);
+		}
+		return block;
+	}
+
+	private String decodeBlock(String archiveName, List<IdentityRecord> block) {
+		StringBuilder result = new StringBuilder(block.size() * 512);
+		for (IdentityRecord record : block) {
+			String[] values = decode(archiveName, record);
+			if (OutputFormat.CSV == this.outputFormat) {
+				appendCsv(values, result);
+			} else {
+				appendJson(values, result);
+			}
+		}
+		return result.toString();
+	}
+
+	private String[] decode(String archiveName, IdentityRecord record) {
+		String[] values = new String[COLUMNS.length];
+		values[0] = archiveName;
+		values[1] = Long.toString(record.getRecordNumber());
+		try {
+			if (null != record.getIdentityFile()) {
+				Identity identity = TlvParser.parse(record.getIdentityFile(), Identity.class);
+				values[2] = identity.nationalNumber;
+				values[3] = identity.name;
+				values[4] = identity.firstName;
+				values[5] = identity.middleName;
+				values[6] = identity.nobleCondition;
+				values[7] = format(identity.dateOfBirth);
+				values[8] = identity.placeOfBirth;
+				values[9] = toString(identity.gender);
+				values[10] = identity.nationality;
+				values[11] = identity.cardNumber;
+				values[12] = identity.chipNumber;
+				values[13] = format(identity.cardValidityDateBegin);
+				values[14] = format(identity.cardValidityDateEnd);
+				values[15] = identity.cardDeliveryMunicipality;
+				values[16] = toString(identity.documentType);
+				values[17] = toString(identity.specialStatus);
+				values[18] = identity.duplicate;
+			}
+			if (null != record.getAddressFile()) {
+				Address address = TlvParser.parse(record.getAddressFile(), Address.class);
+				values[19] = address.streetAndNumber;
+				values[20] = address.zip;
+				values[21] = address.municipality;
+			}
+			if (null != this.signatureVerifier) {
+				values[22] = verifyIdentitySignature(record);
+				values[23] = verifyAddressSignature(record);
+			}
+		} catch (Exception e) {
+			values[24] = e.getMessage();
+		}
+		return values;
+	}
+
+	private String verifyIdentitySignature(IdentityRecord record) throws Exception {
+		if (null == record.getIdentityFile() || null == record.getIdentitySignatureFile()) {
+			return "absent";
+		}
+		boolean result = this.signatureVerifier.verifyIdentitySignature(record.getIdentityFile(),
+				record.getIdentitySignatureFile());
+		return result ? "valid" : "invalid";
+	}
+
+	private String verifyAddressSignature(IdentityRecord record) throws Exception {
+		if (null == record.getAddressFile() || null == record.getAddressSignatureFile()
+				|| null == record.getIdentitySignatureFile()) {
+			return "absent";
+		}
+		boolean result = this.signatureVerifier.verifyAddressSignature(record.getAddressFile(),
+				record.getAddressSignatureFile(), record.getIdentitySignatureFile());
+		return result ? "valid" : "invalid";
+	}
+
+	private static String format(GregorianCalendar calendar) {
+		if (null == calendar) {
+			return null;
+		}
+		StringBuilder result = new StringBuilder(10);
+		pad(calendar.get(Calendar.YEAR), 4, result);
+		result.append('-');
+		pad(calendar.get(Calendar.MONTH) + 1, 2, result);
+		result.append('-');
+		pad(calendar.get(Calendar.DAY_OF_MONTH), 2, result);
+		return result.toString();
+	}
+
+	private static void pad(int value, int digits, StringBuilder result) {
+		String valueStr = Integer.toString(value);
+		for (int idx = valueStr.length(); idx < digits; idx++) {
+			result.append('0');
+		}
+		result.append(valueStr);
+	}
+
+	private static String toString(Object value) {
+		if (null == value) {
+			return null;
+		}
+		return value.toString();
+	}
+
+	private static void writeCsvHeader(Writer writer) throws IOException {
+		StringBuilder header = new StringBuilder();
+		appendCsv(COLUMNS, header);
+		writer.write(header.toString());
+	}
+
+	private static void appendCsv(String[] values, StringBuilder result) {
+		for (int idx = 0; idx < values.length; idx++) {
+			if (idx > 0) {
+				result.append(',');
+			}
+			String value = values[idx];
+			if (null == value) {
+				continue;
+			}
+			boolean quote = false;
+			for (int charIdx = 0; charIdx < value.length(); charIdx++) {
+				char c = value.charAt(charIdx);
+				if (',' == c || '"' == c || '\n' == c || '\r' == c) {
+					quote = true;
+					break;
+				}
+			}
+			if (quote) {
+				result.append('"');
+				result.append(value.replace("\"", "\"\""));
+				result.append('"');
+			} else {
+				result.append(value);
+			}
+		}
+		result.append('\n');
+	}
+
+	private static void appendJson(String[] values, StringBuilder result) {
+		result.append('{');
+		boolean first = true;
+		for (int idx = 0; idx < values.length; idx++) {
+			String value = values[idx];
+			if (null == value) {
+				continue;
+			}
+			if (false == first) {
+				result.append(',');
+			}
+			first = false;
+			result.append('"');
+			result.append(COLUMNS[idx]);
+			result.append("\":\"");
+			for (int charIdx = 0; charIdx < value.length(); charIdx++) {
+				char c = value.charAt(charIdx);
+				switch (c) {
+				case '"':
+					result.append("\\\"");
+					break;
+				case '\\':
+					result.append("\\\\");
+					break;
+				case '\n':
+					result.append("\\n");
+					break;
+				case '\r':
+					result.append("\\r");
+					break;
+				case '\t':
+					result.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						result.append(String.format("\\u%04x", (int) c));
+					} else {
+						result.append(c);
+					}
+				}
+			}
+			result.append('"');
+		}
+		result.append("}\n");
+	}
+
+	private static String getResult(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			throw new RuntimeException("decoding error: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println(
+					"usage: BulkTlvDecoder <csv|json> <output> <RRN certificate file|-> <archive> [archive...]");
+			System.exit(1);
+		}
+		OutputFormat outputFormat = OutputFormat.valueOf(args[0].toUpperCase());
+		X509Certificate rrnCertificate = null;
+		if (false == "-".equals(args[2])) {
+			rrnCertificate = CertificateCache.getCertificate(FileUtils.readFileToByteArray(new File(args[2])));
+		}
+		List<File> archiveFiles = new LinkedList<File>();
+		for (int idx = 3; idx < args.length; idx++) {
+			archiveFiles.add(new File(args[idx]));
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		BulkTlvDecoder bulkTlvDecoder = new BulkTlvDecoder(outputFormat, rrnCertificate, threads, DEFAULT_BLOCK_SIZE);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"));
+		try {
+			long count = bulkTlvDecoder.run(archiveFiles, writer);
+			System.err.println("decoded records: " + count);
+		} finally {
+			writer.close();
+		}
+	}
+}
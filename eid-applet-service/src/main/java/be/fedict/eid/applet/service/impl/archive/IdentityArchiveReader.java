@@ -0,0 +1,151 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Sequential reader of an identity record archive. The archive is memory
+ * mapped in windows, so archives larger than the address space of a single
+ * mapping are supported.
+ *
+ * @author Frank Cornelis
+ * @see IdentityArchiveWriter
+ *
+ */
+public class IdentityArchiveReader {
+
+	/**
+	 * The default size of a mapped window.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 1024 * 1024 * 256;
+
+	private static final int HEADER_SIZE = 8;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final int windowSize;
+
+	private MappedByteBuffer window;
+
+	private long windowPosition;
+
+	private long position;
+
+	private long recordNumber;
+
+	public IdentityArchiveReader(File archiveFile) throws IOException {
+		this(archiveFile, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param archiveFile
+	 * @param windowSize
+	 *            the size of a mapped window. Should be larger than the size
+	 *            of a single record.
+	 * @throws IOException
+	 */
+	public IdentityArchiveReader(File archiveFile, int windowSize) throws IOException {
+		this.file = new RandomAccessFile(archiveFile, "r");
+		this.channel = this.file.getChannel();
+		this.size = this.channel.size();
+		this.windowSize = windowSize;
+		try {
+			map(0, HEADER_SIZE);
+			if (IdentityArchiveWriter.MAGIC != this.window.getInt(0)) {
+				throw new IOException("not an identity archive: " + archiveFile);
+			}
+			int version = this.window.getInt(4);
+			if (IdentityArchiveWriter.VERSION != version) {
+				throw new IOException("unsupported identity archive version: " + version);
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		this.position = HEADER_SIZE;
+	}
+
+	/**
+	 * Gives back the next identity record.
+	 *
+	 * @return the record, or <code>null</code> at the end of the archive.
+	 * @throws IOException
+	 *             in case of a corrupted or truncated archive.
+	 */
+	public IdentityRecord next() throws IOException {
+		if (this.position >= this.size) {
+			return null;
+		}
+		byte[] identityFile = readFile();
+		byte[] identitySignatureFile = readFile();
+		byte[] addressFile = readFile();
+		byte[] addressSignatureFile = readFile();
+		return new IdentityRecord(this.recordNumber++, identityFile, identitySignatureFile, addressFile,
+				addressSignatureFile);
+	}
+
+	public void close() throws IOException {
+		this.window = null;
+		this.file.close();
+	}
+
+	private byte[] readFile() throws IOException {
+		map(this.position, 4);
+		int length = this.window.getInt((int) (this.position - this.windowPosition));
+		this.position += 4;
+		if (-1 == length) {
+			return null;
+		}
+		if (length < 0 || length > IdentityArchiveWriter.MAX_FILE_SIZE) {
+			throw new IOException("corrupted identity archive at offset " + (this.position - 4));
+		}
+		map(this.position, length);
+		byte[] data = new byte[length];
+		this.window.position((int) (this.position - this.windowPosition));
+		this.window.get(data);
+		this.position += length;
+		return data;
+	}
+
+	private void map(long offset, int length) throws IOException {
+		if (offset + length > this.size) {
+			throw new EOFException("truncated identity archive at offset " + offset);
+		}
+		if (null != this.window && offset >= this.windowPosition
+				&& offset + length <= this.windowPosition + this.window.limit()) {
+			return;
+		}
+		long mapSize = Math.max(length, Math.min(this.windowSize, this.size - offset));
+		this.window = this.channel.map(MapMode.READ_ONLY, offset, mapSize);
+		this.windowPosition = offset;
+	}
+}
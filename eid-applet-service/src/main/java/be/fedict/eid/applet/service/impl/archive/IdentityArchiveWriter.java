@@ -0,0 +1,92 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writer of identity record archives. An archive starts with a header holding
+ * the magic and the version. Every record consists out of the identity file,
+ * the identity signature file, the address file and the address signature
+ * file, each prefixed with its length. Absent files have length
+ * <code>-1</code>.
+ *
+ * @author Frank Cornelis
+ * @see IdentityArchiveReader
+ *
+ */
+public class IdentityArchiveWriter {
+
+	/**
+	 * The magic at the start of every archive: "EIDR".
+	 */
+	public static final int MAGIC = 0x45494452;
+
+	public static final int VERSION = 1;
+
+	/**
+	 * The maximum size of an archived file.
+	 */
+	public static final int MAX_FILE_SIZE = 1024 * 64;
+
+	private final DataOutputStream output;
+
+	/**
+	 * Main constructor. Writes the archive header.
+	 *
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public IdentityArchiveWriter(OutputStream outputStream) throws IOException {
+		this.output = new DataOutputStream(new BufferedOutputStream(outputStream));
+		this.output.writeInt(MAGIC);
+		this.output.writeInt(VERSION);
+	}
+
+	public void write(byte[] identityFile, byte[] identitySignatureFile, byte[] addressFile,
+			byte[] addressSignatureFile) throws IOException {
+		writeFile(identityFile);
+		writeFile(identitySignatureFile);
+		writeFile(addressFile);
+		writeFile(addressSignatureFile);
+	}
+
+	public void flush() throws IOException {
+		this.output.flush();
+	}
+
+	public void close() throws IOException {
+		this.output.close();
+	}
+
+	private void writeFile(byte[] file) throws IOException {
+		if (null == file) {
+			this.output.writeInt(-1);
+			return;
+		}
+		if (file.length > MAX_FILE_SIZE) {
+			throw new IllegalArgumentException("file too large: " + file.length);
+		}
+		this.output.writeInt(file.length);
+		this.output.write(file);
+	}
+}
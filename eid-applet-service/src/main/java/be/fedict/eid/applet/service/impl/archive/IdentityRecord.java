@@ -0,0 +1,73 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+/**
+ * Archived eID identity record, as received by the identification protocol.
+ * All files are optional.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class IdentityRecord {
+
+	private final long recordNumber;
+
+	private final byte[] identityFile;
+
+	private final byte[] identitySignatureFile;
+
+	private final byte[] addressFile;
+
+	private final byte[] addressSignatureFile;
+
+	public IdentityRecord(long recordNumber, byte[] identityFile, byte[] identitySignatureFile, byte[] addressFile,
+			byte[] addressSignatureFile) {
+		this.recordNumber = recordNumber;
+		this.identityFile = identityFile;
+		this.identitySignatureFile = identitySignatureFile;
+		this.addressFile = addressFile;
+		this.addressSignatureFile = addressSignatureFile;
+	}
+
+	/**
+	 * Gives back the zero-based position of this record within its archive.
+	 *
+	 * @return
+	 */
+	public long getRecordNumber() {
+		return this.recordNumber;
+	}
+
+	public byte[] getIdentityFile() {
+		return this.identityFile;
+	}
+
+	public byte[] getIdentitySignatureFile() {
+		return this.identitySignatureFile;
+	}
+
+	public byte[] getAddressFile() {
+		return this.addressFile;
+	}
+
+	public byte[] getAddressSignatureFile() {
+		return this.addressSignatureFile;
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.archive.ReverificationReport.Result;
+import be.fedict.eid.applet.service.spi.CertificateSecurityException;
+import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+import be.fedict.eid.applet.service.spi.IdentityRecordDTO;
+import be.fedict.eid.applet.service.spi.IdentityRecordSource;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.TrustCertificateSecurityException;
+
+/**
+ * Bulk re-verification of the integrity of stored identity records. To be run
+ * when the national registration certificate or the trust policy changes. The
+ * identity and address signatures are verified the same way as the
+ * identification protocol does, while the national registration certificates
+ * are checked against the identity integrity service.
+ *
+ * <p>
+ * Batches of records are verified by a pool of worker threads. After every
+ * completed batch the position and the intermediate report are written to the
+ * checkpoint file, so an interrupted job resumes where it left off. The
+ * checkpoint file is removed once the job has finished.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class IdentityReverificationJob {
+
+	private static final Log LOG = LogFactory.getLog(IdentityReverificationJob.class);
+
+	/**
+	 * The default number of records per batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String POSITION_PROPERTY = "position";
+
+	private static final String COUNT_PROPERTY_PREFIX = "count.";
+
+	private final IdentityRecordSource identityRecordSource;
+
+	private final IdentityIntegrityService identityIntegrityService;
+
+	private final X509Certificate defaultRrnCertificate;
+
+	private final File checkpointFile;
+
+	private final int threads;
+
+	private final int batchSize;
+
+	private final Map<List<X509Certificate>, Result> rrnCertificateResults;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param identityRecordSource
+	 * @param identityIntegrityService
+	 *            the optional identity integrity service that checks the
+	 *            national registration certificates.
+	 * @param defaultRrnCertificate
+	 *            the optional national registration certificate for records
+	 *            that do not have their own.
+	 * @param checkpointFile
+	 *            the optional checkpoint file.
+	 * @param threads
+	 *            the number of worker threads.
+	 * @param batchSize
+	 *            the number of records per batch.
+	 */
+	public IdentityReverificationJob(IdentityRecordSource identityRecordSource,
+			IdentityIntegrityService identityIntegrityService, X509Certificate defaultRrnCertificate,
+			File checkpointFile, int threads, int batchSize) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("invalid batch size: " + batchSize);
+		}
+		this.identityRecordSource = identityRecordSource;
+		this.identityIntegrityService = identityIntegrityService;
+		this.defaultRrnCertificate = defaultRrnCertificate;
+		this.checkpointFile = checkpointFile;
+		this.threads = threads;
+		this.batchSize = batchSize;
+		this.rrnCertificateResults = new HashMap<List<X509Certificate>, Result>();
+	}
+
+	/**
+	 * Requests the running job to stop after the current batches. The
+	 * checkpoint is kept, so a next run resumes the job.
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+
+	/**
+	 * Runs the re-verification, resuming from the checkpoint if available.
+	 *
+	 * @return the report, including the records verified by previous runs.
+	 * @throws IOException
+	 *             in case of a checkpoint error.
+	 */
+	public ReverificationReport run() throws IOException {
+		ReverificationReport report = new ReverificationReport();
+		String position = loadCheckpoint(report);
+		if (null != position) {
+			LOG.info("resuming identity re-verification after position: " + position);
+		}
+		ExecutorService executorService = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "eid-reverification");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		/*
+		 * Batches complete in order, so the checkpoint always covers a
+		 * contiguous range of records.
+		 */
+		int maxPendingBatches = this.threads * 2;
+		LinkedList<Future<ReverificationReport>> pendingBatches = new LinkedList<Future<ReverificationReport>>();
+		LinkedList<String> pendingPositions = new LinkedList<String>();
+		try {
+			String lastPosition = position;
+			while (false == this.stopped) {
+				final List<IdentityRecordDTO> batch = this.identityRecordSource.getRecords(lastPosition,
+						this.batchSize);
+				if (batch.isEmpty()) {
+					break;
+				}
+				lastPosition = batch.get(batch.size() - 1).position;
+				pendingBatches.add(executorService.submit(new Callable<ReverificationReport>() {
+					public ReverificationReport call() throws Exception {
+						return verifyBatch(batch);
+					}
+				}));
+				pendingPositions.add(lastPosition);
+				if (pendingBatches.size() >= maxPendingBatches) {
+					report.add(getResult(pendingBatches.removeFirst()));
+					saveCheckpoint(pendingPositions.removeFirst(), report);
+				}
+			}
+			while (false == pendingBatches.isEmpty()) {
+				report.add(getResult(pendingBatches.removeFirst()));
+				saveCheckpoint(pendingPositions.removeFirst(), report);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+		if (false == this.stopped && null != this.checkpointFile) {
+			this.checkpointFile.delete();
+		}
+		LOG.debug("identity re-verification report:\n" + report);
+		return report;
+	}
+
+	private ReverificationReport verifyBatch(List<IdentityRecordDTO> batch) {
+		ReverificationReport batchReport = new ReverificationReport();
+		for (IdentityRecordDTO record : batch) {
+			Result result = verify(record);
+			if (Result.VALID != result) {
+				LOG.debug("identity record " + record.position + ": " + result);
+			}
+			batchReport.add(result, 1);
+		}
+		return batchReport;
+	}
+
+	private Result verify(IdentityRecordDTO record) {
+		if (null == record.identityFile || null == record.identitySignatureFile) {
+			return Result.MISSING_DATA;
+		}
+		if (null != record.addressFile && null == record.addressSignatureFile) {
+			return Result.MISSING_DATA;
+		}
+		X509Certificate rrnCertificate = record.rrnCertificate;
+		if (null == rrnCertificate) {
+			rrnCertificate = this.defaultRrnCertificate;
+		}
+		if (null == rrnCertificate) {
+			return Result.RRN_CERTIFICATE_MISSING;
+		}
+		try {
+			if (null != this.identityIntegrityService) {
+				Result rrnCertificateResult = checkRrnCertificate(rrnCertificate, record.rootCertificate);
+				if (Result.VALID != rrnCertificateResult) {
+					return rrnCertificateResult;
+				}
+			}
+			IdentitySignatureVerifier signatureVerifier = new IdentitySignatureVerifier(rrnCertificate);
+			try {
+				if (false == signatureVerifier.verifyIdentitySignature(record.identityFile,
+						record.identitySignatureFile)) {
+					return Result.IDENTITY_SIGNATURE_INVALID;
+				}
+			} catch (SignatureException e) {
+				return Result.IDENTITY_SIGNATURE_INVALID;
+			}
+			if (null != record.addressFile) {
+				try {
+					if (false == signatureVerifier.verifyAddressSignature(record.addressFile,
+							record.addressSignatureFile, record.identitySignatureFile)) {
+						return Result.ADDRESS_SIGNATURE_INVALID;
+					}
+				} catch (SignatureException e) {
+					return Result.ADDRESS_SIGNATURE_INVALID;
+				}
+			}
+			return Result.VALID;
+		} catch (Exception e) {
+			LOG.error("error verifying identity record " + record.position + ": " + e.getMessage(), e);
+			return Result.ERROR;
+		}
+	}
+
+	private Result checkRrnCertificate(X509Certificate rrnCertificate, X509Certificate rootCertificate) {
+		List<X509Certificate> rrnCertificateChain = new LinkedList<X509Certificate>();
+		rrnCertificateChain.add(rrnCertificate);
+		if (null != rootCertificate) {
+			rrnCertificateChain.add(rootCertificate);
+		}
+		Result result;
+		synchronized (this.rrnCertificateResults) {
+			result = this.rrnCertificateResults.get(rrnCertificateChain);
+		}
+		if (null != result) {
+			return result;
+		}
+		/*
+		 * Only the verdicts of the identity integrity service are kept, not the
+		 * errors.
+		 */
+		try {
+			this.identityIntegrityService.checkNationalRegistrationCertificate(rrnCertificateChain);
+			result = Result.VALID;
+		} catch (ExpiredCertificateSecurityException e) {
+			result = Result.RRN_CERTIFICATE_EXPIRED;
+		} catch (RevokedCertificateSecurityException e) {
+			result = Result.RRN_CERTIFICATE_REVOKED;
+		} catch (TrustCertificateSecurityException e) {
+			result = Result.RRN_CERTIFICATE_NOT_TRUSTED;
+		} catch (CertificateSecurityException e) {
+			result = Result.RRN_CERTIFICATE_INVALID;
+		} catch (SecurityException e) {
+			result = Result.RRN_CERTIFICATE_INVALID;
+		}
+		synchronized (this.rrnCertificateResults) {
+			this.rrnCertificateResults.put(rrnCertificateChain, result);
+		}
+		return result;
+	}
+
+	private String loadCheckpoint(ReverificationReport report) throws IOException {
+		if (null == this.checkpointFile || false == this.checkpointFile.exists()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		InputStream inputStream = new FileInputStream(this.checkpointFile);
+		try {
+			properties.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+		for (Result result : Result.values()) {
+			String count = properties.getProperty(COUNT_PROPERTY_PREFIX + result.name());
+			if (null != count) {
+				report.add(result, Long.parseLong(count));
+			}
+		}
+		return properties.getProperty(POSITION_PROPERTY);
+	}
+
+	private void saveCheckpoint(String position, ReverificationReport report) throws IOException {
+		if (null == this.checkpointFile) {
+			return;
+		}
+		Properties properties = new Properties();
+		properties.setProperty(POSITION_PROPERTY, position);
+		for (Result result : Result.values()) {
+			properties.setProperty(COUNT_PROPERTY_PREFIX + result.name(), Long.toString(report.getCount(result)));
+		}
+		File tmpFile = new File(this.checkpointFile.getPath() + ".tmp");
+		OutputStream outputStream = new FileOutputStream(tmpFile);
+		try {
+			properties.store(outputStream, "eID identity re-verification checkpoint");
+		} finally {
+			outputStream.close();
+		}
+		if (false == tmpFile.renameTo(this.checkpointFile)) {
+			/*
+			 * Some platforms do not allow to rename over an existing file.
+			 */
+			this.checkpointFile.delete();
+			if (false == tmpFile.renameTo(this.checkpointFile)) {
+				throw new IOException("could not write checkpoint: " + this.checkpointFile);
+			}
+		}
+	}
+
+	private static ReverificationReport getResult(Future<ReverificationReport> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			throw new RuntimeException("re-verification error: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.archive;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Report of a bulk identity integrity re-verification. Holds the number of
+ * records per verification result.
+ *
+ * @author Frank Cornelis
+ * @see IdentityReverificationJob
+ *
+ */
+public class ReverificationReport {
+
+	/**
+	 * The outcome of the re-verification of a single identity record.
+	 */
+	public enum Result {
+		VALID, MISSING_DATA, RRN_CERTIFICATE_MISSING, RRN_CERTIFICATE_EXPIRED, RRN_CERTIFICATE_REVOKED,
+		RRN_CERTIFICATE_NOT_TRUSTED, RRN_CERTIFICATE_INVALID, IDENTITY_SIGNATURE_INVALID, ADDRESS_SIGNATURE_INVALID,
+		ERROR
+	}
+
+	private final Map<Result, Long> counts;
+
+	public ReverificationReport() {
+		this.counts = new EnumMap<Result, Long>(Result.class);
+		for (Result result : Result.values()) {
+			this.counts.put(result, 0L);
+		}
+	}
+
+	public long getCount(Result result) {
+		return this.counts.get(result);
+	}
+
+	/**
+	 * Gives back the total number of re-verified records.
+	 *
+	 * @return
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (long count : this.counts.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Gives back the number of records that failed re-verification.
+	 *
+	 * @return
+	 */
+	public long getFailures() {
+		return getTotal() - getCount(Result.VALID);
+	}
+
+	void add(Result result, long count) {
+		this.counts.put(result, this.counts.get(result) + count);
+	}
+
+	void add(ReverificationReport report) {
+		for (Result result : Result.values()) {
+			add(result, report.getCount(result));
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<Result, Long> count : this.counts.entrySet()) {
+			result.append(String.format("%-30s %12d%n", count.getKey(), count.getValue()));
+		}
+		result.append(String.format("%-30s %12d%n", "TOTAL", getTotal()));
+		return result.toString();
+	}
+}
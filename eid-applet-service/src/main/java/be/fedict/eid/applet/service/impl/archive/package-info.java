@@ -0,0 +1,6 @@
+/**
+ * This package contains the identity record archive and bulk processing
+ * classes.
+ */
+package be.fedict.eid.applet.service.impl.archive;
+
@@ -0,0 +1,499 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+/**
+ * Append-only audit log. Audit records are appended to memory-mapped segment
+ * files of a fixed size. When a segment is full, the log rolls over to the next
+ * segment.
+ *
+ * <p>
+ * Every record carries a CRC32 checksum and a sequence number. At startup the
+ * last segment is scanned, and everything after the last valid record, like a
+ * record that was torn by a crash, gets wiped.
+ * </p>
+ *
+ * <p>
+ * With a sync interval of zero every append waits until the record has been
+ * forced to disk. Concurrent appenders share a single force operation (group
+ * commit). With a positive sync interval, a background thread forces the log
+ * periodically, and a crash can lose the records of the last interval.
+ * </p>
+ *
+ * <p>
+ * The audit log holds a file lock on its directory until {@link #close()}, so
+ * only one audit log instance at a time can append to the segments.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AuditLog {
+
+	private static final Log LOG = LogFactory.getLog(AuditLog.class);
+
+	/**
+	 * The default segment size in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024 * 64;
+
+	/**
+	 * The default sync interval in milliseconds.
+	 */
+	public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+	static final int MAGIC = 0x45494441;
+
+	static final int VERSION = 1;
+
+	static final int SEGMENT_HEADER_SIZE = 16;
+
+	static final String SEGMENT_PREFIX = "audit-";
+
+	static final String SEGMENT_SUFFIX = ".log";
+
+	static final String LOCK_FILE = "audit.lock";
+
+	private final File directory;
+
+	private final int segmentSize;
+
+	private final long syncInterval;
+
+	private final CRC32 crc;
+
+	private final byte[] scratch;
+
+	private final RandomAccessFile lockFile;
+
+	private final FileLock lock;
+
+	private long segmentIndex;
+
+	private MappedByteBuffer buffer;
+
+	private long nextSequence;
+
+	private long durableSequence;
+
+	private boolean syncing;
+
+	private boolean closed;
+
+	private Thread syncThread;
+
+	private long failedAppends;
+
+	/**
+	 * Main constructor. Opens the audit log within the given directory,
+	 * recovering the last segment if required.
+	 *
+	 * @param directory
+	 *            the audit log directory.
+	 * @param segmentSize
+	 *            the segment size in bytes.
+	 * @param syncInterval
+	 *            the sync interval in milliseconds. Zero means that every
+	 *            append waits for the record to be forced to disk.
+	 * @throws IOException
+	 *             in case the audit log directory is in use by another audit
+	 *             log instance.
+	 */
+	public AuditLog(File directory, int segmentSize, long syncInterval) throws IOException {
+		if (segmentSize < SEGMENT_HEADER_SIZE + AuditRecord.getMaxLength()) {
+			throw new IllegalArgumentException("segment size too small: " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncInterval = syncInterval;
+		this.crc = new CRC32();
+		this.scratch = new byte[AuditRecord.getMaxLength()];
+		if (false == directory.exists()) {
+			if (false == directory.mkdirs()) {
+				throw new IOException("could not create audit log directory: " + directory);
+			}
+		}
+		this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+		FileLock lock;
+		try {
+			lock = this.lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		} catch (IOException e) {
+			this.lockFile.close();
+			throw e;
+		}
+		if (null == lock) {
+			this.lockFile.close();
+			throw new IOException("audit log directory in use: " + directory);
+		}
+		this.lock = lock;
+		try {
+			open();
+		} catch (IOException e) {
+			unlock();
+			throw e;
+		}
+		if (0 != syncInterval) {
+			this.syncThread = new Thread("eid-audit-log-sync") {
+				@Override
+				public void run() {
+					syncLoop();
+				}
+			};
+			this.syncThread.setDaemon(true);
+			this.syncThread.start();
+		}
+	}
+
+	/**
+	 * Appends an audit record.
+	 *
+	 * @param type
+	 * @param subject
+	 *            the user identifier or remote address.
+	 * @param certificate
+	 *            the optional certificate.
+	 * @return the sequence number of the audit record.
+	 * @throws IOException
+	 */
+	public long append(AuditRecordType type, String subject, X509Certificate certificate) throws IOException {
+		byte[] encodedSubject = null;
+		if (null != subject) {
+			try {
+				encodedSubject = subject.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException("UTF-8 not supported");
+			}
+		}
+		byte[] certificateDigest = null;
+		if (null != certificate) {
+			certificateDigest = digest(certificate);
+		}
+		long sequence;
+		synchronized (this) {
+			if (this.closed) {
+				throw new IOException("audit log closed");
+			}
+			sequence = this.nextSequence;
+			int length = AuditRecord.encode(this.scratch, this.crc, sequence, System.currentTimeMillis(), type,
+					encodedSubject, certificateDigest);
+			if (this.buffer.remaining() < length) {
+				rollOver();
+			}
+			this.buffer.put(this.scratch, 0, length);
+			this.nextSequence++;
+		}
+		if (0 == this.syncInterval) {
+			awaitDurable(sequence + 1);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Forces all audit records appended so far to disk.
+	 */
+	public void sync() {
+		long sequence;
+		synchronized (this) {
+			sequence = this.nextSequence;
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Gives back the sequence number of the next audit record.
+	 *
+	 * @return
+	 */
+	public synchronized long getNextSequence() {
+		return this.nextSequence;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Gives back the number of audit records that the audit service could not
+	 * append.
+	 *
+	 * @return
+	 */
+	public synchronized long getFailedAppends() {
+		return this.failedAppends;
+	}
+
+	synchronized void failedAppend() {
+		this.failedAppends++;
+	}
+
+	/**
+	 * Forces the audit log to disk, closes it and releases the audit log
+	 * directory.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			notifyAll();
+		}
+		if (null != this.syncThread) {
+			try {
+				this.syncThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			sync();
+		} finally {
+			synchronized (this) {
+				/*
+				 * The mapping gets released once garbage collected.
+				 */
+				this.buffer = null;
+			}
+			unlock();
+		}
+	}
+
+	private void unlock() {
+		try {
+			this.lock.release();
+		} catch (IOException e) {
+			LOG.error("error releasing audit log lock: " + e.getMessage(), e);
+		}
+		try {
+			this.lockFile.close();
+		} catch (IOException e) {
+			LOG.error("error closing audit log lock file: " + e.getMessage(), e);
+		}
+	}
+
+	private void awaitDurable(long sequence) {
+		MappedByteBuffer forceBuffer;
+		long target;
+		synchronized (this) {
+			while (true) {
+				if (this.durableSequence >= sequence) {
+					return;
+				}
+				if (false == this.syncing) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("interrupted while syncing audit log");
+				}
+			}
+			this.syncing = true;
+			target = this.nextSequence;
+			forceBuffer = this.buffer;
+		}
+		try {
+			forceBuffer.force();
+		} finally {
+			synchronized (this) {
+				this.syncing = false;
+				if (target > this.durableSequence) {
+					this.durableSequence = target;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private void syncLoop() {
+		while (true) {
+			synchronized (this) {
+				if (this.closed) {
+					return;
+				}
+				try {
+					wait(this.syncInterval);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (this.closed) {
+					return;
+				}
+			}
+			try {
+				sync();
+			} catch (Exception e) {
+				LOG.error("audit log sync error: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private void rollOver() throws IOException {
+		/*
+		 * Records of previous segments are always durable, so a sync only has to
+		 * force the current segment.
+		 */
+		this.buffer.force();
+		this.durableSequence = this.nextSequence;
+		this.segmentIndex++;
+		LOG.debug("audit log roll over to segment: " + this.segmentIndex);
+		this.buffer = map(getSegmentFile(this.directory, this.segmentIndex));
+		this.buffer.putInt(MAGIC);
+		this.buffer.putInt(VERSION);
+		this.buffer.putLong(this.nextSequence);
+		this.buffer.force();
+	}
+
+	private void open() throws IOException {
+		File[] segmentFiles = listSegmentFiles(this.directory);
+		for (int idx = segmentFiles.length - 1; idx >= 0; idx--) {
+			File segmentFile = segmentFiles[idx];
+			MappedByteBuffer segmentBuffer = map(segmentFile);
+			if (MAGIC != segmentBuffer.getInt(0) || VERSION != segmentBuffer.getInt(4)) {
+				/*
+				 * A segment that got created right before a crash.
+				 */
+				LOG.warn("removing invalid audit log segment: " + segmentFile);
+				if (false == segmentFile.delete()) {
+					throw new IOException("could not remove invalid audit log segment: " + segmentFile);
+				}
+				continue;
+			}
+			long sequence = segmentBuffer.getLong(8);
+			int position = SEGMENT_HEADER_SIZE;
+			while (true) {
+				int length = AuditRecord.check(segmentBuffer, position, sequence, this.crc, this.scratch);
+				if (-1 == length) {
+					break;
+				}
+				position += length;
+				sequence++;
+			}
+			wipe(segmentBuffer, position, segmentFile);
+			segmentBuffer.position(position);
+			this.buffer = segmentBuffer;
+			this.segmentIndex = getSegmentIndex(segmentFile);
+			this.nextSequence = sequence;
+			this.durableSequence = sequence;
+			LOG.debug("audit log opened at sequence: " + sequence);
+			return;
+		}
+		this.segmentIndex = 0;
+		this.buffer = map(getSegmentFile(this.directory, 0));
+		this.buffer.putInt(MAGIC);
+		this.buffer.putInt(VERSION);
+		this.buffer.putLong(0);
+		this.buffer.force();
+	}
+
+	private void wipe(MappedByteBuffer segmentBuffer, int position, File segmentFile) {
+		boolean dirty = false;
+		for (int idx = position; idx < segmentBuffer.limit(); idx++) {
+			if (0 != segmentBuffer.get(idx)) {
+				segmentBuffer.put(idx, (byte) 0);
+				dirty = true;
+			}
+		}
+		if (dirty) {
+			LOG.warn("wiped torn audit log records in " + segmentFile + " at " + position);
+			segmentBuffer.force();
+		}
+	}
+
+	private MappedByteBuffer map(File segmentFile) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+		try {
+			if (randomAccessFile.length() != this.segmentSize) {
+				randomAccessFile.setLength(this.segmentSize);
+			}
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			/*
+			 * The mapping stays valid after closing the file.
+			 */
+			return fileChannel.map(MapMode.READ_WRITE, 0, this.segmentSize);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	static File getSegmentFile(File directory, long segmentIndex) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%016d", segmentIndex) + SEGMENT_SUFFIX);
+	}
+
+	static long getSegmentIndex(File segmentFile) {
+		String name = segmentFile.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	static File[] listSegmentFiles(File directory) {
+		File[] segmentFiles = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				String name = file.getName();
+				return file.isFile() && name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (null == segmentFiles) {
+			return new File[0];
+		}
+		Arrays.sort(segmentFiles);
+		return segmentFiles;
+	}
+
+	private static byte[] digest(X509Certificate certificate) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 error: " + e.getMessage(), e);
+		}
+		try {
+			return messageDigest.digest(certificate.getEncoded());
+		} catch (CertificateEncodingException e) {
+			throw new RuntimeException("certificate encoding error: " + e.getMessage(), e);
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import be.fedict.eid.applet.service.spi.AuditService;
+
+/**
+ * Audit service that appends the audit events to an {@link AuditLog}.
+ *
+ * <p>
+ * As the eID Applet Service can instantiate the audit service per request,
+ * the audit log should be shared via a subclass:
+ * </p>
+ *
+ * <pre>
+ * public class MyAuditService extends AuditLogAuditService {
+ * 	private static final AuditLog AUDIT_LOG = ...;
+ *
+ * 	public MyAuditService() {
+ * 		super(AUDIT_LOG);
+ * 	}
+ * }
+ * </pre>
+ *
+ * <p>
+ * Audit records that cannot be appended are logged and counted via
+ * {@link AuditLog#getFailedAppends()}, so a broken audit log does not break
+ * the eID Applet protocol runs. The eID Applet Service servlet invokes
+ * {@link #close()} when it gets destroyed.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AuditLogAuditService implements AuditService, Closeable {
+
+	private static final Log LOG = LogFactory.getLog(AuditLogAuditService.class);
+
+	private final AuditLog auditLog;
+
+	public AuditLogAuditService(AuditLog auditLog) {
+		this.auditLog = auditLog;
+	}
+
+	public void authenticated(String userId) {
+		append(AuditRecordType.AUTHENTICATED, userId, null);
+	}
+
+	public void identified(String userId) {
+		append(AuditRecordType.IDENTIFIED, userId, null);
+	}
+
+	public void authenticationError(String remoteAddress, X509Certificate clientCertificate) {
+		append(AuditRecordType.AUTHENTICATION_ERROR, remoteAddress, clientCertificate);
+	}
+
+	public void identityIntegrityError(String remoteAddress) {
+		append(AuditRecordType.IDENTITY_INTEGRITY_ERROR, remoteAddress, null);
+	}
+
+	public void signatureError(String remoteAddress, X509Certificate clientCertificate) {
+		append(AuditRecordType.SIGNATURE_ERROR, remoteAddress, clientCertificate);
+	}
+
+	public void signed(String userId) {
+		append(AuditRecordType.SIGNED, userId, null);
+	}
+
+	/**
+	 * Closes the audit log.
+	 */
+	public void close() {
+		this.auditLog.close();
+	}
+
+	private void append(AuditRecordType type, String subject, X509Certificate certificate) {
+		try {
+			this.auditLog.append(type, subject, certificate);
+		} catch (IOException e) {
+			this.auditLog.failedAppend();
+			LOG.error("audit log error for " + type + " " + subject + ": " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			this.auditLog.failedAppend();
+			LOG.error("audit log error for " + type + " " + subject + ": " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Exports an audit log as CSV. Columns: sequence number, timestamp (ISO 8601,
+ * UTC), record type, subject and hex encoded certificate digest.
+ *
+ * <p>
+ * Usage: <code>AuditLogExporter &lt;audit log directory&gt;</code>
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AuditLogExporter {
+
+	private AuditLogExporter() {
+		super();
+	}
+
+	/**
+	 * Exports the audit log within the given directory.
+	 *
+	 * @param directory
+	 * @param writer
+	 * @return the number of exported audit records.
+	 * @throws IOException
+	 */
+	public static long export(File directory, Writer writer) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		PrintWriter printWriter = new PrintWriter(writer);
+		AuditLogReader reader = new AuditLogReader(directory);
+		long count = 0;
+		AuditRecord record;
+		while (null != (record = reader.next())) {
+			printWriter.print(record.getSequence());
+			printWriter.print(',');
+			printWriter.print(dateFormat.format(new Date(record.getTimestamp())));
+			printWriter.print(',');
+			printWriter.print(record.getType());
+			printWriter.print(',');
+			printWriter.print(escape(record.getSubject()));
+			printWriter.print(',');
+			if (null != record.getCertificateDigest()) {
+				printWriter.print(Hex.encodeHex(record.getCertificateDigest()));
+			}
+			printWriter.print("\r\n");
+			count++;
+		}
+		printWriter.flush();
+		return count;
+	}
+
+	private static String escape(String value) {
+		if (null == value) {
+			return "";
+		}
+		if (-1 == value.indexOf(',') && -1 == value.indexOf('"') && -1 == value.indexOf('\n')
+				&& -1 == value.indexOf('\r')) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (1 != args.length) {
+			System.err.println("usage: AuditLogExporter <audit log directory>");
+			System.exit(1);
+		}
+		Writer writer = new OutputStreamWriter(System.out, "UTF-8");
+		export(new File(args[0]), writer);
+		writer.flush();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential reader of the audit records within an audit log directory. The
+ * reader stops at the end of the valid records of every segment, so it can run
+ * against an audit log that is still being appended to.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AuditLogReader {
+
+	private final File[] segmentFiles;
+
+	private final CRC32 crc;
+
+	private final byte[] scratch;
+
+	private int segmentIdx;
+
+	private MappedByteBuffer buffer;
+
+	private int position;
+
+	private long sequence;
+
+	public AuditLogReader(File directory) {
+		this.segmentFiles = AuditLog.listSegmentFiles(directory);
+		this.crc = new CRC32();
+		this.scratch = new byte[AuditRecord.getMaxLength()];
+		this.segmentIdx = -1;
+	}
+
+	/**
+	 * Gives back the next audit record.
+	 *
+	 * @return the audit record, or <code>null</code> if there are no more
+	 *         audit records.
+	 * @throws IOException
+	 */
+	public AuditRecord next() throws IOException {
+		while (true) {
+			if (null == this.buffer) {
+				if (false == nextSegment()) {
+					return null;
+				}
+			}
+			int length = AuditRecord.check(this.buffer, this.position, this.sequence, this.crc, this.scratch);
+			if (-1 != length) {
+				this.position += length;
+				this.sequence++;
+				return AuditRecord.decode(this.scratch);
+			}
+			this.buffer = null;
+		}
+	}
+
+	private boolean nextSegment() throws IOException {
+		while (++this.segmentIdx < this.segmentFiles.length) {
+			File segmentFile = this.segmentFiles[this.segmentIdx];
+			RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "r");
+			MappedByteBuffer segmentBuffer;
+			try {
+				FileChannel fileChannel = randomAccessFile.getChannel();
+				segmentBuffer = fileChannel.map(MapMode.READ_ONLY, 0, fileChannel.size());
+			} finally {
+				randomAccessFile.close();
+			}
+			if (segmentBuffer.limit() < AuditLog.SEGMENT_HEADER_SIZE || AuditLog.MAGIC != segmentBuffer.getInt(0)
+					|| AuditLog.VERSION != segmentBuffer.getInt(4)) {
+				continue;
+			}
+			this.buffer = segmentBuffer;
+			this.position = AuditLog.SEGMENT_HEADER_SIZE;
+			this.sequence = segmentBuffer.getLong(8);
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * An audit record as stored within an audit log segment.
+ *
+ * <p>
+ * Record layout: record length (int), CRC32 (int) over the remainder of the
+ * record, timestamp (long), sequence number (long), record type (byte),
+ * certificate digest length (byte), subject length (short), certificate digest
+ * and UTF-8 encoded subject. The subject is the user identifier or the remote
+ * address, depending on the record type.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class AuditRecord {
+
+	static final int HEADER_SIZE = 28;
+
+	/**
+	 * Maximum number of bytes of the UTF-8 encoded subject. Longer subjects
+	 * get truncated.
+	 */
+	public static final int MAX_SUBJECT_LENGTH = 1024;
+
+	private final long sequence;
+
+	private final long timestamp;
+
+	private final AuditRecordType type;
+
+	private final String subject;
+
+	private final byte[] certificateDigest;
+
+	public AuditRecord(long sequence, long timestamp, AuditRecordType type, String subject,
+			byte[] certificateDigest) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.type = type;
+		this.subject = subject;
+		this.certificateDigest = certificateDigest;
+	}
+
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	public AuditRecordType getType() {
+		return this.type;
+	}
+
+	/**
+	 * Gives back the user identifier or remote address.
+	 *
+	 * @return
+	 */
+	public String getSubject() {
+		return this.subject;
+	}
+
+	/**
+	 * Gives back the SHA-256 digest of the DER encoded certificate.
+	 *
+	 * @return the digest, or <code>null</code> if no certificate was given.
+	 */
+	public byte[] getCertificateDigest() {
+		return this.certificateDigest;
+	}
+
+	/**
+	 * Encodes an audit record into the given buffer.
+	 *
+	 * @return the length of the encoded record.
+	 */
+	static int encode(byte[] buffer, CRC32 crc, long sequence, long timestamp, AuditRecordType type,
+			byte[] subject, byte[] certificateDigest) {
+		int digestLength = null == certificateDigest ? 0 : certificateDigest.length;
+		int subjectLength = null == subject ? 0 : Math.min(subject.length, MAX_SUBJECT_LENGTH);
+		int length = HEADER_SIZE + digestLength + subjectLength;
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		byteBuffer.putInt(length);
+		byteBuffer.putInt(0);
+		byteBuffer.putLong(timestamp);
+		byteBuffer.putLong(sequence);
+		byteBuffer.put(type.getCode());
+		byteBuffer.put((byte) digestLength);
+		byteBuffer.putShort((short) subjectLength);
+		if (0 != digestLength) {
+			byteBuffer.put(certificateDigest);
+		}
+		if (0 != subjectLength) {
+			byteBuffer.put(subject, 0, subjectLength);
+		}
+		crc.reset();
+		crc.update(buffer, 8, length - 8);
+		byteBuffer.putInt(4, (int) crc.getValue());
+		return length;
+	}
+
+	/**
+	 * Gives back the length of the valid audit record at the given position.
+	 *
+	 * @return the record length, or <code>-1</code> if there is no valid record
+	 *         at the given position.
+	 */
+	static int check(ByteBuffer buffer, int position, long expectedSequence, CRC32 crc, byte[] scratch) {
+		if (position + HEADER_SIZE > buffer.limit()) {
+			return -1;
+		}
+		int length = buffer.getInt(position);
+		if (length < HEADER_SIZE || length > scratch.length || position + length > buffer.limit()) {
+			return -1;
+		}
+		if (buffer.getLong(position + 16) != expectedSequence) {
+			return -1;
+		}
+		int digestLength = buffer.get(position + 25) & 0xff;
+		int subjectLength = buffer.getShort(position + 26) & 0xffff;
+		if (HEADER_SIZE + digestLength + subjectLength != length) {
+			return -1;
+		}
+		ByteBuffer record = buffer.duplicate();
+		record.position(position);
+		record.get(scratch, 0, length);
+		crc.reset();
+		crc.update(scratch, 8, length - 8);
+		if (buffer.getInt(position + 4) != (int) crc.getValue()) {
+			return -1;
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes a record that has been checked before via
+	 * {@link #check(ByteBuffer, int, long, CRC32, byte[])}.
+	 */
+	static AuditRecord decode(byte[] record) {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(record);
+		byteBuffer.position(8);
+		long timestamp = byteBuffer.getLong();
+		long sequence = byteBuffer.getLong();
+		AuditRecordType type = AuditRecordType.getType(byteBuffer.get());
+		int digestLength = byteBuffer.get() & 0xff;
+		int subjectLength = byteBuffer.getShort() & 0xffff;
+		byte[] certificateDigest = null;
+		if (0 != digestLength) {
+			certificateDigest = new byte[digestLength];
+			byteBuffer.get(certificateDigest);
+		}
+		String subject = null;
+		if (0 != subjectLength) {
+			try {
+				subject = new String(record, HEADER_SIZE + digestLength, subjectLength, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException("UTF-8 not supported");
+			}
+		}
+		return new AuditRecord(sequence, timestamp, type, subject, certificateDigest);
+	}
+
+	static int getMaxLength() {
+		return HEADER_SIZE + 255 + MAX_SUBJECT_LENGTH;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.audit;
+
+/**
+ * Enumeration of audit record types, one per audit service event.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public enum AuditRecordType {
+
+	AUTHENTICATED(1),
+
+	IDENTIFIED(2),
+
+	AUTHENTICATION_ERROR(3),
+
+	IDENTITY_INTEGRITY_ERROR(4),
+
+	SIGNATURE_ERROR(5),
+
+	SIGNED(6);
+
+	private final byte code;
+
+	private AuditRecordType(int code) {
+		this.code = (byte) code;
+	}
+
+	public byte getCode() {
+		return this.code;
+	}
+
+	public static AuditRecordType getType(byte code) {
+		for (AuditRecordType type : AuditRecordType.values()) {
+			if (type.code == code) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains the append-only audit log classes.
+ */
+package be.fedict.eid.applet.service.impl.audit;
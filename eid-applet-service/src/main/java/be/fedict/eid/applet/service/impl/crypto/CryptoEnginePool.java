@@ -0,0 +1,181 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Signature;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Pool of JCA engines. The JCA <code>getInstance</code> methods perform a
+ * synchronized provider lookup, which becomes a point of contention under high
+ * load. Engines are borrowed from the pool and should be released afterwards
+ * in a <code>finally</code> block.
+ *
+ * <p>
+ * Only {@link MessageDigest} and {@link Mac} engines are pooled. They are
+ * reset on release. A borrowed {@link Mac} still needs to be initialized by
+ * the caller. {@link Signature} and {@link Cipher} engines keep the key and
+ * parameters of their previous use, so these are never pooled. Releasing them
+ * is a no-op.
+ * </p>
+ *
+ * <p>
+ * The pool is shared by all threads and is not bound to any container thread.
+ * Engines that are never released are simply garbage collected.
+ * {@link #clear()} drops all idle engines, and is called when the eID Applet
+ * Service servlet is destroyed.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CryptoEnginePool {
+
+	/**
+	 * Maximum number of idle engines kept per algorithm.
+	 */
+	public static final int MAX_IDLE_ENGINES = 32;
+
+	private static final ConcurrentMap<String, Queue<Object>> idleEngines = new ConcurrentHashMap<String, Queue<Object>>();
+
+	private CryptoEnginePool() {
+		super();
+	}
+
+	public static MessageDigest borrowMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+		MessageDigest messageDigest = (MessageDigest) borrow(getKey("MessageDigest", algorithm));
+		if (null == messageDigest) {
+			messageDigest = MessageDigest.getInstance(algorithm);
+		}
+		return messageDigest;
+	}
+
+	/**
+	 * Gives back a new, uninitialized signature engine.
+	 *
+	 * @param algorithm
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Signature borrowSignature(String algorithm) throws NoSuchAlgorithmException {
+		return Signature.getInstance(algorithm);
+	}
+
+	/**
+	 * Gives back a new, uninitialized signature engine.
+	 *
+	 * @param algorithm
+	 * @param provider
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 */
+	public static Signature borrowSignature(String algorithm, String provider)
+			throws NoSuchAlgorithmException, NoSuchProviderException {
+		return Signature.getInstance(algorithm, provider);
+	}
+
+	/**
+	 * Gives back a new, uninitialized cipher engine.
+	 *
+	 * @param transformation
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 */
+	public static Cipher borrowCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+		return Cipher.getInstance(transformation);
+	}
+
+	public static Mac borrowMac(String algorithm) throws NoSuchAlgorithmException {
+		Mac mac = (Mac) borrow(getKey("Mac", algorithm));
+		if (null == mac) {
+			mac = Mac.getInstance(algorithm);
+		}
+		return mac;
+	}
+
+	/**
+	 * Gives back a borrowed engine to the pool. Message digests and MACs are
+	 * reset first. Other engines are dropped.
+	 *
+	 * @param engine
+	 *            the engine, can be <code>null</code>.
+	 */
+	public static void release(Object engine) {
+		if (engine instanceof MessageDigest) {
+			MessageDigest messageDigest = (MessageDigest) engine;
+			messageDigest.reset();
+			giveBack(getKey("MessageDigest", messageDigest.getAlgorithm()), messageDigest);
+		} else if (engine instanceof Mac) {
+			Mac mac = (Mac) engine;
+			mac.reset();
+			giveBack(getKey("Mac", mac.getAlgorithm()), mac);
+		}
+	}
+
+	/**
+	 * Removes all idle engines.
+	 */
+	public static void clear() {
+		idleEngines.clear();
+	}
+
+	private static Object borrow(String key) {
+		Queue<Object> engines = idleEngines.get(key);
+		if (null == engines) {
+			return null;
+		}
+		return engines.poll();
+	}
+
+	private static void giveBack(String key, Object engine) {
+		Queue<Object> engines = idleEngines.get(key);
+		if (null == engines) {
+			engines = new ConcurrentLinkedQueue<Object>();
+			Queue<Object> existingEngines = idleEngines.putIfAbsent(key, engines);
+			if (null != existingEngines) {
+				engines = existingEngines;
+			}
+		}
+		synchronized (engines) {
+			/*
+			 * Engines are compared by identity. A double release should never
+			 * hand out the same engine to two borrowers.
+			 */
+			if (engines.size() < MAX_IDLE_ENGINES && false == engines.contains(engine)) {
+				engines.add(engine);
+			}
+		}
+	}
+
+	private static String getKey(String type, String algorithm) {
+		return type + "/" + algorithm;
+	}
+}
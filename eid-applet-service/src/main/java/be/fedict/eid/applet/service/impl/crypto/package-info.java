@@ -0,0 +1,4 @@
+/**
+ * This package contains the crypto utility classes.
+ */
+package be.fedict.eid.applet.service.impl.crypto;
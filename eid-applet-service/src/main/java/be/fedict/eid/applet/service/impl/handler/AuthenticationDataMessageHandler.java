@@ -18,7 +18,6 @@
 
 package be.fedict.eid.applet.service.impl.handler;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
@@ -31,12 +30,13 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.crypto.Cipher;
 import javax.servlet.ServletConfig;
@@ -58,9 +58,15 @@ import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.impl.AuthenticationChallenge;
 import be.fedict.eid.applet.service.impl.AuthenticationSignatureContextImpl;
+import be.fedict.eid.applet.service.impl.CertificateCache;
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.NrcidGenerator;
 import be.fedict.eid.applet.service.impl.RequestContext;
 import be.fedict.eid.applet.service.impl.ServiceLocator;
 import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+import be.fedict.eid.applet.service.impl.VerificationPipeline;
+import be.fedict.eid.applet.service.impl.VerificationPipeline.Step;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.AuditService;
 import be.fedict.eid.applet.service.spi.AuthenticationService;
@@ -86,7 +92,8 @@ import be.fedict.eid.applet.shared.FinishedMessage;
  * 
  */
 @HandlesMessage(AuthenticationDataMessage.class)
-public class AuthenticationDataMessageHandler implements MessageHandler<AuthenticationDataMessage> {
+public class AuthenticationDataMessageHandler
+		implements MessageHandler<AuthenticationDataMessage>, DestroyableMessageHandler {
 
 	public static final String AUTHENTICATED_USER_IDENTIFIER_SESSION_ATTRIBUTE = "eid.identifier";
 
@@ -131,6 +138,12 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 
 	public static final String NRCID_APP_ID_INIT_PARAM_NAME = "NRCIDAppId";
 
+	public static final String NRCID_ALGO_INIT_PARAM_NAME = "NRCIDAlgo";
+
+	public static final String VERIFICATION_THREADS_INIT_PARAM_NAME = "VerificationThreads";
+
+	public static final String VERIFICATION_EXECUTOR_INIT_PARAM_NAME = "VerificationExecutor";
+
 	@InitParam(NRCID_SECRET_INIT_PARAM_NAME)
 	private String nrcidSecret;
 
@@ -140,6 +153,21 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 	@InitParam(NRCID_APP_ID_INIT_PARAM_NAME)
 	private String nrcidAppId;
 
+	@InitParam(NRCID_ALGO_INIT_PARAM_NAME)
+	private String nrcidAlgo;
+
+	private NrcidGenerator nrcidGenerator;
+
+	@InitParam(VERIFICATION_THREADS_INIT_PARAM_NAME)
+	private Long verificationThreads;
+
+	@InitParam(VERIFICATION_EXECUTOR_INIT_PARAM_NAME)
+	private ServiceLocator<ExecutorService> verificationExecutorServiceLocator;
+
+	private ExecutorService verificationExecutor;
+
+	private boolean verificationExecutorShared;
+
 	@InitParam(HelloMessageHandler.IDENTITY_INTEGRITY_SERVICE_INIT_PARAM_NAME)
 	private ServiceLocator<IdentityIntegrityService> identityIntegrityServiceLocator;
 
@@ -149,7 +177,7 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 	@InitParam(AUTHN_SIGNATURE_SERVICE_INIT_PARAM_NAME)
 	private ServiceLocator<AuthenticationSignatureService> authenticationSignatureServiceLocator;
 
-	public Object handleMessage(AuthenticationDataMessage message, Map<String, String> httpHeaders,
+	public Object handleMessage(final AuthenticationDataMessage message, Map<String, String> httpHeaders,
 			HttpServletRequest request, HttpSession session) throws ServletException {
 		LOG.debug("authentication data message received");
 
@@ -216,8 +244,9 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			throw new ServletException("IO error: " + e.getMessage(), e);
 		}
 
+		Signature signature = null;
 		try {
-			Signature signature = Signature.getInstance("SHA1withRSA");
+			signature = CryptoEnginePool.borrowSignature("SHA1withRSA");
 			signature.initVerify(signingKey);
 			signature.update(toBeSigned);
 			boolean result = signature.verify(signatureValue);
@@ -235,6 +264,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			throw new SecurityException("authn key error");
 		} catch (SignatureException e) {
 			throw new SecurityException("signature error");
+		} finally {
+			CryptoEnginePool.release(signature);
 		}
 
 		RequestContext requestContext = new RequestContext(session);
@@ -245,8 +276,9 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			if (null == transactionMessageSignature) {
 				throw new SecurityException("missing TransactionMessage signature");
 			}
+			Cipher cipher = null;
 			try {
-				Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+				cipher = CryptoEnginePool.borrowCipher("RSA/ECB/PKCS1Padding");
 				cipher.init(Cipher.DECRYPT_MODE, signingKey);
 				byte[] signatureDigestInfoValue = cipher.doFinal(transactionMessageSignature);
 				ASN1InputStream aIn = new ASN1InputStream(signatureDigestInfoValue);
@@ -267,6 +299,8 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 					auditService.authenticationError(remoteAddress, message.authnCert);
 				}
 				throw new SecurityException("error verifying TransactionMessage signature: " + e.getMessage());
+			} finally {
+				CryptoEnginePool.release(cipher);
 			}
 		}
 
@@ -302,116 +336,88 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			}
 		}
 
-		AuthenticationService authenticationService = this.authenticationServiceLocator.locateService();
-		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
-		certificateChain.add(message.authnCert);
-		certificateChain.add(message.citizenCaCert);
-		certificateChain.add(message.rootCaCert);
-		try {
-			authenticationService.validateCertificateChain(certificateChain);
-		} catch (ExpiredCertificateSecurityException e) {
-			return new FinishedMessage(ErrorCode.CERTIFICATE_EXPIRED);
-		} catch (RevokedCertificateSecurityException e) {
-			return new FinishedMessage(ErrorCode.CERTIFICATE_REVOKED);
-		} catch (TrustCertificateSecurityException e) {
-			return new FinishedMessage(ErrorCode.CERTIFICATE_NOT_TRUSTED);
-		} catch (CertificateSecurityException e) {
-			return new FinishedMessage(ErrorCode.CERTIFICATE);
-		} catch (Exception e) {
-			/*
-			 * We don't want to depend on the full JavaEE profile in this
-			 * artifact.
-			 */
-			if ("javax.ejb.EJBException".equals(e.getClass().getName())) {
-				Exception exception;
-				try {
-					Method getCausedByExceptionMethod = e.getClass().getMethod("getCausedByException", new Class[] {});
-					exception = (Exception) getCausedByExceptionMethod.invoke(e, new Object[] {});
-				} catch (Exception e2) {
-					LOG.debug("error: " + e.getMessage(), e);
-					throw new SecurityException("error retrieving the root cause: " + e2.getMessage());
-				}
-				if (exception instanceof ExpiredCertificateSecurityException) {
-					return new FinishedMessage(ErrorCode.CERTIFICATE_EXPIRED);
-				}
-				if (exception instanceof RevokedCertificateSecurityException) {
-					return new FinishedMessage(ErrorCode.CERTIFICATE_REVOKED);
-				}
-				if (exception instanceof TrustCertificateSecurityException) {
-					return new FinishedMessage(ErrorCode.CERTIFICATE_NOT_TRUSTED);
-				}
-				if (exception instanceof CertificateSecurityException) {
-					return new FinishedMessage(ErrorCode.CERTIFICATE);
-				}
-			}
-			throw new SecurityException("authn service error: " + e.getMessage());
-		}
-
-		String userId = UserIdentifierUtil.getUserId(message.authnCert);
-		LOG.info("authenticated: " + userId + " @ " + request.getRemoteAddr());
-		if (null != this.nrcidSecret) {
-			userId = UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId, this.nrcidOrgId, this.nrcidAppId,
-					this.nrcidSecret);
-		}
-		/*
-		 * Some people state that you cannot use the national register number
-		 * without hashing. Problem is that hashing introduces hash collision
-		 * problems. The probability is very low, but what if it's your leg
-		 * they're cutting of because of a patient mismatch based on the SHA1 of
-		 * your national register number?
-		 */
-
-		/*
-		 * Push authenticated used Id into the HTTP session.
-		 */
-		session.setAttribute(AUTHENTICATED_USER_IDENTIFIER_SESSION_ATTRIBUTE, userId);
-
-		EIdData eidData = (EIdData) session.getAttribute(IdentityDataMessageHandler.EID_SESSION_ATTRIBUTE);
-		if (null == eidData) {
-			eidData = new EIdData();
-			session.setAttribute(IdentityDataMessageHandler.EID_SESSION_ATTRIBUTE, eidData);
-		}
-		eidData.identifier = userId;
-
-		AuditService auditService = this.auditServiceLocator.locateService();
-		if (null != auditService) {
-			auditService.authenticated(userId);
-		}
-
 		boolean includeIdentity = requestContext.includeIdentity();
 		boolean includeAddress = requestContext.includeAddress();
 		boolean includeCertificates = requestContext.includeCertificates();
 		boolean includePhoto = requestContext.includePhoto();
 
+		final AuthenticationService authenticationService = this.authenticationServiceLocator.locateService();
+		final IdentityIntegrityService identityIntegrityService = this.identityIntegrityServiceLocator
+				.locateService();
+		final List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(message.authnCert);
+		certificateChain.add(message.citizenCaCert);
+		certificateChain.add(message.rootCaCert);
+
 		/*
-		 * Also process the identity data in case it was requested.
+		 * The verification steps below are independent of each other. They
+		 * run concurrently, but we join them in the order that defines the
+		 * error precedence. Nothing gets written to the HTTP session or the
+		 * audit service before all steps have been joined.
 		 */
-		if (includeIdentity) {
-			if (null == message.identityData) {
-				throw new ServletException("identity data not included while requested");
-			}
-		}
-		if (includeAddress) {
-			if (null == message.addressData) {
-				throw new ServletException("address data not included while requested");
+		VerificationPipeline pipeline = new VerificationPipeline(this.verificationExecutor);
+		String userId;
+		Identity identity = null;
+		Address address = null;
+		try {
+			Step<Void> certificateChainStep = pipeline.add("certificate chain", new Callable<Void>() {
+				public Void call() throws Exception {
+					authenticationService.validateCertificateChain(certificateChain);
+					return null;
+				}
+			});
+			Step<Void> rrnCertificateStep = null;
+			Step<Boolean> identitySignatureStep = null;
+			Step<Boolean> addressSignatureStep = null;
+			if (null != identityIntegrityService && null != message.rrnCertificate) {
+				final List<X509Certificate> rrnCertificateChain = new LinkedList<X509Certificate>();
+				rrnCertificateChain.add(message.rrnCertificate);
+				rrnCertificateChain.add(message.rootCaCert);
+				rrnCertificateStep = pipeline.add("NRN certificate", new Callable<Void>() {
+					public Void call() throws Exception {
+						identityIntegrityService.checkNationalRegistrationCertificate(rrnCertificateChain);
+						return null;
+					}
+				});
+				final String rrnSignatureAlgo = message.rrnCertificate.getSigAlgName();
+				final PublicKey rrnPublicKey = message.rrnCertificate.getPublicKey();
+				if (includeIdentity && null != message.identityData && null != message.identitySignatureData) {
+					identitySignatureStep = pipeline.add("identity signature", new Callable<Boolean>() {
+						public Boolean call() throws Exception {
+							return verifySignature(rrnSignatureAlgo, message.identitySignatureData, rrnPublicKey,
+									message.identityData);
+						}
+					});
+				}
+				if (includeAddress && null != message.addressData && null != message.addressSignatureData) {
+					addressSignatureStep = pipeline.add("address signature", new Callable<Boolean>() {
+						public Boolean call() throws Exception {
+							byte[] addressFile = IdentitySignatureVerifier.trimRight(message.addressData);
+							return verifySignature(rrnSignatureAlgo, message.addressSignatureData, rrnPublicKey,
+									addressFile, message.identitySignatureData);
+						}
+					});
+				}
 			}
-		}
-		if (includePhoto) {
-			if (null == message.photoData) {
-				throw new ServletException("photo data not included while requested");
+			Step<Identity> identityStep = null;
+			if (includeIdentity && null != message.identityData) {
+				identityStep = pipeline.add("identity parsing", new Callable<Identity>() {
+					public Identity call() throws Exception {
+						return TlvParser.parse(message.identityData, Identity.class);
+					}
+				});
 			}
-		}
-		IdentityIntegrityService identityIntegrityService = this.identityIntegrityServiceLocator.locateService();
-		if (null != identityIntegrityService) {
-			if (null == message.rrnCertificate) {
-				throw new ServletException("national registry certificate not included while requested");
+			Step<Address> addressStep = null;
+			if (includeAddress && null != message.addressData) {
+				addressStep = pipeline.add("address parsing", new Callable<Address>() {
+					public Address call() throws Exception {
+						return TlvParser.parse(message.addressData, Address.class);
+					}
+				});
 			}
-			List<X509Certificate> rrnCertificateChain = new LinkedList<X509Certificate>();
-			rrnCertificateChain.add(message.rrnCertificate);
-			rrnCertificateChain.add(message.rootCaCert);
 
 			try {
-				identityIntegrityService.checkNationalRegistrationCertificate(rrnCertificateChain);
+				certificateChainStep.get();
 			} catch (ExpiredCertificateSecurityException e) {
 				return new FinishedMessage(ErrorCode.CERTIFICATE_EXPIRED);
 			} catch (RevokedCertificateSecurityException e) {
@@ -421,6 +427,10 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			} catch (CertificateSecurityException e) {
 				return new FinishedMessage(ErrorCode.CERTIFICATE);
 			} catch (Exception e) {
+				/*
+				 * We don't want to depend on the full JavaEE profile in this
+				 * artifact.
+				 */
 				if ("javax.ejb.EJBException".equals(e.getClass().getName())) {
 					Exception exception;
 					try {
@@ -444,40 +454,133 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 						return new FinishedMessage(ErrorCode.CERTIFICATE);
 					}
 				}
-				throw new SecurityException("error checking the NRN certificate: " + e.getMessage(), e);
+				throw new SecurityException("authn service error: " + e.getMessage());
+			}
+			CertificateCache.promote(message.citizenCaCert, message.rootCaCert);
+
+			userId = UserIdentifierUtil.getUserId(message.authnCert);
+			LOG.info("authenticated: " + userId + " @ " + request.getRemoteAddr());
+			if (null != this.nrcidGenerator) {
+				userId = this.nrcidGenerator.getNonReversibleCitizenIdentifier(userId);
 			}
+			/*
+			 * Some people state that you cannot use the national register
+			 * number without hashing. Problem is that hashing introduces hash
+			 * collision problems. The probability is very low, but what if it's
+			 * your leg they're cutting of because of a patient mismatch based
+			 * on the SHA1 of your national register number?
+			 */
 
-			PublicKey rrnPublicKey = message.rrnCertificate.getPublicKey();
+			/*
+			 * Also process the identity data in case it was requested.
+			 */
 			if (includeIdentity) {
-				if (null == message.identitySignatureData) {
-					throw new ServletException("identity signature data not included while requested");
+				if (null == message.identityData) {
+					throw new ServletException("identity data not included while requested");
 				}
-				verifySignature(message.rrnCertificate.getSigAlgName(), message.identitySignatureData, rrnPublicKey,
-						request, message.identityData);
 			}
 			if (includeAddress) {
-				if (null == message.addressSignatureData) {
-					throw new ServletException("address signature data not included while requested");
+				if (null == message.addressData) {
+					throw new ServletException("address data not included while requested");
+				}
+			}
+			if (includePhoto) {
+				if (null == message.photoData) {
+					throw new ServletException("photo data not included while requested");
 				}
-				byte[] addressFile = trimRight(message.addressData);
-				verifySignature(message.rrnCertificate.getSigAlgName(), message.addressSignatureData, rrnPublicKey,
-						request, addressFile, message.identitySignatureData);
 			}
+			if (null != identityIntegrityService) {
+				if (null == message.rrnCertificate) {
+					throw new ServletException("national registry certificate not included while requested");
+				}
+				try {
+					rrnCertificateStep.get();
+				} catch (ExpiredCertificateSecurityException e) {
+					return new FinishedMessage(ErrorCode.CERTIFICATE_EXPIRED);
+				} catch (RevokedCertificateSecurityException e) {
+					return new FinishedMessage(ErrorCode.CERTIFICATE_REVOKED);
+				} catch (TrustCertificateSecurityException e) {
+					return new FinishedMessage(ErrorCode.CERTIFICATE_NOT_TRUSTED);
+				} catch (CertificateSecurityException e) {
+					return new FinishedMessage(ErrorCode.CERTIFICATE);
+				} catch (Exception e) {
+					if ("javax.ejb.EJBException".equals(e.getClass().getName())) {
+						Exception exception;
+						try {
+							Method getCausedByExceptionMethod = e.getClass().getMethod("getCausedByException",
+									new Class[] {});
+							exception = (Exception) getCausedByExceptionMethod.invoke(e, new Object[] {});
+						} catch (Exception e2) {
+							LOG.debug("error: " + e.getMessage(), e);
+							throw new SecurityException("error retrieving the root cause: " + e2.getMessage());
+						}
+						if (exception instanceof ExpiredCertificateSecurityException) {
+							return new FinishedMessage(ErrorCode.CERTIFICATE_EXPIRED);
+						}
+						if (exception instanceof RevokedCertificateSecurityException) {
+							return new FinishedMessage(ErrorCode.CERTIFICATE_REVOKED);
+						}
+						if (exception instanceof TrustCertificateSecurityException) {
+							return new FinishedMessage(ErrorCode.CERTIFICATE_NOT_TRUSTED);
+						}
+						if (exception instanceof CertificateSecurityException) {
+							return new FinishedMessage(ErrorCode.CERTIFICATE);
+						}
+					}
+					throw new SecurityException("error checking the NRN certificate: " + e.getMessage(), e);
+				}
+
+				if (includeIdentity) {
+					if (null == message.identitySignatureData) {
+						throw new ServletException("identity signature data not included while requested");
+					}
+					checkSignature(identitySignatureStep, request);
+				}
+				if (includeAddress) {
+					if (null == message.addressSignatureData) {
+						throw new ServletException("address signature data not included while requested");
+					}
+					checkSignature(addressSignatureStep, request);
+				}
+			}
+			if (includeIdentity) {
+				identity = join(identityStep);
+				if (false == UserIdentifierUtil.getUserId(message.authnCert).equals(identity.nationalNumber)) {
+					throw new ServletException("national number mismatch");
+				}
+			}
+			if (includeAddress) {
+				address = join(addressStep);
+			}
+		} finally {
+			pipeline.cancel();
 		}
+
+		/*
+		 * Push authenticated used Id into the HTTP session.
+		 */
+		session.setAttribute(AUTHENTICATED_USER_IDENTIFIER_SESSION_ATTRIBUTE, userId);
+
+		EIdData eidData = (EIdData) session.getAttribute(IdentityDataMessageHandler.EID_SESSION_ATTRIBUTE);
+		if (null == eidData) {
+			eidData = new EIdData();
+			session.setAttribute(IdentityDataMessageHandler.EID_SESSION_ATTRIBUTE, eidData);
+		}
+		eidData.identifier = userId;
+
+		AuditService auditService = this.auditServiceLocator.locateService();
+		if (null != auditService) {
+			auditService.authenticated(userId);
+		}
+
 		if (includeIdentity) {
-			Identity identity = TlvParser.parse(message.identityData, Identity.class);
-			if (false == UserIdentifierUtil.getUserId(message.authnCert).equals(identity.nationalNumber)) {
-				throw new ServletException("national number mismatch");
-			}
 			session.setAttribute(IdentityDataMessageHandler.IDENTITY_SESSION_ATTRIBUTE, identity);
 			eidData.identity = identity;
-			auditService = this.auditServiceLocator.locateService();
 			if (null != auditService) {
 				auditService.identified(identity.nationalNumber);
 			}
 		}
 		if (includeAddress) {
-			Address address = TlvParser.parse(message.addressData, Address.class);
 			session.setAttribute(IdentityDataMessageHandler.ADDRESS_SESSION_ATTRIBUTE, address);
 			eidData.address = address;
 		}
@@ -541,27 +644,19 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 		return new FinishedMessage();
 	}
 
-	private byte[] trimRight(byte[] addressFile) {
-		int idx;
-		for (idx = 0; idx < addressFile.length; idx++) {
-			if (0 == addressFile[idx]) {
-				break;
-			}
-		}
-		byte[] result = new byte[idx];
-		System.arraycopy(addressFile, 0, result, 0, idx);
-		return result;
-	}
-
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("SHA error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private String getDigestAlgo(final int hashSize) throws RuntimeException {
@@ -580,37 +675,43 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 		throw new RuntimeException("Failed to find guess algorithm for hash size of " + hashSize + " bytes");
 	}
 
-	private void verifySignature(String signatureAlgo, byte[] signatureData, PublicKey publicKey,
-			HttpServletRequest request, byte[]... data) throws ServletException {
-		Signature signature;
+	private boolean verifySignature(String signatureAlgo, byte[] signatureData, PublicKey publicKey,
+			byte[]... data) throws ServletException {
 		try {
-			signature = Signature.getInstance(signatureAlgo);
+			return IdentitySignatureVerifier.verifySignature(signatureAlgo, publicKey, signatureData, data);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
-		}
-		try {
-			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
 			throw new ServletException("key error: " + e.getMessage(), e);
-		}
-		try {
-			for (byte[] dataItem : data) {
-				signature.update(dataItem);
-			}
-			boolean result = signature.verify(signatureData);
-			if (false == result) {
-				AuditService auditService = this.auditServiceLocator.locateService();
-				if (null != auditService) {
-					String remoteAddress = request.getRemoteAddr();
-					auditService.identityIntegrityError(remoteAddress);
-				}
-				throw new ServletException("signature incorrect");
-			}
 		} catch (SignatureException e) {
 			throw new ServletException("signature error: " + e.getMessage(), e);
 		}
 	}
 
+	private void checkSignature(Step<Boolean> signatureStep, HttpServletRequest request) throws ServletException {
+		boolean result = join(signatureStep);
+		if (false == result) {
+			AuditService auditService = this.auditServiceLocator.locateService();
+			if (null != auditService) {
+				String remoteAddress = request.getRemoteAddr();
+				auditService.identityIntegrityError(remoteAddress);
+			}
+			throw new ServletException("signature incorrect");
+		}
+	}
+
+	private <T> T join(Step<T> step) throws ServletException {
+		try {
+			return step.get();
+		} catch (ServletException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ServletException("verification error: " + e.getMessage(), e);
+		}
+	}
+
 	private void checkSessionIdChannelBinding(AuthenticationDataMessage message, HttpServletRequest request) {
 		LOG.debug("using TLS session Id channel binding");
 		byte[] sessionId = message.sessionId;
@@ -653,18 +754,34 @@ public class AuthenticationDataMessageHandler implements MessageHandler<Authenti
 			}
 			this.serverCertificate = getCertificate(encodedServerCertificate);
 		}
+		if (null != this.nrcidSecret) {
+			String nrcidAlgo = null != this.nrcidAlgo ? this.nrcidAlgo : UserIdentifierUtil.HMAC_ALGO;
+			try {
+				this.nrcidGenerator = NrcidGenerator.getInstance(this.nrcidOrgId, this.nrcidAppId, this.nrcidSecret,
+						nrcidAlgo);
+			} catch (RuntimeException e) {
+				throw new ServletException("invalid NRCID configuration: " + e.getMessage(), e);
+			}
+		}
+		ExecutorService managedExecutor = this.verificationExecutorServiceLocator.locateService();
+		if (null != managedExecutor) {
+			this.verificationExecutor = managedExecutor;
+		} else if (null != this.verificationThreads) {
+			this.verificationExecutor = VerificationPipeline.getExecutor(this.verificationThreads.intValue());
+			this.verificationExecutorShared = true;
+		}
 	}
 
-	private X509Certificate getCertificate(byte[] certData) {
-		CertificateFactory certificateFactory;
-		try {
-			certificateFactory = CertificateFactory.getInstance("X.509");
-		} catch (CertificateException e) {
-			throw new RuntimeException("cert factory error: " + e.getMessage(), e);
+	public void destroy() {
+		if (this.verificationExecutorShared) {
+			VerificationPipeline.releaseExecutor(this.verificationExecutor);
+			this.verificationExecutorShared = false;
 		}
+	}
+
+	private X509Certificate getCertificate(byte[] certData) {
 		try {
-			X509Certificate certificate = (X509Certificate) certificateFactory
-					.generateCertificate(new ByteArrayInputStream(certData));
+			X509Certificate certificate = CertificateCache.getCertificate(certData);
 			return certificate;
 		} catch (CertificateException e) {
 			throw new RuntimeException("certificate decoding error: " + e.getMessage(), e);
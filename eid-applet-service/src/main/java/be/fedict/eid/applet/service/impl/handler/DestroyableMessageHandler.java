@@ -0,0 +1,41 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.handler;
+
+import javax.servlet.ServletConfig;
+
+import be.fedict.eid.applet.service.AppletServiceServlet;
+
+/**
+ * Optional interface for message handlers that acquire resources during
+ * {@link MessageHandler#init(ServletConfig)}. The
+ * {@link AppletServiceServlet} dispatcher servlet destroys such message
+ * handlers when it gets destroyed itself.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public interface DestroyableMessageHandler {
+
+	/**
+	 * Destroys this message handler. Releases the resources acquired during
+	 * {@link MessageHandler#init(ServletConfig)}.
+	 */
+	void destroy();
+}
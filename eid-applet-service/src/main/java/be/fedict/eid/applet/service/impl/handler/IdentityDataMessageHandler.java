@@ -19,16 +19,14 @@
 
 package be.fedict.eid.applet.service.impl.handler;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.lang.reflect.Method;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Date;
@@ -50,8 +48,12 @@ import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.EIdCertsData;
 import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.impl.CertificateCache;
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.PhotoStore;
 import be.fedict.eid.applet.service.impl.RequestContext;
 import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.AuditService;
 import be.fedict.eid.applet.service.spi.CertificateSecurityException;
@@ -80,6 +82,8 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 
 	public static final String PHOTO_SESSION_ATTRIBUTE = "eid.photo";
 
+	public static final String PHOTO_DIGEST_SESSION_ATTRIBUTE = "eid.photo.digest";
+
 	public static final String EID_SESSION_ATTRIBUTE = "eid";
 
 	public static final String EID_CERTS_SESSION_ATTRIBUTE = "eid.certs";
@@ -105,6 +109,12 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 
 	public static final String EID_DATA_ADDRESS_SESSION_ATTRIBUTE = "eid.data.address";
 
+	public static final String USE_PHOTO_STORE_INIT_PARAM_NAME = "UsePhotoStore";
+
+	public static final String PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME = "PhotoStoreMaxSize";
+
+	public static final String PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME = "PhotoStoreDirectory";
+
 	@InitParam(SKIP_NATIONAL_NUMBER_CHECK_INIT_PARAM_NAME)
 	private boolean skipNationalNumberCheck;
 
@@ -117,6 +127,17 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 	@InitParam(INCLUDE_DATA_FILES)
 	private boolean includeDataFiles;
 
+	@InitParam(USE_PHOTO_STORE_INIT_PARAM_NAME)
+	private boolean usePhotoStore;
+
+	@InitParam(PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME)
+	private Long photoStoreMaxSize;
+
+	@InitParam(PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME)
+	private String photoStoreDirectory;
+
+	private PhotoStore photoStore;
+
 	public Object handleMessage(IdentityDataMessage message, Map<String, String> httpHeaders,
 			HttpServletRequest request, HttpSession session) throws ServletException {
 		LOG.debug("received identity data");
@@ -209,7 +230,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 				}
 			}
 			if (includeAddress) {
-				byte[] addressFile = trimRight(message.addressFile);
+				byte[] addressFile = IdentitySignatureVerifier.trimRight(message.addressFile);
 				verifySignature(rrnCertificate.getSigAlgName(), message.addressSignatureFile, rrnPublicKey, request,
 						addressFile, message.identitySignatureFile);
 			}
@@ -254,6 +275,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 				}
 				throw new SecurityException("error checking the NRN certificate: " + e.getMessage(), e);
 			}
+			CertificateCache.promote(rootCertificate);
 		}
 
 		if (null != message.photoFile) {
@@ -293,7 +315,15 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			session.setAttribute(ADDRESS_SESSION_ATTRIBUTE, address);
 		}
 		if (null != message.photoFile) {
-			session.setAttribute(PHOTO_SESSION_ATTRIBUTE, message.photoFile);
+			if (null != this.photoStore) {
+				/*
+				 * Only the photo digest goes into the session.
+				 */
+				this.photoStore.storePhoto(identity.photoDigest, message.photoFile);
+				session.setAttribute(PHOTO_DIGEST_SESSION_ATTRIBUTE, identity.photoDigest);
+			} else {
+				session.setAttribute(PHOTO_SESSION_ATTRIBUTE, message.photoFile);
+			}
 		}
 
 		if (includeCertificates) {
@@ -310,7 +340,13 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 		}
 		eidData.identity = identity;
 		eidData.address = address;
-		eidData.photo = message.photoFile;
+		if (null != message.photoFile && null != this.photoStore) {
+			eidData.photo = null;
+			eidData.photoDigest = identity.photoDigest;
+		} else {
+			eidData.photo = message.photoFile;
+			eidData.photoDigest = null;
+		}
 		if (includeCertificates) {
 			EIdCertsData eidCertsData = new EIdCertsData();
 			session.setAttribute(EID_CERTS_SESSION_ATTRIBUTE, eidCertsData);
@@ -341,44 +377,15 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 		return new FinishedMessage();
 	}
 
-	private byte[] trimRight(byte[] addressFile) {
-		int idx;
-		for (idx = 0; idx < addressFile.length; idx++) {
-			if (0 == addressFile[idx]) {
-				break;
-			}
-		}
-		byte[] result = new byte[idx];
-		System.arraycopy(addressFile, 0, result, 0, idx);
-		return result;
-	}
-
 	private void verifySignature(String signAlgo, byte[] signatureData, PublicKey publicKey, HttpServletRequest request,
 			byte[]... data) throws ServletException {
-		Signature signature;
+		boolean result;
 		try {
-			signature = Signature.getInstance(signAlgo);
+			result = IdentitySignatureVerifier.verifySignature(signAlgo, publicKey, signatureData, data);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
-		}
-		try {
-			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
 			throw new ServletException("key error: " + e.getMessage(), e);
-		}
-		try {
-			for (byte[] dataItem : data) {
-				signature.update(dataItem);
-			}
-			boolean result = signature.verify(signatureData);
-			if (false == result) {
-				AuditService auditService = this.auditServiceLocator.locateService();
-				if (null != auditService) {
-					String remoteAddress = request.getRemoteAddr();
-					auditService.identityIntegrityError(remoteAddress);
-				}
-				throw new ServletException("signature incorrect");
-			}
 		} catch (SignatureException e) {
 			AuditService auditService = this.auditServiceLocator.locateService();
 			if (null != auditService) {
@@ -387,6 +394,14 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 			}
 			throw new ServletException("signature error: " + e.getMessage(), e);
 		}
+		if (false == result) {
+			AuditService auditService = this.auditServiceLocator.locateService();
+			if (null != auditService) {
+				String remoteAddress = request.getRemoteAddr();
+				auditService.identityIntegrityError(remoteAddress);
+			}
+			throw new ServletException("signature incorrect");
+		}
 	}
 
 	/**
@@ -398,9 +413,7 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 	 */
 	private X509Certificate getCertificate(byte[] certFile) {
 		try {
-			CertificateFactory certificateFactory = CertificateFactory.getInstance("X509");
-			X509Certificate certificate = (X509Certificate) certificateFactory
-					.generateCertificate(new ByteArrayInputStream(certFile));
+			X509Certificate certificate = CertificateCache.getCertificate(certFile);
 			return certificate;
 		} catch (CertificateException e) {
 			LOG.warn("certificate error: " + e.getMessage(), e);
@@ -429,12 +442,16 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("digest error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private String getDigestAlgo(final int hashSize) throws RuntimeException {
@@ -454,6 +471,18 @@ public class IdentityDataMessageHandler implements MessageHandler<IdentityDataMe
 	}
 
 	public void init(ServletConfig config) throws ServletException {
-		// empty
+		if (this.usePhotoStore) {
+			File directory;
+			if (null != this.photoStoreDirectory) {
+				directory = new File(this.photoStoreDirectory);
+			} else {
+				directory = null;
+			}
+			try {
+				this.photoStore = PhotoStore.configure(this.photoStoreMaxSize, directory);
+			} catch (IllegalArgumentException e) {
+				throw new ServletException("photo store error: " + e.getMessage(), e);
+			}
+		}
 	}
 }
@@ -44,6 +44,7 @@ import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.dto.DTOMapper;
 import be.fedict.eid.applet.service.impl.RequestContext;
 import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.impl.tlv.TlvParser;
 import be.fedict.eid.applet.service.spi.AddressDTO;
 import be.fedict.eid.applet.service.spi.AuditService;
@@ -215,22 +216,35 @@ public class SignCertificatesDataMessageHandler implements MessageHandler<SignCe
 	private byte[] digestPhoto(String digestAlgoName, byte[] photoFile) {
 		MessageDigest messageDigest;
 		try {
-			messageDigest = MessageDigest.getInstance(digestAlgoName);
+			messageDigest = CryptoEnginePool.borrowMessageDigest(digestAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException("digest error: " + e.getMessage(), e);
 		}
-		byte[] photoDigest = messageDigest.digest(photoFile);
-		return photoDigest;
+		try {
+			byte[] photoDigest = messageDigest.digest(photoFile);
+			return photoDigest;
+		} finally {
+			CryptoEnginePool.release(messageDigest);
+		}
 	}
 
 	private void verifySignature(String signatureAlgoName, byte[] signatureData, PublicKey publicKey,
 			HttpServletRequest request, byte[]... data) throws ServletException {
 		Signature signature;
 		try {
-			signature = Signature.getInstance(signatureAlgoName);
+			signature = CryptoEnginePool.borrowSignature(signatureAlgoName);
 		} catch (NoSuchAlgorithmException e) {
 			throw new ServletException("algo error: " + e.getMessage(), e);
 		}
+		try {
+			verify(signature, signatureData, publicKey, request, data);
+		} finally {
+			CryptoEnginePool.release(signature);
+		}
+	}
+
+	private void verify(Signature signature, byte[] signatureData, PublicKey publicKey,
+			HttpServletRequest request, byte[]... data) throws ServletException {
 		try {
 			signature.initVerify(publicKey);
 		} catch (InvalidKeyException e) {
@@ -39,6 +39,7 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import be.fedict.eid.applet.service.impl.ServiceLocator;
 import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
 import be.fedict.eid.applet.service.spi.AuditService;
 import be.fedict.eid.applet.service.spi.CertificateSecurityException;
 import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
@@ -119,8 +120,9 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 		byte[] expectedDigestValue = SignatureDataMessageHandler.getDigestValue(session);
 		if (digestAlgo.endsWith("-PSS")) {
 			LOG.debug("verifying RSA/PSS signature");
+			Signature signature = null;
 			try {
-				Signature signature = Signature.getInstance("RAWRSASSA-PSS", BouncyCastleProvider.PROVIDER_NAME);
+				signature = CryptoEnginePool.borrowSignature("RAWRSASSA-PSS", BouncyCastleProvider.PROVIDER_NAME);
 				if ("SHA-256-PSS".equals(digestAlgo)) {
 					LOG.debug("RSA/PSS SHA256");
 					signature.setParameter(
@@ -135,10 +137,13 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 			} catch (Exception e) {
 				LOG.debug("signature verification error: " + e.getMessage(), e);
 				throw new ServletException("signature verification error: " + e.getMessage(), e);
+			} finally {
+				CryptoEnginePool.release(signature);
 			}
 		} else {
+			Signature signature = null;
 			try {
-				Signature signature = Signature.getInstance("RawRSA", BouncyCastleProvider.PROVIDER_NAME);
+				signature = CryptoEnginePool.borrowSignature("RawRSA", BouncyCastleProvider.PROVIDER_NAME);
 				signature.initVerify(signingPublicKey);
 				ByteArrayOutputStream digestInfo = new ByteArrayOutputStream();
 				if ("SHA-1".equals(digestAlgo) || "SHA1".equals(digestAlgo)) {
@@ -172,6 +177,8 @@ public class SignatureDataMessageHandler implements MessageHandler<SignatureData
 			} catch (Exception e) {
 				LOG.debug("signature verification error: " + e.getMessage());
 				throw new ServletException("signature verification error: " + e.getMessage(), e);
+			} finally {
+				CryptoEnginePool.release(signature);
 			}
 		}
 
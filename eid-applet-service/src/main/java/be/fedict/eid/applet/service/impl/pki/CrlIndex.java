@@ -0,0 +1,545 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.pki;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.DERBoolean;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.x509.Time;
+
+/**
+ * Compact index of the revoked serial numbers of a CRL. The revoked serial
+ * numbers are kept as a sorted array of fixed width records, optionally
+ * memory-mapped from a file, and looked up via binary search. Compared to
+ * {@link java.security.cert.X509CRL} this avoids a large heap object graph for
+ * CRLs with hundreds of thousands of entries.
+ *
+ * <p>
+ * The CRL is compiled directly from its DER encoding, so no
+ * {@link java.security.cert.X509CRL} object is ever constructed. The CRL
+ * signature is verified during compilation. Instances are immutable, so a
+ * refreshed index can be swapped in atomically.
+ * </p>
+ *
+ * <p>
+ * Serial numbers are stored as two's complement, sign-extended to the record
+ * width, so negative serial numbers, as issued by some broken CAs, never
+ * collide with positive ones. CRLs with critical extensions are rejected, as
+ * none of them is handled by the index.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class CrlIndex implements RevocationList {
+
+	private static final int MAGIC = 0x43524c58;
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final int MAX_SERIAL_NUMBER_SIZE = 64;
+
+	private final ByteBuffer buffer;
+
+	private final int width;
+
+	private final int count;
+
+	private final Date thisUpdate;
+
+	private final Date nextUpdate;
+
+	private final File file;
+
+	private CrlIndex(ByteBuffer buffer, File file) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || MAGIC != buffer.getInt(0)) {
+			throw new IOException("not a CRL index");
+		}
+		if (VERSION != buffer.getInt(4)) {
+			throw new IOException("unsupported CRL index version: " + buffer.getInt(4));
+		}
+		this.width = buffer.getInt(8);
+		this.count = buffer.getInt(12);
+		if (this.width < 0 || this.width > MAX_SERIAL_NUMBER_SIZE || this.count < 0
+				|| (long) HEADER_SIZE + (long) this.width * this.count != buffer.capacity()) {
+			throw new IOException("corrupt CRL index");
+		}
+		this.thisUpdate = new Date(buffer.getLong(16));
+		long nextUpdateValue = buffer.getLong(24);
+		if (-1 == nextUpdateValue) {
+			this.nextUpdate = null;
+		} else {
+			this.nextUpdate = new Date(nextUpdateValue);
+		}
+		this.buffer = buffer;
+		this.file = file;
+	}
+
+	/**
+	 * Opens an existing memory-mapped CRL index.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static CrlIndex open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+			return new CrlIndex(buffer, file);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Compiles the given DER encoded CRL into a CRL index.
+	 *
+	 * @param encodedCrl
+	 *            the DER encoded CRL.
+	 * @param issuer
+	 *            the expected CRL issuer.
+	 * @param issuerPublicKey
+	 *            the public key used to verify the CRL signature.
+	 * @param file
+	 *            the optional file for a memory-mapped index. When
+	 *            <code>null</code> the index is kept on the heap.
+	 * @return the CRL index.
+	 * @throws IOException
+	 *             in case of a CRL decoding error.
+	 * @throws GeneralSecurityException
+	 *             in case the CRL could not be verified.
+	 */
+	public static CrlIndex compile(byte[] encodedCrl, X500Principal issuer, PublicKey issuerPublicKey, File file)
+			throws IOException, GeneralSecurityException {
+		DerReader crlReader = new DerReader(encodedCrl, 0, encodedCrl.length).enter(0x30);
+		int tbsOffset = crlReader.offset;
+		DerReader tbsReader = crlReader.enter(0x30);
+		int tbsLength = tbsReader.end - tbsOffset;
+		crlReader.skip();
+		DerReader signatureAlgorithmReader = crlReader.enter(0x30);
+		String signatureAlgorithmOid = DERObjectIdentifier
+				.getInstance(ASN1Object.fromByteArray(signatureAlgorithmReader.element(0x06))).getId();
+		crlReader.skip();
+		DerReader signatureReader = crlReader.enter(0x03);
+		byte[] signatureValue = Arrays.copyOfRange(encodedCrl, signatureReader.offset + 1, signatureReader.end);
+
+		Signature signature = Signature.getInstance(signatureAlgorithmOid);
+		signature.initVerify(issuerPublicKey);
+		signature.update(encodedCrl, tbsOffset, tbsLength);
+		if (false == signature.verify(signatureValue)) {
+			throw new SignatureException("CRL signature invalid");
+		}
+
+		if (0x02 == tbsReader.peekTag()) {
+			tbsReader.skip();
+		}
+		tbsReader.skip(); // signature algorithm
+		X500Principal crlIssuer = new X500Principal(tbsReader.element(0x30));
+		tbsReader.skip();
+		if (false == crlIssuer.equals(issuer)) {
+			throw new GeneralSecurityException("CRL issuer mismatch: " + crlIssuer);
+		}
+		Date thisUpdate = Time.getInstance(ASN1Object.fromByteArray(tbsReader.element(tbsReader.peekTag())))
+				.getDate();
+		tbsReader.skip();
+		Date nextUpdate = null;
+		if (tbsReader.hasMore() && (0x17 == tbsReader.peekTag() || 0x18 == tbsReader.peekTag())) {
+			nextUpdate = Time.getInstance(ASN1Object.fromByteArray(tbsReader.element(tbsReader.peekTag())))
+					.getDate();
+			tbsReader.skip();
+		}
+
+		int width = 0;
+		int count = 0;
+		DerReader revokedCertificatesReader = null;
+		if (tbsReader.hasMore() && 0x30 == tbsReader.peekTag()) {
+			revokedCertificatesReader = tbsReader.enter(0x30);
+			DerReader countReader = revokedCertificatesReader.copy();
+			while (countReader.hasMore()) {
+				DerReader entryReader = countReader.enter(0x30);
+				int serialNumberLength = entryReader.serialNumberLength();
+				if (serialNumberLength > MAX_SERIAL_NUMBER_SIZE) {
+					throw new IOException("serial number too long");
+				}
+				width = Math.max(width, serialNumberLength);
+				count++;
+				DerReader entryExtensionsReader = entryReader.copy();
+				entryExtensionsReader.skip(); // user certificate
+				entryExtensionsReader.skip(); // revocation date
+				if (entryExtensionsReader.hasMore()) {
+					checkExtensions(entryExtensionsReader.enter(0x30));
+				}
+				countReader.skip();
+			}
+			tbsReader.skip();
+		}
+		if (tbsReader.hasMore() && 0xa0 == tbsReader.peekTag()) {
+			checkExtensions(tbsReader.enter(0xa0).enter(0x30));
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + width * count);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(width);
+		buffer.putInt(count);
+		buffer.putLong(thisUpdate.getTime());
+		buffer.putLong(null != nextUpdate ? nextUpdate.getTime() : -1);
+		byte[] records = buffer.array();
+		if (null != revokedCertificatesReader) {
+			int recordOffset = HEADER_SIZE;
+			while (revokedCertificatesReader.hasMore()) {
+				DerReader entryReader = revokedCertificatesReader.enter(0x30);
+				int serialNumberLength = entryReader.serialNumberLength();
+				int serialNumberOffset = entryReader.serialNumberOffset();
+				if (encodedCrl[serialNumberOffset] < 0) {
+					Arrays.fill(records, recordOffset, recordOffset + width - serialNumberLength, (byte) 0xff);
+				}
+				System.arraycopy(encodedCrl, serialNumberOffset, records,
+						recordOffset + width - serialNumberLength, serialNumberLength);
+				recordOffset += width;
+				revokedCertificatesReader.skip();
+			}
+			sort(records, HEADER_SIZE, width, 0, count - 1);
+		}
+		buffer.clear();
+
+		if (null == file) {
+			return new CrlIndex(buffer, null);
+		}
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+			try {
+				FileChannel fileChannel = randomAccessFile.getChannel();
+				while (buffer.hasRemaining()) {
+					fileChannel.write(buffer);
+				}
+				fileChannel.force(true);
+			} finally {
+				randomAccessFile.close();
+			}
+			if (file.exists()) {
+				file.delete();
+			}
+			if (false == tmpFile.renameTo(file)) {
+				throw new IOException("could not rename CRL index to: " + file);
+			}
+		} finally {
+			tmpFile.delete();
+		}
+		return open(file);
+	}
+
+	public boolean isRevoked(BigInteger serialNumber) {
+		byte[] serialNumberBytes = serialNumber.toByteArray();
+		int serialNumberLength = serialNumberBytes.length;
+		if (serialNumberLength > this.width) {
+			return false;
+		}
+		byte[] key = new byte[this.width];
+		if (serialNumber.signum() < 0) {
+			Arrays.fill(key, 0, this.width - serialNumberLength, (byte) 0xff);
+		}
+		System.arraycopy(serialNumberBytes, 0, key, this.width - serialNumberLength, serialNumberLength);
+		int low = 0;
+		int high = this.count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int result = compare(middle, key);
+			if (result < 0) {
+				low = middle + 1;
+			} else if (result > 0) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Date getThisUpdate() {
+		return this.thisUpdate;
+	}
+
+	public Date getNextUpdate() {
+		return this.nextUpdate;
+	}
+
+	/**
+	 * Gives back the number of revoked serial numbers.
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		return this.count;
+	}
+
+	/**
+	 * Gives back the file backing this index.
+	 *
+	 * @return the file, or <code>null</code> for an in-memory index.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Rejects critical extensions, as the index does not handle any of them.
+	 * A critical issuing distribution point or delta CRL indicator changes the
+	 * scope of the CRL, and a critical certificate issuer entry extension
+	 * indicates an indirect CRL.
+	 *
+	 * @param extensionsReader
+	 *            reader over the extensions sequence.
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private static void checkExtensions(DerReader extensionsReader) throws IOException, GeneralSecurityException {
+		while (extensionsReader.hasMore()) {
+			DerReader extensionReader = extensionsReader.enter(0x30);
+			String extensionOid = DERObjectIdentifier
+					.getInstance(ASN1Object.fromByteArray(extensionReader.element(0x06))).getId();
+			extensionReader.skip();
+			if (0x01 == extensionReader.peekTag()) {
+				boolean critical = DERBoolean.getInstance(ASN1Object.fromByteArray(extensionReader.element(0x01)))
+						.isTrue();
+				if (critical) {
+					throw new GeneralSecurityException("unsupported critical CRL extension: " + extensionOid);
+				}
+			}
+			extensionsReader.skip();
+		}
+	}
+
+	private int compare(int record, byte[] key) {
+		int recordOffset = HEADER_SIZE + record * this.width;
+		for (int idx = 0; idx < this.width; idx++) {
+			int result = (this.buffer.get(recordOffset + idx) & 0xff) - (key[idx] & 0xff);
+			if (0 != result) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	private static void sort(byte[] records, int offset, int width, int low, int high) {
+		while (low < high) {
+			if (high - low < 16) {
+				for (int i = low + 1; i <= high; i++) {
+					for (int j = i; j > low && compare(records, offset, width, j - 1, j) > 0; j--) {
+						swap(records, offset, width, j - 1, j);
+					}
+				}
+				return;
+			}
+			int middle = (low + high) >>> 1;
+			if (compare(records, offset, width, middle, low) < 0) {
+				swap(records, offset, width, middle, low);
+			}
+			if (compare(records, offset, width, high, low) < 0) {
+				swap(records, offset, width, high, low);
+			}
+			if (compare(records, offset, width, high, middle) < 0) {
+				swap(records, offset, width, high, middle);
+			}
+			swap(records, offset, width, middle, high - 1);
+			int pivot = high - 1;
+			int i = low;
+			int j = high - 1;
+			while (true) {
+				while (compare(records, offset, width, ++i, pivot) < 0) {
+				}
+				while (compare(records, offset, width, --j, pivot) > 0) {
+				}
+				if (i >= j) {
+					break;
+				}
+				swap(records, offset, width, i, j);
+			}
+			swap(records, offset, width, i, high - 1);
+			if (i - low < high - i) {
+				sort(records, offset, width, low, i - 1);
+				low = i + 1;
+			} else {
+				sort(records, offset, width, i + 1, high);
+				high = i - 1;
+			}
+		}
+	}
+
+	private static int compare(byte[] records, int offset, int width, int record1, int record2) {
+		int offset1 = offset + record1 * width;
+		int offset2 = offset + record2 * width;
+		for (int idx = 0; idx < width; idx++) {
+			int result = (records[offset1 + idx] & 0xff) - (records[offset2 + idx] & 0xff);
+			if (0 != result) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	private static void swap(byte[] records, int offset, int width, int record1, int record2) {
+		int offset1 = offset + record1 * width;
+		int offset2 = offset + record2 * width;
+		for (int idx = 0; idx < width; idx++) {
+			byte tmp = records[offset1 + idx];
+			records[offset1 + idx] = records[offset2 + idx];
+			records[offset2 + idx] = tmp;
+		}
+	}
+
+	/**
+	 * Minimal DER reader over the elements of a constructed ASN.1 value.
+	 */
+	private static class DerReader {
+
+		private final byte[] data;
+
+		private final int end;
+
+		private int offset;
+
+		public DerReader(byte[] data, int offset, int end) {
+			this.data = data;
+			this.offset = offset;
+			this.end = end;
+		}
+
+		public DerReader copy() {
+			return new DerReader(this.data, this.offset, this.end);
+		}
+
+		public boolean hasMore() {
+			return this.offset < this.end;
+		}
+
+		public int peekTag() throws IOException {
+			if (false == hasMore()) {
+				throw new IOException("unexpected end of DER data");
+			}
+			return this.data[this.offset] & 0xff;
+		}
+
+		/**
+		 * Gives back a reader over the content of the current element. Does
+		 * not advance this reader.
+		 */
+		public DerReader enter(int tag) throws IOException {
+			if (tag != peekTag()) {
+				throw new IOException("unexpected DER tag: " + peekTag());
+			}
+			int contentOffset = contentOffset();
+			return new DerReader(this.data, contentOffset, contentOffset + contentLength());
+		}
+
+		/**
+		 * Gives back the encoding of the current element. Does not advance
+		 * this reader.
+		 */
+		public byte[] element(int tag) throws IOException {
+			if (tag != peekTag()) {
+				throw new IOException("unexpected DER tag: " + peekTag());
+			}
+			return Arrays.copyOfRange(this.data, this.offset, contentOffset() + contentLength());
+		}
+
+		public void skip() throws IOException {
+			this.offset = contentOffset() + contentLength();
+		}
+
+		/**
+		 * Gives back the length of the serial number INTEGER of the current
+		 * CRL entry, without redundant leading sign bytes.
+		 */
+		public int serialNumberLength() throws IOException {
+			return contentOffset() + contentLength() - serialNumberOffset();
+		}
+
+		public int serialNumberOffset() throws IOException {
+			if (0x02 != peekTag()) {
+				throw new IOException("serial number expected");
+			}
+			int serialNumberOffset = contentOffset();
+			int serialNumberEnd = serialNumberOffset + contentLength();
+			while (serialNumberOffset < serialNumberEnd - 1
+					&& ((0 == this.data[serialNumberOffset] && this.data[serialNumberOffset + 1] >= 0)
+							|| (-1 == this.data[serialNumberOffset] && this.data[serialNumberOffset + 1] < 0))) {
+				serialNumberOffset++;
+			}
+			return serialNumberOffset;
+		}
+
+		private int contentOffset() throws IOException {
+			int lengthOffset = this.offset + 1;
+			if (lengthOffset >= this.end) {
+				throw new IOException("unexpected end of DER data");
+			}
+			int length = this.data[lengthOffset] & 0xff;
+			if (length < 0x80) {
+				return lengthOffset + 1;
+			}
+			return lengthOffset + 1 + (length & 0x7f);
+		}
+
+		private int contentLength() throws IOException {
+			int lengthOffset = this.offset + 1;
+			int length = this.data[lengthOffset] & 0xff;
+			if (length < 0x80) {
+				return checkLength(lengthOffset + 1, length);
+			}
+			int lengthSize = length & 0x7f;
+			if (0 == lengthSize || lengthSize > 4 || lengthOffset + lengthSize >= this.end) {
+				throw new IOException("unsupported DER length encoding");
+			}
+			int contentLength = 0;
+			for (int idx = 1; idx <= lengthSize; idx++) {
+				contentLength = (contentLength << 8) | (this.data[lengthOffset + idx] & 0xff);
+			}
+			return checkLength(lengthOffset + 1 + lengthSize, contentLength);
+		}
+
+		private int checkLength(int contentOffset, int contentLength) throws IOException {
+			if (contentLength < 0 || contentOffset + contentLength > this.end) {
+				throw new IOException("DER length out of bounds");
+			}
+			return contentLength;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.pki;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.x509.X509Extensions;
+
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.CertificateSecurityException;
+import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.TrustCertificateSecurityException;
+
+/**
+ * Reference authentication service implementation. Validates eID certificate
+ * chains against the configured trust anchors, using locally cached OCSP
+ * responses and CRLs for the revocation checking.
+ *
+ * <p>
+ * Because the eID Applet Service can instantiate authentication services per
+ * request, the {@link RevocationDataCache} should be shared between
+ * instances. When configured via the <code>AuthenticationServiceClass</code>
+ * <code>init-param</code>, extend this class with a default constructor that
+ * passes a static revocation data cache.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class PkiAuthenticationService implements AuthenticationService {
+
+	private static final Log LOG = LogFactory.getLog(PkiAuthenticationService.class);
+
+	private static final int KEY_CERT_SIGN = 5;
+
+	/**
+	 * The critical extensions that are processed during path validation, or
+	 * by the authentication and signature services.
+	 */
+	private static final Set<String> SUPPORTED_CRITICAL_EXTENSIONS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList(X509Extensions.KeyUsage.getId(), X509Extensions.BasicConstraints.getId(),
+					X509Extensions.ExtendedKeyUsage.getId())));
+
+	private final List<X509Certificate> trustAnchors;
+
+	private final RevocationDataCache revocationDataCache;
+
+	/**
+	 * Main constructor.
+	 *
+	 * @param trustAnchors
+	 *            the trusted root certificates.
+	 * @param revocationDataCache
+	 *            the revocation data cache.
+	 */
+	public PkiAuthenticationService(List<X509Certificate> trustAnchors, RevocationDataCache revocationDataCache) {
+		if (null == trustAnchors || trustAnchors.isEmpty()) {
+			throw new IllegalArgumentException("trust anchors required");
+		}
+		if (null == revocationDataCache) {
+			throw new IllegalArgumentException("revocation data cache required");
+		}
+		this.trustAnchors = trustAnchors;
+		this.revocationDataCache = revocationDataCache;
+	}
+
+	public void validateCertificateChain(List<X509Certificate> certificateChain)
+			throws ExpiredCertificateSecurityException, RevokedCertificateSecurityException,
+			TrustCertificateSecurityException, CertificateSecurityException, SecurityException {
+		if (null == certificateChain || certificateChain.isEmpty()) {
+			throw new CertificateSecurityException();
+		}
+		if (certificateChain.contains(null)) {
+			LOG.warn("certificate chain contains null element");
+			throw new CertificateSecurityException();
+		}
+		List<X509Certificate> path = getCertificationPath(certificateChain);
+		Date now = new Date();
+		for (X509Certificate certificate : path) {
+			try {
+				certificate.checkValidity(now);
+			} catch (CertificateExpiredException e) {
+				LOG.warn("certificate expired: " + certificate.getSubjectX500Principal());
+				throw new ExpiredCertificateSecurityException();
+			} catch (CertificateNotYetValidException e) {
+				LOG.warn("certificate not yet valid: " + certificate.getSubjectX500Principal());
+				throw new ExpiredCertificateSecurityException();
+			}
+		}
+		/*
+		 * The revocation data locations are taken from the certificates, so
+		 * these can only be used once the entire path has been verified up to
+		 * the trust anchor.
+		 */
+		for (int idx = 0; idx < path.size() - 1; idx++) {
+			X509Certificate certificate = path.get(idx);
+			X509Certificate issuer = path.get(idx + 1);
+			checkIssuer(issuer, idx);
+			try {
+				certificate.verify(issuer.getPublicKey());
+			} catch (GeneralSecurityException e) {
+				LOG.warn("certificate signature invalid: " + certificate.getSubjectX500Principal());
+				throw new TrustCertificateSecurityException();
+			}
+			checkCriticalExtensions(certificate);
+		}
+		for (int idx = 0; idx < path.size() - 1; idx++) {
+			checkRevocation(path.get(idx), path.get(idx + 1));
+		}
+	}
+
+	/**
+	 * Checks whether the given issuer is allowed to issue the certificate at
+	 * the given position within the certification path.
+	 *
+	 * @param issuer
+	 * @param intermediateCount
+	 *            the number of intermediate CA certificates below the issuer.
+	 * @throws TrustCertificateSecurityException
+	 */
+	private void checkIssuer(X509Certificate issuer, int intermediateCount)
+			throws TrustCertificateSecurityException {
+		int pathLength = issuer.getBasicConstraints();
+		if (-1 == pathLength) {
+			LOG.warn("issuer is not a CA: " + issuer.getSubjectX500Principal());
+			throw new TrustCertificateSecurityException();
+		}
+		if (intermediateCount > pathLength) {
+			LOG.warn("path length constraint exceeded: " + issuer.getSubjectX500Principal());
+			throw new TrustCertificateSecurityException();
+		}
+		boolean[] keyUsage = issuer.getKeyUsage();
+		if (null != keyUsage && (keyUsage.length <= KEY_CERT_SIGN || false == keyUsage[KEY_CERT_SIGN])) {
+			LOG.warn("issuer key usage does not allow certificate signing: " + issuer.getSubjectX500Principal());
+			throw new TrustCertificateSecurityException();
+		}
+	}
+
+	private void checkCriticalExtensions(X509Certificate certificate) throws CertificateSecurityException {
+		Set<String> criticalExtensions = certificate.getCriticalExtensionOIDs();
+		if (null == criticalExtensions) {
+			return;
+		}
+		for (String criticalExtension : criticalExtensions) {
+			if (false == SUPPORTED_CRITICAL_EXTENSIONS.contains(criticalExtension)) {
+				LOG.warn("unsupported critical extension " + criticalExtension + ": "
+						+ certificate.getSubjectX500Principal());
+				throw new CertificateSecurityException();
+			}
+		}
+	}
+
+	/**
+	 * Gives back the certification path from the end-entity certificate up to
+	 * a trust anchor.
+	 *
+	 * @param certificateChain
+	 * @return
+	 * @throws TrustCertificateSecurityException
+	 */
+	private List<X509Certificate> getCertificationPath(List<X509Certificate> certificateChain)
+			throws TrustCertificateSecurityException {
+		List<X509Certificate> path = new ArrayList<X509Certificate>(certificateChain.size() + 1);
+		for (X509Certificate certificate : certificateChain) {
+			path.add(certificate);
+			if (this.trustAnchors.contains(certificate)) {
+				return path;
+			}
+		}
+		X509Certificate topCertificate = path.get(path.size() - 1);
+		for (X509Certificate trustAnchor : this.trustAnchors) {
+			if (false == trustAnchor.getSubjectX500Principal().equals(topCertificate.getIssuerX500Principal())) {
+				continue;
+			}
+			try {
+				topCertificate.verify(trustAnchor.getPublicKey());
+			} catch (GeneralSecurityException e) {
+				continue;
+			}
+			path.add(trustAnchor);
+			return path;
+		}
+		LOG.warn("no trust anchor for: " + topCertificate.getIssuerX500Principal());
+		throw new TrustCertificateSecurityException();
+	}
+
+	private void checkRevocation(X509Certificate certificate, X509Certificate issuer)
+			throws RevokedCertificateSecurityException, CertificateSecurityException {
+		String crlUri = PkiUtils.getCrlUri(certificate);
+		RevocationStatus ocspStatus = this.revocationDataCache.findOcspStatus(certificate, issuer, null == crlUri);
+		if (RevocationStatus.REVOKED == ocspStatus) {
+			LOG.warn("certificate revoked (OCSP): " + certificate.getSubjectX500Principal());
+			throw new RevokedCertificateSecurityException();
+		}
+		if (RevocationStatus.GOOD == ocspStatus) {
+			return;
+		}
+		if (null == crlUri) {
+			LOG.warn("no revocation data for: " + certificate.getSubjectX500Principal());
+			throw new CertificateSecurityException();
+		}
+		RevocationList crl = this.revocationDataCache.findRevocationList(crlUri, issuer);
+		if (null == crl) {
+			LOG.warn("no CRL available for: " + certificate.getSubjectX500Principal());
+			throw new CertificateSecurityException();
+		}
+		if (crl.isRevoked(certificate.getSerialNumber())) {
+			LOG.warn("certificate revoked (CRL): " + certificate.getSubjectX500Principal());
+			throw new RevokedCertificateSecurityException();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.pki;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+/**
+ * Utility class for certificate extension processing.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class PkiUtils {
+
+	private PkiUtils() {
+		super();
+	}
+
+	/**
+	 * Gives back the first CRL distribution point URI of the given
+	 * certificate.
+	 *
+	 * @param certificate
+	 * @return the CRL URI, or <code>null</code> if not available.
+	 */
+	public static String getCrlUri(X509Certificate certificate) {
+		byte[] crlDistributionPointsValue = certificate
+				.getExtensionValue(X509Extensions.CRLDistributionPoints.getId());
+		if (null == crlDistributionPointsValue) {
+			return null;
+		}
+		CRLDistPoint crlDistPoint;
+		try {
+			crlDistPoint = CRLDistPoint.getInstance(X509ExtensionUtil.fromExtensionValue(crlDistributionPointsValue));
+		} catch (IOException e) {
+			throw new SecurityException("CRL distribution points extension error: " + e.getMessage());
+		}
+		for (DistributionPoint distributionPoint : crlDistPoint.getDistributionPoints()) {
+			DistributionPointName distributionPointName = distributionPoint.getDistributionPoint();
+			if (null == distributionPointName || DistributionPointName.FULL_NAME != distributionPointName.getType()) {
+				continue;
+			}
+			GeneralNames generalNames = (GeneralNames) distributionPointName.getName();
+			String uri = getUri(generalNames.getNames());
+			if (null != uri) {
+				return uri;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gives back the OCSP responder URI of the given certificate.
+	 *
+	 * @param certificate
+	 * @return the OCSP URI, or <code>null</code> if not available.
+	 */
+	public static String getOcspUri(X509Certificate certificate) {
+		byte[] authorityInformationAccessValue = certificate
+				.getExtensionValue(X509Extensions.AuthorityInfoAccess.getId());
+		if (null == authorityInformationAccessValue) {
+			return null;
+		}
+		AuthorityInformationAccess authorityInformationAccess;
+		try {
+			authorityInformationAccess = AuthorityInformationAccess
+					.getInstance(X509ExtensionUtil.fromExtensionValue(authorityInformationAccessValue));
+		} catch (IOException e) {
+			throw new SecurityException("authority information access extension error: " + e.getMessage());
+		}
+		for (AccessDescription accessDescription : authorityInformationAccess.getAccessDescriptions()) {
+			if (false == AccessDescription.id_ad_ocsp.equals(accessDescription.getAccessMethod())) {
+				continue;
+			}
+			String uri = getUri(new GeneralName[] { accessDescription.getAccessLocation() });
+			if (null != uri) {
+				return uri;
+			}
+		}
+		return null;
+	}
+
+	private static String getUri(GeneralName[] generalNames) {
+		for (GeneralName generalName : generalNames) {
+			if (GeneralName.uniformResourceIdentifier != generalName.getTagNo()) {
+				continue;
+			}
+			return DERIA5String.getInstance(generalName.getName()).getString();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,803 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.pki;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPException;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPReqGenerator;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.SingleResp;
+
+/**
+ * Local cache of revocation data. CRLs and OCSP responses are fetched and
+ * refreshed by a background refresher, so that certificate validation on the
+ * request path does not have to perform any network I/O.
+ *
+ * <p>
+ * Revocation data that is due for refresh keeps being served while a refresh
+ * is running in the background (stale-while-revalidate). Revocation data past
+ * its next update is no longer served, unless a maximum staleness has been
+ * configured via {@link #setMaxStaleness(long)}.
+ * </p>
+ *
+ * <p>
+ * CRLs are compiled into a {@link CrlIndex}, which is memory-mapped in case a
+ * CRL index directory has been configured.
+ * </p>
+ *
+ * <p>
+ * By default revocation data is never fetched on the calling thread. A cold
+ * miss only schedules a background fetch, so CRLs should be prefetched via
+ * {@link #prefetchCrl(String, X509Certificate)} at startup. Via
+ * {@link #setFetchOnMiss(boolean)} a cold miss on a CRL, or on the OCSP
+ * response of a certificate without CRL distribution point, can be fetched on
+ * the calling thread instead.
+ * </p>
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class RevocationDataCache {
+
+	private static final Log LOG = LogFactory.getLog(RevocationDataCache.class);
+
+	static {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	/**
+	 * The default validity in milliseconds of revocation data that has no next
+	 * update.
+	 */
+	public static final long DEFAULT_VALIDITY = 1000 * 60 * 60;
+
+	/**
+	 * The default time in milliseconds before next update at which revocation
+	 * data gets refreshed.
+	 */
+	public static final long DEFAULT_REFRESH_MARGIN = 1000 * 60 * 5;
+
+	/**
+	 * The default time in milliseconds after which unused OCSP responses are
+	 * no longer refreshed.
+	 */
+	public static final long DEFAULT_OCSP_IDLE_TIME = 1000 * 60 * 60 * 24;
+
+	/**
+	 * The default maximum number of OCSP responses kept by the cache.
+	 */
+	public static final int DEFAULT_MAX_OCSP_ENTRIES = 10000;
+
+	/**
+	 * The default time in milliseconds after which unused CRLs are no longer
+	 * refreshed. Prefetched CRLs are kept regardless.
+	 */
+	public static final long DEFAULT_CRL_IDLE_TIME = 1000 * 60 * 60 * 24;
+
+	/**
+	 * The default maximum number of CRLs kept by the cache.
+	 */
+	public static final int DEFAULT_MAX_CRL_ENTRIES = 100;
+
+	/**
+	 * The default connect and read timeout in milliseconds.
+	 */
+	public static final int DEFAULT_TIMEOUT = 1000 * 10;
+
+	private static final String OCSP_SIGNING_EXTENDED_KEY_USAGE = "1.3.6.1.5.5.7.3.9";
+
+	/**
+	 * CRL entries are keyed by CRL URI and issuer certificate, so a CA key
+	 * rollover results in a new entry instead of a permanent issuer mismatch.
+	 * Callers should only pass issuers of which the certification path has
+	 * been verified, as the CRL URIs are taken from the certificates.
+	 */
+	private final ConcurrentMap<String, CrlEntry> crlEntries;
+
+	private final ConcurrentMap<CertificateID, OcspEntry> ocspEntries;
+
+	private final Set<Object> refreshing;
+
+	private volatile ScheduledExecutorService executor;
+
+	private volatile long maxStaleness;
+
+	private volatile long defaultValidity = DEFAULT_VALIDITY;
+
+	private volatile long refreshMargin = DEFAULT_REFRESH_MARGIN;
+
+	private volatile long ocspIdleTime = DEFAULT_OCSP_IDLE_TIME;
+
+	private volatile int maxOcspEntries = DEFAULT_MAX_OCSP_ENTRIES;
+
+	private volatile long crlIdleTime = DEFAULT_CRL_IDLE_TIME;
+
+	private volatile int maxCrlEntries = DEFAULT_MAX_CRL_ENTRIES;
+
+	private volatile int timeout = DEFAULT_TIMEOUT;
+
+	private volatile boolean fetchOnMiss;
+
+	private volatile File crlIndexDirectory;
+
+	public RevocationDataCache() {
+		this.crlEntries = new ConcurrentHashMap<String, CrlEntry>();
+		this.ocspEntries = new ConcurrentHashMap<CertificateID, OcspEntry>();
+		this.refreshing = Collections.synchronizedSet(new HashSet<Object>());
+	}
+
+	/**
+	 * Sets the time in milliseconds revocation data keeps being served past
+	 * its next update, in case a refresh fails. Defaults to zero.
+	 *
+	 * @param maxStaleness
+	 */
+	public void setMaxStaleness(long maxStaleness) {
+		this.maxStaleness = maxStaleness;
+	}
+
+	public void setDefaultValidity(long defaultValidity) {
+		this.defaultValidity = defaultValidity;
+	}
+
+	public void setRefreshMargin(long refreshMargin) {
+		this.refreshMargin = refreshMargin;
+	}
+
+	public void setOcspIdleTime(long ocspIdleTime) {
+		this.ocspIdleTime = ocspIdleTime;
+	}
+
+	public void setMaxOcspEntries(int maxOcspEntries) {
+		this.maxOcspEntries = maxOcspEntries;
+	}
+
+	public void setCrlIdleTime(long crlIdleTime) {
+		this.crlIdleTime = crlIdleTime;
+	}
+
+	/**
+	 * Sets the maximum number of CRLs kept by the cache. Once reached, CRLs of
+	 * new distribution points are no longer cached nor downloaded, except for
+	 * prefetched CRLs.
+	 *
+	 * @param maxCrlEntries
+	 */
+	public void setMaxCrlEntries(int maxCrlEntries) {
+		this.maxCrlEntries = maxCrlEntries;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Enables fetching of missing revocation data on the calling thread.
+	 * Disabled by default.
+	 *
+	 * @param fetchOnMiss
+	 */
+	public void setFetchOnMiss(boolean fetchOnMiss) {
+		this.fetchOnMiss = fetchOnMiss;
+	}
+
+	/**
+	 * Sets the directory in which memory-mapped CRL indexes are kept. When
+	 * not set, CRL indexes are kept on the heap.
+	 *
+	 * @param crlIndexDirectory
+	 */
+	public void setCrlIndexDirectory(File crlIndexDirectory) {
+		if (null != crlIndexDirectory && false == crlIndexDirectory.isDirectory()) {
+			if (false == crlIndexDirectory.mkdirs()) {
+				throw new IllegalArgumentException("could not create CRL index directory: " + crlIndexDirectory);
+			}
+		}
+		this.crlIndexDirectory = crlIndexDirectory;
+	}
+
+	/**
+	 * Starts the background refresher.
+	 *
+	 * @param period
+	 *            the refresh period in milliseconds.
+	 */
+	public synchronized void start(long period) {
+		if (null != this.executor) {
+			return;
+		}
+		this.executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "eid-revocation-data-refresher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch (Exception e) {
+					LOG.error("refresh error: " + e.getMessage(), e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background refresher.
+	 */
+	public synchronized void shutdown() {
+		if (null == this.executor) {
+			return;
+		}
+		this.executor.shutdownNow();
+		this.executor = null;
+	}
+
+	/**
+	 * Registers and downloads the given CRL.
+	 *
+	 * @param crlUri
+	 * @param issuer
+	 *            the CRL issuer certificate.
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public void prefetchCrl(String crlUri, X509Certificate issuer) throws IOException, GeneralSecurityException {
+		CrlEntry crlEntry = getCrlEntry(crlUri, issuer, true);
+		crlEntry.prefetched = true;
+		refreshCrl(crlEntry);
+	}
+
+	/**
+	 * Gives back the cached CRL.
+	 *
+	 * @param crlUri
+	 * @param issuer
+	 *            the CRL issuer certificate.
+	 * @return the verified CRL, or <code>null</code> if no usable CRL is
+	 *         available.
+	 */
+	public RevocationList findRevocationList(String crlUri, X509Certificate issuer) {
+		CrlEntry crlEntry = getCrlEntry(crlUri, issuer, false);
+		if (null == crlEntry) {
+			LOG.warn("CRL cache full, not caching: " + crlUri);
+			return null;
+		}
+		crlEntry.lastAccess = System.currentTimeMillis();
+		RevocationList crl = crlEntry.crl;
+		if (null == crl) {
+			if (false == this.fetchOnMiss) {
+				scheduleRefresh(crlEntry);
+				return null;
+			}
+			synchronized (crlEntry) {
+				if (null == crlEntry.crl) {
+					try {
+						refreshCrl(crlEntry);
+					} catch (Exception e) {
+						LOG.error("error downloading CRL " + crlUri + ": " + e.getMessage(), e);
+						return null;
+					}
+				}
+			}
+			crl = crlEntry.crl;
+		}
+		long now = System.currentTimeMillis();
+		long nextUpdate = getNextUpdate(crl.getThisUpdate(), crl.getNextUpdate());
+		if (now >= nextUpdate - this.refreshMargin) {
+			scheduleRefresh(crlEntry);
+		}
+		if (now >= nextUpdate + this.maxStaleness) {
+			LOG.warn("CRL too stale: " + crlUri);
+			return null;
+		}
+		return crl;
+	}
+
+	/**
+	 * Gives back the cached OCSP status of the given certificate. An OCSP
+	 * response gets prefetched for the next time in case it is not yet
+	 * available.
+	 *
+	 * @param certificate
+	 * @param issuer
+	 * @param required
+	 *            set to <code>true</code> to fetch an OCSP response on a cold
+	 *            miss, in case fetching on miss has been enabled.
+	 * @return the revocation status, or <code>null</code> if no usable OCSP
+	 *         response is available.
+	 */
+	public RevocationStatus findOcspStatus(X509Certificate certificate, X509Certificate issuer, boolean required) {
+		String ocspUri = PkiUtils.getOcspUri(certificate);
+		if (null == ocspUri) {
+			return null;
+		}
+		CertificateID certificateId;
+		try {
+			certificateId = new CertificateID(CertificateID.HASH_SHA1, issuer, certificate.getSerialNumber());
+		} catch (OCSPException e) {
+			LOG.error("OCSP certificate identifier error: " + e.getMessage(), e);
+			return null;
+		}
+		OcspEntry ocspEntry = this.ocspEntries.get(certificateId);
+		if (null == ocspEntry) {
+			ocspEntry = new OcspEntry(certificateId, ocspUri, issuer);
+			if (this.ocspEntries.size() >= this.maxOcspEntries) {
+				if (false == (required && this.fetchOnMiss)) {
+					return null;
+				}
+				/*
+				 * Cache is full: fetch into an entry that is not cached.
+				 */
+				LOG.warn("OCSP cache full, not caching: " + ocspUri);
+			} else {
+				OcspEntry existingOcspEntry = this.ocspEntries.putIfAbsent(certificateId, ocspEntry);
+				if (null != existingOcspEntry) {
+					ocspEntry = existingOcspEntry;
+				}
+			}
+		}
+		ocspEntry.lastAccess = System.currentTimeMillis();
+		OcspResponse ocspResponse = ocspEntry.ocspResponse;
+		if (null == ocspResponse) {
+			if (required && this.fetchOnMiss) {
+				try {
+					refreshOcsp(ocspEntry);
+				} catch (Exception e) {
+					LOG.error("OCSP error for " + ocspUri + ": " + e.getMessage(), e);
+					return null;
+				}
+				ocspResponse = ocspEntry.ocspResponse;
+				if (null == ocspResponse) {
+					return null;
+				}
+			} else {
+				scheduleRefresh(ocspEntry);
+				return null;
+			}
+		}
+		long now = System.currentTimeMillis();
+		long nextUpdate = getNextUpdate(ocspResponse.thisUpdate, ocspResponse.nextUpdate);
+		if (now >= nextUpdate - this.refreshMargin) {
+			scheduleRefresh(ocspEntry);
+		}
+		if (now >= nextUpdate + this.maxStaleness) {
+			LOG.warn("OCSP response too stale for: " + certificate.getSubjectX500Principal());
+			return null;
+		}
+		return ocspResponse.status;
+	}
+
+	/**
+	 * Adds a stapled OCSP response to the cache.
+	 *
+	 * @param encodedOcspResponse
+	 *            the DER encoded OCSP response.
+	 * @param certificate
+	 * @param issuer
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 * @throws OCSPException
+	 */
+	public void addOcspResponse(byte[] encodedOcspResponse, X509Certificate certificate, X509Certificate issuer)
+			throws IOException, GeneralSecurityException, OCSPException {
+		String ocspUri = PkiUtils.getOcspUri(certificate);
+		CertificateID certificateId = new CertificateID(CertificateID.HASH_SHA1, issuer,
+				certificate.getSerialNumber());
+		OcspEntry ocspEntry = this.ocspEntries.get(certificateId);
+		if (null == ocspEntry) {
+			if (this.ocspEntries.size() >= this.maxOcspEntries) {
+				LOG.warn("OCSP cache full, ignoring stapled OCSP response");
+				return;
+			}
+			ocspEntry = new OcspEntry(certificateId, ocspUri, issuer);
+			OcspEntry existingOcspEntry = this.ocspEntries.putIfAbsent(certificateId, ocspEntry);
+			if (null != existingOcspEntry) {
+				ocspEntry = existingOcspEntry;
+			}
+		}
+		ocspEntry.lastAccess = System.currentTimeMillis();
+		processOcspResponse(ocspEntry, encodedOcspResponse);
+	}
+
+	/**
+	 * Refreshes all revocation data that is due for refresh. Is invoked
+	 * periodically by the background refresher.
+	 */
+	public void refresh() {
+		long now = System.currentTimeMillis();
+		Iterator<CrlEntry> crlEntryIterator = this.crlEntries.values().iterator();
+		while (crlEntryIterator.hasNext()) {
+			CrlEntry crlEntry = crlEntryIterator.next();
+			if (false == crlEntry.prefetched && now - crlEntry.lastAccess > this.crlIdleTime) {
+				crlEntryIterator.remove();
+				CrlIndex crl = crlEntry.crl;
+				if (null != crl) {
+					delete(crl.getFile());
+				}
+				continue;
+			}
+			RevocationList crl = crlEntry.crl;
+			if (null != crl && now < getNextUpdate(crl.getThisUpdate(), crl.getNextUpdate()) - this.refreshMargin) {
+				continue;
+			}
+			try {
+				refreshCrl(crlEntry);
+			} catch (Exception e) {
+				LOG.error("error refreshing CRL " + crlEntry.uri + ": " + e.getMessage(), e);
+			}
+		}
+		Iterator<OcspEntry> ocspEntryIterator = this.ocspEntries.values().iterator();
+		while (ocspEntryIterator.hasNext()) {
+			OcspEntry ocspEntry = ocspEntryIterator.next();
+			if (now - ocspEntry.lastAccess > this.ocspIdleTime) {
+				ocspEntryIterator.remove();
+				continue;
+			}
+			OcspResponse ocspResponse = ocspEntry.ocspResponse;
+			if (null != ocspResponse && now < getNextUpdate(ocspResponse.thisUpdate, ocspResponse.nextUpdate)
+					- this.refreshMargin) {
+				continue;
+			}
+			if (null == ocspEntry.uri) {
+				continue;
+			}
+			try {
+				refreshOcsp(ocspEntry);
+			} catch (Exception e) {
+				LOG.error("error refreshing OCSP response " + ocspEntry.uri + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Gives back the CRL entry for the given CRL URI and issuer.
+	 *
+	 * @param crlUri
+	 * @param issuer
+	 * @param force
+	 *            set to <code>true</code> to create the entry even if the
+	 *            cache is full.
+	 * @return the CRL entry, or <code>null</code> if the cache is full.
+	 */
+	private CrlEntry getCrlEntry(String crlUri, X509Certificate issuer, boolean force) {
+		String key;
+		try {
+			key = crlUri + "/" + DigestUtils.shaHex(issuer.getEncoded());
+		} catch (CertificateEncodingException e) {
+			throw new SecurityException("certificate encoding error: " + e.getMessage());
+		}
+		CrlEntry crlEntry = this.crlEntries.get(key);
+		if (null == crlEntry) {
+			if (this.crlEntries.size() >= this.maxCrlEntries && false == force) {
+				return null;
+			}
+			crlEntry = new CrlEntry(crlUri, issuer);
+			CrlEntry existingCrlEntry = this.crlEntries.putIfAbsent(key, crlEntry);
+			if (null != existingCrlEntry) {
+				crlEntry = existingCrlEntry;
+			}
+		}
+		return crlEntry;
+	}
+
+	private long getNextUpdate(Date thisUpdate, Date nextUpdate) {
+		if (null != nextUpdate) {
+			return nextUpdate.getTime();
+		}
+		return thisUpdate.getTime() + this.defaultValidity;
+	}
+
+	private void scheduleRefresh(final Object entry) {
+		ScheduledExecutorService executor = this.executor;
+		if (null == executor) {
+			return;
+		}
+		if (false == this.refreshing.add(entry)) {
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (entry instanceof CrlEntry) {
+							refreshCrl((CrlEntry) entry);
+						} else {
+							refreshOcsp((OcspEntry) entry);
+						}
+					} catch (Exception e) {
+						LOG.error("revocation data refresh error: " + e.getMessage(), e);
+					} finally {
+						RevocationDataCache.this.refreshing.remove(entry);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			this.refreshing.remove(entry);
+			LOG.warn("could not schedule refresh: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Downloads, verifies and activates the CRL of the given entry. A CRL that
+	 * does not verify, or that is older than the active one, is discarded.
+	 *
+	 * @param crlEntry
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private void refreshCrl(CrlEntry crlEntry) throws IOException, GeneralSecurityException {
+		LOG.debug("downloading CRL: " + crlEntry.uri);
+		byte[] encodedCrl = download(crlEntry.uri, null);
+		File crlIndexFile;
+		File crlIndexDirectory = this.crlIndexDirectory;
+		if (null != crlIndexDirectory) {
+			crlIndexFile = File.createTempFile(DigestUtils.shaHex(crlEntry.uri) + "-", ".crlx", crlIndexDirectory);
+		} else {
+			crlIndexFile = null;
+		}
+		CrlIndex crl;
+		try {
+			crl = CrlIndex.compile(encodedCrl, crlEntry.issuer.getSubjectX500Principal(),
+					crlEntry.issuer.getPublicKey(), crlIndexFile);
+		} catch (IOException e) {
+			delete(crlIndexFile);
+			throw e;
+		} catch (GeneralSecurityException e) {
+			delete(crlIndexFile);
+			throw e;
+		}
+		LOG.debug("CRL entries: " + crl.getSize());
+		CrlIndex retiredCrl = crlEntry.activate(crl);
+		if (null != retiredCrl) {
+			delete(retiredCrl.getFile());
+		}
+	}
+
+	private static void delete(File file) {
+		if (null == file) {
+			return;
+		}
+		if (false == file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	private void refreshOcsp(OcspEntry ocspEntry) throws IOException, GeneralSecurityException, OCSPException {
+		LOG.debug("fetching OCSP response: " + ocspEntry.uri);
+		OCSPReqGenerator ocspReqGenerator = new OCSPReqGenerator();
+		ocspReqGenerator.addRequest(ocspEntry.certificateId);
+		OCSPReq ocspReq = ocspReqGenerator.generate();
+		byte[] encodedOcspResponse = download(ocspEntry.uri, ocspReq.getEncoded());
+		processOcspResponse(ocspEntry, encodedOcspResponse);
+	}
+
+	private void processOcspResponse(OcspEntry ocspEntry, byte[] encodedOcspResponse)
+			throws IOException, GeneralSecurityException, OCSPException {
+		OCSPResp ocspResp = new OCSPResp(encodedOcspResponse);
+		if (OCSPRespStatus.SUCCESSFUL != ocspResp.getStatus()) {
+			throw new OCSPException("OCSP response status: " + ocspResp.getStatus());
+		}
+		BasicOCSPResp basicOCSPResp = (BasicOCSPResp) ocspResp.getResponseObject();
+		PublicKey ocspResponderPublicKey = getOcspResponderPublicKey(basicOCSPResp, ocspEntry.issuer);
+		if (false == basicOCSPResp.verify(ocspResponderPublicKey, BouncyCastleProvider.PROVIDER_NAME)) {
+			throw new OCSPException("OCSP response signature invalid");
+		}
+		for (SingleResp singleResp : basicOCSPResp.getResponses()) {
+			if (false == ocspEntry.certificateId.equals(singleResp.getCertID())) {
+				continue;
+			}
+			Object certStatus = singleResp.getCertStatus();
+			RevocationStatus status;
+			if (null == certStatus) {
+				status = RevocationStatus.GOOD;
+			} else if (certStatus instanceof RevokedStatus) {
+				status = RevocationStatus.REVOKED;
+			} else {
+				status = RevocationStatus.UNKNOWN;
+			}
+			ocspEntry.activate(new OcspResponse(status, singleResp.getThisUpdate(), singleResp.getNextUpdate()));
+			return;
+		}
+		throw new OCSPException("no OCSP response for requested certificate");
+	}
+
+	private PublicKey getOcspResponderPublicKey(BasicOCSPResp basicOCSPResp, X509Certificate issuer)
+			throws GeneralSecurityException, OCSPException {
+		X509Certificate[] certificates;
+		try {
+			certificates = basicOCSPResp.getCerts(BouncyCastleProvider.PROVIDER_NAME);
+		} catch (NoSuchProviderException e) {
+			throw new OCSPException("BouncyCastle provider not available");
+		}
+		if (null == certificates || 0 == certificates.length) {
+			return issuer.getPublicKey();
+		}
+		X509Certificate ocspResponderCertificate = certificates[0];
+		if (ocspResponderCertificate.equals(issuer)) {
+			return issuer.getPublicKey();
+		}
+		ocspResponderCertificate.verify(issuer.getPublicKey());
+		ocspResponderCertificate.checkValidity();
+		List<String> extendedKeyUsage = ocspResponderCertificate.getExtendedKeyUsage();
+		if (null == extendedKeyUsage || false == extendedKeyUsage.contains(OCSP_SIGNING_EXTENDED_KEY_USAGE)) {
+			throw new OCSPException("OCSP responder certificate not authorized for OCSP signing");
+		}
+		return ocspResponderCertificate.getPublicKey();
+	}
+
+	/**
+	 * Downloads the given URI. Performs an HTTP POST in case request data is
+	 * given.
+	 *
+	 * @param uri
+	 * @param ocspRequest
+	 *            the optional OCSP request.
+	 * @return the response body.
+	 * @throws IOException
+	 */
+	protected byte[] download(String uri, byte[] ocspRequest) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+		try {
+			connection.setConnectTimeout(this.timeout);
+			connection.setReadTimeout(this.timeout);
+			connection.setUseCaches(false);
+			if (null != ocspRequest) {
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/ocsp-request");
+				OutputStream outputStream = connection.getOutputStream();
+				try {
+					outputStream.write(ocspRequest);
+				} finally {
+					outputStream.close();
+				}
+			}
+			int responseCode = connection.getResponseCode();
+			if (HttpURLConnection.HTTP_OK != responseCode) {
+				throw new IOException("HTTP status " + responseCode + " for " + uri);
+			}
+			InputStream inputStream = connection.getInputStream();
+			try {
+				return IOUtils.toByteArray(inputStream);
+			} finally {
+				inputStream.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static class CrlEntry {
+
+		private final String uri;
+
+		private final X509Certificate issuer;
+
+		private volatile CrlIndex crl;
+
+		private volatile long lastAccess;
+
+		private volatile boolean prefetched;
+
+		public CrlEntry(String uri, X509Certificate issuer) {
+			this.uri = uri;
+			this.issuer = issuer;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		/**
+		 * Atomically swaps in the given CRL.
+		 *
+		 * @param crl
+		 * @return the CRL that is no longer in use.
+		 */
+		public synchronized CrlIndex activate(CrlIndex crl) {
+			if (null != this.crl && crl.getThisUpdate().before(this.crl.getThisUpdate())) {
+				LOG.warn("ignoring older CRL: " + this.uri);
+				return crl;
+			}
+			CrlIndex retiredCrl = this.crl;
+			this.crl = crl;
+			return retiredCrl;
+		}
+	}
+
+	private static class OcspEntry {
+
+		private final CertificateID certificateId;
+
+		private final String uri;
+
+		private final X509Certificate issuer;
+
+		private volatile OcspResponse ocspResponse;
+
+		private volatile long lastAccess;
+
+		public OcspEntry(CertificateID certificateId, String uri, X509Certificate issuer) {
+			this.certificateId = certificateId;
+			this.uri = uri;
+			this.issuer = issuer;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		public synchronized void activate(OcspResponse ocspResponse) {
+			if (null != this.ocspResponse && ocspResponse.thisUpdate.before(this.ocspResponse.thisUpdate)) {
+				LOG.warn("ignoring older OCSP response: " + this.uri);
+				return;
+			}
+			this.ocspResponse = ocspResponse;
+		}
+	}
+
+	private static class OcspResponse {
+
+		private final RevocationStatus status;
+
+		private final Date thisUpdate;
+
+		private final Date nextUpdate;
+
+		public OcspResponse(RevocationStatus status, Date thisUpdate, Date nextUpdate) {
+			this.status = status;
+			this.thisUpdate = thisUpdate;
+			this.nextUpdate = nextUpdate;
+		}
+	}
+}
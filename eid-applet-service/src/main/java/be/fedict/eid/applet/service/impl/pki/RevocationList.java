@@ -0,0 +1,49 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.eid.applet.service.impl.pki;
+
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * Interface for verified certificate revocation lists.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public interface RevocationList {
+
+	/**
+	 * Checks whether the given certificate serial number has been revoked.
+	 *
+	 * @param serialNumber
+	 * @return
+	 */
+	boolean isRevoked(BigInteger serialNumber);
+
+	Date getThisUpdate();
+
+	/**
+	 * Gives back the next update.
+	 *
+	 * @return the next update, or <code>null</code> if not available.
+	 */
+	Date getNextUpdate();
+}
@@ -0,0 +1,4 @@
+/**
+ * This package contains the PKI validation classes.
+ */
+package be.fedict.eid.applet.service.impl.pki;
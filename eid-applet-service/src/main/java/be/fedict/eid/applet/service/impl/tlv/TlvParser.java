@@ -21,10 +21,12 @@ package be.fedict.eid.applet.service.impl.tlv;
 
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +35,12 @@ import org.apache.commons.logging.LogFactory;
  * Tag-Length-Value parser. The TLV-format is used in the eID card for encoding
  * of the identity and address files.
  * 
+ * <p>
+ * The annotations of a TLV class are only inspected once. The result is kept
+ * as an immutable parse plan that maps tags directly onto the target fields.
+ * Data convertors are stateless and shared across all parse operations.
+ * </p>
+ * 
  * @author Frank Cornelis
  * 
  */
@@ -40,6 +48,8 @@ public class TlvParser {
 
 	private static final Log LOG = LogFactory.getLog(TlvParser.class);
 
+	private static final ConcurrentMap<Class<?>, ParsePlan> parsePlans = new ConcurrentHashMap<Class<?>, ParsePlan>();
+
 	private TlvParser() {
 		super();
 	}
@@ -63,30 +73,44 @@ public class TlvParser {
 		return t;
 	}
 
+	/**
+	 * Gives back a lazy view on the given file. The tags are indexed in a
+	 * single scan, while the fields are only decoded on first access. The view
+	 * does not copy the file, so the file should not be modified afterwards.
+	 * 
+	 * @param <T>
+	 * @param file
+	 * @param tlvClass
+	 * @return
+	 * @see TlvView
+	 */
+	public static <T> TlvView<T> view(byte[] file, Class<T> tlvClass) {
+		return new TlvView<T>(file, tlvClass);
+	}
+
 	private static byte[] copy(byte[] source, int idx, int count) {
 		byte[] result = new byte[count];
 		System.arraycopy(source, idx, result, 0, count);
 		return result;
 	}
 
-	private static <T> T parseThrowing(byte[] file, Class<T> tlvClass) throws InstantiationException,
-			IllegalAccessException, DataConvertorException, UnsupportedEncodingException {
-		Field[] fields = tlvClass.getDeclaredFields();
-		Map<Integer, Set<Field>> tlvFields = new HashMap<Integer, Set<Field>>();
-		for (Field field : fields) {
-			TlvField tlvFieldAnnotation = field.getAnnotation(TlvField.class);
-			if (null == tlvFieldAnnotation) {
-				continue;
-			}
-			int tagId = tlvFieldAnnotation.value();
-			Set<Field> fieldSet = tlvFields.get(new Integer(tagId));
-			if (null == fieldSet) {
-				fieldSet = new HashSet<Field>();
-				tlvFields.put(new Integer(tagId), fieldSet);
+	static ParsePlan getParsePlan(Class<?> tlvClass) throws InstantiationException, IllegalAccessException {
+		ParsePlan parsePlan = parsePlans.get(tlvClass);
+		if (null == parsePlan) {
+			parsePlan = new ParsePlan(tlvClass);
+			ParsePlan existingParsePlan = parsePlans.putIfAbsent(tlvClass, parsePlan);
+			if (null != existingParsePlan) {
+				parsePlan = existingParsePlan;
 			}
-			fieldSet.add(field);
 		}
+		return parsePlan;
+	}
+
+	private static <T> T parseThrowing(byte[] file, Class<T> tlvClass) throws InstantiationException,
+			IllegalAccessException, DataConvertorException, UnsupportedEncodingException {
+		ParsePlan parsePlan = getParsePlan(tlvClass);
 		T tlvObject = tlvClass.newInstance();
+		boolean debug = LOG.isDebugEnabled();
 
 		int idx = 0;
 		while (idx < file.length - 1) {
@@ -104,38 +128,193 @@ public class TlvParser {
 				idx += length;
 				continue;
 			}
-			if (tlvFields.containsKey(new Integer(tag))) {
-				Set<Field> tlvFieldSet = tlvFields.get(new Integer(tag));
-				for (Field tlvField : tlvFieldSet) {
-					Class<?> tlvType = tlvField.getType();
-					ConvertData convertDataAnnotation = tlvField.getAnnotation(ConvertData.class);
-					byte[] tlvValue = copy(file, idx, length);
-					Object fieldValue;
-					if (null != convertDataAnnotation) {
-						Class<? extends DataConvertor<?>> dataConvertorClass = convertDataAnnotation.value();
-						DataConvertor<?> dataConvertor = dataConvertorClass.newInstance();
-						fieldValue = dataConvertor.convert(tlvValue);
-					} else if (String.class == tlvType) {
-						fieldValue = new String(tlvValue, "UTF-8");
-					} else if (Boolean.TYPE == tlvType) {
-						fieldValue = true;
-					} else if (tlvType.isArray() && Byte.TYPE == tlvType.getComponentType()) {
-						fieldValue = tlvValue;
-					} else {
-						throw new IllegalArgumentException("unsupported field type: " + tlvType.getName());
+			FieldPlan[] fieldPlans = parsePlan.fieldPlans[tag & 0xff];
+			if (null != fieldPlans) {
+				if (idx + length > file.length) {
+					throw new ArrayIndexOutOfBoundsException("TLV value out of bounds for tag: " + (tag & 0xff));
+				}
+				for (FieldPlan fieldPlan : fieldPlans) {
+					Object fieldValue = fieldPlan.decode(file, idx, length);
+					if (debug) {
+						LOG.debug("setting field: " + fieldPlan.field.getName());
 					}
-					LOG.debug("setting field: " + tlvField.getName());
-					if (null != tlvField.get(tlvObject) && false == tlvField.getType().isPrimitive()) {
-						throw new RuntimeException("field was already set: " + tlvField.getName());
+					if (false == fieldPlan.primitive && null != fieldPlan.field.get(tlvObject)) {
+						throw new RuntimeException("field was already set: " + fieldPlan.field.getName());
 					}
-					tlvField.setAccessible(true);
-					tlvField.set(tlvObject, fieldValue);
+					fieldPlan.field.set(tlvObject, fieldValue);
 				}
-			} else {
+			} else if (debug) {
 				LOG.debug("unknown tag: " + (tag & 0xff) + ", length: " + length);
 			}
 			idx += length;
 		}
 		return tlvObject;
 	}
+
+	private enum FieldType {
+		CONVERTOR, STRING, BOOLEAN, BYTES, UNSUPPORTED
+	}
+
+	static class FieldPlan {
+
+		private final Field field;
+
+		private final FieldType fieldType;
+
+		private final DataConvertor<?> dataConvertor;
+
+		private final boolean primitive;
+
+		private final int tag;
+
+		private final int index;
+
+		public FieldPlan(Field field, FieldType fieldType, DataConvertor<?> dataConvertor, int tag, int index) {
+			this.field = field;
+			this.fieldType = fieldType;
+			this.dataConvertor = dataConvertor;
+			this.primitive = field.getType().isPrimitive();
+			this.tag = tag;
+			this.index = index;
+		}
+
+		public int getTag() {
+			return this.tag;
+		}
+
+		public int getIndex() {
+			return this.index;
+		}
+
+		public String getName() {
+			return this.field.getName();
+		}
+
+		public boolean isPrimitive() {
+			return this.primitive;
+		}
+
+		/**
+		 * Decodes the value of this field directly from the given offset.
+		 * 
+		 * @param file
+		 * @param idx
+		 *            the offset of the TLV value.
+		 * @param length
+		 *            the length of the TLV value.
+		 * @return
+		 * @throws DataConvertorException
+		 * @throws UnsupportedEncodingException
+		 */
+		public Object decode(byte[] file, int idx, int length)
+				throws DataConvertorException, UnsupportedEncodingException {
+			switch (this.fieldType) {
+			case CONVERTOR:
+				return this.dataConvertor.convert(copy(file, idx, length));
+			case STRING:
+				return new String(file, idx, length, "UTF-8");
+			case BOOLEAN:
+				return true;
+			case BYTES:
+				return copy(file, idx, length);
+			default:
+				throw new IllegalArgumentException("unsupported field type: " + this.field.getType().getName());
+			}
+		}
+
+		/**
+		 * Gives back the value of this field in case the tag is absent.
+		 * 
+		 * @return
+		 */
+		public Object getDefaultValue() {
+			if (FieldType.BOOLEAN == this.fieldType) {
+				return false;
+			}
+			return null;
+		}
+	}
+
+	static class ParsePlan {
+
+		/*
+		 * Indexed by the unsigned value of the tag byte.
+		 */
+		private final FieldPlan[][] fieldPlans;
+
+		private final Map<String, FieldPlan> namedFieldPlans;
+
+		public ParsePlan(Class<?> tlvClass) throws InstantiationException, IllegalAccessException {
+			Map<Integer, List<FieldPlan>> tlvFields = new HashMap<Integer, List<FieldPlan>>();
+			Map<Class<?>, DataConvertor<?>> dataConvertors = new HashMap<Class<?>, DataConvertor<?>>();
+			this.namedFieldPlans = new HashMap<String, FieldPlan>();
+			for (Field field : tlvClass.getDeclaredFields()) {
+				TlvField tlvFieldAnnotation = field.getAnnotation(TlvField.class);
+				if (null == tlvFieldAnnotation) {
+					continue;
+				}
+				int tagId = tlvFieldAnnotation.value();
+				if (tagId != (byte) tagId) {
+					/*
+					 * Can never match a tag byte.
+					 */
+					continue;
+				}
+				Class<?> tlvType = field.getType();
+				ConvertData convertDataAnnotation = field.getAnnotation(ConvertData.class);
+				FieldType fieldType;
+				DataConvertor<?> dataConvertor = null;
+				if (null != convertDataAnnotation) {
+					fieldType = FieldType.CONVERTOR;
+					Class<? extends DataConvertor<?>> dataConvertorClass = convertDataAnnotation.value();
+					dataConvertor = dataConvertors.get(dataConvertorClass);
+					if (null == dataConvertor) {
+						dataConvertor = dataConvertorClass.newInstance();
+						dataConvertors.put(dataConvertorClass, dataConvertor);
+					}
+				} else if (String.class == tlvType) {
+					fieldType = FieldType.STRING;
+				} else if (Boolean.TYPE == tlvType) {
+					fieldType = FieldType.BOOLEAN;
+				} else if (tlvType.isArray() && Byte.TYPE == tlvType.getComponentType()) {
+					fieldType = FieldType.BYTES;
+				} else {
+					/*
+					 * Only reported when the tag actually occurs.
+					 */
+					fieldType = FieldType.UNSUPPORTED;
+				}
+				field.setAccessible(true);
+				List<FieldPlan> fieldPlans = tlvFields.get(tagId & 0xff);
+				if (null == fieldPlans) {
+					fieldPlans = new ArrayList<FieldPlan>();
+					tlvFields.put(tagId & 0xff, fieldPlans);
+				}
+				FieldPlan fieldPlan = new FieldPlan(field, fieldType, dataConvertor, tagId & 0xff,
+						this.namedFieldPlans.size());
+				fieldPlans.add(fieldPlan);
+				this.namedFieldPlans.put(field.getName(), fieldPlan);
+			}
+			this.fieldPlans = new FieldPlan[256][];
+			for (Map.Entry<Integer, List<FieldPlan>> tlvField : tlvFields.entrySet()) {
+				this.fieldPlans[tlvField.getKey()] = tlvField.getValue().toArray(new FieldPlan[0]);
+			}
+		}
+
+		public boolean hasTag(int tag) {
+			return null != this.fieldPlans[tag];
+		}
+
+		public FieldPlan[] getFieldPlans(int tag) {
+			return this.fieldPlans[tag];
+		}
+
+		public FieldPlan getFieldPlan(String fieldName) {
+			return this.namedFieldPlans.get(fieldName);
+		}
+
+		public int getFieldCount() {
+			return this.namedFieldPlans.size();
+		}
+	}
 }
@@ -0,0 +1,158 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.impl.tlv;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import be.fedict.eid.applet.service.impl.tlv.TlvParser.FieldPlan;
+import be.fedict.eid.applet.service.impl.tlv.TlvParser.ParsePlan;
+
+/**
+ * Lazy view on a TLV encoded file. The offsets of the tags are indexed in a
+ * single scan over the file. A field is only decoded upon first access, using
+ * the same meta-data annotations as {@link TlvParser}. Decoded values are
+ * kept.
+ * 
+ * <p>
+ * The view operates directly on the given file, without copying it.
+ * </p>
+ * 
+ * @author Frank Cornelis
+ * 
+ * @param <T>
+ *            the TLV class that defines the fields.
+ */
+public class TlvView<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int ABSENT = -1;
+
+	private static final int DUPLICATE = -2;
+
+	private static final Object NOT_DECODED = new Object();
+
+	private final byte[] file;
+
+	private final Class<T> tlvClass;
+
+	private transient ParsePlan parsePlan;
+
+	private transient int[] offsets;
+
+	private transient int[] lengths;
+
+	private transient Object[] values;
+
+	TlvView(byte[] file, Class<T> tlvClass) {
+		this.file = file;
+		this.tlvClass = tlvClass;
+		index();
+	}
+
+	/**
+	 * Gives back the value of the given field of the TLV class. The field is
+	 * decoded on first access.
+	 * 
+	 * @param fieldName
+	 * @return the field value, or the default value in case the tag is absent.
+	 */
+	public synchronized Object getValue(String fieldName) {
+		if (null == this.offsets) {
+			/*
+			 * After deserialization.
+			 */
+			index();
+		}
+		FieldPlan fieldPlan = this.parsePlan.getFieldPlan(fieldName);
+		if (null == fieldPlan) {
+			throw new IllegalArgumentException("unknown TLV field: " + fieldName);
+		}
+		Object value = this.values[fieldPlan.getIndex()];
+		if (NOT_DECODED != value) {
+			return value;
+		}
+		int offset = this.offsets[fieldPlan.getTag()];
+		if (ABSENT == offset) {
+			value = fieldPlan.getDefaultValue();
+		} else if (DUPLICATE == offset && false == fieldPlan.isPrimitive()) {
+			throw new RuntimeException("field was already set: " + fieldName);
+		} else {
+			try {
+				value = fieldPlan.decode(this.file, offset, this.lengths[fieldPlan.getTag()]);
+			} catch (Exception e) {
+				throw new RuntimeException("error decoding field " + fieldName + " of " + this.tlvClass.getName(), e);
+			}
+		}
+		this.values[fieldPlan.getIndex()] = value;
+		return value;
+	}
+
+	/**
+	 * Fully parses the underlying file.
+	 * 
+	 * @return
+	 */
+	public T toObject() {
+		return TlvParser.parse(this.file, this.tlvClass);
+	}
+
+	private void index() {
+		try {
+			this.parsePlan = TlvParser.getParsePlan(this.tlvClass);
+		} catch (Exception e) {
+			throw new RuntimeException("error inspecting TLV class: " + this.tlvClass.getName(), e);
+		}
+		int[] offsets = new int[256];
+		int[] lengths = new int[256];
+		Arrays.fill(offsets, ABSENT);
+		int idx = 0;
+		while (idx < this.file.length - 1) {
+			byte tag = this.file[idx];
+			idx++;
+			byte lengthByte = this.file[idx];
+			int length = lengthByte & 0x7f;
+			while ((lengthByte & 0x80) == 0x80) {
+				idx++;
+				lengthByte = this.file[idx];
+				length = (length << 7) + (lengthByte & 0x7f);
+			}
+			idx++;
+			int tagIdx = tag & 0xff;
+			if (0 != tag && this.parsePlan.hasTag(tagIdx)) {
+				if (idx + length > this.file.length) {
+					throw new RuntimeException("TLV value out of bounds for tag: " + tagIdx);
+				}
+				if (ABSENT == offsets[tagIdx]) {
+					offsets[tagIdx] = idx;
+					lengths[tagIdx] = length;
+				} else {
+					offsets[tagIdx] = DUPLICATE;
+				}
+			}
+			idx += length;
+		}
+		Object[] values = new Object[this.parsePlan.getFieldCount()];
+		Arrays.fill(values, NOT_DECODED);
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.values = values;
+	}
+}
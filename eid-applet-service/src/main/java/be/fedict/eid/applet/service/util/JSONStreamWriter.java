@@ -0,0 +1,239 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A light streaming JSON writer. Writes directly to the underlying writer,
+ * without building an in-memory object tree first. String values are escaped
+ * the same way as done by json-simple.
+ * 
+ * <p>
+ * The caller is responsible for producing a well-formed sequence of objects,
+ * names and values. Call {@link #flush()} when done.
+ * </p>
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class JSONStreamWriter {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final Writer writer;
+
+	private final char[] buffer;
+
+	private int position;
+
+	private boolean first;
+
+	/**
+	 * Main constructor.
+	 * 
+	 * @param writer
+	 *            the underlying writer.
+	 */
+	public JSONStreamWriter(Writer writer) {
+		this.writer = writer;
+		this.buffer = new char[1024];
+		this.first = true;
+	}
+
+	public JSONStreamWriter beginObject() throws IOException {
+		write('{');
+		this.first = true;
+		return this;
+	}
+
+	public JSONStreamWriter endObject() throws IOException {
+		write('}');
+		this.first = false;
+		return this;
+	}
+
+	/**
+	 * Writes the name of the next object member.
+	 * 
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONStreamWriter name(String name) throws IOException {
+		if (false == this.first) {
+			write(',');
+		}
+		this.first = true;
+		write('"');
+		writeEscaped(name);
+		write('"');
+		write(':');
+		return this;
+	}
+
+	/**
+	 * Writes a string value.
+	 * 
+	 * @param value
+	 *            the value, can be <code>null</code>.
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONStreamWriter value(String value) throws IOException {
+		if (null == value) {
+			write("null");
+		} else {
+			write('"');
+			writeEscaped(value);
+			write('"');
+		}
+		this.first = false;
+		return this;
+	}
+
+	/**
+	 * Starts a string value that will be written in chunks via
+	 * {@link #chunk(CharSequence)} or {@link #chunk(byte[], int, int)}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONStreamWriter beginString() throws IOException {
+		write('"');
+		return this;
+	}
+
+	/**
+	 * Writes a chunk of the current string value.
+	 * 
+	 * @param chunk
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONStreamWriter chunk(CharSequence chunk) throws IOException {
+		writeEscaped(chunk);
+		return this;
+	}
+
+	/**
+	 * Writes a chunk of ASCII characters of the current string value.
+	 * 
+	 * @param ascii
+	 *            the ASCII encoded characters, like base64 data.
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONStreamWriter chunk(byte[] ascii, int offset, int length) throws IOException {
+		for (int idx = offset; idx < offset + length; idx++) {
+			writeEscaped((char) (ascii[idx] & 0x7f));
+		}
+		return this;
+	}
+
+	public JSONStreamWriter endString() throws IOException {
+		write('"');
+		this.first = false;
+		return this;
+	}
+
+	/**
+	 * Flushes the buffered characters to the underlying writer.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (this.position > 0) {
+			this.writer.write(this.buffer, 0, this.position);
+			this.position = 0;
+		}
+		this.writer.flush();
+	}
+
+	private void writeEscaped(CharSequence value) throws IOException {
+		int length = value.length();
+		for (int idx = 0; idx < length; idx++) {
+			writeEscaped(value.charAt(idx));
+		}
+	}
+
+	private void writeEscaped(char c) throws IOException {
+		switch (c) {
+		case '"':
+			write('\\');
+			write('"');
+			return;
+		case '\\':
+			write('\\');
+			write('\\');
+			return;
+		case '/':
+			write('\\');
+			write('/');
+			return;
+		case '\b':
+			write('\\');
+			write('b');
+			return;
+		case '\f':
+			write('\\');
+			write('f');
+			return;
+		case '\n':
+			write('\\');
+			write('n');
+			return;
+		case '\r':
+			write('\\');
+			write('r');
+			return;
+		case '\t':
+			write('\\');
+			write('t');
+			return;
+		}
+		if (c <= '\u001F' || (c >= '\u007F' && c <= '\u009F') || (c >= '\u2000' && c <= '\u20FF')) {
+			write('\\');
+			write('u');
+			write(HEX[(c >> 12) & 0xf]);
+			write(HEX[(c >> 8) & 0xf]);
+			write(HEX[(c >> 4) & 0xf]);
+			write(HEX[c & 0xf]);
+			return;
+		}
+		write(c);
+	}
+
+	private void write(String value) throws IOException {
+		for (int idx = 0; idx < value.length(); idx++) {
+			write(value.charAt(idx));
+		}
+	}
+
+	private void write(char c) throws IOException {
+		if (this.position == this.buffer.length) {
+			this.writer.write(this.buffer, 0, this.position);
+			this.position = 0;
+		}
+		this.buffer[this.position++] = c;
+	}
+}
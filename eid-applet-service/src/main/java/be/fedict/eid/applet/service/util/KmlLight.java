@@ -63,6 +63,38 @@ public class KmlLight {
 		kmz.closeEntry();
 	}
 
+	/**
+	 * Start the KML file within the KMZ zip. The KML document can be streamed
+	 * directly to the returned output stream.
+	 *
+	 * @return the output stream for the KML file, should not be closed.
+	 * @throws IOException
+	 * @see #endKmlFile()
+	 */
+	public OutputStream startKmlFile() throws IOException {
+		ZipEntry zKml = new ZipEntry("data.kml");
+		kmz.putNextEntry(zKml);
+		return kmz;
+	}
+
+	/**
+	 * End the KML file that was started via {@link #startKmlFile()}
+	 *
+	 * @throws IOException
+	 */
+	public void endKmlFile() throws IOException {
+		kmz.closeEntry();
+	}
+
+	/**
+	 * Finish the KMZ zip file, without closing the underlying output stream
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		kmz.finish();
+	}
+
 	/**
 	 * Close the KMZ zip file
 	 *
@@ -0,0 +1,191 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.eid.applet.service.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A "light" streaming KML writer, based on StAX. Produces the same KML
+ * document as {@link KmlLightDocument}, without building a DOM first.
+ *
+ * @author Frank Cornelis
+ */
+public class KmlLightWriter {
+
+	private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+	/**
+	 * The XML declaration as written by the JAXP transformer.
+	 */
+	private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+			.getBytes();
+
+	private final XMLStreamWriter xmlWriter;
+
+	private boolean empty;
+
+	/**
+	 * Constructor. Writes the start of the KML document.
+	 *
+	 * @param outStream
+	 *            the output stream, is not closed by this writer.
+	 * @throws IOException
+	 */
+	public KmlLightWriter(OutputStream outStream) throws IOException {
+		outStream.write(XML_DECLARATION);
+		try {
+			this.xmlWriter = xmlOutputFactory.createXMLStreamWriter(outStream, "UTF-8");
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		this.empty = true;
+	}
+
+	/**
+	 * Start a <Placemark>
+	 *
+	 * @param name
+	 *            the name (title)
+	 * @throws IOException
+	 */
+	public void startPlacemark(String name) throws IOException {
+		try {
+			if (this.empty) {
+				this.xmlWriter.writeStartElement("kml");
+				this.xmlWriter.writeAttribute("xmlns", KmlLightDocument.KML_NS);
+				this.empty = false;
+			}
+			this.xmlWriter.writeStartElement("Placemark");
+			writeElement("name", name);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Write an <address> Note: it's up to the processing application to
+	 * convert the address to (GPS) coordinates.
+	 *
+	 * @param street
+	 *            street name and number
+	 * @param municipality
+	 *            muncipality / city
+	 * @param zip
+	 *            zip code
+	 * @throws IOException
+	 */
+	public void addAddress(String street, String municipality, String zip) throws IOException {
+		/* Use google-style address, with empty "region" */
+		String address = street + ", " + municipality + ", " + zip + ", " + ", Belgium";
+		try {
+			writeElement("address", address);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Write a <description> element, the description can contain HTML markup
+	 *
+	 * @param description
+	 *            text to be used
+	 * @throws IOException
+	 */
+	public void addDescription(String description) throws IOException {
+		try {
+			this.xmlWriter.writeStartElement("description");
+			this.xmlWriter.writeCData(description);
+			this.xmlWriter.writeEndElement();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Write a <TimeSpan> element
+	 *
+	 * @param begin
+	 * @param end
+	 * @throws IOException
+	 */
+	public void addTimespan(Date begin, Date end) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		try {
+			if (null == begin && null == end) {
+				this.xmlWriter.writeEmptyElement("TimeSpan");
+				return;
+			}
+			this.xmlWriter.writeStartElement("TimeSpan");
+			if (null != begin) {
+				writeElement("begin", dateFormat.format(begin));
+			}
+			if (null != end) {
+				writeElement("end", dateFormat.format(end));
+			}
+			this.xmlWriter.writeEndElement();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * End the current <Placemark>
+	 *
+	 * @throws IOException
+	 */
+	public void endPlacemark() throws IOException {
+		try {
+			this.xmlWriter.writeEndElement();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Ends the KML document and flushes the output stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			if (this.empty) {
+				this.xmlWriter.writeEmptyElement("kml");
+				this.xmlWriter.writeAttribute("xmlns", KmlLightDocument.KML_NS);
+			}
+			this.xmlWriter.writeEndDocument();
+			this.xmlWriter.flush();
+			this.xmlWriter.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void writeElement(String name, String text) throws XMLStreamException {
+		this.xmlWriter.writeStartElement(name);
+		this.xmlWriter.writeCharacters(text);
+		this.xmlWriter.writeEndElement();
+	}
+}
@@ -24,8 +24,6 @@ import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import org.apache.commons.codec.binary.Base64;
-
 /**
  * A light implementation of VCard 3.0
  *
@@ -37,6 +35,9 @@ public class VcardLight {
 	/* correct MIME type, not text/x-vcard */
 	public static final String MIME_TYPE = "text/directory;profile=vCard";
 
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+
 	private PrintWriter vcard;
 
 	/**
@@ -107,34 +108,46 @@ public class VcardLight {
 	}
 
 	/**
-	 * Add an image (photo)
+	 * Add an image (photo). The base64 encoding is streamed directly into the
+	 * folded lines, without building the encoded photo in memory.
 	 *
 	 * @param image
 	 *            photo
 	 * @throws IOException
 	 */
 	public void addImage(byte[] image) throws IOException {
-		byte[] enc = Base64.encodeBase64(image);
-		String str = "PHOTO;ENCODING=b;TYPE=JPEG:" + new String(enc);
-		int length = str.length();
-
-		/* can be simplified when using Commons Codec 1.4 instead of 1.3 */
-		if (length > 76) {
-			/* chunk in lines, make sure the first line is also 76 chars */
-			StringBuffer buf = new StringBuffer();
-			buf.append(str.substring(0, 76));
-
-			/* add a space before 2nd, 3rd... */
-			for (int i = 76; i < length; i += 75) {
-				buf.append("\n ");
-				if (length > i + 75) {
-					buf.append(str.substring(i, i + 75));
-				} else {
-					buf.append(str.substring(i));
+		String prefix = "PHOTO;ENCODING=b;TYPE=JPEG:";
+		int length = prefix.length() + (image.length + 2) / 3 * 4;
+		if (length <= 76) {
+			return;
+		}
+		vcard.print(prefix);
+		/* the first line is 76 chars, the next lines a space and 75 chars */
+		int column = prefix.length();
+		char[] quad = new char[4];
+		for (int idx = 0; idx < image.length; idx += 3) {
+			int remaining = image.length - idx;
+			int bits = (image[idx] & 0xff) << 16;
+			if (remaining > 1) {
+				bits |= (image[idx + 1] & 0xff) << 8;
+			}
+			if (remaining > 2) {
+				bits |= image[idx + 2] & 0xff;
+			}
+			quad[0] = BASE64[(bits >> 18) & 0x3f];
+			quad[1] = BASE64[(bits >> 12) & 0x3f];
+			quad[2] = remaining > 1 ? BASE64[(bits >> 6) & 0x3f] : '=';
+			quad[3] = remaining > 2 ? BASE64[bits & 0x3f] : '=';
+			for (char c : quad) {
+				if (76 == column) {
+					vcard.print("\n ");
+					column = 1;
 				}
+				vcard.print(c);
+				column++;
 			}
-			vcard.println(buf.toString());
 		}
+		vcard.println();
 	}
 
 	/**
@@ -0,0 +1,364 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.security.Security;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.AppletServiceServlet;
+import be.fedict.eid.applet.service.impl.handler.AuthenticationDataMessageHandler;
+import be.fedict.eid.applet.service.impl.handler.HelloMessageHandler;
+import be.fedict.eid.applet.service.impl.handler.MessageHandler;
+import be.fedict.eid.applet.shared.AppletProtocolMessageCatalog;
+import be.fedict.eid.applet.shared.AuthenticationRequestMessage;
+import be.fedict.eid.applet.shared.FinishedMessage;
+import be.fedict.eid.applet.shared.HelloMessage;
+import be.fedict.eid.applet.shared.IdentificationRequestMessage;
+import be.fedict.eid.applet.shared.SignRequestMessage;
+import be.fedict.eid.applet.shared.protocol.HttpReceiver;
+import be.fedict.eid.applet.shared.protocol.HttpTransmitter;
+import be.fedict.eid.applet.shared.protocol.Transport;
+import be.fedict.eid.applet.shared.protocol.Unmarshaller;
+import test.unit.be.fedict.eid.applet.service.AppletLoadHarness.Protocol;
+import test.unit.be.fedict.eid.applet.service.AppletServiceSession.RecordedHttpMessage;
+
+/**
+ * Allocation budget regression tests for the eID Applet Service request path.
+ * Every protocol message is driven through the {@link AppletServiceServlet} on
+ * the current thread. The bytes allocated per request by
+ * {@link Unmarshaller#receive(HttpReceiver)}, the message handler,
+ * {@link Transport#transfer(Object, HttpTransmitter)} and the complete servlet
+ * request are checked against the budgets of
+ * <code>allocation-budgets.properties</code>.
+ * 
+ * <p>
+ * After an intended change of the allocation profile, run the main method and
+ * update the budgets accordingly.
+ * </p>
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class AllocationBudgetTest {
+
+	private static final Log LOG = LogFactory.getLog(AllocationBudgetTest.class);
+
+	private static final String BUDGETS_RESOURCE = "/allocation-budgets.properties";
+
+	private static final int WARMUP_RUNS = 200;
+
+	private static final int MEASURED_RUNS = 20;
+
+	private static com.sun.management.ThreadMXBean threadMXBean;
+
+	private static SoftwareEid softwareEid;
+
+	private static Properties budgets;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		java.lang.management.ThreadMXBean platformThreadMXBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(platformThreadMXBean instanceof com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean) platformThreadMXBean;
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+		softwareEid = new SoftwareEid("71010100000", new SoftwareEid.TestPki());
+
+		budgets = new Properties();
+		InputStream budgetsInputStream = AllocationBudgetTest.class.getResourceAsStream(BUDGETS_RESOURCE);
+		assertNotNull(budgetsInputStream);
+		try {
+			budgets.load(budgetsInputStream);
+		} finally {
+			budgetsInputStream.close();
+		}
+	}
+
+	@Test
+	public void testAuthentication() throws Exception {
+		// operate
+		Map<String, Long> allocations = measure(Protocol.AUTHENTICATION);
+
+		// verify
+		checkBudgets(allocations);
+	}
+
+	@Test
+	public void testIdentification() throws Exception {
+		// operate
+		Map<String, Long> allocations = measure(Protocol.IDENTIFICATION);
+
+		// verify
+		checkBudgets(allocations);
+	}
+
+	@Test
+	public void testSigning() throws Exception {
+		// operate
+		Map<String, Long> allocations = measure(Protocol.SIGNING);
+
+		// verify
+		checkBudgets(allocations);
+	}
+
+	public static void main(String[] args) throws Exception {
+		setUpClass();
+		for (Protocol protocol : Protocol.values()) {
+			for (Map.Entry<String, Long> allocation : measure(protocol).entrySet()) {
+				System.out.println(allocation.getKey() + "=" + allocation.getValue());
+			}
+		}
+	}
+
+	private static void checkBudgets(Map<String, Long> allocations) {
+		List<String> violations = new LinkedList<String>();
+		for (Map.Entry<String, Long> allocation : allocations.entrySet()) {
+			String key = allocation.getKey();
+			long allocatedBytes = allocation.getValue();
+			LOG.debug(key + ": " + allocatedBytes + " bytes");
+			String budget = budgets.getProperty(key);
+			if (null == budget) {
+				violations.add(key + ": no budget");
+				continue;
+			}
+			if (allocatedBytes > Long.parseLong(budget)) {
+				violations.add(key + ": " + allocatedBytes + " bytes > budget " + budget + " bytes");
+			}
+		}
+		if (false == violations.isEmpty()) {
+			fail("allocation budget exceeded: " + violations);
+		}
+	}
+
+	/**
+	 * Runs the given protocol, and gives back the minimum number of bytes
+	 * allocated per budget key over the measured protocol runs.
+	 * 
+	 * @param protocol
+	 * @return
+	 * @throws Exception
+	 */
+	private static Map<String, Long> measure(Protocol protocol) throws Exception {
+		MeasuringAppletServiceServlet servlet = new MeasuringAppletServiceServlet();
+		servlet.init(createServletConfig(protocol));
+		Map<String, Long> allocations = new TreeMap<String, Long>();
+		for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+			ProtocolRun protocolRun = new ProtocolRun(protocol, servlet, run < WARMUP_RUNS ? null : allocations);
+			FinishedMessage finishedMessage;
+			switch (protocol) {
+			case AUTHENTICATION:
+				AuthenticationRequestMessage authenticationRequestMessage = protocolRun.send(new HelloMessage(),
+						AuthenticationRequestMessage.class);
+				finishedMessage = protocolRun.send(
+						softwareEid.createAuthenticationDataMessage(authenticationRequestMessage),
+						FinishedMessage.class);
+				break;
+			case IDENTIFICATION:
+				IdentificationRequestMessage identificationRequestMessage = protocolRun.send(new HelloMessage(),
+						IdentificationRequestMessage.class);
+				finishedMessage = protocolRun.send(softwareEid.createIdentityDataMessage(identificationRequestMessage),
+						FinishedMessage.class);
+				break;
+			default:
+				SignRequestMessage signRequestMessage = protocolRun.send(new HelloMessage(), SignRequestMessage.class);
+				finishedMessage = protocolRun.send(softwareEid.createSignatureDataMessage(signRequestMessage),
+						FinishedMessage.class);
+				break;
+			}
+			if (null != finishedMessage.errorCode) {
+				fail("protocol error: " + finishedMessage.errorCode);
+			}
+		}
+		servlet.destroy();
+		return allocations;
+	}
+
+	private static ServletConfig createServletConfig(Protocol protocol) {
+		final Map<String, String> initParams = new TreeMap<String, String>();
+		initParams.put("SkipSecureConnectionCheck", "true");
+		switch (protocol) {
+		case AUTHENTICATION:
+			initParams.put(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class",
+					AppletLoadHarness.LoadTestAuthenticationService.class.getName());
+			break;
+		case IDENTIFICATION:
+			initParams.put(HelloMessageHandler.INCLUDE_ADDRESS_INIT_PARAM_NAME, "true");
+			initParams.put(HelloMessageHandler.IDENTITY_INTEGRITY_SERVICE_INIT_PARAM_NAME + "Class",
+					AppletLoadHarness.LoadTestIdentityIntegrityService.class.getName());
+			break;
+		default:
+			initParams.put(HelloMessageHandler.SIGNATURE_SERVICE_INIT_PARAM_NAME + "Class",
+					AppletLoadHarness.LoadTestSignatureService.class.getName());
+			break;
+		}
+		ServletConfig mockServletConfig = EasyMock.createNiceMock(ServletConfig.class);
+		EasyMock.expect(mockServletConfig.getServletName()).andStubReturn(protocol.name());
+		EasyMock.expect(mockServletConfig.getInitParameter((String) EasyMock.anyObject()))
+				.andStubAnswer(new IAnswer<String>() {
+					public String answer() throws Throwable {
+						return initParams.get(EasyMock.getCurrentArguments()[0]);
+					}
+				});
+		EasyMock.replay(mockServletConfig);
+		return mockServletConfig;
+	}
+
+	private static long getAllocatedBytes() {
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * A single eID Applet protocol run, using its own HTTP session.
+	 */
+	private static class ProtocolRun {
+
+		private final String protocolName;
+
+		private final MeasuringAppletServiceServlet servlet;
+
+		private final Map<String, Long> allocations;
+
+		private final AppletServiceSession appletServiceSession;
+
+		private final Unmarshaller unmarshaller;
+
+		public ProtocolRun(Protocol protocol, MeasuringAppletServiceServlet servlet, Map<String, Long> allocations) {
+			this.protocolName = protocol.name().toLowerCase();
+			this.servlet = servlet;
+			this.allocations = allocations;
+			this.appletServiceSession = new AppletServiceSession(servlet);
+			this.unmarshaller = new Unmarshaller(new AppletProtocolMessageCatalog());
+		}
+
+		public <T> T send(Object message, Class<T> expectedType) throws Exception {
+			String keyPrefix = this.protocolName + "." + message.getClass().getSimpleName() + ".";
+
+			RecordedHttpMessage request = new RecordedHttpMessage();
+			Transport.transfer(message, request);
+			long beginAllocatedBytes = getAllocatedBytes();
+			this.unmarshaller.receive(request);
+			record(keyPrefix + "receive", getAllocatedBytes() - beginAllocatedBytes);
+
+			RecordedHttpMessage response = this.appletServiceSession.service(request);
+			record(keyPrefix + "request", this.servlet.getRequestAllocatedBytes());
+			record(keyPrefix + "handler", this.servlet.getHandlerAllocatedBytes());
+
+			Object responseMessage = this.unmarshaller.receive(response);
+			beginAllocatedBytes = getAllocatedBytes();
+			Transport.transfer(responseMessage, new RecordedHttpMessage());
+			record(keyPrefix + "transfer", getAllocatedBytes() - beginAllocatedBytes);
+
+			assertTrue(expectedType.isInstance(responseMessage));
+			return expectedType.cast(responseMessage);
+		}
+
+		private void record(String key, long allocatedBytes) {
+			if (null == this.allocations) {
+				return;
+			}
+			Long minAllocatedBytes = this.allocations.get(key);
+			if (null == minAllocatedBytes || allocatedBytes < minAllocatedBytes) {
+				this.allocations.put(key, allocatedBytes);
+			}
+		}
+	}
+
+	/**
+	 * Keeps track of the bytes allocated by the requests and message handlers.
+	 */
+	private static class MeasuringAppletServiceServlet extends AppletServiceServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		private long requestAllocatedBytes;
+
+		private long handlerAllocatedBytes;
+
+		@Override
+		public void service(ServletRequest request, ServletResponse response) throws ServletException, IOException {
+			long beginAllocatedBytes = getAllocatedBytes();
+			try {
+				super.service(request, response);
+			} finally {
+				this.requestAllocatedBytes = getAllocatedBytes() - beginAllocatedBytes;
+			}
+		}
+
+		@Override
+		protected <T> MessageHandler<T> getMessageHandler(Class<T> messageClass) {
+			final MessageHandler<T> messageHandler = super.getMessageHandler(messageClass);
+			return new MessageHandler<T>() {
+				public Object handleMessage(T message, Map<String, String> httpHeaders, HttpServletRequest request,
+						HttpSession session) throws ServletException {
+					long beginAllocatedBytes = getAllocatedBytes();
+					try {
+						return messageHandler.handleMessage(message, httpHeaders, request, session);
+					} finally {
+						MeasuringAppletServiceServlet.this.handlerAllocatedBytes = getAllocatedBytes()
+								- beginAllocatedBytes;
+					}
+				}
+
+				public void init(ServletConfig config) throws ServletException {
+					messageHandler.init(config);
+				}
+			};
+		}
+
+		public long getRequestAllocatedBytes() {
+			return this.requestAllocatedBytes;
+		}
+
+		public long getHandlerAllocatedBytes() {
+			return this.handlerAllocatedBytes;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.mortbay.jetty.testing.ServletTester;
+
+import be.fedict.eid.applet.service.AppletServiceServlet;
+import be.fedict.eid.applet.service.impl.handler.HelloMessageHandler;
+import be.fedict.eid.applet.service.spi.AddressDTO;
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.DigestInfo;
+import be.fedict.eid.applet.service.spi.IdentityDTO;
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+import be.fedict.eid.applet.service.spi.SignatureService;
+import be.fedict.eid.applet.shared.FinishedMessage;
+
+/**
+ * End-to-end load harness for the eID Applet Service. Runs the
+ * {@link AppletServiceServlet} within an embedded Jetty, and drives it via a
+ * number of concurrent simulated eID Applets using software eID cards.
+ * 
+ * <p>
+ * Usage:
+ * <code>AppletLoadHarness [applets] [runs per applet] [AUTHENTICATION|IDENTIFICATION|SIGNING]</code>
+ * </p>
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class AppletLoadHarness {
+
+	private static final Log LOG = LogFactory.getLog(AppletLoadHarness.class);
+
+	public enum Protocol {
+		AUTHENTICATION("/authn"),
+
+		IDENTIFICATION("/identify"),
+
+		SIGNING("/sign");
+
+		private final String path;
+
+		private Protocol(String path) {
+			this.path = path;
+		}
+
+		public String getPath() {
+			return this.path;
+		}
+	}
+
+	private ServletTester servletTester;
+
+	private String location;
+
+	private SoftwareEid.TestPki pki;
+
+	private final List<SoftwareEid> softwareEids;
+
+	public AppletLoadHarness() {
+		this.softwareEids = new LinkedList<SoftwareEid>();
+	}
+
+	/**
+	 * Starts the embedded servlet container.
+	 * 
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+		this.pki = new SoftwareEid.TestPki();
+
+		this.servletTester = new ServletTester();
+		ServletHolder authnServletHolder = this.servletTester.addServlet(AppletServiceServlet.class,
+				Protocol.AUTHENTICATION.getPath());
+		authnServletHolder.setInitParameter("SkipSecureConnectionCheck", "true");
+		authnServletHolder.setInitParameter("AuthenticationServiceClass",
+				LoadTestAuthenticationService.class.getName());
+
+		ServletHolder identifyServletHolder = this.servletTester.addServlet(AppletServiceServlet.class,
+				Protocol.IDENTIFICATION.getPath());
+		identifyServletHolder.setInitParameter("SkipSecureConnectionCheck", "true");
+		identifyServletHolder.setInitParameter(HelloMessageHandler.INCLUDE_ADDRESS_INIT_PARAM_NAME, "true");
+		identifyServletHolder.setInitParameter(HelloMessageHandler.IDENTITY_INTEGRITY_SERVICE_INIT_PARAM_NAME + "Class",
+				LoadTestIdentityIntegrityService.class.getName());
+
+		ServletHolder signServletHolder = this.servletTester.addServlet(AppletServiceServlet.class,
+				Protocol.SIGNING.getPath());
+		signServletHolder.setInitParameter("SkipSecureConnectionCheck", "true");
+		signServletHolder.setInitParameter(HelloMessageHandler.SIGNATURE_SERVICE_INIT_PARAM_NAME + "Class",
+				LoadTestSignatureService.class.getName());
+
+		this.servletTester.start();
+		this.location = this.servletTester.createSocketConnector(true);
+		LOG.debug("location: " + this.location);
+	}
+
+	public void stop() throws Exception {
+		this.servletTester.stop();
+	}
+
+	/**
+	 * Runs the given eID Applet protocol.
+	 * 
+	 * @param protocol
+	 * @param applets
+	 *            the number of concurrent simulated eID Applets.
+	 * @param runs
+	 *            the number of protocol runs per eID Applet.
+	 * @return the latency statistics per message type.
+	 * @throws Exception
+	 */
+	public LoadStatistics run(final Protocol protocol, int applets, final int runs) throws Exception {
+		while (this.softwareEids.size() < applets) {
+			String nationalNumber = String.format("%011d", 71010100000L + this.softwareEids.size());
+			this.softwareEids.add(new SoftwareEid(nationalNumber, this.pki));
+		}
+		final String protocolLocation = this.location + protocol.getPath();
+		final LoadStatistics statistics = new LoadStatistics();
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int idx = 0; idx < applets; idx++) {
+			final SoftwareEid softwareEid = this.softwareEids.get(idx);
+			Thread thread = new Thread("eid-applet-" + idx) {
+				@Override
+				public void run() {
+					for (int run = 0; run < runs; run++) {
+						try {
+							FinishedMessage finishedMessage;
+							switch (protocol) {
+							case AUTHENTICATION:
+								finishedMessage = softwareEid.authenticate(protocolLocation, statistics);
+								break;
+							case IDENTIFICATION:
+								finishedMessage = softwareEid.identify(protocolLocation, statistics);
+								break;
+							default:
+								finishedMessage = softwareEid.sign(protocolLocation, statistics);
+								break;
+							}
+							if (null != finishedMessage.errorCode) {
+								LOG.error("protocol error: " + finishedMessage.errorCode);
+								statistics.failure();
+							}
+						} catch (Exception e) {
+							LOG.error("protocol error: " + e.getMessage(), e);
+							statistics.failure();
+						}
+					}
+				}
+			};
+			threads.add(thread);
+		}
+		statistics.start();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		statistics.stop();
+		return statistics;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int applets = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		List<Protocol> protocols = new LinkedList<Protocol>();
+		if (args.length > 2) {
+			protocols.add(Protocol.valueOf(args[2]));
+		} else {
+			for (Protocol protocol : Protocol.values()) {
+				protocols.add(protocol);
+			}
+		}
+		AppletLoadHarness harness = new AppletLoadHarness();
+		harness.start();
+		try {
+			for (Protocol protocol : protocols) {
+				// warm-up
+				harness.run(protocol, applets, Math.max(1, runs / 10));
+				LoadStatistics statistics = harness.run(protocol, applets, runs);
+				System.out.println(protocol + " (" + applets + " applets x " + runs + " runs)");
+				System.out.println(statistics);
+				System.out.println();
+			}
+		} finally {
+			harness.stop();
+		}
+	}
+
+	public static class LoadTestAuthenticationService implements AuthenticationService {
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) throws SecurityException {
+			// accept all software eID cards
+		}
+	}
+
+	public static class LoadTestIdentityIntegrityService implements IdentityIntegrityService {
+
+		public void checkNationalRegistrationCertificate(List<X509Certificate> certificateChain)
+				throws SecurityException {
+			// accept the test RRN certificate
+		}
+	}
+
+	public static class LoadTestSignatureService implements SignatureService {
+
+		private static final SecureRandom secureRandom = new SecureRandom();
+
+		public String getFilesDigestAlgorithm() {
+			return null;
+		}
+
+		public DigestInfo preSign(List<DigestInfo> digestInfos, List<X509Certificate> signingCertificateChain,
+				IdentityDTO identity, AddressDTO address, byte[] photo) {
+			byte[] digestValue = new byte[32];
+			secureRandom.nextBytes(digestValue);
+			return new DigestInfo(digestValue, "SHA-256", "load test document");
+		}
+
+		public void postSign(byte[] signatureValue, List<X509Certificate> signingCertificateChain) {
+			// nothing to do
+		}
+	}
+}
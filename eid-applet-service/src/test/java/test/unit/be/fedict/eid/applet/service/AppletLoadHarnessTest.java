@@ -0,0 +1,89 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import test.unit.be.fedict.eid.applet.service.AppletLoadHarness.Protocol;
+
+public class AppletLoadHarnessTest {
+
+	private static final Log LOG = LogFactory.getLog(AppletLoadHarnessTest.class);
+
+	private static final int APPLETS = 4;
+
+	private static final int RUNS = 5;
+
+	private static AppletLoadHarness harness;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		harness = new AppletLoadHarness();
+		harness.start();
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		harness.stop();
+	}
+
+	@Test
+	public void testAuthentication() throws Exception {
+		// operate
+		LoadStatistics result = harness.run(Protocol.AUTHENTICATION, APPLETS, RUNS);
+
+		// verify
+		LOG.debug("authentication:\n" + result);
+		assertEquals(0, result.getFailures());
+		assertEquals(APPLETS * RUNS, result.getCount("HelloMessage"));
+		assertEquals(APPLETS * RUNS, result.getCount("AuthenticationDataMessage"));
+		assertTrue(result.getPercentile("AuthenticationDataMessage", 99) > 0);
+	}
+
+	@Test
+	public void testIdentification() throws Exception {
+		// operate
+		LoadStatistics result = harness.run(Protocol.IDENTIFICATION, APPLETS, RUNS);
+
+		// verify
+		LOG.debug("identification:\n" + result);
+		assertEquals(0, result.getFailures());
+		assertEquals(APPLETS * RUNS, result.getCount("IdentityDataMessage"));
+	}
+
+	@Test
+	public void testSigning() throws Exception {
+		// operate
+		LoadStatistics result = harness.run(Protocol.SIGNING, APPLETS, RUNS);
+
+		// verify
+		LOG.debug("signing:\n" + result);
+		assertEquals(0, result.getFailures());
+		assertEquals(APPLETS * RUNS, result.getCount("SignatureDataMessage"));
+		assertTrue(result.getThroughput("SignatureDataMessage") > 0);
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import be.fedict.eid.applet.shared.AppletProtocolMessageCatalog;
+import be.fedict.eid.applet.shared.FinishedMessage;
+import be.fedict.eid.applet.shared.protocol.HttpReceiver;
+import be.fedict.eid.applet.shared.protocol.HttpTransmitter;
+import be.fedict.eid.applet.shared.protocol.Transport;
+import be.fedict.eid.applet.shared.protocol.Unmarshaller;
+
+/**
+ * Drives the eID Applet protocol messages through an eID Applet Service
+ * servlet on the current thread, without servlet container. All messages are
+ * sent within the same HTTP session.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class AppletServiceSession {
+
+	private final HttpServlet servlet;
+
+	private final HttpSession httpSession;
+
+	private final Unmarshaller unmarshaller;
+
+	public AppletServiceSession(HttpServlet servlet) {
+		this.servlet = servlet;
+		this.httpSession = new HttpTestSession();
+		this.unmarshaller = new Unmarshaller(new AppletProtocolMessageCatalog());
+	}
+
+	public HttpSession getHttpSession() {
+		return this.httpSession;
+	}
+
+	/**
+	 * Sends the given eID Applet protocol message to the servlet.
+	 * 
+	 * @param message
+	 * @param expectedType
+	 *            the expected type of the response message.
+	 * @return the response message.
+	 * @throws Exception
+	 */
+	public <T> T send(Object message, Class<T> expectedType) throws Exception {
+		RecordedHttpMessage request = new RecordedHttpMessage();
+		Transport.transfer(message, request);
+		RecordedHttpMessage response = service(request);
+		Object responseMessage = this.unmarshaller.receive(response);
+		if (false == expectedType.isInstance(responseMessage)) {
+			if (responseMessage instanceof FinishedMessage) {
+				throw new IllegalStateException("protocol aborted: " + ((FinishedMessage) responseMessage).errorCode);
+			}
+			throw new IllegalStateException("unexpected message: " + responseMessage.getClass().getSimpleName());
+		}
+		return expectedType.cast(responseMessage);
+	}
+
+	/**
+	 * Lets the servlet handle the given HTTP request.
+	 * 
+	 * @param request
+	 * @return the HTTP response.
+	 * @throws Exception
+	 */
+	public RecordedHttpMessage service(RecordedHttpMessage request) throws Exception {
+		RecordedHttpMessage response = new RecordedHttpMessage();
+		TestServletOutputStream outputStream = new TestServletOutputStream();
+		HttpServletRequest mockRequest = createRequest(request);
+		HttpServletResponse mockResponse = createResponse(response, outputStream);
+		this.servlet.service(mockRequest, mockResponse);
+		response.setBody(outputStream.toByteArray());
+		return response;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private HttpServletRequest createRequest(final RecordedHttpMessage request) throws IOException {
+		HttpServletRequest mockRequest = EasyMock.createNiceMock(HttpServletRequest.class);
+		EasyMock.expect(mockRequest.getMethod()).andStubReturn("POST");
+		EasyMock.expect(mockRequest.getHeaderNames()).andStubAnswer(new IAnswer<Enumeration>() {
+			public Enumeration answer() throws Throwable {
+				return Collections.enumeration(request.getHeaderNames());
+			}
+		});
+		EasyMock.expect(mockRequest.getHeader((String) EasyMock.anyObject())).andStubAnswer(new IAnswer<String>() {
+			public String answer() throws Throwable {
+				return request.getHeaderValue((String) EasyMock.getCurrentArguments()[0]);
+			}
+		});
+		EasyMock.expect(mockRequest.getInputStream()).andStubReturn(new TestServletInputStream(request.getBody()));
+		EasyMock.expect(mockRequest.getSession()).andStubReturn(this.httpSession);
+		EasyMock.expect(mockRequest.getSession(EasyMock.anyBoolean())).andStubReturn(this.httpSession);
+		EasyMock.expect(mockRequest.getRemoteAddr()).andStubReturn("127.0.0.1");
+		EasyMock.expect(mockRequest.isSecure()).andStubReturn(true);
+		EasyMock.replay(mockRequest);
+		return mockRequest;
+	}
+
+	private HttpServletResponse createResponse(final RecordedHttpMessage response,
+			TestServletOutputStream outputStream) throws IOException {
+		HttpServletResponse mockResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		mockResponse.addHeader((String) EasyMock.anyObject(), (String) EasyMock.anyObject());
+		EasyMock.expectLastCall().andStubAnswer(new IAnswer<Object>() {
+			public Object answer() throws Throwable {
+				Object[] arguments = EasyMock.getCurrentArguments();
+				response.addHeader((String) arguments[0], (String) arguments[1]);
+				return null;
+			}
+		});
+		EasyMock.expect(mockResponse.getOutputStream()).andStubReturn(outputStream);
+		EasyMock.replay(mockResponse);
+		return mockResponse;
+	}
+
+	/**
+	 * In-memory HTTP message, used both as sending and receiving end of the
+	 * eID Applet protocol transport.
+	 */
+	public static class RecordedHttpMessage implements HttpTransmitter, HttpReceiver {
+
+		private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+		private byte[] body;
+
+		public boolean isSecure() {
+			return true;
+		}
+
+		public void addHeader(String headerName, String headerValue) {
+			this.headers.put(headerName, headerValue);
+		}
+
+		public void setBody(byte[] body) {
+			this.body = body;
+		}
+
+		public List<String> getHeaderNames() {
+			return new LinkedList<String>(this.headers.keySet());
+		}
+
+		public String getHeaderValue(String headerName) {
+			return this.headers.get(headerName);
+		}
+
+		public byte[] getBody() {
+			return this.body;
+		}
+	}
+
+	private static class TestServletInputStream extends ServletInputStream {
+
+		private final InputStream inputStream;
+
+		public TestServletInputStream(byte[] data) {
+			this.inputStream = new ByteArrayInputStream(null != data ? data : new byte[] {});
+		}
+
+		@Override
+		public int read() throws IOException {
+			return this.inputStream.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return this.inputStream.read(b, off, len);
+		}
+	}
+
+	private static class TestServletOutputStream extends ServletOutputStream {
+
+		private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			this.outputStream.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.outputStream.write(b, off, len);
+		}
+
+		public byte[] toByteArray() {
+			return this.outputStream.toByteArray();
+		}
+	}
+}
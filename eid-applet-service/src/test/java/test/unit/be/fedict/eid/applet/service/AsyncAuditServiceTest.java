@@ -0,0 +1,450 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.EasyMock;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.AsyncAuditService;
+import be.fedict.eid.applet.service.impl.AsyncAuditService.OverflowPolicy;
+import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.spi.AuditService;
+import be.fedict.eid.applet.service.spi.BatchAuditService;
+
+public class AsyncAuditServiceTest {
+
+	private File spillDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.spillDirectory = File.createTempFile("audit-spill-", "");
+		this.spillDirectory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.spillDirectory);
+	}
+
+	@Test
+	public void testAsyncDelivery() throws Exception {
+		// setup
+		RecordingAuditService auditService = new RecordingAuditService(null);
+		AsyncAuditService testedInstance = new AsyncAuditService(auditService, 10, 5, OverflowPolicy.BLOCK, null);
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notBefore.plusYears(1), null, keyPair.getPrivate(), false, -1, null, null);
+
+		// operate
+		testedInstance.authenticated("user-1");
+		testedInstance.identified("user-2");
+		testedInstance.authenticationError("1.2.3.4", certificate);
+		testedInstance.identityIntegrityError("1.2.3.5");
+		testedInstance.signatureError("1.2.3.6", certificate);
+		testedInstance.signed("user-3");
+		assertTrue(testedInstance.flush(5000));
+
+		// verify
+		List<String> expectedEvents = new ArrayList<String>();
+		expectedEvents.add("authenticated:user-1");
+		expectedEvents.add("identified:user-2");
+		expectedEvents.add("authenticationError:1.2.3.4:CN=Test");
+		expectedEvents.add("identityIntegrityError:1.2.3.5");
+		expectedEvents.add("signatureError:1.2.3.6:CN=Test");
+		expectedEvents.add("signed:user-3");
+		assertEquals(expectedEvents, auditService.getEvents());
+		assertFalse(auditService.getThreads().contains(Thread.currentThread()));
+		testedInstance.shutdown();
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		// setup
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		RecordingAuditService auditService = new RecordingAuditService(releaseLatch);
+		AsyncAuditService testedInstance = new AsyncAuditService(auditService, 2, 1, OverflowPolicy.DROP_OLDEST,
+				null);
+		testedInstance.authenticated("user-0");
+		auditService.awaitEntered();
+
+		// operate
+		for (int idx = 1; idx <= 5; idx++) {
+			testedInstance.authenticated("user-" + idx);
+		}
+		releaseLatch.countDown();
+		assertTrue(testedInstance.flush(5000));
+
+		// verify
+		assertEquals(3, testedInstance.getDroppedEvents());
+		List<String> expectedEvents = new ArrayList<String>();
+		expectedEvents.add("authenticated:user-0");
+		expectedEvents.add("authenticated:user-4");
+		expectedEvents.add("authenticated:user-5");
+		assertEquals(expectedEvents, auditService.getEvents());
+		testedInstance.shutdown();
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		// setup
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		RecordingAuditService auditService = new RecordingAuditService(releaseLatch);
+		AsyncAuditService testedInstance = new AsyncAuditService(auditService, 2, 1, OverflowPolicy.SPILL,
+				this.spillDirectory);
+		testedInstance.authenticated("user-0");
+		auditService.awaitEntered();
+
+		// operate
+		for (int idx = 1; idx <= 10; idx++) {
+			testedInstance.authenticated("user-" + idx);
+		}
+		assertEquals(1, this.spillDirectory.list().length);
+		releaseLatch.countDown();
+		assertTrue(testedInstance.flush(5000));
+
+		// verify
+		List<String> expectedEvents = new ArrayList<String>();
+		for (int idx = 0; idx <= 10; idx++) {
+			expectedEvents.add("authenticated:user-" + idx);
+		}
+		assertEquals(expectedEvents, auditService.getEvents());
+		assertEquals(0, this.spillDirectory.list().length);
+		assertEquals(0, testedInstance.getDroppedEvents());
+		testedInstance.shutdown();
+	}
+
+	@Test
+	public void testSpillErrorDeliversSynchronously() throws Exception {
+		// setup
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		final RecordingAuditService auditService = new RecordingAuditService(releaseLatch);
+		final AsyncAuditService testedInstance = new AsyncAuditService(auditService, 2, 1, OverflowPolicy.SPILL,
+				this.spillDirectory);
+		testedInstance.authenticated("user-0");
+		auditService.awaitEntered();
+		testedInstance.authenticated("user-1");
+		testedInstance.authenticated("user-2");
+		FileUtils.deleteDirectory(this.spillDirectory);
+		this.spillDirectory.createNewFile();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				testedInstance.authenticated("user-3");
+			}
+		};
+
+		// operate
+		thread.start();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (false == auditService.getEvents().contains("authenticated:user-3")
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+
+		// verify
+		assertTrue(auditService.getEvents().contains("authenticated:user-3"));
+		assertTrue(auditService.getThreads().contains(thread));
+		releaseLatch.countDown();
+		thread.join(5000);
+		assertTrue(testedInstance.flush(5000));
+		assertEquals(4, auditService.getEvents().size());
+		assertEquals(0, testedInstance.getDroppedEvents());
+		testedInstance.shutdown();
+		this.spillDirectory.delete();
+	}
+
+	@Test
+	public void testBatchDelivery() throws Exception {
+		// setup
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		BatchRecordingAuditService auditService = new BatchRecordingAuditService(releaseLatch);
+		AsyncAuditService testedInstance = new AsyncAuditService(auditService, 10, 3, OverflowPolicy.BLOCK, null);
+		testedInstance.authenticated("user-0");
+		auditService.awaitEntered();
+
+		// operate
+		for (int idx = 1; idx <= 5; idx++) {
+			testedInstance.authenticated("user-" + idx);
+		}
+		releaseLatch.countDown();
+		assertTrue(testedInstance.flush(5000));
+
+		// verify
+		List<String> expectedEvents = new ArrayList<String>();
+		expectedEvents.add("begin");
+		expectedEvents.add("authenticated:user-0");
+		expectedEvents.add("end");
+		expectedEvents.add("begin");
+		expectedEvents.add("authenticated:user-1");
+		expectedEvents.add("authenticated:user-2");
+		expectedEvents.add("authenticated:user-3");
+		expectedEvents.add("end");
+		expectedEvents.add("begin");
+		expectedEvents.add("authenticated:user-4");
+		expectedEvents.add("authenticated:user-5");
+		expectedEvents.add("end");
+		assertEquals(expectedEvents, auditService.getEvents());
+		testedInstance.shutdown();
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		// setup
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		RecordingAuditService auditService = new RecordingAuditService(releaseLatch);
+		final AsyncAuditService testedInstance = new AsyncAuditService(auditService, 1, 1, OverflowPolicy.BLOCK,
+				null);
+		testedInstance.authenticated("user-0");
+		auditService.awaitEntered();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				testedInstance.authenticated("user-1");
+				testedInstance.authenticated("user-2");
+			}
+		};
+
+		// operate
+		thread.start();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (Thread.State.WAITING != thread.getState() && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+
+		// verify
+		assertEquals(Thread.State.WAITING, thread.getState());
+		releaseLatch.countDown();
+		thread.join(5000);
+		assertTrue(testedInstance.flush(5000));
+		assertEquals(3, auditService.getEvents().size());
+		testedInstance.shutdown();
+	}
+
+	@Test
+	public void testShutdownFlushes() throws Exception {
+		// setup
+		RecordingAuditService auditService = new RecordingAuditService(null);
+		AsyncAuditService testedInstance = new AsyncAuditService(auditService, 1000, 10, OverflowPolicy.BLOCK,
+				null);
+		for (int idx = 0; idx < 500; idx++) {
+			testedInstance.signed("user-" + idx);
+		}
+
+		// operate
+		testedInstance.shutdown();
+		testedInstance.signed("late");
+
+		// verify
+		assertEquals(501, auditService.getEvents().size());
+		assertEquals("signed:late", auditService.getEvents().get(500));
+	}
+
+	@Test
+	public void testServiceLocatorLifecycle() throws Exception {
+		// setup
+		ServletConfig firstServletConfig = createServletConfig(FirstAuditService.class);
+		ServletConfig secondServletConfig = createServletConfig(SecondAuditService.class);
+		ServletConfig thirdServletConfig = createServletConfig(SecondAuditService.class);
+		EasyMock.replay(firstServletConfig, secondServletConfig, thirdServletConfig);
+		ServiceLocator<AuditService> firstServiceLocator = new ServiceLocator<AuditService>("AuditService",
+				firstServletConfig, AuditService.class);
+		ServiceLocator<AuditService> secondServiceLocator = new ServiceLocator<AuditService>("AuditService",
+				secondServletConfig, AuditService.class);
+		ServiceLocator<AuditService> thirdServiceLocator = new ServiceLocator<AuditService>("AuditService",
+				thirdServletConfig, AuditService.class);
+		String firstName = "AuditService/" + FirstAuditService.class.getName();
+		String secondName = "AuditService/" + SecondAuditService.class.getName();
+
+		// operate
+		firstServiceLocator.locateService().signed("first");
+		secondServiceLocator.locateService().signed("second");
+		thirdServiceLocator.locateService().signed("third");
+
+		// verify: every implementation gets its own asynchronous audit service
+		AsyncAuditService firstInstance = AsyncAuditService.findInstance(firstName);
+		AsyncAuditService secondInstance = AsyncAuditService.findInstance(secondName);
+		assertNotNull(firstInstance);
+		assertNotNull(secondInstance);
+		assertTrue(firstInstance.flush(5000));
+		assertTrue(secondInstance.flush(5000));
+		assertEquals(Collections.singletonList("signed:first"), FirstAuditService.events);
+		assertEquals(2, SecondAuditService.events.size());
+
+		// operate: destroying one servlet only affects its own instances
+		firstServiceLocator.release();
+		secondServiceLocator.release();
+
+		// verify
+		assertNull(AsyncAuditService.findInstance(firstName));
+		assertSame(secondInstance, AsyncAuditService.findInstance(secondName));
+		assertSame(secondInstance, thirdServiceLocator.locateService());
+		AuditService lateAuditService = firstServiceLocator.locateService();
+		assertFalse(lateAuditService instanceof AsyncAuditService);
+		lateAuditService.signed("late");
+		assertEquals("signed:late", FirstAuditService.events.get(1));
+		assertNull(AsyncAuditService.findInstance(firstName));
+
+		// operate
+		thirdServiceLocator.release();
+
+		// verify
+		assertNull(AsyncAuditService.findInstance(secondName));
+	}
+
+	private static ServletConfig createServletConfig(Class<? extends AuditService> auditServiceClass) {
+		ServletConfig servletConfig = EasyMock.createMock(ServletConfig.class);
+		EasyMock.expect(servletConfig.getInitParameter("AuditServiceClass"))
+				.andStubReturn(auditServiceClass.getName());
+		EasyMock.expect(servletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn("10");
+		EasyMock.expect(servletConfig.getInitParameter(EasyMock.<String> anyObject())).andStubReturn(null);
+		return servletConfig;
+	}
+
+	public static class FirstAuditService extends RecordingAuditService {
+
+		private static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+		public FirstAuditService() {
+			super(null);
+		}
+
+		@Override
+		public List<String> getEvents() {
+			return events;
+		}
+	}
+
+	public static class SecondAuditService extends RecordingAuditService {
+
+		private static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+		public SecondAuditService() {
+			super(null);
+		}
+
+		@Override
+		public List<String> getEvents() {
+			return events;
+		}
+	}
+
+	private static class BatchRecordingAuditService extends RecordingAuditService implements BatchAuditService {
+
+		public BatchRecordingAuditService(CountDownLatch releaseLatch) {
+			super(releaseLatch);
+		}
+
+		public void beginBatch() {
+			getEvents().add("begin");
+		}
+
+		public void endBatch() {
+			getEvents().add("end");
+		}
+	}
+
+	private static class RecordingAuditService implements AuditService {
+
+		private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+		private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+		private final CountDownLatch releaseLatch;
+
+		private final CountDownLatch enteredLatch = new CountDownLatch(1);
+
+		public RecordingAuditService(CountDownLatch releaseLatch) {
+			this.releaseLatch = releaseLatch;
+		}
+
+		public void awaitEntered() throws InterruptedException {
+			assertTrue(this.enteredLatch.await(5, TimeUnit.SECONDS));
+		}
+
+		public List<String> getEvents() {
+			return this.events;
+		}
+
+		public List<Thread> getThreads() {
+			return this.threads;
+		}
+
+		private void record(String event) {
+			getEvents().add(event);
+			this.threads.add(Thread.currentThread());
+			this.enteredLatch.countDown();
+			if (null != this.releaseLatch) {
+				try {
+					this.releaseLatch.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		public void authenticated(String userId) {
+			record("authenticated:" + userId);
+		}
+
+		public void identified(String userId) {
+			record("identified:" + userId);
+		}
+
+		public void authenticationError(String remoteAddress, X509Certificate clientCertificate) {
+			record("authenticationError:" + remoteAddress + ":"
+					+ clientCertificate.getSubjectX500Principal().getName());
+		}
+
+		public void identityIntegrityError(String remoteAddress) {
+			record("identityIntegrityError:" + remoteAddress);
+		}
+
+		public void signatureError(String remoteAddress, X509Certificate clientCertificate) {
+			record("signatureError:" + remoteAddress + ":" + clientCertificate.getSubjectX500Principal().getName());
+		}
+
+		public void signed(String userId) {
+			record("signed:" + userId);
+		}
+	}
+}
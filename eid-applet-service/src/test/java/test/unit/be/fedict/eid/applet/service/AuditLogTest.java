@@ -0,0 +1,327 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import javax.servlet.ServletConfig;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.easymock.EasyMock;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.impl.audit.AuditLog;
+import be.fedict.eid.applet.service.impl.audit.AuditLogAuditService;
+import be.fedict.eid.applet.service.impl.audit.AuditLogExporter;
+import be.fedict.eid.applet.service.impl.audit.AuditLogReader;
+import be.fedict.eid.applet.service.impl.audit.AuditRecord;
+import be.fedict.eid.applet.service.impl.audit.AuditRecordType;
+import be.fedict.eid.applet.service.spi.AuditService;
+
+public class AuditLogTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.directory = File.createTempFile("audit-log-", "");
+		this.directory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+		// setup
+		AuditLog auditLog = new AuditLog(this.directory, 64 * 1024, AuditLog.DEFAULT_SYNC_INTERVAL);
+		AuditLogAuditService testedInstance = new AuditLogAuditService(auditLog);
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notBefore.plusYears(1), null, keyPair.getPrivate(), false, -1, null, null);
+
+		// operate
+		testedInstance.authenticated("user-1");
+		testedInstance.identified("user-2");
+		testedInstance.authenticationError("1.2.3.4", certificate);
+		testedInstance.identityIntegrityError("1.2.3.5");
+		testedInstance.signatureError("1.2.3.6", certificate);
+		testedInstance.signed("user-3");
+		auditLog.close();
+
+		// verify
+		AuditLogReader reader = new AuditLogReader(this.directory);
+		AuditRecord record = reader.next();
+		assertEquals(0, record.getSequence());
+		assertEquals(AuditRecordType.AUTHENTICATED, record.getType());
+		assertEquals("user-1", record.getSubject());
+		assertNull(record.getCertificateDigest());
+		assertTrue(record.getTimestamp() <= System.currentTimeMillis());
+		assertEquals(AuditRecordType.IDENTIFIED, reader.next().getType());
+		record = reader.next();
+		assertEquals(AuditRecordType.AUTHENTICATION_ERROR, record.getType());
+		assertEquals("1.2.3.4", record.getSubject());
+		assertArrayEquals(DigestUtils.sha256(certificate.getEncoded()), record.getCertificateDigest());
+		assertEquals(AuditRecordType.IDENTITY_INTEGRITY_ERROR, reader.next().getType());
+		assertEquals(AuditRecordType.SIGNATURE_ERROR, reader.next().getType());
+		record = reader.next();
+		assertEquals(AuditRecordType.SIGNED, record.getType());
+		assertEquals(5, record.getSequence());
+		assertNull(reader.next());
+
+		StringWriter writer = new StringWriter();
+		assertEquals(6, AuditLogExporter.export(this.directory, writer));
+		String[] lines = writer.toString().split("\r\n");
+		assertEquals(6, lines.length);
+		assertTrue(lines[0].startsWith("0,"));
+		assertTrue(lines[0].endsWith(",AUTHENTICATED,user-1,"));
+	}
+
+	@Test
+	public void testRollOver() throws Exception {
+		// setup
+		AuditLog testedInstance = new AuditLog(this.directory, 4096, AuditLog.DEFAULT_SYNC_INTERVAL);
+
+		// operate
+		for (int idx = 0; idx < 1000; idx++) {
+			testedInstance.append(AuditRecordType.SIGNED, "user-" + idx, null);
+		}
+		testedInstance.close();
+
+		// verify
+		assertTrue(this.directory.list(new SuffixFileFilter(".log")).length > 1);
+		testedInstance = new AuditLog(this.directory, 4096, AuditLog.DEFAULT_SYNC_INTERVAL);
+		assertEquals(1000, testedInstance.getNextSequence());
+		testedInstance.close();
+		AuditLogReader reader = new AuditLogReader(this.directory);
+		for (int idx = 0; idx < 1000; idx++) {
+			AuditRecord record = reader.next();
+			assertEquals(idx, record.getSequence());
+			assertEquals("user-" + idx, record.getSubject());
+		}
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testCrashRecovery() throws Exception {
+		// setup
+		AuditLog auditLog = new AuditLog(this.directory, 64 * 1024, 0);
+		for (int idx = 0; idx < 10; idx++) {
+			auditLog.append(AuditRecordType.AUTHENTICATED, "user-" + idx, null);
+		}
+		auditLog.close();
+		// we simulate a crash that tore the last record
+		File segmentFile = new File(this.directory, "audit-0000000000000000.log");
+		int recordSize = 28 + "user-0".length();
+		int lastRecordPosition = 16 + 9 * recordSize;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+		randomAccessFile.seek(lastRecordPosition + recordSize - 1);
+		randomAccessFile.write('X');
+		randomAccessFile.seek(lastRecordPosition + recordSize + 100);
+		randomAccessFile.write(new byte[] { 1, 2, 3, 4 });
+		randomAccessFile.close();
+
+		// operate
+		AuditLog testedInstance = new AuditLog(this.directory, 64 * 1024, 0);
+
+		// verify
+		assertEquals(9, testedInstance.getNextSequence());
+		assertEquals(9, testedInstance.append(AuditRecordType.SIGNED, "after-crash", null));
+		testedInstance.close();
+		AuditLogReader reader = new AuditLogReader(this.directory);
+		for (int idx = 0; idx < 9; idx++) {
+			assertEquals("user-" + idx, reader.next().getSubject());
+		}
+		AuditRecord record = reader.next();
+		assertEquals(9, record.getSequence());
+		assertEquals("after-crash", record.getSubject());
+		assertNull(reader.next());
+		byte[] segment = FileUtils.readFileToByteArray(segmentFile);
+		assertEquals(0, segment[lastRecordPosition + recordSize + 100]);
+	}
+
+	@Test
+	public void testCrashDuringRollOver() throws Exception {
+		// setup
+		AuditLog auditLog = new AuditLog(this.directory, 4096, 0);
+		auditLog.append(AuditRecordType.IDENTIFIED, "user", null);
+		auditLog.close();
+		File emptySegmentFile = new File(this.directory, "audit-0000000000000001.log");
+		FileUtils.writeByteArrayToFile(emptySegmentFile, new byte[4096]);
+
+		// operate
+		AuditLog testedInstance = new AuditLog(this.directory, 4096, 0);
+
+		// verify
+		assertFalse(emptySegmentFile.exists());
+		assertEquals(1, testedInstance.getNextSequence());
+		testedInstance.close();
+	}
+
+	@Test
+	public void testDirectoryLock() throws Exception {
+		// setup
+		AuditLog auditLog = new AuditLog(this.directory, 4096, 0);
+
+		// operate & verify
+		try {
+			new AuditLog(this.directory, 4096, 0);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		auditLog.close();
+		AuditLog testedInstance = new AuditLog(this.directory, 4096, 0);
+		assertEquals(0, testedInstance.append(AuditRecordType.SIGNED, "user", null));
+		testedInstance.close();
+	}
+
+	@Test
+	public void testAppendFailureIsCounted() throws Exception {
+		// setup
+		AuditLog auditLog = new AuditLog(this.directory, 4096, 0);
+		AuditLogAuditService testedInstance = new AuditLogAuditService(auditLog);
+		testedInstance.close();
+
+		// operate
+		testedInstance.authenticated("user");
+
+		// verify
+		assertEquals(1, auditLog.getFailedAppends());
+	}
+
+	@Test
+	public void testServiceLocatorClosesAuditLog() throws Exception {
+		// setup
+		TestAuditLogAuditService.auditLog = new AuditLog(this.directory, 4096, 0);
+		ServletConfig firstServletConfig = createServletConfig();
+		ServletConfig secondServletConfig = createServletConfig();
+		EasyMock.replay(firstServletConfig, secondServletConfig);
+		ServiceLocator<AuditService> firstServiceLocator = new ServiceLocator<AuditService>("AuditService",
+				firstServletConfig, AuditService.class);
+		ServiceLocator<AuditService> secondServiceLocator = new ServiceLocator<AuditService>("AuditService",
+				secondServletConfig, AuditService.class);
+		firstServiceLocator.locateService().signed("first");
+
+		// operate
+		firstServiceLocator.release();
+
+		// verify: still in use by the second servlet
+		secondServiceLocator.locateService().signed("second");
+		assertEquals(2, TestAuditLogAuditService.auditLog.getNextSequence());
+
+		// operate
+		secondServiceLocator.release();
+
+		// verify
+		try {
+			TestAuditLogAuditService.auditLog.append(AuditRecordType.SIGNED, "late", null);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, TestAuditLogAuditService.auditLog.getFailedAppends());
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		// setup
+		final AuditLog testedInstance = new AuditLog(this.directory, 1024 * 1024, 0);
+		final List<Long> sequences = Collections.synchronizedList(new LinkedList<Long>());
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int threadIdx = 0; threadIdx < 8; threadIdx++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int idx = 0; idx < 500; idx++) {
+							sequences.add(testedInstance.append(AuditRecordType.AUTHENTICATED, getName(), null));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads.add(thread);
+		}
+
+		// operate
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		testedInstance.close();
+
+		// verify
+		Set<Long> uniqueSequences = new HashSet<Long>(sequences);
+		assertEquals(8 * 500, uniqueSequences.size());
+		AuditLogReader reader = new AuditLogReader(this.directory);
+		long count = 0;
+		while (null != reader.next()) {
+			count++;
+		}
+		assertEquals(8 * 500, count);
+	}
+
+	private static ServletConfig createServletConfig() {
+		ServletConfig servletConfig = EasyMock.createMock(ServletConfig.class);
+		EasyMock.expect(servletConfig.getInitParameter("AuditServiceClass"))
+				.andStubReturn(TestAuditLogAuditService.class.getName());
+		EasyMock.expect(servletConfig.getInitParameter(EasyMock.<String> anyObject())).andStubReturn(null);
+		return servletConfig;
+	}
+
+	public static class TestAuditLogAuditService extends AuditLogAuditService {
+
+		private static AuditLog auditLog;
+
+		public TestAuditLogAuditService() {
+			super(auditLog);
+		}
+	}
+}
@@ -109,6 +109,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuthenticationTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "CacheTTL"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.HOSTNAME_INIT_PARAM_NAME))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INET_ADDRESS_INIT_PARAM_NAME))
@@ -119,6 +122,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "AsyncCapacity"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.CHANNEL_BINDING_SERVER_CERTIFICATE))
 				.andStubReturn(null);
 		EasyMock.expect(
@@ -151,6 +157,18 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_APP_ID_INIT_PARAM_NAME))
 				.andReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ALGO_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_THREADS_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME + "Class"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SIGNATURE_SERVICE_INIT_PARAM_NAME))
 				.andReturn(null);
@@ -223,6 +241,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuthenticationTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "CacheTTL"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.HOSTNAME_INIT_PARAM_NAME))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INET_ADDRESS_INIT_PARAM_NAME))
@@ -233,6 +254,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "AsyncCapacity"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.CHANNEL_BINDING_SERVER_CERTIFICATE))
 				.andStubReturn(null);
 		EasyMock.expect(
@@ -246,6 +270,18 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_APP_ID_INIT_PARAM_NAME))
 				.andStubReturn(nrcidAppId);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ALGO_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_THREADS_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME + "Class"))
+				.andStubReturn(null);
 		String nrcidOrgId = "my-org-id";
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ORG_ID_INIT_PARAM_NAME))
@@ -346,6 +382,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuthenticationTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "CacheTTL"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.HOSTNAME_INIT_PARAM_NAME))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INET_ADDRESS_INIT_PARAM_NAME))
@@ -375,6 +414,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "AsyncCapacity"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletRequest.getRemoteAddr()).andStubReturn("remote-address");
 
 		EasyMock.expect(mockServletRequest.getAttribute("javax.servlet.request.ssl_session"))
@@ -392,6 +434,18 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_APP_ID_INIT_PARAM_NAME))
 				.andReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ALGO_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_THREADS_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME + "Class"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig
@@ -464,6 +518,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuthenticationTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "CacheTTL"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.HOSTNAME_INIT_PARAM_NAME))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INET_ADDRESS_INIT_PARAM_NAME))
@@ -479,6 +536,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "AsyncCapacity"))
+				.andStubReturn(null);
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_SECRET_INIT_PARAM_NAME))
 				.andStubReturn(null);
@@ -506,6 +566,18 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_APP_ID_INIT_PARAM_NAME))
 				.andReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ALGO_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_THREADS_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME + "Class"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig
@@ -588,6 +660,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(AuthenticationTestService.class.getName());
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "CacheTTL"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.HOSTNAME_INIT_PARAM_NAME))
 				.andReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INET_ADDRESS_INIT_PARAM_NAME))
@@ -606,6 +681,9 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "Class"))
 				.andReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.AUDIT_SERVICE_INIT_PARAM_NAME + "AsyncCapacity"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INCLUDE_IDENTITY_INIT_PARAM_NAME))
 				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter(HelloMessageHandler.INCLUDE_CERTS_INIT_PARAM_NAME))
@@ -630,6 +708,18 @@ public class AuthenticationDataMessageHandlerTest {
 		EasyMock.expect(
 				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_APP_ID_INIT_PARAM_NAME))
 				.andReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(AuthenticationDataMessageHandler.NRCID_ALGO_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_THREADS_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(mockServletConfig
+				.getInitParameter(AuthenticationDataMessageHandler.VERIFICATION_EXECUTOR_INIT_PARAM_NAME + "Class"))
+				.andStubReturn(null);
 		EasyMock.expect(mockServletConfig
 				.getInitParameter(AuthenticationDataMessageHandler.AUTHN_SIGNATURE_SERVICE_INIT_PARAM_NAME))
 				.andReturn(null);
@@ -0,0 +1,210 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.archive.BulkTlvDecoder;
+import be.fedict.eid.applet.service.impl.archive.BulkTlvDecoder.OutputFormat;
+import be.fedict.eid.applet.service.impl.archive.IdentityArchiveReader;
+import be.fedict.eid.applet.service.impl.archive.IdentityArchiveWriter;
+import be.fedict.eid.applet.service.impl.archive.IdentityRecord;
+
+public class BulkTlvDecoderTest {
+
+	private static final Log LOG = LogFactory.getLog(BulkTlvDecoderTest.class);
+
+	private static KeyPair rrnKeyPair;
+
+	private static X509Certificate rrnCertificate;
+
+	private static byte[] identityFile;
+
+	private static byte[] addressFile;
+
+	private File archiveFile;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		rrnKeyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		rrnCertificate = MiscTestUtils.generateCertificate(rrnKeyPair.getPublic(), "CN=Test RRN", notBefore,
+				notBefore.plusYears(1), null, rrnKeyPair.getPrivate(), false, -1, null, null);
+		identityFile = IOUtils.toByteArray(BulkTlvDecoderTest.class.getResourceAsStream("/id-alice.tlv"));
+		addressFile = IOUtils.toByteArray(BulkTlvDecoderTest.class.getResourceAsStream("/address-alice.tlv"));
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.archiveFile = File.createTempFile("identity-archive-", ".eidr");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.archiveFile.delete();
+	}
+
+	@Test
+	public void testArchiveReader() throws Exception {
+		// setup
+		writeArchive(10);
+
+		// operate
+		IdentityArchiveReader testedInstance = new IdentityArchiveReader(this.archiveFile, 100);
+		int count = 0;
+		IdentityRecord record;
+		while (null != (record = testedInstance.next())) {
+			assertEquals(count, record.getRecordNumber());
+			if (0 == count % 3) {
+				assertNull(record.getAddressFile());
+			} else {
+				assertArrayEquals(addressFile, record.getAddressFile());
+			}
+			assertArrayEquals(identityFile, record.getIdentityFile());
+			count++;
+		}
+		testedInstance.close();
+
+		// verify
+		assertEquals(10, count);
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		// setup
+		writeArchive(3);
+		BulkTlvDecoder testedInstance = new BulkTlvDecoder(OutputFormat.CSV, rrnCertificate, 2, 2);
+		StringWriter writer = new StringWriter();
+
+		// operate
+		long result = testedInstance.run(Collections.singletonList(this.archiveFile), writer);
+
+		// verify
+		LOG.debug("CSV: " + writer);
+		assertEquals(3, result);
+		String[] lines = writer.toString().split("\n");
+		assertEquals(4, lines.length);
+		assertTrue(lines[0].startsWith("archive,record,nationalNumber,"));
+		String[] record0 = lines[1].split(",", -1);
+		assertEquals(BulkTlvDecoder.COLUMNS.length, record0.length);
+		assertEquals("0", record0[1]);
+		assertEquals("valid", record0[22]);
+		assertEquals("absent", record0[23]);
+		String[] record1 = lines[2].split(",", -1);
+		assertEquals("valid", record1[22]);
+		assertEquals("valid", record1[23]);
+		String[] record2 = lines[3].split(",", -1);
+		assertEquals("invalid", record2[22]);
+		assertEquals("invalid", record2[23]);
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		// setup
+		writeArchive(2);
+		BulkTlvDecoder testedInstance = new BulkTlvDecoder(OutputFormat.JSON, null, 2, 1);
+		StringWriter writer = new StringWriter();
+
+		// operate
+		testedInstance.run(Collections.singletonList(this.archiveFile), writer);
+
+		// verify
+		LOG.debug("JSON: " + writer);
+		String[] lines = writer.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("{\"archive\":\"" + this.archiveFile.getName() + "\",\"record\":\"0\","));
+		assertTrue(lines[1].contains("\"zip\":"));
+	}
+
+	@Test
+	public void testTruncatedArchive() throws Exception {
+		// setup
+		writeArchive(2);
+		RandomAccessFile file = new RandomAccessFile(this.archiveFile, "rw");
+		file.setLength(file.length() - 10);
+		file.close();
+		IdentityArchiveReader testedInstance = new IdentityArchiveReader(this.archiveFile);
+
+		// operate & verify
+		testedInstance.next();
+		try {
+			testedInstance.next();
+			fail();
+		} catch (IOException e) {
+			// expected
+		} finally {
+			testedInstance.close();
+		}
+	}
+
+	/*
+	 * Every third record has no address, and the third record has been
+	 * tampered with.
+	 */
+	private void writeArchive(int records) throws Exception {
+		byte[] identitySignatureFile = sign(identityFile);
+		byte[] addressSignatureFile = sign(IdentitySignatureVerifier.trimRight(addressFile), identitySignatureFile);
+		IdentityArchiveWriter writer = new IdentityArchiveWriter(new FileOutputStream(this.archiveFile));
+		for (int idx = 0; idx < records; idx++) {
+			if (0 == idx % 3) {
+				writer.write(identityFile, identitySignatureFile, null, null);
+			} else if (2 == idx) {
+				byte[] tamperedIdentitySignatureFile = identitySignatureFile.clone();
+				tamperedIdentitySignatureFile[0]++;
+				writer.write(identityFile, tamperedIdentitySignatureFile, addressFile, addressSignatureFile);
+			} else {
+				writer.write(identityFile, identitySignatureFile, addressFile, addressSignatureFile);
+			}
+		}
+		writer.close();
+	}
+
+	private static byte[] sign(byte[]... data) throws Exception {
+		Signature signature = Signature.getInstance(rrnCertificate.getSigAlgName());
+		signature.initSign(rrnKeyPair.getPrivate());
+		for (byte[] dataItem : data) {
+			signature.update(dataItem);
+		}
+		return signature.sign();
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.CertificateCache;
+
+public class CertificateCacheTest {
+
+	@Before
+	public void setUp() throws Exception {
+		CertificateCache.clear();
+	}
+
+	@Test
+	public void testCachedCertificate() throws Exception {
+		// setup
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(1);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, null, keyPair.getPrivate(), true, 0, null, null);
+		byte[] encodedCertificate = certificate.getEncoded();
+
+		// operate
+		X509Certificate result1 = CertificateCache.getCertificate(encodedCertificate);
+		X509Certificate result2 = CertificateCache.getCertificate(encodedCertificate.clone());
+
+		// verify
+		assertEquals(certificate, result1);
+		assertSame(result1, result2);
+	}
+
+	@Test
+	public void testPromoteValidatedCaCertificates() throws Exception {
+		// setup
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(1);
+		X509Certificate caCertificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test CA",
+				notBefore, notAfter, null, keyPair.getPrivate(), true, 0, null, null);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, caCertificate, keyPair.getPrivate(), false, -1, null, null);
+
+		// operate
+		X509Certificate result = CertificateCache.getCertificate(caCertificate.getEncoded());
+
+		// verify
+		assertEquals(0, CertificateCache.getCaCertificateCount());
+
+		// operate
+		CertificateCache.promote(certificate, result, null);
+
+		// verify
+		assertEquals(1, CertificateCache.getCaCertificateCount());
+		assertSame(result, CertificateCache.getCertificate(caCertificate.getEncoded()));
+
+		// operate
+		CertificateCache.promote(result);
+
+		// verify
+		assertEquals(1, CertificateCache.getCaCertificateCount());
+	}
+
+	@Test
+	public void testConcurrentLookups() throws Exception {
+		// setup
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(1);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, null, keyPair.getPrivate(), false, -1, null, null);
+		final byte[] encodedCertificate = certificate.getEncoded();
+		final X509Certificate[] results = new X509Certificate[8];
+		Thread[] threads = new Thread[results.length];
+		for (int idx = 0; idx < threads.length; idx++) {
+			final int resultIdx = idx;
+			threads[idx] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						results[resultIdx] = CertificateCache.getCertificate(encodedCertificate.clone());
+					} catch (CertificateException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+		}
+
+		// operate
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// verify
+		assertEquals(certificate, results[0]);
+		for (X509Certificate result : results) {
+			assertSame(results[0], result);
+		}
+	}
+
+	@Test
+	public void testInvalidCertificate() throws Exception {
+		try {
+			CertificateCache.getCertificate(new byte[1300]);
+			fail();
+		} catch (CertificateException e) {
+			// expected
+		}
+	}
+}
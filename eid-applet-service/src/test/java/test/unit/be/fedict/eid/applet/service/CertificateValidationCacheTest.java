@@ -0,0 +1,308 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+
+import org.easymock.EasyMock;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.CachingAuthenticationService;
+import be.fedict.eid.applet.service.impl.CertificateValidationCache;
+import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.TrustCertificateSecurityException;
+
+public class CertificateValidationCacheTest {
+
+	private List<X509Certificate> certificateChain;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPair rootKeyPair = MiscTestUtils.generateKeyPair();
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(1);
+		X509Certificate rootCertificate = MiscTestUtils.generateCertificate(rootKeyPair.getPublic(), "CN=Root",
+				notBefore, notAfter, null, rootKeyPair.getPrivate(), true, 0, null, null);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, rootCertificate, rootKeyPair.getPrivate(), false, -1, null, null);
+		this.certificateChain = new LinkedList<X509Certificate>();
+		this.certificateChain.add(certificate);
+		this.certificateChain.add(rootCertificate);
+	}
+
+	@Test
+	public void testPositiveCaching() throws Exception {
+		// setup
+		CountingAuthenticationService authenticationService = new CountingAuthenticationService(null);
+		CertificateValidationCache cache = new CertificateValidationCache(60 * 1000, 60 * 1000, 10);
+		CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService, cache);
+
+		// operate
+		testedInstance.validateCertificateChain(this.certificateChain);
+		testedInstance.validateCertificateChain(this.certificateChain);
+
+		// verify
+		assertEquals(1, authenticationService.getCount());
+	}
+
+	@Test
+	public void testNegativeCaching() throws Exception {
+		// setup
+		RevokedCertificateSecurityException exception = new RevokedCertificateSecurityException();
+		CountingAuthenticationService authenticationService = new CountingAuthenticationService(exception);
+		CertificateValidationCache cache = new CertificateValidationCache(60 * 1000, 60 * 1000, 10);
+		CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService, cache);
+
+		// operate & verify
+		Set<SecurityException> thrown = new HashSet<SecurityException>();
+		for (int idx = 0; idx < 3; idx++) {
+			try {
+				testedInstance.validateCertificateChain(this.certificateChain);
+				fail();
+			} catch (RevokedCertificateSecurityException e) {
+				assertNotSame(exception, e);
+				assertSame(exception, e.getCause());
+				assertTrue(thrown.add(e));
+			}
+		}
+		assertEquals(1, authenticationService.getCount());
+	}
+
+	@Test
+	public void testInfrastructureErrorNotCached() throws Exception {
+		// setup
+		CountingAuthenticationService authenticationService = new CountingAuthenticationService(
+				new IllegalStateException("OCSP responder down"));
+		CertificateValidationCache cache = new CertificateValidationCache(60 * 1000, 60 * 1000, 10);
+		CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService, cache);
+
+		// operate & verify
+		for (int idx = 0; idx < 2; idx++) {
+			try {
+				testedInstance.validateCertificateChain(this.certificateChain);
+				fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+		assertEquals(2, authenticationService.getCount());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		// setup
+		CountingAuthenticationService authenticationService = new CountingAuthenticationService(null);
+		CertificateValidationCache cache = new CertificateValidationCache(0, 0, 10);
+		CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService, cache);
+
+		// operate
+		testedInstance.validateCertificateChain(this.certificateChain);
+		testedInstance.validateCertificateChain(this.certificateChain);
+
+		// verify
+		assertEquals(2, authenticationService.getCount());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		// setup
+		CountingAuthenticationService authenticationService = new CountingAuthenticationService(null);
+		CertificateValidationCache cache = new CertificateValidationCache(60 * 1000, 60 * 1000, 10);
+		CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService, cache);
+		testedInstance.validateCertificateChain(this.certificateChain);
+
+		// operate
+		cache.invalidate(this.certificateChain.get(1));
+		testedInstance.validateCertificateChain(this.certificateChain);
+		cache.invalidate(this.certificateChain);
+		testedInstance.validateCertificateChain(this.certificateChain);
+		cache.invalidateAll();
+		testedInstance.validateCertificateChain(this.certificateChain);
+
+		// verify
+		assertEquals(4, authenticationService.getCount());
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		// setup
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final BlockingAuthenticationService authenticationService = new BlockingAuthenticationService(startLatch);
+		CertificateValidationCache cache = new CertificateValidationCache(60 * 1000, 60 * 1000, 10);
+		final CachingAuthenticationService testedInstance = new CachingAuthenticationService(authenticationService,
+				cache);
+		final List<Throwable> errors = Collections.synchronizedList(new LinkedList<Throwable>());
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int idx = 0; idx < 8; idx++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						testedInstance.validateCertificateChain(
+								CertificateValidationCacheTest.this.certificateChain);
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+
+		// operate
+		authenticationService.awaitEntered();
+		Thread.sleep(100);
+		startLatch.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// verify
+		assertEquals(0, errors.size());
+		assertEquals(1, authenticationService.getCount());
+	}
+
+	@Test
+	public void testServiceLocatorPerImplementation() throws Exception {
+		// setup
+		ServletConfig lenientServletConfig = createServletConfig(LenientAuthenticationService.class);
+		ServletConfig strictServletConfig = createServletConfig(StrictAuthenticationService.class);
+
+		// prepare
+		EasyMock.replay(lenientServletConfig, strictServletConfig);
+
+		// operate
+		ServiceLocator<AuthenticationService> lenientServiceLocator = new ServiceLocator<AuthenticationService>(
+				"AuthenticationService", lenientServletConfig, AuthenticationService.class);
+		ServiceLocator<AuthenticationService> strictServiceLocator = new ServiceLocator<AuthenticationService>(
+				"AuthenticationService", strictServletConfig, AuthenticationService.class);
+		lenientServiceLocator.locateService().validateCertificateChain(this.certificateChain);
+
+		// verify
+		try {
+			strictServiceLocator.locateService().validateCertificateChain(this.certificateChain);
+			fail();
+		} catch (TrustCertificateSecurityException e) {
+			// expected
+		}
+		EasyMock.verify(lenientServletConfig, strictServletConfig);
+	}
+
+	private static ServletConfig createServletConfig(Class<? extends AuthenticationService> serviceClass) {
+		ServletConfig servletConfig = EasyMock.createMock(ServletConfig.class);
+		EasyMock.expect(servletConfig.getInitParameter("AuthenticationService")).andStubReturn(null);
+		EasyMock.expect(servletConfig.getInitParameter("AuthenticationServiceClass"))
+				.andStubReturn(serviceClass.getName());
+		EasyMock.expect(servletConfig.getInitParameter(EasyMock.startsWith("AuthenticationServiceAsync")))
+				.andStubReturn(null);
+		EasyMock.expect(servletConfig.getInitParameter("AuthenticationServiceCacheTTL")).andStubReturn("60");
+		EasyMock.expect(servletConfig.getInitParameter("AuthenticationServiceCacheNegativeTTL")).andStubReturn("60");
+		EasyMock.expect(servletConfig.getInitParameter("AuthenticationServiceCacheMaxEntries")).andStubReturn(null);
+		return servletConfig;
+	}
+
+	public static class LenientAuthenticationService implements AuthenticationService {
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) {
+		}
+	}
+
+	public static class StrictAuthenticationService implements AuthenticationService {
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) {
+			throw new TrustCertificateSecurityException();
+		}
+	}
+
+	private static class CountingAuthenticationService implements AuthenticationService {
+
+		private final RuntimeException exception;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public CountingAuthenticationService(RuntimeException exception) {
+			this.exception = exception;
+		}
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) {
+			this.count.incrementAndGet();
+			if (null != this.exception) {
+				throw this.exception;
+			}
+		}
+
+		public int getCount() {
+			return this.count.get();
+		}
+	}
+
+	private static class BlockingAuthenticationService implements AuthenticationService {
+
+		private final CountDownLatch startLatch;
+
+		private final CountDownLatch enteredLatch = new CountDownLatch(1);
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public BlockingAuthenticationService(CountDownLatch startLatch) {
+			this.startLatch = startLatch;
+		}
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) {
+			this.count.incrementAndGet();
+			this.enteredLatch.countDown();
+			try {
+				this.startLatch.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void awaitEntered() throws InterruptedException {
+			this.enteredLatch.await(10, TimeUnit.SECONDS);
+		}
+
+		public int getCount() {
+			return this.count.get();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Multi-threaded stress harness. Runs a task from many threads at once, using
+ * a start gate to maximize contention, and collects all failures. Any
+ * optimization that introduces state shared between requests should keep the
+ * stress tests green.
+ * 
+ * <p>
+ * The number of threads and iterations can be raised via the
+ * <code>eid.stress.threads</code> and <code>eid.stress.iterations</code>
+ * system properties. A stress run fails when it does not finish within the
+ * <code>eid.stress.timeout</code> (in seconds).
+ * </p>
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class ConcurrencyStress {
+
+	private static final Log LOG = LogFactory.getLog(ConcurrencyStress.class);
+
+	public static final int THREADS = Integer.getInteger("eid.stress.threads", 8);
+
+	public static final int ITERATIONS = Integer.getInteger("eid.stress.iterations", 50);
+
+	public static final int TIMEOUT = Integer.getInteger("eid.stress.timeout", 5 * 60);
+
+	private static final int MAX_LOGGED_FAILURES = 10;
+
+	private ConcurrencyStress() {
+		super();
+	}
+
+	/**
+	 * A single stress iteration.
+	 */
+	public interface Task {
+
+		/**
+		 * Runs a single iteration. Should throw an exception or error when a
+		 * data race or data leak has been detected.
+		 * 
+		 * @param thread
+		 *            the index of the stressing thread.
+		 * @param iteration
+		 * @throws Exception
+		 */
+		void run(int thread, int iteration) throws Exception;
+	}
+
+	/**
+	 * Runs the given task from {@link #THREADS} threads for
+	 * {@link #ITERATIONS} iterations each.
+	 * 
+	 * @param name
+	 * @param task
+	 * @throws Exception
+	 */
+	public static void run(String name, Task task) throws Exception {
+		run(name, THREADS, ITERATIONS, task);
+	}
+
+	/**
+	 * Runs the given task from the given number of threads.
+	 * 
+	 * @param name
+	 *            the name of the stress test, used for the thread names.
+	 * @param threads
+	 * @param iterations
+	 *            the number of iterations per thread.
+	 * @param task
+	 * @throws AssertionError
+	 *             if at least one of the iterations failed, or if the
+	 *             iterations did not finish within {@link #TIMEOUT}.
+	 * @throws Exception
+	 */
+	public static void run(final String name, int threads, final int iterations, final Task task) throws Exception {
+		final CountDownLatch startGate = new CountDownLatch(1);
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		final AtomicInteger failureCount = new AtomicInteger();
+		List<Thread> stressThreads = new LinkedList<Thread>();
+		for (int idx = 0; idx < threads; idx++) {
+			final int threadIdx = idx;
+			Thread thread = new Thread(name + "-" + idx) {
+				@Override
+				public void run() {
+					try {
+						startGate.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int iteration = 0; iteration < iterations; iteration++) {
+						try {
+							task.run(threadIdx, iteration);
+						} catch (Throwable e) {
+							if (failureCount.incrementAndGet() <= MAX_LOGGED_FAILURES) {
+								LOG.error(getName() + " iteration " + iteration + ": " + e.getMessage(), e);
+								failures.add(e);
+							}
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			stressThreads.add(thread);
+			thread.start();
+		}
+		long beginTime = System.currentTimeMillis();
+		startGate.countDown();
+		long deadline = beginTime + TIMEOUT * 1000L;
+		for (Thread thread : stressThreads) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining > 0) {
+				thread.join(remaining);
+			}
+			if (thread.isAlive()) {
+				for (Thread stressThread : stressThreads) {
+					stressThread.interrupt();
+				}
+				throw new AssertionError(name + ": " + thread.getName() + " did not finish within " + TIMEOUT
+						+ " seconds");
+			}
+		}
+		LOG.debug(name + ": " + threads + " threads x " + iterations + " iterations in "
+				+ (System.currentTimeMillis() - beginTime) + " ms");
+		if (0 != failureCount.get()) {
+			Throwable firstFailure = failures.peek();
+			AssertionError error = new AssertionError(name + ": " + failureCount.get() + " of "
+					+ (threads * iterations) + " iterations failed: " + firstFailure);
+			error.initCause(firstFailure);
+			throw error;
+		}
+	}
+}
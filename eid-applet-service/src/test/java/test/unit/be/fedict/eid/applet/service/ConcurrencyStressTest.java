@@ -0,0 +1,405 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.AppletServiceServlet;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.dto.DTOMapper;
+import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+import be.fedict.eid.applet.service.impl.handler.AuthenticationDataMessageHandler;
+import be.fedict.eid.applet.service.impl.handler.HelloMessageHandler;
+import be.fedict.eid.applet.service.impl.handler.IdentityDataMessageHandler;
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+import be.fedict.eid.applet.service.spi.AddressDTO;
+import be.fedict.eid.applet.service.spi.AuthenticationService;
+import be.fedict.eid.applet.service.spi.DigestInfo;
+import be.fedict.eid.applet.service.spi.IdentityDTO;
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+import be.fedict.eid.applet.service.spi.SignatureService;
+import be.fedict.eid.applet.shared.AuthenticationRequestMessage;
+import be.fedict.eid.applet.shared.FinishedMessage;
+import be.fedict.eid.applet.shared.HelloMessage;
+import be.fedict.eid.applet.shared.IdentificationRequestMessage;
+import be.fedict.eid.applet.shared.SignRequestMessage;
+import test.unit.be.fedict.eid.applet.service.AppletLoadHarness.Protocol;
+
+/**
+ * Concurrency stress tests. The protocol runs of different software eID cards
+ * hammer the same servlet, and thus the same message handler instances, from
+ * many threads. Every SPI callback and every resulting HTTP session is checked
+ * against the eID card of the calling thread to detect cross-request data
+ * leaks. TLV parsing and DTO mapping are checked against single-threaded
+ * reference results.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class ConcurrencyStressTest {
+
+	private static final String[] IDENTITY_FILES = { "/id-alice.tlv", "/id-alice-2.tlv", "/id-foreigner.tlv",
+			"/extended-minority.tlv", "/yellow-cane.tlv", "/white-cane.tlv", "/dateandcountry.tlv", "/h-card.tlv",
+			"/duplicate-02.tlv" };
+
+	private static final ThreadLocal<String> expectedNationalNumber = new ThreadLocal<String>();
+
+	private static final Queue<String> dataLeaks = new ConcurrentLinkedQueue<String>();
+
+	private static List<SoftwareEid> softwareEids;
+
+	private static Map<Protocol, AppletServiceServlet> servlets;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+		SoftwareEid.TestPki pki = new SoftwareEid.TestPki();
+		softwareEids = new ArrayList<SoftwareEid>();
+		for (int idx = 0; idx < ConcurrencyStress.THREADS; idx++) {
+			String nationalNumber = String.format("%011d", 71010100000L + idx);
+			softwareEids.add(new SoftwareEid(nationalNumber, pki));
+		}
+		servlets = new ConcurrentHashMap<Protocol, AppletServiceServlet>();
+		for (Protocol protocol : Protocol.values()) {
+			AppletServiceServlet servlet = new AppletServiceServlet();
+			servlet.init(createServletConfig(protocol));
+			servlets.put(protocol, servlet);
+		}
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		for (AppletServiceServlet servlet : servlets.values()) {
+			servlet.destroy();
+		}
+	}
+
+	@Test
+	public void testAuthentication() throws Exception {
+		// setup
+		final ConcurrentMap<String, String> challenges = new ConcurrentHashMap<String, String>();
+
+		// operate
+		ConcurrencyStress.run("authentication", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				String challenge = runProtocol(Protocol.AUTHENTICATION, thread);
+				String previousNationalNumber = challenges.putIfAbsent(challenge,
+						softwareEids.get(thread).getNationalNumber());
+				assertNull("duplicate challenge", previousNationalNumber);
+			}
+		});
+
+		// verify
+		assertNoDataLeaks();
+		assertEquals(ConcurrencyStress.THREADS * ConcurrencyStress.ITERATIONS, challenges.size());
+	}
+
+	@Test
+	public void testIdentification() throws Exception {
+		// operate
+		ConcurrencyStress.run("identification", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				runProtocol(Protocol.IDENTIFICATION, thread);
+			}
+		});
+
+		// verify
+		assertNoDataLeaks();
+	}
+
+	@Test
+	public void testSigning() throws Exception {
+		// operate
+		ConcurrencyStress.run("signing", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				runProtocol(Protocol.SIGNING, thread);
+			}
+		});
+
+		// verify
+		assertNoDataLeaks();
+	}
+
+	@Test
+	public void testMixedProtocols() throws Exception {
+		// operate
+		ConcurrencyStress.run("mixed", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				Protocol[] protocols = Protocol.values();
+				runProtocol(protocols[(thread + iteration) % protocols.length], thread);
+			}
+		});
+
+		// verify
+		assertNoDataLeaks();
+	}
+
+	@Test
+	public void testTlvParsing() throws Exception {
+		// setup
+		final List<byte[]> identityFiles = new ArrayList<byte[]>();
+		final List<Identity> expectedIdentities = new ArrayList<Identity>();
+		for (String identityFileResource : IDENTITY_FILES) {
+			byte[] identityFile = IOUtils
+					.toByteArray(ConcurrencyStressTest.class.getResourceAsStream(identityFileResource));
+			identityFiles.add(identityFile);
+			expectedIdentities.add(TlvParser.parse(identityFile, Identity.class));
+		}
+		final byte[] addressFile = IOUtils
+				.toByteArray(ConcurrencyStressTest.class.getResourceAsStream("/address-alice.tlv"));
+		final Address expectedAddress = TlvParser.parse(addressFile, Address.class);
+
+		// operate
+		ConcurrencyStress.run("tlv", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				int idx = (thread + iteration) % identityFiles.size();
+				Identity identity = TlvParser.parse(identityFiles.get(idx), Identity.class);
+				assertSameFields(IDENTITY_FILES[idx], expectedIdentities.get(idx), identity);
+				Address address = TlvParser.parse(addressFile, Address.class);
+				assertSameFields("address", expectedAddress, address);
+			}
+		});
+	}
+
+	@Test
+	public void testDTOMapping() throws Exception {
+		// setup
+		final List<Identity> identities = new ArrayList<Identity>();
+		final List<IdentityDTO> expectedIdentityDTOs = new ArrayList<IdentityDTO>();
+		final DTOMapper dtoMapper = new DTOMapper();
+		for (String identityFileResource : IDENTITY_FILES) {
+			byte[] identityFile = IOUtils
+					.toByteArray(ConcurrencyStressTest.class.getResourceAsStream(identityFileResource));
+			Identity identity = TlvParser.parse(identityFile, Identity.class);
+			identities.add(identity);
+			expectedIdentityDTOs.add(dtoMapper.map(identity, IdentityDTO.class));
+		}
+		byte[] addressFile = IOUtils.toByteArray(ConcurrencyStressTest.class.getResourceAsStream("/address-alice.tlv"));
+		final Address address = TlvParser.parse(addressFile, Address.class);
+		final AddressDTO expectedAddressDTO = dtoMapper.map(address, AddressDTO.class);
+
+		// operate
+		ConcurrencyStress.run("dto", new ConcurrencyStress.Task() {
+			public void run(int thread, int iteration) throws Exception {
+				int idx = (thread + iteration) % identities.size();
+				IdentityDTO identityDTO = dtoMapper.map(identities.get(idx), IdentityDTO.class);
+				assertSameFields(IDENTITY_FILES[idx], expectedIdentityDTOs.get(idx), identityDTO);
+				AddressDTO addressDTO = dtoMapper.map(address, AddressDTO.class);
+				assertSameFields("address", expectedAddressDTO, addressDTO);
+			}
+		});
+	}
+
+	/**
+	 * Runs the given protocol using the software eID card of the given thread,
+	 * and checks the resulting HTTP session.
+	 * 
+	 * @param protocol
+	 * @param thread
+	 * @return the hex encoded authentication challenge, if applicable.
+	 * @throws Exception
+	 */
+	private static String runProtocol(Protocol protocol, int thread) throws Exception {
+		SoftwareEid softwareEid = softwareEids.get(thread);
+		String nationalNumber = softwareEid.getNationalNumber();
+		expectedNationalNumber.set(nationalNumber);
+		try {
+			AppletServiceSession session = new AppletServiceSession(servlets.get(protocol));
+			HttpSession httpSession = session.getHttpSession();
+			String challenge = null;
+			FinishedMessage finishedMessage;
+			switch (protocol) {
+			case AUTHENTICATION:
+				AuthenticationRequestMessage authenticationRequestMessage = session.send(new HelloMessage(),
+						AuthenticationRequestMessage.class);
+				challenge = Hex.encodeHexString(authenticationRequestMessage.challenge);
+				finishedMessage = session.send(
+						softwareEid.createAuthenticationDataMessage(authenticationRequestMessage),
+						FinishedMessage.class);
+				assertNull(finishedMessage.errorCode);
+				assertEquals(nationalNumber, httpSession
+						.getAttribute(AuthenticationDataMessageHandler.AUTHENTICATED_USER_IDENTIFIER_SESSION_ATTRIBUTE));
+				break;
+			case IDENTIFICATION:
+				IdentificationRequestMessage identificationRequestMessage = session.send(new HelloMessage(),
+						IdentificationRequestMessage.class);
+				finishedMessage = session.send(softwareEid.createIdentityDataMessage(identificationRequestMessage),
+						FinishedMessage.class);
+				assertNull(finishedMessage.errorCode);
+				Identity identity = (Identity) httpSession
+						.getAttribute(IdentityDataMessageHandler.IDENTITY_SESSION_ATTRIBUTE);
+				assertNotNull(identity);
+				assertEquals(nationalNumber, identity.nationalNumber);
+				assertEquals("Card " + nationalNumber, identity.firstName);
+				assertNotNull(httpSession.getAttribute(IdentityDataMessageHandler.ADDRESS_SESSION_ATTRIBUTE));
+				break;
+			default:
+				SignRequestMessage signRequestMessage = session.send(new HelloMessage(), SignRequestMessage.class);
+				assertArrayEquals(getDigestValue(nationalNumber), signRequestMessage.digestValue);
+				finishedMessage = session.send(softwareEid.createSignatureDataMessage(signRequestMessage),
+						FinishedMessage.class);
+				assertNull(finishedMessage.errorCode);
+				break;
+			}
+			return challenge;
+		} finally {
+			expectedNationalNumber.remove();
+		}
+	}
+
+	private static void assertNoDataLeaks() {
+		assertTrue("data leaks: " + dataLeaks, dataLeaks.isEmpty());
+	}
+
+	private static void assertSameFields(String context, Object expected, Object actual) throws Exception {
+		assertNotNull(context, actual);
+		assertEquals(context, expected.getClass(), actual.getClass());
+		for (Field field : expected.getClass().getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			field.setAccessible(true);
+			Object expectedValue = field.get(expected);
+			Object actualValue = field.get(actual);
+			String message = context + ": " + field.getName();
+			if (expectedValue instanceof byte[]) {
+				assertArrayEquals(message, (byte[]) expectedValue, (byte[]) actualValue);
+			} else {
+				assertEquals(message, expectedValue, actualValue);
+			}
+		}
+	}
+
+	private static byte[] getDigestValue(String nationalNumber) throws NoSuchAlgorithmException {
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		return messageDigest.digest(nationalNumber.getBytes());
+	}
+
+	/**
+	 * Checks whether the given certificate chain belongs to the eID card of the
+	 * calling thread.
+	 * 
+	 * @param certificateChain
+	 */
+	private static void checkCertificateChain(List<X509Certificate> certificateChain) {
+		String nationalNumber = expectedNationalNumber.get();
+		String userId = UserIdentifierUtil.getUserId(certificateChain.get(0));
+		if (false == userId.equals(nationalNumber)) {
+			String dataLeak = Thread.currentThread().getName() + " expected " + nationalNumber + " but got " + userId;
+			dataLeaks.add(dataLeak);
+			throw new SecurityException("data leak: " + dataLeak);
+		}
+	}
+
+	private static ServletConfig createServletConfig(Protocol protocol) {
+		final Map<String, String> initParams = new ConcurrentHashMap<String, String>();
+		initParams.put("SkipSecureConnectionCheck", "true");
+		switch (protocol) {
+		case AUTHENTICATION:
+			initParams.put(AuthenticationDataMessageHandler.AUTHN_SERVICE_INIT_PARAM_NAME + "Class",
+					StressAuthenticationService.class.getName());
+			break;
+		case IDENTIFICATION:
+			initParams.put(HelloMessageHandler.INCLUDE_ADDRESS_INIT_PARAM_NAME, "true");
+			initParams.put(HelloMessageHandler.IDENTITY_INTEGRITY_SERVICE_INIT_PARAM_NAME + "Class",
+					StressIdentityIntegrityService.class.getName());
+			break;
+		default:
+			initParams.put(HelloMessageHandler.SIGNATURE_SERVICE_INIT_PARAM_NAME + "Class",
+					StressSignatureService.class.getName());
+			break;
+		}
+		ServletConfig mockServletConfig = EasyMock.createNiceMock(ServletConfig.class);
+		EasyMock.expect(mockServletConfig.getServletName()).andStubReturn(protocol.name());
+		EasyMock.expect(mockServletConfig.getInitParameter((String) EasyMock.anyObject()))
+				.andStubAnswer(new IAnswer<String>() {
+					public String answer() throws Throwable {
+						return initParams.get(EasyMock.getCurrentArguments()[0]);
+					}
+				});
+		EasyMock.replay(mockServletConfig);
+		return mockServletConfig;
+	}
+
+	public static class StressAuthenticationService implements AuthenticationService {
+
+		public void validateCertificateChain(List<X509Certificate> certificateChain) throws SecurityException {
+			checkCertificateChain(certificateChain);
+		}
+	}
+
+	public static class StressIdentityIntegrityService implements IdentityIntegrityService {
+
+		public void checkNationalRegistrationCertificate(List<X509Certificate> certificateChain)
+				throws SecurityException {
+			// the test RRN certificate is shared by all software eID cards
+		}
+	}
+
+	public static class StressSignatureService implements SignatureService {
+
+		public String getFilesDigestAlgorithm() {
+			return null;
+		}
+
+		public DigestInfo preSign(List<DigestInfo> digestInfos, List<X509Certificate> signingCertificateChain,
+				IdentityDTO identity, AddressDTO address, byte[] photo) throws NoSuchAlgorithmException {
+			byte[] digestValue = getDigestValue(expectedNationalNumber.get());
+			return new DigestInfo(digestValue, "SHA-256", "stress test document");
+		}
+
+		public void postSign(byte[] signatureValue, List<X509Certificate> signingCertificateChain) {
+			checkCertificateChain(signingCertificateChain);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.asn1.x509.X509ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.X509Name;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.pki.CrlIndex;
+
+public class CrlIndexTest {
+
+	private static final Log LOG = LogFactory.getLog(CrlIndexTest.class);
+
+	private KeyPair keyPair;
+
+	private X509Certificate certificate;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		this.certificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=TestCA", notBefore,
+				notBefore.plusYears(1), null, this.keyPair.getPrivate(), true, 0, null, null);
+		this.directory = File.createTempFile("crl-index-", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+		// setup
+		SecureRandom random = new SecureRandom();
+		BigInteger[] revokedSerialNumbers = new BigInteger[1000];
+		for (int idx = 0; idx < revokedSerialNumbers.length; idx++) {
+			revokedSerialNumbers[idx] = new BigInteger(1 + random.nextInt(128), random);
+		}
+		revokedSerialNumbers[0] = BigInteger.ZERO;
+		revokedSerialNumbers[1] = BigInteger.ONE;
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), revokedSerialNumbers);
+
+		// operate
+		CrlIndex heapIndex = CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+				this.certificate.getPublicKey(), null);
+		CrlIndex mappedIndex = CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+				this.certificate.getPublicKey(), new File(this.directory, "test.crlx"));
+
+		// verify
+		assertNull(heapIndex.getFile());
+		assertNotNull(mappedIndex.getFile());
+		LOG.debug("mapped index size: " + mappedIndex.getFile().length());
+		for (CrlIndex index : new CrlIndex[] { heapIndex, mappedIndex }) {
+			assertEquals(revokedSerialNumbers.length, index.getSize());
+			assertEquals(crl.getThisUpdate(), index.getThisUpdate());
+			assertEquals(crl.getNextUpdate(), index.getNextUpdate());
+			for (BigInteger revokedSerialNumber : revokedSerialNumbers) {
+				assertTrue(index.isRevoked(revokedSerialNumber));
+			}
+			for (int idx = 0; idx < 1000; idx++) {
+				BigInteger serialNumber = new BigInteger(128, random);
+				assertEquals(null != crl.getRevokedCertificate(serialNumber), index.isRevoked(serialNumber));
+			}
+			assertFalse(index.isRevoked(new BigInteger(256, random).setBit(255)));
+		}
+	}
+
+	@Test
+	public void testNegativeSerialNumbers() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), BigInteger.valueOf(-128), BigInteger.valueOf(-1), BigInteger.valueOf(255));
+
+		// operate
+		CrlIndex result = CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+				this.certificate.getPublicKey(), null);
+
+		// verify
+		for (long serialNumber : new long[] { -128, -1, 255 }) {
+			assertTrue(result.isRevoked(BigInteger.valueOf(serialNumber)));
+		}
+		for (long serialNumber : new long[] { 128, 1, 65535, -255, -129, 0 }) {
+			assertFalse(result.isRevoked(BigInteger.valueOf(serialNumber)));
+		}
+	}
+
+	@Test
+	public void testCriticalCrlExtension() throws Exception {
+		// setup
+		X509V2CRLGenerator crlGenerator = createCrlGenerator();
+		crlGenerator.addExtension(X509Extensions.DeltaCRLIndicator, true, new CRLNumber(BigInteger.ONE));
+		crlGenerator.addCRLEntry(BigInteger.ONE, new Date(), CRLReason.unspecified);
+		X509CRL crl = crlGenerator.generate(this.keyPair.getPrivate());
+
+		// operate & verify
+		try {
+			CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+					this.certificate.getPublicKey(), null);
+			fail();
+		} catch (GeneralSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCriticalCrlEntryExtension() throws Exception {
+		// setup
+		X509V2CRLGenerator crlGenerator = createCrlGenerator();
+		X509ExtensionsGenerator extensionsGenerator = new X509ExtensionsGenerator();
+		extensionsGenerator.addExtension(X509Extensions.CertificateIssuer, true,
+				new GeneralNames(new GeneralName(new X509Name("CN=Other"))));
+		crlGenerator.addCRLEntry(BigInteger.ONE, new Date(), extensionsGenerator.generate());
+		X509CRL crl = crlGenerator.generate(this.keyPair.getPrivate());
+
+		// operate & verify
+		try {
+			CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+					this.certificate.getPublicKey(), null);
+			fail();
+		} catch (GeneralSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), BigInteger.valueOf(1234));
+		File file = new File(this.directory, "test.crlx");
+		CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+				this.certificate.getPublicKey(), file);
+
+		// operate
+		CrlIndex result = CrlIndex.open(file);
+
+		// verify
+		assertTrue(result.isRevoked(BigInteger.valueOf(1234)));
+		assertFalse(result.isRevoked(BigInteger.valueOf(1235)));
+	}
+
+	@Test
+	public void testEmptyCrl() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1));
+
+		// operate
+		CrlIndex result = CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+				this.certificate.getPublicKey(), null);
+
+		// verify
+		assertEquals(0, result.getSize());
+		assertFalse(result.isRevoked(BigInteger.ONE));
+	}
+
+	@Test
+	public void testInvalidSignature() throws Exception {
+		// setup
+		KeyPair otherKeyPair = MiscTestUtils.generateKeyPair();
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, otherKeyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), BigInteger.ONE);
+
+		// operate & verify
+		try {
+			CrlIndex.compile(crl.getEncoded(), this.certificate.getSubjectX500Principal(),
+					this.certificate.getPublicKey(), null);
+			fail();
+		} catch (GeneralSecurityException e) {
+			// expected
+		}
+	}
+
+	private X509V2CRLGenerator createCrlGenerator() {
+		DateTime thisUpdate = new DateTime();
+		X509V2CRLGenerator crlGenerator = new X509V2CRLGenerator();
+		crlGenerator.setIssuerDN(this.certificate.getSubjectX500Principal());
+		crlGenerator.setThisUpdate(thisUpdate.toDate());
+		crlGenerator.setNextUpdate(thisUpdate.plusHours(1).toDate());
+		crlGenerator.setSignatureAlgorithm("SHA1withRSA");
+		return crlGenerator;
+	}
+
+	@Test
+	public void testIssuerMismatch() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.certificate, this.keyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), BigInteger.ONE);
+
+		// operate & verify
+		try {
+			CrlIndex.compile(crl.getEncoded(), new X500Principal("CN=Other"), this.certificate.getPublicKey(), null);
+			fail();
+		} catch (GeneralSecurityException e) {
+			// expected
+		}
+	}
+}
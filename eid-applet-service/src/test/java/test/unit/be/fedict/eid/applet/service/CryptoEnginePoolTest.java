@@ -0,0 +1,181 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.crypto.CryptoEnginePool;
+
+public class CryptoEnginePoolTest {
+
+	@After
+	public void tearDown() throws Exception {
+		CryptoEnginePool.clear();
+	}
+
+	@Test
+	public void testReleasedEngineIsReused() throws Exception {
+		// setup
+		MessageDigest messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-1");
+		messageDigest.update("garbage".getBytes());
+
+		// operate
+		CryptoEnginePool.release(messageDigest);
+		MessageDigest result = CryptoEnginePool.borrowMessageDigest("SHA-1");
+
+		// verify
+		assertSame(messageDigest, result);
+		assertArrayEquals(MessageDigest.getInstance("SHA-1").digest("hello".getBytes()),
+				result.digest("hello".getBytes()));
+	}
+
+	@Test
+	public void testNestedBorrowing() throws Exception {
+		// operate
+		MessageDigest messageDigest1 = CryptoEnginePool.borrowMessageDigest("SHA-1");
+		MessageDigest messageDigest2 = CryptoEnginePool.borrowMessageDigest("SHA-1");
+
+		// verify
+		assertNotSame(messageDigest1, messageDigest2);
+		CryptoEnginePool.release(messageDigest1);
+		CryptoEnginePool.release(messageDigest2);
+	}
+
+	@Test
+	public void testDoubleRelease() throws Exception {
+		// setup
+		MessageDigest messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-1");
+
+		// operate
+		CryptoEnginePool.release(messageDigest);
+		CryptoEnginePool.release(messageDigest);
+		MessageDigest result1 = CryptoEnginePool.borrowMessageDigest("SHA-1");
+		MessageDigest result2 = CryptoEnginePool.borrowMessageDigest("SHA-1");
+
+		// verify
+		assertSame(messageDigest, result1);
+		assertNotSame(result1, result2);
+	}
+
+	@Test
+	public void testEnginesAreShared() throws Exception {
+		// setup
+		MessageDigest messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-1");
+		CryptoEnginePool.release(messageDigest);
+		final MessageDigest[] result = new MessageDigest[1];
+
+		// operate
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = CryptoEnginePool.borrowMessageDigest("SHA-1");
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+
+		// verify
+		assertSame(messageDigest, result[0]);
+	}
+
+	@Test
+	public void testReleasedMacIsReset() throws Exception {
+		// setup
+		SecretKeySpec secretKey = new SecretKeySpec("secret".getBytes(), "HmacSHA256");
+		Mac mac = CryptoEnginePool.borrowMac("HmacSHA256");
+		mac.init(secretKey);
+		mac.update("garbage".getBytes());
+
+		// operate
+		CryptoEnginePool.release(mac);
+		Mac result = CryptoEnginePool.borrowMac("HmacSHA256");
+		result.init(secretKey);
+
+		// verify
+		assertSame(mac, result);
+		Mac expectedMac = Mac.getInstance("HmacSHA256");
+		expectedMac.init(secretKey);
+		assertArrayEquals(expectedMac.doFinal("hello".getBytes()), result.doFinal("hello".getBytes()));
+	}
+
+	/**
+	 * Signature and cipher engines keep the key material of their previous
+	 * use, so these should never be handed out again.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignatureAndCipherAreNotPooled() throws Exception {
+		// setup
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		Signature signature = CryptoEnginePool.borrowSignature("SHA1withRSA");
+		signature.initSign(keyPair.getPrivate());
+		Cipher cipher = CryptoEnginePool.borrowCipher("RSA/ECB/PKCS1Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+
+		// operate
+		CryptoEnginePool.release(signature);
+		CryptoEnginePool.release(cipher);
+		Signature resultSignature = CryptoEnginePool.borrowSignature("SHA1withRSA");
+		Cipher resultCipher = CryptoEnginePool.borrowCipher("RSA/ECB/PKCS1Padding");
+
+		// verify
+		assertNotSame(signature, resultSignature);
+		assertNotSame(cipher, resultCipher);
+		try {
+			resultSignature.sign();
+			fail();
+		} catch (SignatureException e) {
+			// expected: not initialized
+		}
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		// setup
+		MessageDigest messageDigest = CryptoEnginePool.borrowMessageDigest("SHA-1");
+		CryptoEnginePool.release(messageDigest);
+
+		// operate
+		CryptoEnginePool.clear();
+		MessageDigest result = CryptoEnginePool.borrowMessageDigest("SHA-1");
+
+		// verify
+		assertNotSame(messageDigest, result);
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.GregorianCalendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.Gender;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.dto.DTOMapper;
+import be.fedict.eid.applet.service.dto.IdenticalValueConvertor;
+import be.fedict.eid.applet.service.dto.MapsTo;
+import be.fedict.eid.applet.service.dto.Mapping;
+import be.fedict.eid.applet.service.dto.ValueConvertor;
+import be.fedict.eid.applet.service.spi.AddressDTO;
+import be.fedict.eid.applet.service.spi.IdentityDTO;
+
+/**
+ * Checks the cached mapping plans of the DTO mapper against the original
+ * reflective mapper and a hand-written copy. Run the main method for a
+ * benchmark.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class DTOMapperBenchmarkTest {
+
+	private static final Log LOG = LogFactory.getLog(DTOMapperBenchmarkTest.class);
+
+	@Test
+	public void testEquivalentToReflectiveMapper() throws Exception {
+		// setup
+		Identity femaleIdentity = createIdentity();
+		femaleIdentity.gender = Gender.FEMALE;
+		femaleIdentity.middleName = null;
+		Identity unknownGenderIdentity = createIdentity();
+		unknownGenderIdentity.gender = null;
+		Address address = new Address();
+		address.streetAndNumber = "street 12345";
+		address.zip = "1234";
+		address.municipality = "city";
+		DTOMapperTest.WideningSource wideningSource = new DTOMapperTest.WideningSource();
+		wideningSource.count = Integer.MIN_VALUE;
+		wideningSource.small = Short.MAX_VALUE;
+		wideningSource.ratio = Float.MAX_VALUE;
+		wideningSource.boxed = -1;
+		wideningSource.character = '\uffff';
+		wideningSource.boxedInt = 1;
+		DTOMapperTest.WideningSource unboxingNullSource = new DTOMapperTest.WideningSource();
+		DTOMapperTest.NarrowingSource narrowingSource = new DTOMapperTest.NarrowingSource();
+		narrowingSource.small = 1;
+
+		// operate & verify
+		assertTrue(assertEquivalent(createIdentity(), IdentityDTO.class));
+		assertTrue(assertEquivalent(femaleIdentity, IdentityDTO.class));
+		assertTrue(assertEquivalent(unknownGenderIdentity, IdentityDTO.class));
+		assertTrue(assertEquivalent(new Identity(), IdentityDTO.class));
+		assertTrue(assertEquivalent(address, AddressDTO.class));
+		assertTrue(assertEquivalent(new Address(), AddressDTO.class));
+		assertTrue(assertEquivalent(wideningSource, DTOMapperTest.WideningTarget.class));
+		assertFalse(assertEquivalent(unboxingNullSource, DTOMapperTest.WideningTarget.class));
+		assertFalse(assertEquivalent(narrowingSource, DTOMapperTest.WideningTarget.class));
+	}
+
+	@Test
+	public void testMapperEqualsManualCopy() throws Exception {
+		// setup
+		Identity identity = createIdentity();
+
+		// operate
+		IdentityDTO mapped = new DTOMapper().map(identity, IdentityDTO.class);
+		IdentityDTO copied = manualCopy(identity);
+
+		// verify
+		assertEquals(copied.cardNumber, mapped.cardNumber);
+		assertEquals(copied.chipNumber, mapped.chipNumber);
+		assertEquals(copied.cardValidityDateBegin, mapped.cardValidityDateBegin);
+		assertEquals(copied.cardValidityDateEnd, mapped.cardValidityDateEnd);
+		assertEquals(copied.cardDeliveryMunicipality, mapped.cardDeliveryMunicipality);
+		assertEquals(copied.nationalNumber, mapped.nationalNumber);
+		assertEquals(copied.name, mapped.name);
+		assertEquals(copied.firstName, mapped.firstName);
+		assertEquals(copied.middleName, mapped.middleName);
+		assertEquals(copied.nationality, mapped.nationality);
+		assertEquals(copied.placeOfBirth, mapped.placeOfBirth);
+		assertEquals(copied.dateOfBirth, mapped.dateOfBirth);
+		assertEquals(copied.male, mapped.male);
+		assertEquals(copied.female, mapped.female);
+		assertEquals(copied.nobleCondition, mapped.nobleCondition);
+		assertEquals(copied.duplicate, mapped.duplicate);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		Identity identity = createIdentity();
+		System.out.println("DTO mapper: " + Math.round(benchmarkMapper(identity, iterations / 10, iterations))
+				+ " ns/map");
+		System.out.println("manual copy: " + Math.round(benchmarkManual(identity, iterations / 10, iterations))
+				+ " ns/map");
+	}
+
+	/**
+	 * Maps the given object via both the mapping plans and the reflective
+	 * mapper.
+	 * 
+	 * @return <code>true</code> if the object could be mapped.
+	 */
+	private static <T> boolean assertEquivalent(Object from, Class<T> toClass) throws Exception {
+		T expected;
+		try {
+			expected = ReflectiveDTOMapper.map(from, toClass);
+		} catch (RuntimeException e) {
+			LOG.debug("reflective mapper error: " + e.getMessage());
+			expected = null;
+		}
+		T result;
+		try {
+			result = new DTOMapper().map(from, toClass);
+		} catch (RuntimeException e) {
+			if (null != expected) {
+				throw new AssertionError("unexpected error for " + from.getClass().getName() + ": " + e);
+			}
+			return false;
+		}
+		if (null == expected) {
+			fail("expected error for " + from.getClass().getName());
+		}
+		for (Field field : toClass.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			field.setAccessible(true);
+			assertEquals(field.getName(), field.get(expected), field.get(result));
+		}
+		return true;
+	}
+
+	private static double benchmarkMapper(Identity identity, int warmup, int iterations) {
+		DTOMapper dtoMapper = new DTOMapper();
+		for (int idx = 0; idx < warmup; idx++) {
+			dtoMapper.map(identity, IdentityDTO.class);
+		}
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < iterations; idx++) {
+			IdentityDTO identityDTO = dtoMapper.map(identity, IdentityDTO.class);
+			assertTrue(identityDTO.male);
+		}
+		return (double) (System.nanoTime() - t0) / iterations;
+	}
+
+	private static double benchmarkManual(Identity identity, int warmup, int iterations) {
+		for (int idx = 0; idx < warmup; idx++) {
+			manualCopy(identity);
+		}
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < iterations; idx++) {
+			IdentityDTO identityDTO = manualCopy(identity);
+			assertTrue(identityDTO.male);
+		}
+		return (double) (System.nanoTime() - t0) / iterations;
+	}
+
+	private static IdentityDTO manualCopy(Identity identity) {
+		IdentityDTO identityDTO = new IdentityDTO();
+		identityDTO.cardNumber = identity.cardNumber;
+		identityDTO.chipNumber = identity.chipNumber;
+		identityDTO.cardValidityDateBegin = identity.cardValidityDateBegin;
+		identityDTO.cardValidityDateEnd = identity.cardValidityDateEnd;
+		identityDTO.cardDeliveryMunicipality = identity.cardDeliveryMunicipality;
+		identityDTO.nationalNumber = identity.nationalNumber;
+		identityDTO.name = identity.name;
+		identityDTO.firstName = identity.firstName;
+		identityDTO.middleName = identity.middleName;
+		identityDTO.nationality = identity.nationality;
+		identityDTO.placeOfBirth = identity.placeOfBirth;
+		identityDTO.dateOfBirth = identity.dateOfBirth;
+		identityDTO.male = Gender.MALE == identity.gender;
+		identityDTO.female = Gender.FEMALE == identity.gender;
+		identityDTO.nobleCondition = identity.nobleCondition;
+		identityDTO.duplicate = identity.duplicate;
+		return identityDTO;
+	}
+
+	private static Identity createIdentity() {
+		Identity identity = new Identity();
+		identity.firstName = "hello-world";
+		identity.name = "test-name";
+		identity.cardNumber = "card-number";
+		identity.chipNumber = "chip-number";
+		identity.dateOfBirth = new GregorianCalendar();
+		identity.placeOfBirth = "place-of-birth";
+		identity.nationality = "nationality";
+		identity.middleName = "middle-name";
+		identity.nationalNumber = "national-number";
+		identity.cardDeliveryMunicipality = "cardDeliveryMunicipality";
+		identity.cardValidityDateBegin = new GregorianCalendar();
+		identity.cardValidityDateEnd = new GregorianCalendar();
+		identity.nobleCondition = "nobleCondition";
+		identity.duplicate = "duplicate";
+		identity.gender = Gender.MALE;
+		return identity;
+	}
+
+	/**
+	 * The original reflective DTO mapper, which inspects the annotations and
+	 * instantiates the value convertors on every map operation.
+	 */
+	private static class ReflectiveDTOMapper {
+
+		@SuppressWarnings("unchecked")
+		public static <T> T map(Object from, Class<T> toClass) {
+			T to;
+			try {
+				to = toClass.newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException("could not create new instance of " + toClass.getName());
+			}
+			for (Field fromField : from.getClass().getDeclaredFields()) {
+				Mapping mappingAnnotation = fromField.getAnnotation(Mapping.class);
+				if (null == mappingAnnotation) {
+					continue;
+				}
+				for (MapsTo mapsToAnnotation : mappingAnnotation.value()) {
+					if (false == toClass.equals(mapsToAnnotation.value())) {
+						continue;
+					}
+					String toFieldName = mapsToAnnotation.field();
+					if (toFieldName.isEmpty()) {
+						toFieldName = fromField.getName();
+					}
+					Field toField;
+					try {
+						toField = toClass.getDeclaredField(toFieldName);
+					} catch (Exception e) {
+						throw new RuntimeException("no such target field: " + toFieldName);
+					}
+					Object value;
+					try {
+						value = fromField.get(from);
+					} catch (Exception e) {
+						throw new RuntimeException("could not read field: " + fromField.getName());
+					}
+					Class<? extends ValueConvertor<?, ?>> valueConvertorClass = mapsToAnnotation.convertor();
+					if (false == IdenticalValueConvertor.class.equals(valueConvertorClass)) {
+						try {
+							value = ((ValueConvertor<Object, Object>) valueConvertorClass.newInstance()).convert(value);
+						} catch (Exception e) {
+							throw new RuntimeException("could not convert value of field: " + fromField.getName());
+						}
+					}
+					try {
+						toField.set(to, value);
+					} catch (Exception e) {
+						throw new RuntimeException("could not write field " + toFieldName + ": " + e.getMessage(), e);
+					}
+				}
+			}
+			return to;
+		}
+	}
+}
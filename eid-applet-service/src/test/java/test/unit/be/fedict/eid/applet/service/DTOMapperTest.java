@@ -23,6 +23,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.GregorianCalendar;
 
@@ -32,6 +33,8 @@ import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.Gender;
 import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.dto.DTOMapper;
+import be.fedict.eid.applet.service.dto.MapsTo;
+import be.fedict.eid.applet.service.dto.Mapping;
 import be.fedict.eid.applet.service.spi.AddressDTO;
 import be.fedict.eid.applet.service.spi.IdentityDTO;
 
@@ -150,4 +153,119 @@ public class DTOMapperTest {
 		assertEquals("1234", result.zip);
 		assertEquals("city", result.city);
 	}
+
+	@Test
+	public void testMissingTargetFieldFailsFast() throws Exception {
+		// operate & verify
+		try {
+			DTOMapper.checkMapping(MissingTargetField.class, AddressDTO.class);
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+			assertEquals("no such target field: foobar", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testIncompatibleTargetFieldFailsFast() throws Exception {
+		// operate & verify
+		try {
+			DTOMapper.checkMapping(IncompatibleTargetField.class, AddressDTO.class);
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+			assertEquals("incompatible target field type: zip", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPrimitiveWidening() throws Exception {
+		// setup
+		WideningSource source = new WideningSource();
+		source.count = 1234;
+		source.small = 12;
+		source.ratio = 0.5f;
+		source.boxed = 5678;
+		source.character = 'a';
+		source.boxedInt = 90;
+
+		DTOMapper dtoMapper = new DTOMapper();
+
+		// operate
+		WideningTarget result = dtoMapper.map(source, WideningTarget.class);
+
+		// verify
+		assertEquals(1234L, result.count);
+		assertEquals(12, result.small);
+		assertEquals(0.5, result.ratio, 0);
+		assertEquals(5678L, result.boxed);
+		assertEquals('a', result.character);
+		assertEquals(Integer.valueOf(90), result.boxedInt);
+	}
+
+	@Test
+	public void testPrimitiveNarrowingFailsFast() throws Exception {
+		// operate & verify
+		try {
+			DTOMapper.checkMapping(NarrowingSource.class, WideningTarget.class);
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+			assertEquals("incompatible target field type: small", e.getMessage());
+		}
+	}
+
+	public static class WideningTarget {
+
+		public long count;
+
+		public int small;
+
+		public double ratio;
+
+		public long boxed;
+
+		public int character;
+
+		public Integer boxedInt;
+	}
+
+	public static class WideningSource {
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public int count;
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public short small;
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public float ratio;
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public Integer boxed;
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public char character;
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public int boxedInt;
+	}
+
+	public static class NarrowingSource {
+
+		@Mapping(@MapsTo(WideningTarget.class))
+		public long small;
+	}
+
+	public static class MissingTargetField {
+
+		@Mapping(@MapsTo(value = AddressDTO.class, field = "foobar"))
+		public String streetAndNumber;
+	}
+
+	public static class IncompatibleTargetField {
+
+		@Mapping(@MapsTo(AddressDTO.class))
+		public Integer zip;
+	}
 }
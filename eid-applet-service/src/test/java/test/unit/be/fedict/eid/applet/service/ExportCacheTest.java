@@ -0,0 +1,216 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.GregorianCalendar;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.EIdData;
+import be.fedict.eid.applet.service.Gender;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.impl.ExportCache;
+import be.fedict.eid.applet.service.impl.VcardGenerator;
+
+public class ExportCacheTest {
+
+	@Test
+	public void testDigest() throws Exception {
+		// setup
+		EIdData eIdData1 = createEIdData("Alice");
+		EIdData eIdData2 = createEIdData("Alice");
+		EIdData eIdData3 = createEIdData("Bob");
+
+		// operate
+		String digest1 = ExportCache.digest(eIdData1);
+		String digest2 = ExportCache.digest(eIdData2);
+		String digest3 = ExportCache.digest(eIdData3);
+		eIdData2.address.zip = "4321";
+		String digest4 = ExportCache.digest(eIdData2);
+
+		// verify
+		assertEquals(digest1, digest2);
+		assertFalse(digest1.equals(digest3));
+		assertFalse(digest1.equals(digest4));
+	}
+
+	@Test
+	public void testCachingOutputStream() throws Exception {
+		// setup
+		ExportCache testedInstance = new ExportCache(1024 * 1024);
+		EIdData eIdData = createEIdData("Alice");
+		String digest = ExportCache.digest(eIdData);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		// operate
+		ExportCache.CachingOutputStream cachingOutputStream = testedInstance.cache("vcard", digest, outputStream);
+		new VcardGenerator().generateVcard(eIdData, cachingOutputStream);
+		cachingOutputStream.storeExport();
+
+		// verify
+		byte[] export = testedInstance.findExport("vcard", digest);
+		assertNotNull(export);
+		assertArrayEquals(outputStream.toByteArray(), export);
+		assertNull(testedInstance.findExport("pdf", digest));
+		assertEquals(export.length, testedInstance.getSize());
+	}
+
+	@Test
+	public void testWriteExport() throws Exception {
+		// setup
+		ExportCache testedInstance = new ExportCache(1024);
+		EIdData aliceEIdData = createEIdData("Alice");
+		EIdData bobEIdData = createEIdData("Bob");
+		TestExportWriter aliceExportWriter = new TestExportWriter("alice-vcard");
+		TestExportWriter bobExportWriter = new TestExportWriter("bob-vcard");
+		TestServletOutputStream aliceOutputStream = new TestServletOutputStream();
+		TestServletOutputStream bobOutputStream = new TestServletOutputStream();
+		TestServletOutputStream cachedOutputStream = new TestServletOutputStream();
+		HttpServletResponse mockAliceResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		EasyMock.expect(mockAliceResponse.getOutputStream()).andReturn(aliceOutputStream);
+		HttpServletResponse mockBobResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		EasyMock.expect(mockBobResponse.getOutputStream()).andReturn(bobOutputStream);
+		HttpServletResponse mockCachedResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		EasyMock.expect(mockCachedResponse.getOutputStream()).andReturn(cachedOutputStream);
+		mockCachedResponse.setContentLength("alice-vcard".length());
+
+		// prepare
+		EasyMock.replay(mockAliceResponse, mockBobResponse, mockCachedResponse);
+
+		// operate
+		ExportCache.writeExport(testedInstance, "vcard", aliceEIdData, mockAliceResponse, aliceExportWriter);
+		ExportCache.writeExport(testedInstance, "vcard", bobEIdData, mockBobResponse, bobExportWriter);
+		ExportCache.writeExport(testedInstance, "vcard", aliceEIdData, mockCachedResponse, aliceExportWriter);
+
+		// verify
+		EasyMock.verify(mockAliceResponse, mockBobResponse, mockCachedResponse);
+		assertEquals(1, aliceExportWriter.count);
+		assertEquals(1, bobExportWriter.count);
+		assertArrayEquals("alice-vcard".getBytes(), aliceOutputStream.toByteArray());
+		assertArrayEquals("bob-vcard".getBytes(), bobOutputStream.toByteArray());
+		assertArrayEquals("alice-vcard".getBytes(), cachedOutputStream.toByteArray());
+		assertEquals("alice-vcard".length() + "bob-vcard".length(), testedInstance.getSize());
+	}
+
+	@Test
+	public void testWriteExportWithoutCache() throws Exception {
+		// setup
+		TestExportWriter exportWriter = new TestExportWriter("vcard");
+		TestServletOutputStream outputStream = new TestServletOutputStream();
+		HttpServletResponse mockResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		EasyMock.expect(mockResponse.getOutputStream()).andStubReturn(outputStream);
+
+		// prepare
+		EasyMock.replay(mockResponse);
+
+		// operate
+		ExportCache.writeExport(null, "vcard", createEIdData("Alice"), mockResponse, exportWriter);
+		ExportCache.writeExport(null, "vcard", createEIdData("Alice"), mockResponse, exportWriter);
+
+		// verify
+		EasyMock.verify(mockResponse);
+		assertEquals(2, exportWriter.count);
+		assertArrayEquals("vcardvcard".getBytes(), outputStream.toByteArray());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		// setup
+		ExportCache testedInstance = new ExportCache(32);
+
+		// operate
+		testedInstance.storeExport("pdf", "digest-1", "01234567".getBytes());
+		testedInstance.storeExport("pdf", "digest-2", "01234567".getBytes());
+		testedInstance.findExport("pdf", "digest-1");
+		testedInstance.storeExport("pdf", "digest-3", "01234567".getBytes());
+		testedInstance.storeExport("pdf", "digest-4", "01234567".getBytes());
+		testedInstance.storeExport("pdf", "digest-5", "01234567".getBytes());
+		testedInstance.storeExport("pdf", "too-large", "012345678".getBytes());
+
+		// verify
+		assertNull(testedInstance.findExport("pdf", "digest-2"));
+		assertNotNull(testedInstance.findExport("pdf", "digest-1"));
+		assertNotNull(testedInstance.findExport("pdf", "digest-3"));
+		assertNotNull(testedInstance.findExport("pdf", "digest-4"));
+		assertNotNull(testedInstance.findExport("pdf", "digest-5"));
+		assertNull(testedInstance.findExport("pdf", "too-large"));
+		assertEquals(32, testedInstance.getSize());
+	}
+
+	private EIdData createEIdData(String firstName) {
+		Identity identity = new Identity();
+		identity.name = "Test Name";
+		identity.firstName = firstName;
+		identity.dateOfBirth = new GregorianCalendar(1971, 0, 1);
+		identity.gender = Gender.FEMALE;
+		Address address = new Address();
+		address.streetAndNumber = "Test Street 1A";
+		address.zip = "1234";
+		address.municipality = "Test Municipality";
+		EIdData eIdData = new EIdData();
+		eIdData.identity = identity;
+		eIdData.address = address;
+		eIdData.photo = "photo".getBytes();
+		return eIdData;
+	}
+
+	private static class TestExportWriter implements ExportCache.ExportWriter {
+
+		private final String export;
+
+		private int count;
+
+		public TestExportWriter(String export) {
+			this.export = export;
+		}
+
+		public void writeExport(OutputStream outputStream) throws IOException {
+			this.count++;
+			outputStream.write(this.export.getBytes());
+		}
+	}
+
+	private static class TestServletOutputStream extends ServletOutputStream {
+
+		private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			this.outputStream.write(b);
+		}
+
+		public byte[] toByteArray() {
+			return this.outputStream.toByteArray();
+		}
+	}
+}
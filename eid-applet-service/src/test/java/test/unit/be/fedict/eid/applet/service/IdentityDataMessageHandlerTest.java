@@ -72,8 +72,10 @@ public class IdentityDataMessageHandlerTest {
 
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceCacheTTL")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SkipNationalNumberCheck")).andStubReturn(null);
 
 		mockHttpSession.setAttribute(EasyMock.eq("eid.identity"), EasyMock.isA(Identity.class));
@@ -88,6 +90,14 @@ public class IdentityDataMessageHandlerTest {
 				.andStubReturn(false);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.USE_PHOTO_STORE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME))
+				.andStubReturn(null);
 
 		byte[] idFile = "foobar-id-file".getBytes();
 		IdentityDataMessage message = new IdentityDataMessage();
@@ -126,8 +136,10 @@ public class IdentityDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceClass"))
 				.andStubReturn(IdentityIntegrityTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceCacheTTL")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SkipNationalNumberCheck")).andStubReturn(null);
 
 		EasyMock.expect(mockHttpSession.getAttribute("eid.identifier")).andStubReturn(null);
@@ -144,6 +156,14 @@ public class IdentityDataMessageHandlerTest {
 				.andStubReturn(false);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.USE_PHOTO_STORE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME))
+				.andStubReturn(null);
 
 		byte[] idFile = "foobar-id-file".getBytes();
 		IdentityDataMessage message = new IdentityDataMessage();
@@ -187,9 +207,11 @@ public class IdentityDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceClass"))
 				.andStubReturn(IdentityIntegrityTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceCacheTTL")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass"))
 				.andStubReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SkipNationalNumberCheck")).andStubReturn(null);
 
 		EasyMock.expect(mockServletRequest.getRemoteAddr()).andStubReturn("remote-address");
@@ -202,6 +224,14 @@ public class IdentityDataMessageHandlerTest {
 				.andStubReturn(false);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.USE_PHOTO_STORE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME))
+				.andStubReturn(null);
 
 		byte[] idFile = "foobar-id-file".getBytes();
 		IdentityDataMessage message = new IdentityDataMessage();
@@ -250,9 +280,11 @@ public class IdentityDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceClass"))
 				.andStubReturn(IdentityIntegrityTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("IdentityIntegrityServiceCacheTTL")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass"))
 				.andStubReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SkipNationalNumberCheck")).andStubReturn(null);
 
 		EasyMock.expect(mockHttpSession.getAttribute(RequestContext.INCLUDE_ADDRESS_SESSION_ATTRIBUTE))
@@ -263,6 +295,14 @@ public class IdentityDataMessageHandlerTest {
 				.andStubReturn(false);
 		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.INCLUDE_DATA_FILES))
 				.andReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter(IdentityDataMessageHandler.USE_PHOTO_STORE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_MAX_SIZE_INIT_PARAM_NAME))
+				.andStubReturn(null);
+		EasyMock.expect(
+				mockServletConfig.getInitParameter(IdentityDataMessageHandler.PHOTO_STORE_DIRECTORY_INIT_PARAM_NAME))
+				.andStubReturn(null);
 
 		EasyMock.expect(mockServletRequest.getRemoteAddr()).andStubReturn("remote-address");
 
@@ -0,0 +1,219 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.easymock.EasyMock;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.IdentitySignatureVerifier;
+import be.fedict.eid.applet.service.impl.archive.ArchiveIdentityRecordSource;
+import be.fedict.eid.applet.service.impl.archive.IdentityArchiveWriter;
+import be.fedict.eid.applet.service.impl.archive.IdentityReverificationJob;
+import be.fedict.eid.applet.service.impl.archive.ReverificationReport;
+import be.fedict.eid.applet.service.impl.archive.ReverificationReport.Result;
+import be.fedict.eid.applet.service.spi.IdentityIntegrityService;
+import be.fedict.eid.applet.service.spi.IdentityRecordDTO;
+import be.fedict.eid.applet.service.spi.IdentityRecordSource;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+
+public class IdentityReverificationJobTest {
+
+	private static final Log LOG = LogFactory.getLog(IdentityReverificationJobTest.class);
+
+	private static KeyPair rrnKeyPair;
+
+	private static X509Certificate rrnCertificate;
+
+	private File archiveFile;
+
+	private File checkpointFile;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		rrnKeyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		rrnCertificate = MiscTestUtils.generateCertificate(rrnKeyPair.getPublic(), "CN=Test RRN", notBefore,
+				notBefore.plusYears(1), null, rrnKeyPair.getPrivate(), false, -1, null, null);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.archiveFile = File.createTempFile("identity-archive-", ".eidr");
+		this.checkpointFile = File.createTempFile("reverification-", ".checkpoint");
+		this.checkpointFile.delete();
+		writeArchive();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.archiveFile.delete();
+		this.checkpointFile.delete();
+	}
+
+	@Test
+	public void testReport() throws Exception {
+		// setup
+		IdentityIntegrityService mockIdentityIntegrityService = EasyMock.createMock(IdentityIntegrityService.class);
+		mockIdentityIntegrityService.checkNationalRegistrationCertificate(EasyMock.<List<X509Certificate>> anyObject());
+		ArchiveIdentityRecordSource identityRecordSource = new ArchiveIdentityRecordSource(this.archiveFile);
+		IdentityReverificationJob testedInstance = new IdentityReverificationJob(identityRecordSource,
+				mockIdentityIntegrityService, rrnCertificate, this.checkpointFile, 4, 3);
+
+		// prepare
+		EasyMock.replay(mockIdentityIntegrityService);
+
+		// operate
+		ReverificationReport result = testedInstance.run();
+		identityRecordSource.close();
+
+		// verify
+		EasyMock.verify(mockIdentityIntegrityService);
+		LOG.debug("report:\n" + result);
+		assertEquals(20, result.getTotal());
+		assertEquals(11, result.getCount(Result.VALID));
+		assertEquals(3, result.getCount(Result.IDENTITY_SIGNATURE_INVALID));
+		assertEquals(3, result.getCount(Result.ADDRESS_SIGNATURE_INVALID));
+		assertEquals(3, result.getCount(Result.MISSING_DATA));
+		assertEquals(9, result.getFailures());
+		assertFalse(this.checkpointFile.exists());
+	}
+
+	@Test
+	public void testRevokedRrnCertificate() throws Exception {
+		// setup
+		IdentityIntegrityService mockIdentityIntegrityService = EasyMock.createMock(IdentityIntegrityService.class);
+		mockIdentityIntegrityService.checkNationalRegistrationCertificate(EasyMock.<List<X509Certificate>> anyObject());
+		EasyMock.expectLastCall().andThrow(new RevokedCertificateSecurityException());
+		ArchiveIdentityRecordSource identityRecordSource = new ArchiveIdentityRecordSource(this.archiveFile);
+		IdentityReverificationJob testedInstance = new IdentityReverificationJob(identityRecordSource,
+				mockIdentityIntegrityService, rrnCertificate, null, 1, 5);
+
+		// prepare
+		EasyMock.replay(mockIdentityIntegrityService);
+
+		// operate
+		ReverificationReport result = testedInstance.run();
+		identityRecordSource.close();
+
+		// verify
+		EasyMock.verify(mockIdentityIntegrityService);
+		assertEquals(17, result.getCount(Result.RRN_CERTIFICATE_REVOKED));
+		assertEquals(3, result.getCount(Result.MISSING_DATA));
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		// setup
+		final ArchiveIdentityRecordSource identityRecordSource = new ArchiveIdentityRecordSource(this.archiveFile);
+		IdentityRecordSource failingIdentityRecordSource = new IdentityRecordSource() {
+
+			private int calls;
+
+			public List<IdentityRecordDTO> getRecords(String position, int maxRecords) {
+				if (++this.calls > 2) {
+					throw new IllegalStateException("record source down");
+				}
+				return identityRecordSource.getRecords(position, maxRecords);
+			}
+		};
+		IdentityReverificationJob failingJob = new IdentityReverificationJob(failingIdentityRecordSource, null,
+				rrnCertificate, this.checkpointFile, 1, 4);
+		try {
+			failingJob.run();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(this.checkpointFile.exists());
+		IdentityReverificationJob testedInstance = new IdentityReverificationJob(identityRecordSource, null,
+				rrnCertificate, this.checkpointFile, 2, 4);
+
+		// operate
+		ReverificationReport result = testedInstance.run();
+		identityRecordSource.close();
+
+		// verify
+		assertEquals(20, result.getTotal());
+		assertEquals(11, result.getCount(Result.VALID));
+		assertFalse(this.checkpointFile.exists());
+	}
+
+	/*
+	 * 20 records: every 7th misses its identity signature, records 1, 8 and
+	 * 15 have a tampered identity signature, records 2, 9 and 16 have a
+	 * tampered address signature.
+	 */
+	private void writeArchive() throws Exception {
+		byte[] identityFile = IOUtils.toByteArray(IdentityReverificationJobTest.class
+				.getResourceAsStream("/id-alice.tlv"));
+		byte[] addressFile = IOUtils.toByteArray(IdentityReverificationJobTest.class
+				.getResourceAsStream("/address-alice.tlv"));
+		byte[] identitySignatureFile = sign(identityFile);
+		byte[] addressSignatureFile = sign(IdentitySignatureVerifier.trimRight(addressFile), identitySignatureFile);
+		byte[] tamperedIdentitySignatureFile = identitySignatureFile.clone();
+		tamperedIdentitySignatureFile[10]++;
+		byte[] tamperedAddressSignatureFile = addressSignatureFile.clone();
+		tamperedAddressSignatureFile[10]++;
+		IdentityArchiveWriter writer = new IdentityArchiveWriter(new FileOutputStream(this.archiveFile));
+		for (int idx = 0; idx < 20; idx++) {
+			switch (idx % 7) {
+			case 0:
+				writer.write(identityFile, null, addressFile, addressSignatureFile);
+				break;
+			case 1:
+				writer.write(identityFile, tamperedIdentitySignatureFile, addressFile, addressSignatureFile);
+				break;
+			case 2:
+				writer.write(identityFile, identitySignatureFile, addressFile, tamperedAddressSignatureFile);
+				break;
+			default:
+				writer.write(identityFile, identitySignatureFile, addressFile, addressSignatureFile);
+			}
+		}
+		writer.close();
+	}
+
+	private static byte[] sign(byte[]... data) throws Exception {
+		Signature signature = Signature.getInstance(rrnCertificate.getSigAlgName());
+		signature.initSign(rrnKeyPair.getPrivate());
+		for (byte[] dataItem : data) {
+			signature.update(dataItem);
+		}
+		return signature.sign();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.AddressView;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.IdentityView;
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+
+public class IdentityViewTest {
+
+	private static final String[] IDENTITY_FILES = { "/id-alice.tlv", "/id-alice-2.tlv", "/id-foreigner.tlv",
+			"/duplicate-02.tlv", "/extended-minority.tlv", "/yellow-cane.tlv", "/white-cane.tlv",
+			"/dateandcountry.tlv", "/h-card.tlv" };
+
+	@Test
+	public void testSameAsParser() throws Exception {
+		for (String identityFileName : IDENTITY_FILES) {
+			// setup
+			byte[] identityFile = IOUtils.toByteArray(IdentityViewTest.class.getResourceAsStream(identityFileName));
+			Identity identity = TlvParser.parse(identityFile, Identity.class);
+
+			// operate
+			IdentityView testedInstance = new IdentityView(identityFile);
+
+			// verify
+			assertEquals(identity.getCardNumber(), testedInstance.getCardNumber());
+			assertEquals(identity.getChipNumber(), testedInstance.getChipNumber());
+			assertEquals(identity.getCardValidityDateBegin(), testedInstance.getCardValidityDateBegin());
+			assertEquals(identity.getCardValidityDateEnd(), testedInstance.getCardValidityDateEnd());
+			assertEquals(identity.getCardDeliveryMunicipality(), testedInstance.getCardDeliveryMunicipality());
+			assertEquals(identity.getNationalNumber(), testedInstance.getNationalNumber());
+			assertEquals(identity.getName(), testedInstance.getName());
+			assertEquals(identity.getFirstName(), testedInstance.getFirstName());
+			assertEquals(identity.getMiddleName(), testedInstance.getMiddleName());
+			assertEquals(identity.getNationality(), testedInstance.getNationality());
+			assertEquals(identity.getPlaceOfBirth(), testedInstance.getPlaceOfBirth());
+			assertEquals(identity.getDateOfBirth(), testedInstance.getDateOfBirth());
+			assertEquals(identity.getGender(), testedInstance.getGender());
+			assertEquals(identity.getNobleCondition(), testedInstance.getNobleCondition());
+			assertEquals(identity.getDocumentType(), testedInstance.getDocumentType());
+			assertArrayEquals(identity.getPhotoDigest(), testedInstance.getPhotoDigest());
+			assertEquals(identity.getSpecialStatus(), testedInstance.getSpecialStatus());
+			assertEquals(identity.getDuplicate(), testedInstance.getDuplicate());
+			assertEquals(identity.isMemberOfFamily(), testedInstance.isMemberOfFamily());
+			assertEquals(identity.getSpecialOrganisation(), testedInstance.getSpecialOrganisation());
+			assertEquals(identity.getDateAndCountryOfProtection(), testedInstance.getDateAndCountryOfProtection());
+			assertEquals(identity.getDateOfProtection(), testedInstance.getDateOfProtection());
+			assertEquals(identity.getCountryOfProtection(), testedInstance.getCountryOfProtection());
+		}
+	}
+
+	@Test
+	public void testLazyDecoding() throws Exception {
+		// setup
+		byte[] identityFile = new byte[] { 6, 2, '4', '2', 7, 3, 'B', 'o', 'b', 12, 3, '9', '8', '4' };
+
+		// operate
+		IdentityView testedInstance = new IdentityView(identityFile);
+
+		// verify
+		assertEquals("42", testedInstance.getNationalNumber());
+		assertEquals("Bob", testedInstance.getName());
+		assertNull(testedInstance.getFirstName());
+		assertFalse(testedInstance.isMemberOfFamily());
+		try {
+			testedInstance.getDateOfBirth();
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+		try {
+			testedInstance.toIdentity();
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAddress() throws Exception {
+		// setup
+		byte[] addressFile = IOUtils.toByteArray(IdentityViewTest.class.getResourceAsStream("/address-alice.tlv"));
+		Address address = TlvParser.parse(addressFile, Address.class);
+
+		// operate
+		AddressView testedInstance = new AddressView(addressFile);
+
+		// verify
+		assertEquals(address.getStreetAndNumber(), testedInstance.getStreetAndNumber());
+		assertEquals(address.getZip(), testedInstance.getZip());
+		assertEquals(address.getMunicipality(), testedInstance.getMunicipality());
+		assertEquals(address.getZip(), testedInstance.toAddress().getZip());
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		// setup
+		byte[] identityFile = IOUtils.toByteArray(IdentityViewTest.class.getResourceAsStream("/id-alice.tlv"));
+		IdentityView identityView = new IdentityView(identityFile);
+		String name = identityView.getName();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+		objectOutputStream.writeObject(identityView);
+		objectOutputStream.close();
+
+		// operate
+		ObjectInputStream objectInputStream = new ObjectInputStream(
+				new ByteArrayInputStream(outputStream.toByteArray()));
+		IdentityView testedInstance = (IdentityView) objectInputStream.readObject();
+
+		// verify
+		assertEquals(name, testedInstance.getName());
+		assertEquals(identityView.getNationalNumber(), testedInstance.getNationalNumber());
+	}
+}
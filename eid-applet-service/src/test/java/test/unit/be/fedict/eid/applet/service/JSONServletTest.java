@@ -24,16 +24,23 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMWriter;
 import org.joda.time.DateTime;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -128,4 +135,143 @@ public class JSONServletTest {
 
 		LOG.debug("JSON result: " + eidJSONObject.toJSONString());
 	}
+
+	@Test
+	public void testStreamedJSONOutputMatchesJSONSimple() throws Exception {
+		// setup
+		EIdData eIdData = createEIdData();
+
+		StringWriter stringWriter = new StringWriter();
+
+		// operate
+		JSONServlet.outputJSON(eIdData, stringWriter, null);
+
+		// verify
+		String jsonOutput = stringWriter.toString();
+		LOG.debug("JSON output: " + jsonOutput);
+		JSONObject result = (JSONObject) new JSONParser().parse(jsonOutput);
+		assertEquals(createJSONSimpleObject(eIdData), result);
+	}
+
+	@Test
+	public void testFieldSelection() throws Exception {
+		// setup
+		EIdData eIdData = createEIdData();
+		Set<String> fields = new HashSet<String>();
+		fields.add("identity.name");
+		fields.add("address");
+		fields.add("certs.authn.thumbprint");
+
+		StringWriter stringWriter = new StringWriter();
+
+		// operate
+		JSONServlet.outputJSON(eIdData, stringWriter, fields);
+
+		// verify
+		String jsonOutput = stringWriter.toString();
+		LOG.debug("JSON output: " + jsonOutput);
+		JSONObject result = (JSONObject) new JSONParser().parse(jsonOutput);
+		assertEquals(3, result.size());
+		JSONObject identityJSONObject = (JSONObject) result.get("identity");
+		assertEquals(1, identityJSONObject.size());
+		assertEquals("Test \"name\" \u00e9/\u2013", identityJSONObject.get("name"));
+		JSONObject addressJSONObject = (JSONObject) result.get("address");
+		assertEquals(3, addressJSONObject.size());
+		JSONObject certsJSONObject = (JSONObject) result.get("certs");
+		assertEquals(1, certsJSONObject.size());
+		JSONObject authnJSONObject = (JSONObject) certsJSONObject.get("authn");
+		assertEquals(1, authnJSONObject.size());
+		assertEquals(DigestUtils.shaHex(eIdData.certs.authn.getEncoded()), authnJSONObject.get("thumbprint"));
+	}
+
+	private EIdData createEIdData() throws Exception {
+		EIdData eIdData = new EIdData();
+		eIdData.identity = new Identity();
+		eIdData.identity.nationalNumber = "123456789";
+		eIdData.identity.name = "Test \"name\" \u00e9/\u2013";
+		eIdData.identity.firstName = "first\tname";
+		eIdData.identity.dateOfBirth = new GregorianCalendar(1971, 0, 1);
+		eIdData.identity.cardValidityDateBegin = new GregorianCalendar();
+		eIdData.identity.cardValidityDateEnd = new GregorianCalendar();
+		eIdData.identity.gender = Gender.FEMALE;
+		eIdData.address = new Address();
+		eIdData.address.streetAndNumber = "test-street-1234";
+
+		eIdData.certs = new EIdCertsData();
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(5);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, null, keyPair.getPrivate(), false, 0, null, null);
+		eIdData.certs.authn = certificate;
+		eIdData.certs.sign = certificate;
+		eIdData.certs.ca = certificate;
+		eIdData.certs.root = certificate;
+		return eIdData;
+	}
+
+	/**
+	 * The JSON tree as it used to be constructed via json-simple.
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject createJSONSimpleObject(EIdData eIdData) throws Exception {
+		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("MM/dd/yyyy");
+		JSONObject eidJSONObject = new JSONObject();
+
+		JSONObject identityJSONObject = new JSONObject();
+		eidJSONObject.put("identity", identityJSONObject);
+		Identity identity = eIdData.identity;
+		identityJSONObject.put("nationalNumber", identity.nationalNumber);
+		identityJSONObject.put("name", identity.name);
+		identityJSONObject.put("firstName", identity.firstName);
+		identityJSONObject.put("middleName", identity.middleName);
+		identityJSONObject.put("dateOfBirth", simpleDateFormat.format(identity.dateOfBirth.getTime()));
+		identityJSONObject.put("placeOfBirth", identity.placeOfBirth);
+		identityJSONObject.put("gender", identity.gender.toString());
+
+		JSONObject cardJSONObject = new JSONObject();
+		eidJSONObject.put("card", cardJSONObject);
+		cardJSONObject.put("cardNumber", identity.cardNumber);
+		cardJSONObject.put("chipNumber", identity.chipNumber);
+		cardJSONObject.put("cardDeliveryMunicipality", identity.cardDeliveryMunicipality);
+		cardJSONObject.put("cardValidityDateBegin", simpleDateFormat.format(identity.cardValidityDateBegin.getTime()));
+		cardJSONObject.put("cardValidityDateEnd", simpleDateFormat.format(identity.cardValidityDateEnd.getTime()));
+
+		JSONObject addressJSONObject = new JSONObject();
+		eidJSONObject.put("address", addressJSONObject);
+		addressJSONObject.put("streetAndNumber", eIdData.address.streetAndNumber);
+		addressJSONObject.put("municipality", eIdData.address.municipality);
+		addressJSONObject.put("zip", eIdData.address.zip);
+
+		JSONObject certsJSONObject = new JSONObject();
+		eidJSONObject.put("certs", certsJSONObject);
+		certsJSONObject.put("authn", createCertJSONObject(eIdData.certs.authn));
+		certsJSONObject.put("sign", createCertJSONObject(eIdData.certs.sign));
+		certsJSONObject.put("citizenCA", createCertJSONObject(eIdData.certs.ca));
+		certsJSONObject.put("rootCA", createCertJSONObject(eIdData.certs.root));
+
+		/*
+		 * Round-trip so we compare against the parsed representation.
+		 */
+		return (JSONObject) new JSONParser().parse(eidJSONObject.toJSONString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject createCertJSONObject(X509Certificate certificate) throws Exception {
+		JSONObject certJSONObject = new JSONObject();
+		certJSONObject.put("subject", certificate.getSubjectX500Principal().toString());
+		certJSONObject.put("issuer", certificate.getIssuerX500Principal().toString());
+		certJSONObject.put("serialNumber", certificate.getSerialNumber().toString());
+		certJSONObject.put("notBefore", certificate.getNotBefore().toString());
+		certJSONObject.put("notAfter", certificate.getNotAfter().toString());
+		certJSONObject.put("signatureAlgo", certificate.getSigAlgName());
+		certJSONObject.put("thumbprint", DigestUtils.shaHex(certificate.getEncoded()));
+		certJSONObject.put("details", certificate.toString());
+		StringWriter stringWriter = new StringWriter();
+		PEMWriter pemWriter = new PEMWriter(stringWriter, BouncyCastleProvider.PROVIDER_NAME);
+		pemWriter.writeObject(certificate);
+		pemWriter.close();
+		certJSONObject.put("pem", stringWriter.toString());
+		return certJSONObject;
+	}
 }
@@ -18,6 +18,8 @@
 
 package test.unit.be.fedict.eid.applet.service;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -26,24 +28,34 @@ import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Element;
 
 import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Gender;
 import be.fedict.eid.applet.service.Identity;
 import be.fedict.eid.applet.service.impl.KmlGenerator;
+import be.fedict.eid.applet.service.util.KmlLight;
+import be.fedict.eid.applet.service.util.KmlLightDocument;
 
 public class KmlGeneratorTest {
 
@@ -191,6 +203,101 @@ public class KmlGeneratorTest {
 		toTmpFile(document);
 	}
 
+	@Test
+	public void streamedKmlMatchesDomKml() throws Exception {
+		// setup
+		Identity identity = new Identity();
+		identity.name = "Test <Name> & \"Co\"";
+		identity.firstName = "T\u00e9st";
+		identity.middleName = "Middle";
+		identity.nationality = "Belg";
+		identity.placeOfBirth = "Gent";
+		identity.dateOfBirth = new GregorianCalendar(1971, 0, 1);
+		identity.cardValidityDateBegin = new GregorianCalendar(2010, 4, 1);
+		identity.cardValidityDateEnd = new GregorianCalendar(2015, 4, 1);
+		identity.gender = Gender.MALE;
+
+		Address address = new Address();
+		address.streetAndNumber = "Test Street 1A > 1B";
+		address.zip = "1234";
+		address.municipality = "Test Municipality";
+
+		EIdData eIdData = new EIdData();
+		eIdData.identity = identity;
+		eIdData.address = address;
+		eIdData.photo = "foobar-photo".getBytes();
+
+		// operate
+		Map<String, byte[]> result = unzip(this.testedInstance.generateKml(eIdData));
+
+		// verify
+		Map<String, byte[]> expected = unzip(generateDomKml(eIdData));
+		LOG.debug("KML: " + new String(result.get("data.kml"), "UTF-8"));
+		assertEquals(expected.keySet().toString(), result.keySet().toString());
+		assertArrayEquals(expected.get("photo.jpg"), result.get("photo.jpg"));
+		assertArrayEquals(expected.get("data.kml"), result.get("data.kml"));
+	}
+
+	@Test
+	public void streamedEmptyKmlMatchesDomKml() throws Exception {
+		// operate
+		Map<String, byte[]> result = unzip(this.testedInstance.generateKml(null));
+
+		// verify
+		Map<String, byte[]> expected = unzip(generateDomKml(null));
+		assertEquals(expected.keySet().toString(), result.keySet().toString());
+		assertArrayEquals(expected.get("data.kml"), result.get("data.kml"));
+	}
+
+	/**
+	 * The KMZ as it used to be generated via the DOM based KML document.
+	 */
+	private byte[] generateDomKml(EIdData eIdData) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		KmlLight kml = new KmlLight(baos);
+		KmlLightDocument doc = new KmlLightDocument();
+		if (null != eIdData) {
+			Identity identity = eIdData.getIdentity();
+			String htmlDescription = "";
+			if (null != eIdData.getPhoto()) {
+				kml.addImage(eIdData.getPhoto());
+				htmlDescription += "<img src='photo.jpg' align='left'>";
+			}
+			Element elName = doc.createName(identity.firstName + " " + identity.name);
+			htmlDescription += identity.firstName + " ";
+			if (null != identity.middleName) {
+				htmlDescription += identity.middleName + " ";
+			}
+			htmlDescription += identity.name;
+			htmlDescription += "<br/>";
+			htmlDescription += identity.nationality;
+			htmlDescription += "<br/>";
+			SimpleDateFormat formatter = new SimpleDateFormat("dd/MM/yyyy");
+			String birthday = formatter.format(identity.dateOfBirth.getTime());
+			htmlDescription += "(\u00b0" + birthday + ", " + identity.placeOfBirth + ")";
+			htmlDescription += "<br/>";
+			Element elValid = doc.createTimespan(identity.cardValidityDateBegin.getTime(),
+					identity.cardValidityDateEnd.getTime());
+			Address address = eIdData.getAddress();
+			Element elAddress = doc.createAddress(address.streetAndNumber, address.municipality, address.zip);
+			Element elDescription = doc.createDescriptionNode(htmlDescription);
+			doc.addPlacemark(elName, elAddress, elDescription, elValid);
+		}
+		kml.addKmlFile(doc.getDocumentAsBytes());
+		kml.close();
+		return baos.toByteArray();
+	}
+
+	private Map<String, byte[]> unzip(byte[] kmz) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(kmz));
+		ZipEntry zipEntry;
+		while (null != (zipEntry = zipInputStream.getNextEntry())) {
+			entries.put(zipEntry.getName(), IOUtils.toByteArray(zipInputStream));
+		}
+		return entries;
+	}
+
 	private void toTmpFile(byte[] document) throws IOException {
 		File tmpFile = File.createTempFile("eid-", ".kmz");
 		FileUtils.writeByteArrayToFile(tmpFile, document);
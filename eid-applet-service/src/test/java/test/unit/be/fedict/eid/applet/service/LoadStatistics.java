@@ -0,0 +1,141 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency statistics per eID Applet protocol message type.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class LoadStatistics {
+
+	private final Map<String, Latencies> latencies;
+
+	private long failures;
+
+	private long startTime;
+
+	private long endTime;
+
+	public LoadStatistics() {
+		this.latencies = new TreeMap<String, Latencies>();
+	}
+
+	public synchronized void start() {
+		this.startTime = System.nanoTime();
+	}
+
+	public synchronized void stop() {
+		this.endTime = System.nanoTime();
+	}
+
+	public synchronized void record(String messageType, long latency) {
+		Latencies messageLatencies = this.latencies.get(messageType);
+		if (null == messageLatencies) {
+			messageLatencies = new Latencies();
+			this.latencies.put(messageType, messageLatencies);
+		}
+		messageLatencies.add(latency);
+	}
+
+	public synchronized void failure() {
+		this.failures++;
+	}
+
+	public synchronized long getFailures() {
+		return this.failures;
+	}
+
+	public synchronized int getCount(String messageType) {
+		Latencies messageLatencies = this.latencies.get(messageType);
+		if (null == messageLatencies) {
+			return 0;
+		}
+		return messageLatencies.size;
+	}
+
+	/**
+	 * Gives back the latency percentile in milliseconds.
+	 * 
+	 * @param messageType
+	 * @param percentile
+	 *            the percentile, between 0 and 100.
+	 * @return
+	 */
+	public synchronized double getPercentile(String messageType, double percentile) {
+		Latencies messageLatencies = this.latencies.get(messageType);
+		if (null == messageLatencies || 0 == messageLatencies.size) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(messageLatencies.values, messageLatencies.size);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		rank = Math.max(1, Math.min(sorted.length, rank));
+		return sorted[rank - 1] / 1000000.0;
+	}
+
+	/**
+	 * Gives back the throughput in messages per second.
+	 * 
+	 * @param messageType
+	 * @return
+	 */
+	public synchronized double getThroughput(String messageType) {
+		long duration = this.endTime - this.startTime;
+		if (duration <= 0) {
+			return 0;
+		}
+		return getCount(messageType) * 1000000000.0 / duration;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuffer report = new StringBuffer();
+		report.append(String.format("%-28s %8s %10s %9s %9s %9s %9s%n", "message", "count", "msg/s", "p50 ms",
+				"p90 ms", "p99 ms", "max ms"));
+		for (String messageType : this.latencies.keySet()) {
+			report.append(String.format("%-28s %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", messageType,
+					getCount(messageType), getThroughput(messageType), getPercentile(messageType, 50),
+					getPercentile(messageType, 90), getPercentile(messageType, 99),
+					getPercentile(messageType, 100)));
+		}
+		report.append("failures: " + this.failures);
+		return report.toString();
+	}
+
+	private static class Latencies {
+
+		private long[] values = new long[1024];
+
+		private int size;
+
+		public void add(long value) {
+			if (this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.values[this.size++] = value;
+		}
+	}
+}
@@ -30,26 +30,34 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
+import java.security.cert.CRLException;
 import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Date;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
 import org.bouncycastle.asn1.x509.DistributionPoint;
 import org.bouncycastle.asn1.x509.DistributionPointName;
 import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.X509Extensions;
 import org.bouncycastle.asn1.x509.X509ObjectIdentifiers;
 import org.bouncycastle.jce.X509Principal;
+import org.bouncycastle.x509.X509V2CRLGenerator;
 import org.bouncycastle.x509.X509V3CertificateGenerator;
 import org.joda.time.DateTime;
 
@@ -71,6 +79,15 @@ public class MiscTestUtils {
 			DateTime notAfter, X509Certificate issuerCertificate, PrivateKey issuerPrivateKey, boolean caFlag,
 			int pathLength, String crlUri, String ocspUri) throws IOException, InvalidKeyException,
 					IllegalStateException, NoSuchAlgorithmException, SignatureException, CertificateException {
+		return generateCertificate(subjectPublicKey, subjectDn, notBefore, notAfter, issuerCertificate,
+				issuerPrivateKey, caFlag, pathLength, crlUri, ocspUri, null, null);
+	}
+
+	public static X509Certificate generateCertificate(PublicKey subjectPublicKey, String subjectDn, DateTime notBefore,
+			DateTime notAfter, X509Certificate issuerCertificate, PrivateKey issuerPrivateKey, boolean caFlag,
+			int pathLength, String crlUri, String ocspUri, KeyUsage keyUsage, String criticalExtensionOid)
+					throws IOException, InvalidKeyException, IllegalStateException, NoSuchAlgorithmException,
+					SignatureException, CertificateException {
 		String signatureAlgorithm = "SHA1withRSA";
 		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
 		certificateGenerator.reset();
@@ -120,6 +137,14 @@ public class MiscTestUtils {
 					authorityInformationAccess);
 		}
 
+		if (null != keyUsage) {
+			certificateGenerator.addExtension(X509Extensions.KeyUsage, true, keyUsage);
+		}
+
+		if (null != criticalExtensionOid) {
+			certificateGenerator.addExtension(criticalExtensionOid, true, new DERNull());
+		}
+
 		X509Certificate certificate;
 		certificate = certificateGenerator.generate(issuerPrivateKey);
 
@@ -135,6 +160,22 @@ public class MiscTestUtils {
 		return certificate;
 	}
 
+	public static X509CRL generateCrl(X509Certificate issuer, PrivateKey issuerPrivateKey, DateTime thisUpdate,
+			DateTime nextUpdate, BigInteger... revokedSerialNumbers) throws InvalidKeyException, CRLException,
+					IllegalStateException, NoSuchAlgorithmException, SignatureException {
+		X509V2CRLGenerator crlGenerator = new X509V2CRLGenerator();
+		crlGenerator.setIssuerDN(issuer.getSubjectX500Principal());
+		crlGenerator.setThisUpdate(thisUpdate.toDate());
+		crlGenerator.setNextUpdate(nextUpdate.toDate());
+		crlGenerator.setSignatureAlgorithm("SHA1withRSA");
+		crlGenerator.addExtension(X509Extensions.CRLNumber, false, new CRLNumber(new BigInteger("1234")));
+		for (BigInteger revokedSerialNumber : revokedSerialNumbers) {
+			crlGenerator.addCRLEntry(revokedSerialNumber, new Date(), CRLReason.unspecified);
+		}
+		X509CRL x509Crl = crlGenerator.generate(issuerPrivateKey);
+		return x509Crl;
+	}
+
 	private static SubjectKeyIdentifier createSubjectKeyId(PublicKey publicKey) throws IOException {
 		ByteArrayInputStream bais = new ByteArrayInputStream(publicKey.getEncoded());
 		SubjectPublicKeyInfo info = new SubjectPublicKeyInfo((ASN1Sequence) new ASN1InputStream(bais).readObject());
@@ -0,0 +1,101 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.NrcidBatchEngine;
+import be.fedict.eid.applet.service.impl.NrcidGenerator;
+import be.fedict.eid.applet.service.impl.UserIdentifierUtil;
+
+public class NrcidBatchEngineTest {
+
+	private static final String SECRET = "123456789ABCDEF0123456789ABCDEF0";
+
+	@Test
+	public void testBatch() throws Exception {
+		// setup
+		StringBuffer input = new StringBuffer();
+		for (int idx = 0; idx < 10000; idx++) {
+			input.append(80000000000L + idx);
+			input.append('\n');
+			if (0 == idx % 1000) {
+				input.append("\n");
+			}
+		}
+		NrcidGenerator nrcidGenerator = new NrcidGenerator("org", "app", SECRET, UserIdentifierUtil.HMAC_SHA256_ALGO);
+		NrcidBatchEngine testedInstance = new NrcidBatchEngine(nrcidGenerator, 4, 100);
+		StringWriter output = new StringWriter();
+
+		// operate
+		long result = testedInstance.run(new StringReader(input.toString()), output);
+
+		// verify
+		assertEquals(10000, result);
+		String[] lines = output.toString().split("\n");
+		assertEquals(10000, lines.length);
+		for (int idx = 0; idx < 10000; idx += 997) {
+			String userId = Long.toString(80000000000L + idx);
+			String expected = userId + "," + UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId, "org",
+					"app", SECRET, UserIdentifierUtil.HMAC_SHA256_ALGO);
+			assertEquals(expected, lines[idx]);
+		}
+	}
+
+	@Test
+	public void testEmptyInput() throws Exception {
+		// setup
+		NrcidGenerator nrcidGenerator = new NrcidGenerator("org", "app", SECRET, UserIdentifierUtil.HMAC_ALGO);
+		NrcidBatchEngine testedInstance = new NrcidBatchEngine(nrcidGenerator, 2, NrcidBatchEngine.DEFAULT_BLOCK_SIZE);
+		StringWriter output = new StringWriter();
+
+		// operate
+		long result = testedInstance.run(new StringReader(""), output);
+
+		// verify
+		assertEquals(0, result);
+		assertEquals("", output.toString());
+	}
+
+	@Test
+	public void testGeneratorCache() throws Exception {
+		// operate
+		NrcidGenerator generator1 = NrcidGenerator.getInstance("org", "app", SECRET, UserIdentifierUtil.HMAC_ALGO);
+		NrcidGenerator generator2 = NrcidGenerator.getInstance("org", "app", SECRET, UserIdentifierUtil.HMAC_ALGO);
+		NrcidGenerator generator3 = NrcidGenerator.getInstance("org|app", null, SECRET,
+				UserIdentifierUtil.HMAC_ALGO);
+		NrcidGenerator generator4 = NrcidGenerator.getInstance("org", "app", SECRET.toLowerCase(),
+				UserIdentifierUtil.HMAC_ALGO);
+
+		// verify
+		assertSame(generator1, generator2);
+		assertNotSame(generator1, generator3);
+		assertNotSame(generator1, generator4);
+		assertEquals(generator1.getNonReversibleCitizenIdentifier("12345678901"),
+				generator4.getNonReversibleCitizenIdentifier("12345678901"));
+	}
+}
@@ -18,6 +18,7 @@
 
 package test.unit.be.fedict.eid.applet.service;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -39,6 +40,9 @@ import org.apache.commons.logging.LogFactory;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+
 import be.fedict.eid.applet.service.Address;
 import be.fedict.eid.applet.service.EIdData;
 import be.fedict.eid.applet.service.Gender;
@@ -191,6 +195,89 @@ public class PdfGeneratorTest {
 		toTmpFile(document);
 	}
 
+	@Test
+	public void streamedIdentityWithAddressAndPhotoPdf() throws Exception {
+		// setup
+		EIdData eIdData = createEIdData();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		// operate
+		this.testedInstance.generatePdf(eIdData, outputStream);
+		this.testedInstance.generatePdf(eIdData, new ByteArrayOutputStream());
+
+		// verify
+		byte[] document = outputStream.toByteArray();
+		toTmpFile(document);
+		PdfReader pdfReader = new PdfReader(document);
+		assertEquals(1, pdfReader.getNumberOfPages());
+		String text = new PdfTextExtractor(pdfReader).getTextFromPage(1);
+		assertTrue(text.contains("Test Name"));
+		assertTrue(text.contains("Test Municipality"));
+	}
+
+	@Test
+	public void templateIdentityWithAddressAndPhotoPdf() throws Exception {
+		// setup
+		PdfGenerator pdfGenerator = new PdfGenerator(true);
+		EIdData eIdData = createEIdData();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		// operate
+		pdfGenerator.generatePdf(eIdData, outputStream);
+
+		// verify
+		byte[] document = outputStream.toByteArray();
+		toTmpFile(document);
+		PdfReader pdfReader = new PdfReader(document);
+		assertEquals(1, pdfReader.getNumberOfPages());
+		assertEquals("Test First name Test Name", pdfReader.getInfo().get("Title"));
+		String text = new PdfTextExtractor(pdfReader).getTextFromPage(1);
+		assertTrue(text.contains("eID Identity Data"));
+		assertTrue(text.contains("Date of birth"));
+		assertTrue(text.contains("Test Name"));
+		assertTrue(text.contains("1234 Test Municipality"));
+	}
+
+	@Test
+	public void templateWithoutIdentityPdf() throws Exception {
+		// setup
+		PdfGenerator pdfGenerator = new PdfGenerator(true);
+
+		// operate
+		byte[] document = pdfGenerator.generatePdf(null);
+
+		// verify
+		assertNotNull(document);
+		assertEquals(1, new PdfReader(document).getNumberOfPages());
+	}
+
+	private EIdData createEIdData() throws IOException {
+		Identity identity = new Identity();
+		identity.name = "Test Name";
+		identity.firstName = "Test First name";
+		identity.dateOfBirth = new GregorianCalendar();
+		identity.gender = Gender.MALE;
+
+		Address address = new Address();
+		address.streetAndNumber = "Test Street 1A";
+		address.zip = "1234";
+		address.municipality = "Test Municipality";
+
+		BufferedImage image = new BufferedImage(140, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = (Graphics2D) image.getGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(1, 1, 140 - 1 - 1, 200 - 1 - 1);
+		graphics.dispose();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", baos);
+
+		EIdData eIdData = new EIdData();
+		eIdData.identity = identity;
+		eIdData.address = address;
+		eIdData.photo = baos.toByteArray();
+		return eIdData;
+	}
+
 	private void toTmpFile(byte[] document) throws IOException {
 		File tmpFile = File.createTempFile("eid-", ".pdf");
 		FileUtils.writeByteArrayToFile(tmpFile, document);
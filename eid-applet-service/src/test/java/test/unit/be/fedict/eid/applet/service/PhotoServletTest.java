@@ -0,0 +1,173 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.PhotoServlet;
+import be.fedict.eid.applet.service.impl.PhotoVariantCache;
+import be.fedict.eid.applet.service.impl.handler.IdentityDataMessageHandler;
+
+public class PhotoServletTest {
+
+	private byte[] photo;
+
+	private HttpTestSession httpSession;
+
+	@Before
+	public void setUp() throws Exception {
+		BufferedImage image = new BufferedImage(140, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = (Graphics2D) image.getGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(1, 1, 140 - 1 - 1, 200 - 1 - 1);
+		graphics.dispose();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", baos);
+		this.photo = baos.toByteArray();
+
+		this.httpSession = new HttpTestSession();
+		this.httpSession.setAttribute(IdentityDataMessageHandler.PHOTO_SESSION_ATTRIBUTE, this.photo);
+	}
+
+	@Test
+	public void testPhotoWithETag() throws Exception {
+		// setup
+		String eTag = "\"" + DigestUtils.sha256Hex(this.photo) + "\"";
+		HttpServletRequest mockRequest = createRequest(null, null);
+		HttpServletResponse mockResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		TestServletOutputStream outputStream = new TestServletOutputStream();
+		EasyMock.expect(mockResponse.getOutputStream()).andReturn(outputStream);
+		mockResponse.setHeader("ETag", eTag);
+		mockResponse.setContentLength(this.photo.length);
+
+		// prepare
+		EasyMock.replay(mockRequest, mockResponse);
+
+		// operate
+		new PhotoServlet().service(mockRequest, mockResponse);
+
+		// verify
+		EasyMock.verify(mockRequest, mockResponse);
+		assertArrayEquals(this.photo, outputStream.toByteArray());
+	}
+
+	@Test
+	public void testConditionalGet() throws Exception {
+		// setup
+		String eTag = "\"" + DigestUtils.sha256Hex(this.photo) + "\"";
+		HttpServletRequest mockRequest = createRequest(null, "\"foobar\", " + eTag);
+		HttpServletResponse mockResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		mockResponse.setHeader("ETag", eTag);
+		mockResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+		// prepare
+		EasyMock.replay(mockRequest, mockResponse);
+
+		// operate
+		new PhotoServlet().service(mockRequest, mockResponse);
+
+		// verify
+		EasyMock.verify(mockRequest, mockResponse);
+	}
+
+	@Test
+	public void testThumbnail() throws Exception {
+		// setup
+		String eTag = "\"" + DigestUtils.sha256Hex(this.photo) + "-thumbnail\"";
+		HttpServletRequest mockRequest = createRequest("thumbnail", null);
+		HttpServletResponse mockResponse = EasyMock.createNiceMock(HttpServletResponse.class);
+		TestServletOutputStream outputStream = new TestServletOutputStream();
+		EasyMock.expect(mockResponse.getOutputStream()).andReturn(outputStream);
+		mockResponse.setHeader("ETag", eTag);
+
+		// prepare
+		EasyMock.replay(mockRequest, mockResponse);
+
+		// operate
+		new PhotoServlet().service(mockRequest, mockResponse);
+
+		// verify
+		EasyMock.verify(mockRequest, mockResponse);
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertNotNull(thumbnail);
+		assertEquals(70, thumbnail.getWidth());
+		assertEquals(100, thumbnail.getHeight());
+	}
+
+	@Test
+	public void testVariantIsRenderedOnce() throws Exception {
+		// setup
+		PhotoVariantCache testedInstance = new PhotoVariantCache(10);
+
+		// operate
+		byte[] original = testedInstance.getPhoto("key", this.photo, PhotoVariantCache.Size.ORIGINAL);
+		byte[] medium1 = testedInstance.getPhoto("key", this.photo, PhotoVariantCache.Size.MEDIUM);
+		byte[] medium2 = testedInstance.getPhoto("key", this.photo, PhotoVariantCache.Size.MEDIUM);
+		byte[] error = testedInstance.getPhoto("error", "foobar".getBytes(), PhotoVariantCache.Size.ORIGINAL);
+
+		// verify
+		assertSame(this.photo, original);
+		assertSame(medium1, medium2);
+		BufferedImage errorImage = ImageIO.read(new ByteArrayInputStream(error));
+		assertEquals(140, errorImage.getWidth());
+	}
+
+	private HttpServletRequest createRequest(String size, String ifNoneMatch) {
+		HttpServletRequest mockRequest = EasyMock.createMock(HttpServletRequest.class);
+		EasyMock.expect(mockRequest.getMethod()).andStubReturn("GET");
+		EasyMock.expect(mockRequest.getParameter(PhotoServlet.SIZE_PARAMETER)).andStubReturn(size);
+		EasyMock.expect(mockRequest.getSession()).andStubReturn(this.httpSession);
+		EasyMock.expect(mockRequest.getHeader("If-None-Match")).andStubReturn(ifNoneMatch);
+		return mockRequest;
+	}
+
+	private static class TestServletOutputStream extends ServletOutputStream {
+
+		private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			this.outputStream.write(b);
+		}
+
+		public byte[] toByteArray() {
+			return this.outputStream.toByteArray();
+		}
+	}
+}
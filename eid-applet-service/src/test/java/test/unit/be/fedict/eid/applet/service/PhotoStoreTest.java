@@ -0,0 +1,113 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.PhotoStore;
+
+public class PhotoStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.directory = File.createTempFile("photo-store-", "");
+		this.directory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testStoreAndFind() throws Exception {
+		// setup
+		PhotoStore testedInstance = new PhotoStore(1024, null);
+		byte[] photo = "photo".getBytes();
+		byte[] photoDigest = DigestUtils.sha(photo);
+
+		// operate
+		testedInstance.storePhoto(photoDigest, photo);
+		byte[] result = testedInstance.findPhoto(photoDigest);
+
+		// verify
+		assertArrayEquals(photo, result);
+		assertNull(testedInstance.findPhoto(DigestUtils.sha("other".getBytes())));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		// setup
+		PhotoStore testedInstance = new PhotoStore(10, null);
+		byte[] photo1 = "photo-1".getBytes();
+		byte[] photo2 = "photo-2".getBytes();
+
+		// operate
+		testedInstance.storePhoto(DigestUtils.sha(photo1), photo1);
+		testedInstance.storePhoto(DigestUtils.sha(photo2), photo2);
+
+		// verify
+		assertNull(testedInstance.findPhoto(DigestUtils.sha(photo1)));
+		assertArrayEquals(photo2, testedInstance.findPhoto(DigestUtils.sha(photo2)));
+		assertEquals(photo2.length, testedInstance.getSize());
+	}
+
+	@Test
+	public void testDiskTier() throws Exception {
+		// setup
+		PhotoStore testedInstance = new PhotoStore(10, this.directory);
+		byte[] photo1 = "photo-1".getBytes();
+		byte[] photo2 = "photo-2".getBytes();
+
+		// operate
+		testedInstance.storePhoto(DigestUtils.sha(photo1), photo1);
+		testedInstance.storePhoto(DigestUtils.sha(photo2), photo2);
+
+		// verify
+		assertArrayEquals(photo1, testedInstance.findPhoto(DigestUtils.sha(photo1)));
+		assertArrayEquals(photo2, testedInstance.findPhoto(DigestUtils.sha(photo2)));
+	}
+
+	@Test
+	public void testCorruptDiskTier() throws Exception {
+		// setup
+		PhotoStore testedInstance = new PhotoStore(0, this.directory);
+		byte[] photo = "photo".getBytes();
+		byte[] photoDigest = DigestUtils.sha(photo);
+		testedInstance.storePhoto(photoDigest, photo);
+		File[] files = this.directory.listFiles();
+		assertEquals(1, files.length);
+		FileUtils.writeByteArrayToFile(files[0], "corrupt".getBytes());
+
+		// operate & verify
+		assertNull(testedInstance.findPhoto(photoDigest));
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.testing.ServletTester;
+
+import be.fedict.eid.applet.service.impl.pki.PkiAuthenticationService;
+import be.fedict.eid.applet.service.impl.pki.RevocationDataCache;
+import be.fedict.eid.applet.service.spi.CertificateSecurityException;
+import be.fedict.eid.applet.service.spi.ExpiredCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+import be.fedict.eid.applet.service.spi.TrustCertificateSecurityException;
+
+public class PkiAuthenticationServiceTest {
+
+	private ServletTester servletTester;
+
+	private String location;
+
+	private KeyPair rootKeyPair;
+
+	private X509Certificate rootCertificate;
+
+	private KeyPair caKeyPair;
+
+	private X509Certificate caCertificate;
+
+	private KeyPair keyPair;
+
+	private X509Certificate certificate;
+
+	private RevocationDataCache revocationDataCache;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		PkiTestResponderServlet.reset();
+		this.servletTester = new ServletTester();
+		this.servletTester.addServlet(PkiTestResponderServlet.class, "/pki/*");
+		this.servletTester.start();
+		this.location = this.servletTester.createSocketConnector(true) + "/pki";
+
+		DateTime notBefore = new DateTime().minusDays(1);
+		DateTime notAfter = notBefore.plusYears(1);
+		this.rootKeyPair = MiscTestUtils.generateKeyPair();
+		this.rootCertificate = MiscTestUtils.generateCertificate(this.rootKeyPair.getPublic(), "CN=TestRoot",
+				notBefore, notAfter, null, this.rootKeyPair.getPrivate(), true, -1, null, null);
+		this.caKeyPair = MiscTestUtils.generateKeyPair();
+		this.caCertificate = MiscTestUtils.generateCertificate(this.caKeyPair.getPublic(), "CN=TestCA", notBefore,
+				notAfter, this.rootCertificate, this.rootKeyPair.getPrivate(), true, 0, this.location + "/arl",
+				null);
+		this.keyPair = MiscTestUtils.generateKeyPair();
+		this.certificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test", notBefore,
+				notAfter, this.caCertificate, this.caKeyPair.getPrivate(), false, -1, this.location + "/crl",
+				this.location + "/ocsp");
+
+		DateTime thisUpdate = new DateTime();
+		setCrl("/arl", this.rootCertificate, this.rootKeyPair, thisUpdate, thisUpdate.plusHours(1));
+		setCrl("/crl", this.caCertificate, this.caKeyPair, thisUpdate, thisUpdate.plusHours(1));
+		PkiTestResponderServlet.setOcspIssuer(this.caCertificate, this.caKeyPair.getPrivate());
+
+		this.revocationDataCache = new RevocationDataCache();
+		this.revocationDataCache.setFetchOnMiss(true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.revocationDataCache.shutdown();
+		this.servletTester.stop();
+	}
+
+	@Test
+	public void testValidChain() throws Exception {
+		// setup
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate
+		testedInstance.validateCertificateChain(getCertificateChain());
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/crl"));
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/arl"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/ocsp"));
+	}
+
+	@Test
+	public void testRevokedViaCrl() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime();
+		X509CRL crl = MiscTestUtils.generateCrl(this.caCertificate, this.caKeyPair.getPrivate(), thisUpdate,
+				thisUpdate.plusHours(1), this.certificate.getSerialNumber());
+		PkiTestResponderServlet.setCrl("/crl", crl.getEncoded());
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (RevokedCertificateSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOcspRefreshedInBackground() throws Exception {
+		// setup
+		this.revocationDataCache.setRefreshMargin(1000 * 60 * 60 * 2);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+		testedInstance.validateCertificateChain(getCertificateChain());
+		this.revocationDataCache.refresh();
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/ocsp"));
+
+		// operate
+		PkiTestResponderServlet.revoke(this.certificate.getSerialNumber());
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify: stale data is served without network I/O
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/ocsp"));
+
+		// operate
+		this.revocationDataCache.refresh();
+
+		// verify
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (RevokedCertificateSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCrlIndexSwap() throws Exception {
+		// setup
+		File crlIndexDirectory = File.createTempFile("crl-index-", "");
+		crlIndexDirectory.delete();
+		DateTime notBefore = new DateTime().minusDays(1);
+		X509Certificate crlOnlyCertificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), this.caCertificate, this.caKeyPair.getPrivate(), false, -1,
+				this.location + "/crl", null);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(crlOnlyCertificate);
+		certificateChain.add(this.caCertificate);
+		certificateChain.add(this.rootCertificate);
+		try {
+			this.revocationDataCache.setCrlIndexDirectory(crlIndexDirectory);
+			this.revocationDataCache.setRefreshMargin(1000 * 60 * 60 * 2);
+			PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+					Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+			testedInstance.validateCertificateChain(certificateChain);
+			assertEquals(2, crlIndexDirectory.list().length);
+
+			DateTime thisUpdate = new DateTime().plusSeconds(1);
+			X509CRL crl = MiscTestUtils.generateCrl(this.caCertificate, this.caKeyPair.getPrivate(), thisUpdate,
+					thisUpdate.plusHours(1), crlOnlyCertificate.getSerialNumber());
+			PkiTestResponderServlet.setCrl("/crl", crl.getEncoded());
+
+			// operate
+			this.revocationDataCache.refresh();
+
+			// verify
+			assertEquals(2, crlIndexDirectory.list().length);
+			try {
+				testedInstance.validateCertificateChain(certificateChain);
+				fail();
+			} catch (RevokedCertificateSecurityException e) {
+				// expected
+			}
+		} finally {
+			FileUtils.deleteDirectory(crlIndexDirectory);
+		}
+	}
+
+	@Test
+	public void testBackgroundRefresher() throws Exception {
+		// setup
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+		this.revocationDataCache.start(50);
+
+		// operate
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify
+		long timeout = System.currentTimeMillis() + 1000 * 5;
+		while (0 == PkiTestResponderServlet.getRequestCount("/ocsp") && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+		}
+		assertTrue(PkiTestResponderServlet.getRequestCount("/ocsp") > 0);
+	}
+
+	@Test
+	public void testStaleCrl() throws Exception {
+		// setup
+		DateTime thisUpdate = new DateTime().minusHours(2);
+		setCrl("/crl", this.caCertificate, this.caKeyPair, thisUpdate, thisUpdate.plusHours(1));
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+
+		// operate
+		this.revocationDataCache.setMaxStaleness(1000 * 60 * 60 * 24);
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify
+		this.revocationDataCache.setMaxStaleness(0);
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNoFetchOnMissByDefault() throws Exception {
+		// setup
+		RevocationDataCache revocationDataCache = new RevocationDataCache();
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/crl"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/ocsp"));
+
+		// operate
+		revocationDataCache.prefetchCrl(this.location + "/arl", this.rootCertificate);
+		revocationDataCache.prefetchCrl(this.location + "/crl", this.caCertificate);
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/crl"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/ocsp"));
+	}
+
+	@Test
+	public void testCaKeyRollover() throws Exception {
+		// setup
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		DateTime notBefore = new DateTime().minusDays(1);
+		KeyPair newCaKeyPair = MiscTestUtils.generateKeyPair();
+		X509Certificate newCaCertificate = MiscTestUtils.generateCertificate(newCaKeyPair.getPublic(), "CN=TestCA",
+				notBefore, notBefore.plusYears(1), this.rootCertificate, this.rootKeyPair.getPrivate(), true, 0,
+				this.location + "/arl", null);
+		X509Certificate newCertificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), newCaCertificate, newCaKeyPair.getPrivate(), false, -1,
+				this.location + "/crl", null);
+		DateTime thisUpdate = new DateTime();
+		setCrl("/crl", newCaCertificate, newCaKeyPair, thisUpdate, thisUpdate.plusHours(1));
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(newCertificate);
+		certificateChain.add(newCaCertificate);
+		certificateChain.add(this.rootCertificate);
+
+		// operate
+		testedInstance.validateCertificateChain(certificateChain);
+
+		// verify
+		assertEquals(2, PkiTestResponderServlet.getRequestCount("/crl"));
+		testedInstance.validateCertificateChain(getCertificateChain());
+	}
+
+	@Test
+	public void testUntrustedChain() throws Exception {
+		// setup
+		KeyPair otherKeyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		X509Certificate otherRootCertificate = MiscTestUtils.generateCertificate(otherKeyPair.getPublic(),
+				"CN=TestRoot", notBefore, notBefore.plusYears(1), null, otherKeyPair.getPrivate(), true, -1, null,
+				null);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(otherRootCertificate), this.revocationDataCache);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(this.certificate);
+		certificateChain.add(this.caCertificate);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (TrustCertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/crl"));
+	}
+
+	@Test
+	public void testExpiredCertificate() throws Exception {
+		// setup
+		DateTime notBefore = new DateTime().minusYears(2);
+		X509Certificate expiredCertificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), this.caCertificate, this.caKeyPair.getPrivate(), false, -1,
+				this.location + "/crl", this.location + "/ocsp");
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(expiredCertificate);
+		certificateChain.add(this.caCertificate);
+		certificateChain.add(this.rootCertificate);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (ExpiredCertificateSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testUnverifiedIssuerRevocationDataNotFetched() throws Exception {
+		// setup
+		DateTime notBefore = new DateTime().minusDays(1);
+		KeyPair attackerKeyPair = MiscTestUtils.generateKeyPair();
+		X509Certificate attackerCaCertificate = MiscTestUtils.generateCertificate(attackerKeyPair.getPublic(),
+				"CN=TestCA", notBefore, notBefore.plusYears(1), this.rootCertificate, attackerKeyPair.getPrivate(),
+				true, 0, this.location + "/attacker-arl", null);
+		X509Certificate attackerCertificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), attackerCaCertificate, attackerKeyPair.getPrivate(), false, -1,
+				this.location + "/attacker-crl", this.location + "/attacker-ocsp");
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(attackerCertificate);
+		certificateChain.add(attackerCaCertificate);
+		certificateChain.add(this.rootCertificate);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (TrustCertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/attacker-crl"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/attacker-ocsp"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/attacker-arl"));
+	}
+
+	@Test
+	public void testNullChainElement() throws Exception {
+		// setup
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(this.certificate);
+		certificateChain.add(null);
+		certificateChain.add(this.rootCertificate);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIssuerWithoutKeyCertSign() throws Exception {
+		// setup
+		DateTime notBefore = new DateTime().minusDays(1);
+		X509Certificate caCertificate = MiscTestUtils.generateCertificate(this.caKeyPair.getPublic(), "CN=TestCA",
+				notBefore, notBefore.plusYears(1), this.rootCertificate, this.rootKeyPair.getPrivate(), true, 0,
+				this.location + "/arl", null, new KeyUsage(KeyUsage.cRLSign), null);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(this.certificate);
+		certificateChain.add(caCertificate);
+		certificateChain.add(this.rootCertificate);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (TrustCertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/crl"));
+	}
+
+	@Test
+	public void testPathLengthConstraint() throws Exception {
+		// setup
+		DateTime notBefore = new DateTime().minusDays(1);
+		KeyPair subCaKeyPair = MiscTestUtils.generateKeyPair();
+		X509Certificate subCaCertificate = MiscTestUtils.generateCertificate(subCaKeyPair.getPublic(),
+				"CN=TestSubCA", notBefore, notBefore.plusYears(1), this.caCertificate, this.caKeyPair.getPrivate(),
+				true, 0, this.location + "/crl", null);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), subCaCertificate, subCaKeyPair.getPrivate(), false, -1,
+				this.location + "/sub-crl", null);
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(certificate);
+		certificateChain.add(subCaCertificate);
+		certificateChain.add(this.caCertificate);
+		certificateChain.add(this.rootCertificate);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (TrustCertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/sub-crl"));
+	}
+
+	@Test
+	public void testUnsupportedCriticalExtension() throws Exception {
+		// setup
+		DateTime notBefore = new DateTime().minusDays(1);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(this.keyPair.getPublic(), "CN=Test",
+				notBefore, notBefore.plusYears(1), this.caCertificate, this.caKeyPair.getPrivate(), false, -1,
+				this.location + "/crl", null, new KeyUsage(KeyUsage.digitalSignature), "1.2.3.4");
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(certificate);
+		certificateChain.add(this.caCertificate);
+		certificateChain.add(this.rootCertificate);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(certificateChain);
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/crl"));
+	}
+
+	@Test
+	public void testCrlCacheBounded() throws Exception {
+		// setup
+		this.revocationDataCache.setMaxOcspEntries(0);
+		this.revocationDataCache.setMaxCrlEntries(1);
+		PkiAuthenticationService testedInstance = new PkiAuthenticationService(
+				Collections.singletonList(this.rootCertificate), this.revocationDataCache);
+
+		// operate & verify
+		try {
+			testedInstance.validateCertificateChain(getCertificateChain());
+			fail();
+		} catch (CertificateSecurityException e) {
+			// expected
+		}
+		assertEquals(1, PkiTestResponderServlet.getRequestCount("/crl"));
+		assertEquals(0, PkiTestResponderServlet.getRequestCount("/arl"));
+
+		// operate
+		this.revocationDataCache.setMaxCrlEntries(2);
+		this.revocationDataCache.setCrlIdleTime(-1);
+		testedInstance.validateCertificateChain(getCertificateChain());
+		this.revocationDataCache.refresh();
+		testedInstance.validateCertificateChain(getCertificateChain());
+
+		// verify: idle CRLs have been evicted
+		assertEquals(2, PkiTestResponderServlet.getRequestCount("/crl"));
+		assertEquals(2, PkiTestResponderServlet.getRequestCount("/arl"));
+	}
+
+	private List<X509Certificate> getCertificateChain() {
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
+		certificateChain.add(this.certificate);
+		certificateChain.add(this.caCertificate);
+		certificateChain.add(this.rootCertificate);
+		return certificateChain;
+	}
+
+	private void setCrl(String path, X509Certificate issuer, KeyPair issuerKeyPair, DateTime thisUpdate,
+			DateTime nextUpdate) throws Exception {
+		X509CRL crl = MiscTestUtils.generateCrl(issuer, issuerKeyPair.getPrivate(), thisUpdate, nextUpdate);
+		PkiTestResponderServlet.setCrl(path, crl.getEncoded());
+	}
+}
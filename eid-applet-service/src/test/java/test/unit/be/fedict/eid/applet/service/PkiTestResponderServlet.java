@@ -0,0 +1,156 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.Req;
+import org.bouncycastle.ocsp.RevokedStatus;
+
+/**
+ * In-process CRL and OCSP responder for unit testing.
+ *
+ * @author Frank Cornelis
+ *
+ */
+public class PkiTestResponderServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Map<String, byte[]> crls = Collections.synchronizedMap(new HashMap<String, byte[]>());
+
+	private static final Set<BigInteger> revokedSerialNumbers = Collections
+			.synchronizedSet(new HashSet<BigInteger>());
+
+	private static final Map<String, AtomicInteger> requestCounts = Collections
+			.synchronizedMap(new HashMap<String, AtomicInteger>());
+
+	private static X509Certificate ocspIssuer;
+
+	private static PrivateKey ocspIssuerPrivateKey;
+
+	public static void reset() {
+		crls.clear();
+		revokedSerialNumbers.clear();
+		requestCounts.clear();
+		ocspIssuer = null;
+		ocspIssuerPrivateKey = null;
+	}
+
+	public static void setCrl(String path, byte[] encodedCrl) {
+		crls.put(path, encodedCrl);
+	}
+
+	public static void setOcspIssuer(X509Certificate issuer, PrivateKey issuerPrivateKey) {
+		ocspIssuer = issuer;
+		ocspIssuerPrivateKey = issuerPrivateKey;
+	}
+
+	public static void revoke(BigInteger serialNumber) {
+		revokedSerialNumbers.add(serialNumber);
+	}
+
+	public static int getRequestCount(String path) {
+		AtomicInteger requestCount = requestCounts.get(path);
+		if (null == requestCount) {
+			return 0;
+		}
+		return requestCount.get();
+	}
+
+	private static void count(String path) {
+		synchronized (requestCounts) {
+			AtomicInteger requestCount = requestCounts.get(path);
+			if (null == requestCount) {
+				requestCount = new AtomicInteger();
+				requestCounts.put(path, requestCount);
+			}
+			requestCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String path = request.getPathInfo();
+		count(path);
+		byte[] encodedCrl = crls.get(path);
+		if (null == encodedCrl) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setContentType("application/pkix-crl");
+		response.getOutputStream().write(encodedCrl);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String path = request.getPathInfo();
+		count(path);
+		byte[] encodedOcspRequest = IOUtils.toByteArray(request.getInputStream());
+		try {
+			OCSPReq ocspReq = new OCSPReq(encodedOcspRequest);
+			BasicOCSPRespGenerator basicOCSPRespGenerator = new BasicOCSPRespGenerator(ocspIssuer.getPublicKey());
+			for (Req req : ocspReq.getRequestList()) {
+				CertificateID certificateId = req.getCertID();
+				CertificateStatus certificateStatus;
+				if (revokedSerialNumbers.contains(certificateId.getSerialNumber())) {
+					certificateStatus = new RevokedStatus(new Date(), CRLReason.unspecified);
+				} else {
+					certificateStatus = CertificateStatus.GOOD;
+				}
+				basicOCSPRespGenerator.addResponse(certificateId, certificateStatus);
+			}
+			BasicOCSPResp basicOCSPResp = basicOCSPRespGenerator.generate("SHA1WITHRSA", ocspIssuerPrivateKey, null,
+					new Date(), BouncyCastleProvider.PROVIDER_NAME);
+			OCSPResp ocspResp = new OCSPRespGenerator().generate(OCSPRespGenerator.SUCCESSFUL, basicOCSPResp);
+			response.setContentType("application/ocsp-response");
+			response.getOutputStream().write(ocspResp.getEncoded());
+		} catch (Exception e) {
+			throw new ServletException("OCSP responder error: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.ServiceLocator;
+import be.fedict.eid.applet.service.impl.ServiceMemoizer;
+import be.fedict.eid.applet.service.spi.InsecureClientEnvironmentException;
+import be.fedict.eid.applet.service.spi.PrivacyService;
+import be.fedict.eid.applet.service.spi.SecureClientEnvironmentService;
+
+public class ServiceMemoizerTest {
+
+	@Test
+	public void testMemoizationPerKey() throws Exception {
+		// setup
+		final PrivacyService mockPrivacyService = EasyMock.createMock(PrivacyService.class);
+		EasyMock.expect(mockPrivacyService.getIdentityDataUsage("nl")).andReturn("gebruik");
+		EasyMock.expect(mockPrivacyService.getIdentityDataUsage("fr")).andReturn("usage");
+		final AtomicInteger lookups = new AtomicInteger();
+		ServiceMemoizer memoizer = new ServiceMemoizer(60 * 1000, 0, 10);
+		PrivacyService testedInstance = memoizer.decorate(PrivacyService.class, new Callable<PrivacyService>() {
+			public PrivacyService call() throws Exception {
+				lookups.incrementAndGet();
+				return mockPrivacyService;
+			}
+		});
+
+		// prepare
+		EasyMock.replay(mockPrivacyService);
+
+		// operate
+		String result1 = testedInstance.getIdentityDataUsage("nl");
+		String result2 = testedInstance.getIdentityDataUsage("nl");
+		String result3 = testedInstance.getIdentityDataUsage("fr");
+
+		// verify
+		EasyMock.verify(mockPrivacyService);
+		assertEquals("gebruik", result1);
+		assertEquals("gebruik", result2);
+		assertEquals("usage", result3);
+		assertEquals(2, lookups.get());
+		assertEquals(2, memoizer.getSize());
+	}
+
+	@Test
+	public void testNegativeMemoization() throws Exception {
+		// setup
+		CountingSecureClientEnvironmentService service = new CountingSecureClientEnvironmentService();
+		ServiceMemoizer memoizer = new ServiceMemoizer(60 * 1000, 60 * 1000, 10);
+		SecureClientEnvironmentService testedInstance = memoizer.decorate(SecureClientEnvironmentService.class,
+				new FixedServiceLookup(service));
+
+		// operate & verify
+		for (int idx = 0; idx < 2; idx++) {
+			try {
+				checkSecureClientEnvironment(testedInstance, "1.6");
+				fail();
+			} catch (InsecureClientEnvironmentException e) {
+				// expected
+			}
+		}
+		checkSecureClientEnvironment(testedInstance, "1.8");
+		checkSecureClientEnvironment(testedInstance, "1.8");
+		assertEquals(2, service.getCount());
+	}
+
+	@Test
+	public void testNoNegativeTTL() throws Exception {
+		// setup
+		CountingSecureClientEnvironmentService service = new CountingSecureClientEnvironmentService();
+		ServiceMemoizer memoizer = new ServiceMemoizer(60 * 1000, 0, 10);
+		SecureClientEnvironmentService testedInstance = memoizer.decorate(SecureClientEnvironmentService.class,
+				new FixedServiceLookup(service));
+
+		// operate & verify
+		for (int idx = 0; idx < 2; idx++) {
+			try {
+				checkSecureClientEnvironment(testedInstance, "1.6");
+				fail();
+			} catch (InsecureClientEnvironmentException e) {
+				// expected
+			}
+		}
+		assertEquals(2, service.getCount());
+		assertEquals(0, memoizer.getSize());
+	}
+
+	@Test
+	public void testMemoizedExceptionPerCall() throws Exception {
+		// setup
+		CountingSecureClientEnvironmentService service = new CountingSecureClientEnvironmentService();
+		ServiceMemoizer memoizer = new ServiceMemoizer(60 * 1000, 60 * 1000, 10);
+		SecureClientEnvironmentService testedInstance = memoizer.decorate(SecureClientEnvironmentService.class,
+				new FixedServiceLookup(service));
+		List<InsecureClientEnvironmentException> exceptions = new ArrayList<InsecureClientEnvironmentException>();
+
+		// operate
+		for (int idx = 0; idx < 2; idx++) {
+			try {
+				checkSecureClientEnvironment(testedInstance, "1.7");
+				fail();
+			} catch (InsecureClientEnvironmentException e) {
+				exceptions.add(e);
+			}
+		}
+
+		// verify
+		assertEquals(1, service.getCount());
+		assertNotSame(exceptions.get(0), exceptions.get(1));
+		assertTrue(exceptions.get(0).isWarnOnly());
+		assertTrue(exceptions.get(1).isWarnOnly());
+		assertNotNull(exceptions.get(0).getCause());
+		assertSame(exceptions.get(0).getCause(), exceptions.get(1).getCause());
+	}
+
+	@Test
+	public void testCollapsedInvocationFailure() throws Exception {
+		// setup
+		final CountDownLatch invokedLatch = new CountDownLatch(1);
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		final IllegalStateException exception = new IllegalStateException("service error");
+		final AtomicInteger count = new AtomicInteger();
+		ServiceMemoizer memoizer = new ServiceMemoizer(60 * 1000, 0, 10);
+		final PrivacyService testedInstance = memoizer.decorate(PrivacyService.class, new Callable<PrivacyService>() {
+			public PrivacyService call() throws Exception {
+				return new PrivacyService() {
+					public String getIdentityDataUsage(String language) {
+						count.incrementAndGet();
+						invokedLatch.countDown();
+						try {
+							releaseLatch.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						throw exception;
+					}
+				};
+			}
+		});
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread invokingThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					testedInstance.getIdentityDataUsage("en");
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+
+		// operate
+		invokingThread.start();
+		assertTrue(invokedLatch.await(10, TimeUnit.SECONDS));
+		Thread waitingThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					testedInstance.getIdentityDataUsage("en");
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+		waitingThread.start();
+		Thread.sleep(200);
+		releaseLatch.countDown();
+		invokingThread.join(10 * 1000);
+		waitingThread.join(10 * 1000);
+
+		// verify
+		assertFalse(invokingThread.isAlive());
+		assertFalse(waitingThread.isAlive());
+		assertEquals(1, count.get());
+		assertEquals(2, errors.size());
+		assertTrue(errors.contains(exception));
+		errors.remove(exception);
+		Throwable waitingError = errors.get(0);
+		assertNotSame(exception, waitingError);
+		assertSame(exception, waitingError.getCause());
+	}
+
+	@Test
+	public void testMemoizerSettings() throws Exception {
+		// operate
+		ServiceMemoizer memoizer1 = ServiceMemoizer.getMemoizer("TestService/test", 1000, 0, 10);
+		ServiceMemoizer memoizer2 = ServiceMemoizer.getMemoizer("TestService/test", 1000, 0, 10);
+		ServiceMemoizer memoizer3 = ServiceMemoizer.getMemoizer("TestService/test", 2000, 0, 10);
+		ServiceMemoizer memoizer4 = ServiceMemoizer.getMemoizer("TestService/test", 1000, 1000, 10);
+		ServiceMemoizer memoizer5 = ServiceMemoizer.getMemoizer("TestService/test", 1000, 0, 20);
+
+		// verify
+		assertSame(memoizer1, memoizer2);
+		assertNotSame(memoizer1, memoizer3);
+		assertNotSame(memoizer1, memoizer4);
+		assertNotSame(memoizer1, memoizer5);
+		assertSame(memoizer3, ServiceMemoizer.findMemoizer("TestService/test", 2000, 0, 10));
+		assertNull(ServiceMemoizer.findMemoizer("TestService/test", 3000, 0, 10));
+	}
+
+	@Test
+	public void testServiceLocator() throws Exception {
+		// setup
+		ServletConfig mockServletConfig = EasyMock.createMock(ServletConfig.class);
+		EasyMock.expect(mockServletConfig.getInitParameter("PrivacyService")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("PrivacyServiceClass"))
+				.andStubReturn(TestPrivacyService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("PrivacyServiceCacheTTL")).andStubReturn("60");
+		EasyMock.expect(mockServletConfig.getInitParameter("PrivacyServiceCacheNegativeTTL")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("PrivacyServiceCacheMaxEntries")).andStubReturn(null);
+
+		// prepare
+		EasyMock.replay(mockServletConfig);
+
+		// operate
+		ServiceLocator<PrivacyService> testedInstance = new ServiceLocator<PrivacyService>("PrivacyService",
+				mockServletConfig, PrivacyService.class);
+		PrivacyService privacyService = testedInstance.locateService();
+		String result1 = privacyService.getIdentityDataUsage("en");
+		String result2 = testedInstance.locateService().getIdentityDataUsage("en");
+
+		// verify
+		EasyMock.verify(mockServletConfig);
+		assertNotNull(privacyService);
+		assertSame(privacyService, testedInstance.locateService());
+		assertEquals("usage 1", result1);
+		assertEquals("usage 1", result2);
+		assertNotNull(ServiceMemoizer.findMemoizer("PrivacyService/" + TestPrivacyService.class.getName(), 60 * 1000,
+				0, ServiceMemoizer.DEFAULT_MAX_ENTRIES));
+	}
+
+	private static void checkSecureClientEnvironment(SecureClientEnvironmentService service, String javaVersion)
+			throws InsecureClientEnvironmentException {
+		List<String> readerList = Collections.singletonList("ACS CCID USB Reader 0");
+		service.checkSecureClientEnvironment(javaVersion, "Oracle", "Linux", "amd64", "3.2", "Firefox", null, null,
+				null, "127.0.0.1", 128, "TLS_RSA_WITH_AES_128_CBC_SHA", readerList);
+	}
+
+	public static class TestPrivacyService implements PrivacyService {
+
+		private static final AtomicInteger count = new AtomicInteger();
+
+		public String getIdentityDataUsage(String language) {
+			return "usage " + count.incrementAndGet();
+		}
+	}
+
+	private static class FixedServiceLookup implements Callable<SecureClientEnvironmentService> {
+
+		private final SecureClientEnvironmentService service;
+
+		public FixedServiceLookup(SecureClientEnvironmentService service) {
+			this.service = service;
+		}
+
+		public SecureClientEnvironmentService call() throws Exception {
+			return this.service;
+		}
+	}
+
+	private static class CountingSecureClientEnvironmentService implements SecureClientEnvironmentService {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public void checkSecureClientEnvironment(String javaVersion, String javaVendor, String osName,
+				String osArch, String osVersion, String userAgent, String navigatorAppName,
+				String navigatorAppVersion, String navigatorUserAgent, String remoteAddress, Integer sslKeySize,
+				String sslCipherSuite, List<String> readerList) throws InsecureClientEnvironmentException {
+			this.count.incrementAndGet();
+			if ("1.6".equals(javaVersion)) {
+				throw new InsecureClientEnvironmentException();
+			}
+			if ("1.7".equals(javaVersion)) {
+				throw new InsecureClientEnvironmentException(true);
+			}
+		}
+
+		public int getCount() {
+			return this.count.get();
+		}
+	}
+}
@@ -89,6 +89,7 @@ public class SignatureDataMessageHandlerTest {
 
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureServiceClass"))
 				.andStubReturn(SignatureTestService.class.getName());
@@ -140,6 +141,7 @@ public class SignatureDataMessageHandlerTest {
 
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureServiceClass"))
 				.andStubReturn(SignatureTestService.class.getName());
@@ -191,6 +193,7 @@ public class SignatureDataMessageHandlerTest {
 
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass")).andStubReturn(null);
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureServiceClass"))
 				.andStubReturn(SignatureTestService.class.getName());
@@ -243,6 +246,7 @@ public class SignatureDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass"))
 				.andStubReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureServiceClass"))
 				.andStubReturn(SignatureTestService.class.getName());
@@ -296,6 +300,7 @@ public class SignatureDataMessageHandlerTest {
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceClass"))
 				.andStubReturn(AuditTestService.class.getName());
+		EasyMock.expect(mockServletConfig.getInitParameter("AuditServiceAsyncCapacity")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureService")).andStubReturn(null);
 		EasyMock.expect(mockServletConfig.getInitParameter("SignatureServiceClass"))
 				.andStubReturn(SignatureTestService.class.getName());
@@ -0,0 +1,329 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.unit.be.fedict.eid.applet.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.joda.time.DateTime;
+
+import be.fedict.eid.applet.service.impl.handler.SignatureDataMessageHandler;
+import be.fedict.eid.applet.shared.AppletProtocolMessageCatalog;
+import be.fedict.eid.applet.shared.AuthenticationContract;
+import be.fedict.eid.applet.shared.AuthenticationDataMessage;
+import be.fedict.eid.applet.shared.AuthenticationRequestMessage;
+import be.fedict.eid.applet.shared.FinishedMessage;
+import be.fedict.eid.applet.shared.HelloMessage;
+import be.fedict.eid.applet.shared.IdentificationRequestMessage;
+import be.fedict.eid.applet.shared.IdentityDataMessage;
+import be.fedict.eid.applet.shared.SignRequestMessage;
+import be.fedict.eid.applet.shared.SignatureDataMessage;
+import be.fedict.eid.applet.shared.protocol.Transport;
+import be.fedict.eid.applet.shared.protocol.Unmarshaller;
+
+/**
+ * Software eID card, together with a simulated eID Applet driving the eID
+ * Applet protocols via the real {@link Transport} and {@link Unmarshaller}.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class SoftwareEid {
+
+	private final String nationalNumber;
+
+	private final KeyPair authnKeyPair;
+
+	private final List<X509Certificate> authnCertificateChain;
+
+	private final KeyPair signKeyPair;
+
+	private final List<X509Certificate> signCertificateChain;
+
+	private final byte[] identityFile;
+
+	private final byte[] addressFile;
+
+	private final byte[] identitySignatureFile;
+
+	private final byte[] addressSignatureFile;
+
+	private final byte[] rrnCertificateFile;
+
+	private final byte[] rootCertificateFile;
+
+	private final SecureRandom secureRandom;
+
+	/**
+	 * Issues a new software eID card.
+	 * 
+	 * @param nationalNumber
+	 * @param pki
+	 *            the test PKI issuing the eID certificates.
+	 * @throws Exception
+	 */
+	public SoftwareEid(String nationalNumber, TestPki pki) throws Exception {
+		this.nationalNumber = nationalNumber;
+		this.secureRandom = new SecureRandom();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(5);
+
+		this.authnKeyPair = MiscTestUtils.generateKeyPair();
+		X509Certificate authnCertificate = MiscTestUtils.generateCertificate(this.authnKeyPair.getPublic(),
+				"CN=Authentication, SERIALNUMBER=" + nationalNumber, notBefore, notAfter, pki.citizenCaCertificate,
+				pki.citizenCaKeyPair.getPrivate(), false, -1, null, null);
+		this.authnCertificateChain = new LinkedList<X509Certificate>();
+		this.authnCertificateChain.add(authnCertificate);
+		this.authnCertificateChain.add(pki.citizenCaCertificate);
+		this.authnCertificateChain.add(pki.rootCertificate);
+
+		this.signKeyPair = MiscTestUtils.generateKeyPair();
+		X509Certificate signCertificate = MiscTestUtils.generateCertificate(this.signKeyPair.getPublic(),
+				"CN=Signature, SERIALNUMBER=" + nationalNumber, notBefore, notAfter, pki.citizenCaCertificate,
+				pki.citizenCaKeyPair.getPrivate(), false, -1, null, null);
+		this.signCertificateChain = new LinkedList<X509Certificate>();
+		this.signCertificateChain.add(signCertificate);
+		this.signCertificateChain.add(pki.citizenCaCertificate);
+		this.signCertificateChain.add(pki.rootCertificate);
+
+		ByteArrayOutputStream identity = new ByteArrayOutputStream();
+		writeTlv(identity, 1, "592000000001");
+		writeTlv(identity, 3, notBefore.toString("dd.MM.yyyy"));
+		writeTlv(identity, 4, notAfter.toString("dd.MM.yyyy"));
+		writeTlv(identity, 5, "Brussel");
+		writeTlv(identity, 6, nationalNumber);
+		writeTlv(identity, 7, "Software");
+		writeTlv(identity, 8, "Card " + nationalNumber);
+		this.identityFile = identity.toByteArray();
+
+		ByteArrayOutputStream address = new ByteArrayOutputStream();
+		writeTlv(address, 1, "Software Street 1");
+		writeTlv(address, 2, "1000");
+		writeTlv(address, 3, "Brussel");
+		this.addressFile = address.toByteArray();
+
+		PrivateKey rrnPrivateKey = pki.rrnKeyPair.getPrivate();
+		String rrnSignatureAlgo = pki.rrnCertificate.getSigAlgName();
+		this.identitySignatureFile = sign(rrnSignatureAlgo, rrnPrivateKey, this.identityFile);
+		this.addressSignatureFile = sign(rrnSignatureAlgo, rrnPrivateKey, this.addressFile,
+				this.identitySignatureFile);
+		this.rrnCertificateFile = pki.rrnCertificate.getEncoded();
+		this.rootCertificateFile = pki.rootCertificate.getEncoded();
+	}
+
+	public String getNationalNumber() {
+		return this.nationalNumber;
+	}
+
+	/**
+	 * Runs the eID Applet authentication protocol.
+	 */
+	public FinishedMessage authenticate(String location, LoadStatistics statistics) throws Exception {
+		Session session = new Session(location, statistics);
+		AuthenticationRequestMessage authenticationRequestMessage = session.send(new HelloMessage(),
+				AuthenticationRequestMessage.class);
+		return session.send(createAuthenticationDataMessage(authenticationRequestMessage), FinishedMessage.class);
+	}
+
+	/**
+	 * Runs the eID Applet identification protocol, including address and
+	 * integrity data.
+	 */
+	public FinishedMessage identify(String location, LoadStatistics statistics) throws Exception {
+		Session session = new Session(location, statistics);
+		IdentificationRequestMessage identificationRequestMessage = session.send(new HelloMessage(),
+				IdentificationRequestMessage.class);
+		return session.send(createIdentityDataMessage(identificationRequestMessage), FinishedMessage.class);
+	}
+
+	/**
+	 * Runs the eID Applet signature protocol.
+	 */
+	public FinishedMessage sign(String location, LoadStatistics statistics) throws Exception {
+		Session session = new Session(location, statistics);
+		SignRequestMessage signRequestMessage = session.send(new HelloMessage(), SignRequestMessage.class);
+		return session.send(createSignatureDataMessage(signRequestMessage), FinishedMessage.class);
+	}
+
+	/**
+	 * Answers the given authentication request.
+	 */
+	public AuthenticationDataMessage createAuthenticationDataMessage(
+			AuthenticationRequestMessage authenticationRequestMessage) throws Exception {
+		byte[] salt = new byte[20];
+		this.secureRandom.nextBytes(salt);
+		AuthenticationContract authenticationContract = new AuthenticationContract(salt, null, null, null, null,
+				authenticationRequestMessage.challenge);
+		byte[] signatureValue = sign("SHA1withRSA", this.authnKeyPair.getPrivate(),
+				authenticationContract.calculateToBeSigned());
+		return new AuthenticationDataMessage(salt, null, signatureValue, this.authnCertificateChain, null, null, null,
+				null, null, null, null, null, null);
+	}
+
+	/**
+	 * Answers the given identification request.
+	 */
+	public IdentityDataMessage createIdentityDataMessage(IdentificationRequestMessage identificationRequestMessage)
+			throws IOException {
+		byte[] addressFile = identificationRequestMessage.includeAddress ? this.addressFile : null;
+		byte[] addressSignatureFile = identificationRequestMessage.includeAddress ? this.addressSignatureFile : null;
+		return new IdentityDataMessage(this.identityFile, addressFile, null, this.identitySignatureFile,
+				addressSignatureFile, this.rrnCertificateFile, this.rootCertificateFile, null, null, null);
+	}
+
+	/**
+	 * Answers the given sign request.
+	 */
+	public SignatureDataMessage createSignatureDataMessage(SignRequestMessage signRequestMessage) throws Exception {
+		if (false == "SHA-256".equals(signRequestMessage.digestAlgo)) {
+			throw new IllegalStateException("unsupported digest algo: " + signRequestMessage.digestAlgo);
+		}
+		byte[] signatureValue = sign("NONEwithRSA", this.signKeyPair.getPrivate(),
+				SignatureDataMessageHandler.SHA256_DIGEST_INFO_PREFIX, signRequestMessage.digestValue);
+		return new SignatureDataMessage(signatureValue, this.signCertificateChain);
+	}
+
+	private static byte[] sign(String signatureAlgo, PrivateKey privateKey, byte[]... data) throws Exception {
+		Signature signature = Signature.getInstance(signatureAlgo);
+		signature.initSign(privateKey);
+		for (byte[] dataItem : data) {
+			signature.update(dataItem);
+		}
+		return signature.sign();
+	}
+
+	private static void writeTlv(ByteArrayOutputStream tlv, int tag, String value) {
+		byte[] encodedValue = value.getBytes();
+		tlv.write(tag);
+		tlv.write(encodedValue.length);
+		tlv.write(encodedValue, 0, encodedValue.length);
+	}
+
+	/**
+	 * An eID Applet protocol run. The HTTP client keeps the HTTP session
+	 * cookie.
+	 */
+	private static class Session {
+
+		private final String location;
+
+		private final LoadStatistics statistics;
+
+		private final HttpClient httpClient;
+
+		private final Unmarshaller unmarshaller;
+
+		public Session(String location, LoadStatistics statistics) {
+			this.location = location;
+			this.statistics = statistics;
+			this.httpClient = new HttpClient();
+			this.unmarshaller = new Unmarshaller(new AppletProtocolMessageCatalog());
+		}
+
+		public <T> T send(Object message, Class<T> expectedType) throws Exception {
+			PostMethod postMethod = new PostMethod(this.location);
+			try {
+				Transport.transfer(message, new LoopbackHttpTransmitter(postMethod));
+				long beginTime = System.nanoTime();
+				int statusCode = this.httpClient.executeMethod(postMethod);
+				Object responseMessage;
+				if (200 == statusCode) {
+					responseMessage = this.unmarshaller.receive(new PostMethodHttpReceiver(postMethod));
+				} else {
+					responseMessage = null;
+				}
+				long latency = System.nanoTime() - beginTime;
+				this.statistics.record(message.getClass().getSimpleName(), latency);
+				if (null == responseMessage) {
+					throw new IllegalStateException(
+							"HTTP status " + statusCode + " for " + message.getClass().getSimpleName());
+				}
+				if (false == expectedType.isInstance(responseMessage)) {
+					if (responseMessage instanceof FinishedMessage) {
+						throw new IllegalStateException(
+								"protocol aborted: " + ((FinishedMessage) responseMessage).errorCode);
+					}
+					throw new IllegalStateException("unexpected message: " + responseMessage.getClass().getSimpleName());
+				}
+				return expectedType.cast(responseMessage);
+			} finally {
+				postMethod.releaseConnection();
+			}
+		}
+	}
+
+	/**
+	 * The load harness runs over plain HTTP on the loopback interface, so that
+	 * we measure the eID Applet Service instead of the TLS handshakes.
+	 */
+	private static class LoopbackHttpTransmitter extends PostMethodHttpTransmitter {
+
+		public LoopbackHttpTransmitter(PostMethod postMethod) {
+			super(postMethod);
+		}
+
+		@Override
+		public boolean isSecure() {
+			return true;
+		}
+	}
+
+	/**
+	 * Test PKI issuing software eID cards.
+	 */
+	public static class TestPki {
+
+		private final KeyPair rootKeyPair;
+
+		private final X509Certificate rootCertificate;
+
+		private final KeyPair citizenCaKeyPair;
+
+		private final X509Certificate citizenCaCertificate;
+
+		private final KeyPair rrnKeyPair;
+
+		private final X509Certificate rrnCertificate;
+
+		public TestPki() throws Exception {
+			DateTime notBefore = new DateTime();
+			DateTime notAfter = notBefore.plusYears(10);
+			this.rootKeyPair = MiscTestUtils.generateKeyPair();
+			this.rootCertificate = MiscTestUtils.generateCertificate(this.rootKeyPair.getPublic(), "CN=Test Root CA",
+					notBefore, notAfter, null, this.rootKeyPair.getPrivate(), true, -1, null, null);
+			this.citizenCaKeyPair = MiscTestUtils.generateKeyPair();
+			this.citizenCaCertificate = MiscTestUtils.generateCertificate(this.citizenCaKeyPair.getPublic(),
+					"CN=Test Citizen CA", notBefore, notAfter, this.rootCertificate, this.rootKeyPair.getPrivate(),
+					true, 0, null, null);
+			this.rrnKeyPair = MiscTestUtils.generateKeyPair();
+			this.rrnCertificate = MiscTestUtils.generateCertificate(this.rrnKeyPair.getPublic(), "CN=Test RRN",
+					notBefore, notAfter, this.rootCertificate, this.rootKeyPair.getPrivate(), false, -1, null, null);
+		}
+	}
+}
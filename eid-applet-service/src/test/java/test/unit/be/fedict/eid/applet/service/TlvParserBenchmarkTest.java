@@ -0,0 +1,334 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.Address;
+import be.fedict.eid.applet.service.Identity;
+import be.fedict.eid.applet.service.impl.tlv.ConvertData;
+import be.fedict.eid.applet.service.impl.tlv.DataConvertor;
+import be.fedict.eid.applet.service.impl.tlv.TlvField;
+import be.fedict.eid.applet.service.impl.tlv.TlvParser;
+
+/**
+ * Checks the cached parse plans of the TLV parser against the original
+ * reflective parser, on real-shaped identity and address files and on
+ * variations of these. Run the main method for a benchmark.
+ * 
+ * @author Frank Cornelis
+ * 
+ */
+public class TlvParserBenchmarkTest {
+
+	private static final Log LOG = LogFactory.getLog(TlvParserBenchmarkTest.class);
+
+	private static final String[] IDENTITY_FILES = { "/id-alice.tlv", "/id-alice-2.tlv", "/id-foreigner.tlv",
+			"/duplicate-02.tlv", "/extended-minority.tlv", "/dateandcountry.tlv", "/h-card.tlv", "/white-cane.tlv",
+			"/yellow-cane.tlv" };
+
+	@Test
+	public void testEquivalentToReflectiveParser() throws Exception {
+		// setup
+		List<byte[]> identityFiles = new LinkedList<byte[]>();
+		for (byte[] identityFile : loadIdentityFiles()) {
+			identityFiles.addAll(getVariations(identityFile));
+		}
+		List<byte[]> addressFiles = getVariations(load("/address-alice.tlv"));
+
+		// operate & verify
+		int parsed = 0;
+		for (byte[] identityFile : identityFiles) {
+			if (assertEquivalent(identityFile, Identity.class)) {
+				parsed++;
+			}
+		}
+		for (byte[] addressFile : addressFiles) {
+			if (assertEquivalent(addressFile, Address.class)) {
+				parsed++;
+			}
+		}
+		LOG.debug("files: " + (identityFiles.size() + addressFiles.size()) + ", parsed: " + parsed);
+		assertTrue(parsed > IDENTITY_FILES.length + 1);
+	}
+
+	@Test
+	public void testParsePlanReuse() throws Exception {
+		// setup
+		byte[] identityFile = load("/id-alice.tlv");
+
+		// operate
+		Identity identity1 = TlvParser.parse(identityFile, Identity.class);
+		Identity identity2 = TlvParser.parse(identityFile, Identity.class);
+
+		// verify
+		assertEquals(identity1.nationalNumber, identity2.nationalNumber);
+		assertEquals(identity1.dateOfBirth, identity2.dateOfBirth);
+		assertTrue(identity1.photoDigest != identity2.photoDigest);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		byte[][] identityFiles = loadIdentityFiles();
+		byte[] addressFile = load("/address-alice.tlv");
+		System.out.println("identity file: " + Math.round(benchmarkIdentity(identityFiles, iterations / 10, iterations))
+				+ " ns/parse");
+		System.out.println("address file: " + Math.round(benchmarkAddress(addressFile, iterations / 10, iterations))
+				+ " ns/parse");
+	}
+
+	/**
+	 * Parses the given file with both parsers.
+	 * 
+	 * @return <code>true</code> if the file could be parsed.
+	 */
+	private static <T> boolean assertEquivalent(byte[] file, Class<T> tlvClass) throws Exception {
+		T expected;
+		try {
+			expected = ReflectiveTlvParser.parse(file, tlvClass);
+		} catch (RuntimeException e) {
+			expected = null;
+		}
+		T result;
+		try {
+			result = TlvParser.parse(file, tlvClass);
+		} catch (RuntimeException e) {
+			if (null != expected) {
+				throw new AssertionError("unexpected error for " + Arrays.toString(file) + ": " + e);
+			}
+			return false;
+		}
+		if (null == expected) {
+			fail("expected error for " + Arrays.toString(file));
+		}
+		for (Field field : tlvClass.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			field.setAccessible(true);
+			Object expectedValue = field.get(expected);
+			Object value = field.get(result);
+			if (expectedValue instanceof byte[]) {
+				assertTrue(field.getName(), Arrays.equals((byte[]) expectedValue, (byte[]) value));
+			} else {
+				assertEquals(field.getName(), expectedValue, value);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back the given file, and variations with records removed,
+	 * duplicated, unknown or padding records added, truncations and random
+	 * corruptions.
+	 */
+	private static List<byte[]> getVariations(byte[] file) throws IOException {
+		List<byte[]> variations = new LinkedList<byte[]>();
+		variations.add(file);
+		List<byte[]> records = getRecords(file);
+		for (int idx = 0; idx < records.size(); idx++) {
+			List<byte[]> removed = new LinkedList<byte[]>(records);
+			removed.remove(idx);
+			variations.add(concat(removed));
+			List<byte[]> duplicated = new LinkedList<byte[]>(records);
+			duplicated.add(idx, records.get(idx));
+			variations.add(concat(duplicated));
+		}
+		List<byte[]> extended = new LinkedList<byte[]>(records);
+		extended.add(0, new byte[] { 0x00, 0x02, 0x55, 0x55 });
+		extended.add(new byte[] { 0x7f, (byte) 0x81, 0x00 });
+		extended.add(new byte[] { 0x7e, 0x01, 0x01 });
+		variations.add(concat(extended));
+		for (int length = 1; length < file.length; length += 7) {
+			variations.add(Arrays.copyOf(file, length));
+		}
+		Random random = new Random(file.length);
+		for (int idx = 0; idx < 200; idx++) {
+			byte[] corrupted = file.clone();
+			corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt(256);
+			variations.add(corrupted);
+		}
+		return variations;
+	}
+
+	private static List<byte[]> getRecords(byte[] file) {
+		List<byte[]> records = new LinkedList<byte[]>();
+		int idx = 0;
+		while (idx < file.length - 1) {
+			int begin = idx;
+			idx++;
+			byte lengthByte = file[idx];
+			int length = lengthByte & 0x7f;
+			while ((lengthByte & 0x80) == 0x80) {
+				idx++;
+				lengthByte = file[idx];
+				length = (length << 7) + (lengthByte & 0x7f);
+			}
+			idx += 1 + length;
+			records.add(Arrays.copyOfRange(file, begin, Math.min(idx, file.length)));
+		}
+		return records;
+	}
+
+	private static byte[] concat(List<byte[]> records) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		for (byte[] record : records) {
+			outputStream.write(record);
+		}
+		return outputStream.toByteArray();
+	}
+
+	private static double benchmarkIdentity(byte[][] identityFiles, int warmup, int iterations) {
+		for (int idx = 0; idx < warmup; idx++) {
+			TlvParser.parse(identityFiles[idx % identityFiles.length], Identity.class);
+		}
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < iterations; idx++) {
+			Identity identity = TlvParser.parse(identityFiles[idx % identityFiles.length], Identity.class);
+			assertNotNull(identity.nationalNumber);
+		}
+		return (double) (System.nanoTime() - t0) / iterations;
+	}
+
+	private static double benchmarkAddress(byte[] addressFile, int warmup, int iterations) {
+		for (int idx = 0; idx < warmup; idx++) {
+			TlvParser.parse(addressFile, Address.class);
+		}
+		long t0 = System.nanoTime();
+		for (int idx = 0; idx < iterations; idx++) {
+			Address address = TlvParser.parse(addressFile, Address.class);
+			assertNotNull(address.streetAndNumber);
+		}
+		return (double) (System.nanoTime() - t0) / iterations;
+	}
+
+	private static byte[][] loadIdentityFiles() throws IOException {
+		byte[][] identityFiles = new byte[IDENTITY_FILES.length][];
+		for (int idx = 0; idx < IDENTITY_FILES.length; idx++) {
+			identityFiles[idx] = load(IDENTITY_FILES[idx]);
+		}
+		return identityFiles;
+	}
+
+	private static byte[] load(String resourceName) throws IOException {
+		return IOUtils.toByteArray(TlvParserBenchmarkTest.class.getResourceAsStream(resourceName));
+	}
+
+	/**
+	 * The original reflective TLV parser, which inspects the annotations and
+	 * instantiates the data convertors on every parse operation.
+	 */
+	private static class ReflectiveTlvParser {
+
+		public static <T> T parse(byte[] file, Class<T> tlvClass) {
+			try {
+				return parseThrowing(file, tlvClass);
+			} catch (Exception e) {
+				throw new RuntimeException("error parsing file: " + tlvClass.getName(), e);
+			}
+		}
+
+		private static <T> T parseThrowing(byte[] file, Class<T> tlvClass) throws Exception {
+			Map<Integer, Set<Field>> tlvFields = new HashMap<Integer, Set<Field>>();
+			for (Field field : tlvClass.getDeclaredFields()) {
+				TlvField tlvFieldAnnotation = field.getAnnotation(TlvField.class);
+				if (null == tlvFieldAnnotation) {
+					continue;
+				}
+				Set<Field> fieldSet = tlvFields.get(tlvFieldAnnotation.value());
+				if (null == fieldSet) {
+					fieldSet = new HashSet<Field>();
+					tlvFields.put(tlvFieldAnnotation.value(), fieldSet);
+				}
+				fieldSet.add(field);
+			}
+			T tlvObject = tlvClass.newInstance();
+			int idx = 0;
+			while (idx < file.length - 1) {
+				byte tag = file[idx];
+				idx++;
+				byte lengthByte = file[idx];
+				int length = lengthByte & 0x7f;
+				while ((lengthByte & 0x80) == 0x80) {
+					idx++;
+					lengthByte = file[idx];
+					length = (length << 7) + (lengthByte & 0x7f);
+				}
+				idx++;
+				if (0 == tag) {
+					idx += length;
+					continue;
+				}
+				Set<Field> tlvFieldSet = tlvFields.get((int) tag);
+				if (null != tlvFieldSet) {
+					for (Field tlvField : tlvFieldSet) {
+						Class<?> tlvType = tlvField.getType();
+						ConvertData convertDataAnnotation = tlvField.getAnnotation(ConvertData.class);
+						if (idx + length > file.length) {
+							// the original parser ran out of memory on corrupted lengths
+							throw new ArrayIndexOutOfBoundsException(idx + length);
+						}
+						byte[] tlvValue = Arrays.copyOfRange(file, idx, idx + length);
+						Object fieldValue;
+						if (null != convertDataAnnotation) {
+							DataConvertor<?> dataConvertor = convertDataAnnotation.value().newInstance();
+							fieldValue = dataConvertor.convert(tlvValue);
+						} else if (String.class == tlvType) {
+							fieldValue = new String(tlvValue, "UTF-8");
+						} else if (Boolean.TYPE == tlvType) {
+							fieldValue = true;
+						} else if (tlvType.isArray() && Byte.TYPE == tlvType.getComponentType()) {
+							fieldValue = tlvValue;
+						} else {
+							throw new IllegalArgumentException("unsupported field type: " + tlvType.getName());
+						}
+						tlvField.setAccessible(true);
+						if (null != tlvField.get(tlvObject) && false == tlvType.isPrimitive()) {
+							throw new RuntimeException("field was already set: " + tlvField.getName());
+						}
+						tlvField.set(tlvObject, fieldValue);
+					}
+				}
+				idx += length;
+			}
+			return tlvObject;
+		}
+	}
+}
@@ -61,6 +61,28 @@ public class UserIdentifierUtilTest {
 		assertEquals(userId, result);
 	}
 
+	@Test
+	public void testUserIdentifierMultipleSerialNumbers() throws Exception {
+		// setup
+		KeyPair keyPair = MiscTestUtils.generateKeyPair();
+		DateTime notBefore = new DateTime();
+		DateTime notAfter = notBefore.plusYears(1);
+		X509Certificate certificate = MiscTestUtils.generateCertificate(keyPair.getPublic(),
+				"SERIALNUMBER=1111, CN=Test, SERIALNUMBER=2222", notBefore, notAfter, null, keyPair.getPrivate(),
+				true, 0, null, null);
+		String name = certificate.getSubjectX500Principal().toString();
+		int serialNumberIdx = name.indexOf("SERIALNUMBER=") + "SERIALNUMBER=".length();
+		String expected = name.substring(serialNumberIdx, serialNumberIdx + 4);
+
+		// operate
+		String result = UserIdentifierUtil.getUserId(certificate);
+
+		// verify
+		LOG.debug("subject: " + name);
+		assertEquals("2222", expected);
+		assertEquals(expected, result);
+	}
+
 	@Test
 	public void testHMacSha1() throws Exception {
 		SecretKey macKey = new SecretKeySpec("1234".getBytes(), "HmacSHA1");
@@ -154,4 +176,46 @@ public class UserIdentifierUtilTest {
 		assertFalse(result1.equals(
 				UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId1, orgId, appId + "foobar", secret)));
 	}
+
+	@Test
+	public void testNRCIDCompatibility() throws Exception {
+		// setup
+		String userId = "1234";
+		String orgId = "fedict";
+		String appId = "eid-applet-unit-test";
+		String secret = "123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0";
+		SecretKey macKey = new SecretKeySpec(Hex.decodeHex(secret.toCharArray()), "HmacSHA1");
+		Mac mac = Mac.getInstance(macKey.getAlgorithm());
+		mac.init(macKey);
+		String expected = new String(Hex.encodeHex(mac.doFinal((userId + appId + orgId).getBytes()))).toUpperCase();
+
+		// operate
+		String result = UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId, orgId, appId, secret);
+
+		// verify
+		assertEquals(expected, result);
+	}
+
+	@Test
+	public void testNRCIDHmacSha256() throws Exception {
+		// setup
+		String userId = "1234";
+		String orgId = "fedict";
+		String appId = "eid-applet-unit-test";
+		String secret = "123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0";
+		SecretKey macKey = new SecretKeySpec(Hex.decodeHex(secret.toCharArray()), "HmacSHA256");
+		Mac mac = Mac.getInstance(macKey.getAlgorithm());
+		mac.init(macKey);
+		String expected = new String(Hex.encodeHex(mac.doFinal((userId + appId + orgId).getBytes()))).toUpperCase();
+
+		// operate
+		String result = UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId, orgId, appId, secret,
+				UserIdentifierUtil.HMAC_SHA256_ALGO);
+
+		// verify
+		assertEquals(expected, result);
+		assertEquals(64, result.length());
+		assertFalse(result.startsWith(UserIdentifierUtil.getNonReversibleCitizenIdentifier(userId, orgId, appId,
+				secret)));
+	}
 }
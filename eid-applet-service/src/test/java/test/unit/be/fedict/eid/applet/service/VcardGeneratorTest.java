@@ -18,6 +18,7 @@
 
 package test.unit.be.fedict.eid.applet.service;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -33,6 +34,7 @@ import java.util.GregorianCalendar;
 
 import javax.imageio.ImageIO;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -191,6 +193,62 @@ public class VcardGeneratorTest {
 		toTmpFile(document);
 	}
 
+	@Test
+	public void streamedPhotoMatchesBufferedEncoding() throws Exception {
+		// setup
+		Identity identity = new Identity();
+		identity.name = "Test Name";
+		identity.firstName = "Test First name";
+		identity.dateOfBirth = new GregorianCalendar(1971, 0, 1);
+		identity.gender = Gender.MALE;
+
+		EIdData eIdData = new EIdData();
+		eIdData.identity = identity;
+		String separator = System.getProperty("line.separator");
+		String withoutPhoto = new String(this.testedInstance.generateVcard(eIdData));
+		String end = "END:vCard" + separator;
+		assertTrue(withoutPhoto.endsWith(end));
+
+		for (int photoSize = 30; photoSize < 300; photoSize++) {
+			byte[] photo = new byte[photoSize];
+			for (int idx = 0; idx < photoSize; idx++) {
+				photo[idx] = (byte) (idx * 31 + photoSize);
+			}
+			eIdData.photo = photo;
+
+			// operate
+			byte[] result = this.testedInstance.generateVcard(eIdData);
+
+			// verify
+			String expected = withoutPhoto.substring(0, withoutPhoto.length() - end.length())
+					+ bufferedPhotoLine(photo, separator) + end;
+			assertEquals(expected, new String(result));
+		}
+	}
+
+	/**
+	 * The photo line as it used to be constructed in memory.
+	 */
+	private String bufferedPhotoLine(byte[] image, String separator) {
+		byte[] enc = Base64.encodeBase64(image);
+		String str = "PHOTO;ENCODING=b;TYPE=JPEG:" + new String(enc);
+		int length = str.length();
+		if (length <= 76) {
+			return "";
+		}
+		StringBuffer buf = new StringBuffer();
+		buf.append(str.substring(0, 76));
+		for (int i = 76; i < length; i += 75) {
+			buf.append("\n ");
+			if (length > i + 75) {
+				buf.append(str.substring(i, i + 75));
+			} else {
+				buf.append(str.substring(i));
+			}
+		}
+		return buf.toString() + separator;
+	}
+
 	private void toTmpFile(byte[] document) throws IOException {
 		File tmpFile = File.createTempFile("eid-", ".vcf");
 		FileUtils.writeByteArrayToFile(tmpFile, document);
@@ -0,0 +1,184 @@
+/*
+ * eID Applet Project.
+ * Copyright (C) 2015 e-Contract.be BVBA.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.unit.be.fedict.eid.applet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.eid.applet.service.impl.VerificationPipeline;
+import be.fedict.eid.applet.service.impl.VerificationPipeline.Step;
+import be.fedict.eid.applet.service.spi.RevokedCertificateSecurityException;
+
+public class VerificationPipelineTest {
+
+	private static final Log LOG = LogFactory.getLog(VerificationPipelineTest.class);
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		this.executor = VerificationPipeline.getExecutor(4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		VerificationPipeline.releaseExecutor(this.executor);
+	}
+
+	@Test
+	public void testConcurrentSteps() throws Exception {
+		// setup
+		VerificationPipeline testedInstance = new VerificationPipeline(this.executor);
+
+		// operate
+		long t0 = System.currentTimeMillis();
+		Step<String> step1 = testedInstance.add("step 1", new SleepingStep("result 1", 500));
+		Step<String> step2 = testedInstance.add("step 2", new SleepingStep("result 2", 500));
+		Step<String> step3 = testedInstance.add("step 3", new SleepingStep("result 3", 500));
+		String result1 = step1.get();
+		String result2 = step2.get();
+		String result3 = step3.get();
+		long duration = System.currentTimeMillis() - t0;
+
+		// verify
+		LOG.debug("duration: " + duration + " ms");
+		assertEquals("result 1", result1);
+		assertEquals("result 2", result2);
+		assertEquals("result 3", result3);
+		assertTrue(duration < 1000);
+	}
+
+	@Test
+	public void testErrorPrecedence() throws Exception {
+		// setup
+		VerificationPipeline testedInstance = new VerificationPipeline(this.executor);
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		// operate
+		Step<Void> slowStep = testedInstance.add("slow", new Callable<Void>() {
+			public Void call() throws Exception {
+				latch.await(5, TimeUnit.SECONDS);
+				throw new RevokedCertificateSecurityException();
+			}
+		});
+		Step<Void> fastStep = testedInstance.add("fast", new Callable<Void>() {
+			public Void call() throws Exception {
+				try {
+					throw new IllegalStateException("fast error");
+				} finally {
+					latch.countDown();
+				}
+			}
+		});
+
+		// verify
+		try {
+			slowStep.get();
+			fail();
+		} catch (RevokedCertificateSecurityException e) {
+			// expected
+		}
+		try {
+			fastStep.get();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("fast error", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSequentialWithoutExecutor() throws Exception {
+		// setup
+		VerificationPipeline testedInstance = new VerificationPipeline(null);
+		final AtomicBoolean executed = new AtomicBoolean();
+
+		// operate
+		Step<Void> failingStep = testedInstance.add("failing", new Callable<Void>() {
+			public Void call() throws Exception {
+				throw new SecurityException("failing");
+			}
+		});
+		testedInstance.add("other", new Callable<Void>() {
+			public Void call() throws Exception {
+				executed.set(true);
+				return null;
+			}
+		});
+		try {
+			failingStep.get();
+			fail();
+		} catch (SecurityException e) {
+			// expected
+		} finally {
+			testedInstance.cancel();
+		}
+
+		// verify
+		assertFalse(executed.get());
+	}
+
+	@Test
+	public void testReleaseExecutor() throws Exception {
+		// setup
+		ExecutorService executor = VerificationPipeline.getExecutor(2);
+		assertSame(executor, VerificationPipeline.getExecutor(2));
+
+		// operate & verify
+		VerificationPipeline.releaseExecutor(executor);
+		assertFalse(executor.isShutdown());
+		VerificationPipeline.releaseExecutor(executor);
+		assertTrue(executor.isShutdown());
+		ExecutorService newExecutor = VerificationPipeline.getExecutor(2);
+		assertNotSame(executor, newExecutor);
+		VerificationPipeline.releaseExecutor(newExecutor);
+	}
+
+	private static class SleepingStep implements Callable<String> {
+
+		private final String result;
+
+		private final long sleep;
+
+		public SleepingStep(String result, long sleep) {
+			this.result = result;
+			this.sleep = sleep;
+		}
+
+		public String call() throws Exception {
+			Thread.sleep(this.sleep);
+			return this.result;
+		}
+	}
+}